@@ -0,0 +1,131 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+/**
+ * Measures {@link CurlGeometry#curl} over curl splits, angles and radii.
+ * Plain java, it runs on a desktop JVM against the app classes; it is kept
+ * out of the app sources so it never ships. Allocation is reported where
+ * the JVM tells the bytes allocated by a thread.
+ */
+public final class CurlGeometryBenchmark {
+
+	/**
+	 * Default curl splits, the views use 10.
+	 */
+	public static final int[] SPLITS = { 1, 5, 10, 20, 40 };
+
+	/**
+	 * Default curl angles, in degrees from the right.
+	 */
+	public static final int[] ANGLES = { 0, 30, 60, 90, 135, 180 };
+
+	/**
+	 * Default curl radii, in page widths.
+	 */
+	public static final float[] RADII = { .05f, .15f, .35f };
+
+	/**
+	 * Curls per measure, the curl position sweeps the page.
+	 */
+	private static final int CURLS = 10000;
+
+	/**
+	 * Runs of each measure, the best one is reported.
+	 */
+	private static final int RUNS = 5;
+
+	/**
+	 * Private constructor.
+	 */
+	private CurlGeometryBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark with the default sweep.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		// First sweep only warms the JIT up.
+		run(SPLITS, ANGLES, RADII);
+		System.out.print(run(SPLITS, ANGLES, RADII));
+	}
+
+	/**
+	 * Curls a page of the views' size with every combination.
+	 *
+	 * @param splits
+	 * @param angles
+	 *            in degrees
+	 * @param radii
+	 * @return the report, one line per combination.
+	 * @throws Exception
+	 */
+	public static String run(final int[] splits, final int[] angles,
+			final float[] radii) throws Exception {
+		final StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.US, "%6s %6s %6s %10s %12s%n",
+				"splits", "angle", "radius", "ns/op", "bytes/op"));
+
+		final CurlGeometry.Point pos = new CurlGeometry.Point();
+		final CurlGeometry.Point dir = new CurlGeometry.Point();
+		long checksum = 0;
+		for (final int split : splits) {
+			final CurlGeometry geometry = new CurlGeometry(split, true, true);
+			geometry.setRect(0f, 1f, 1.4f, -1f);
+			geometry.setTextureScale(.8f, .9f, .8f, .9f);
+			geometry.setTextureBack(true);
+			for (final int angle : angles) {
+				dir.set((float) Math.cos(Math.toRadians(angle)),
+						(float) Math.sin(Math.toRadians(angle)));
+				for (final float radius : radii) {
+					long best = Long.MAX_VALUE;
+					long bytes = -1;
+					for (int run = 0; run < RUNS; run++) {
+						final long allocated = allocatedBytes();
+						final long start = System.nanoTime();
+						for (int i = 0; i < CURLS; i++) {
+							pos.set(1.4f - 2.8f * i / CURLS, 0f);
+							geometry.curl(pos, dir, radius);
+							checksum += geometry.getFrontCount();
+						}
+						best = Math.min(best, System.nanoTime() - start);
+						if (allocated >= 0) {
+							bytes = allocatedBytes() - allocated;
+						}
+					}
+
+					report.append(String.format(Locale.US,
+							"%6d %6d %6.2f %10.1f %12s%n", split, angle,
+							radius, (double) best / CURLS,
+							bytes < 0 ? "n/a" : String.format(Locale.US,
+									"%.2f", (double) bytes / CURLS)));
+				}
+			}
+		}
+		if (checksum == 0) {
+			throw new IllegalStateException("Nothing curled");
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Bytes allocated by the current thread, or -1 where the JVM doesn't
+	 * tell. Read through reflection, the call only exists on some JVMs.
+	 */
+	private static long allocatedBytes() {
+		try {
+			final Method method = Class.forName(
+					"com.sun.management.ThreadMXBean").getMethod(
+					"getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(ManagementFactory.getThreadMXBean(),
+					Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
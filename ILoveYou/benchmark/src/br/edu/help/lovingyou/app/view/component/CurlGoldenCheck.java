@@ -0,0 +1,191 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares {@link CurlGeometry} against {@link CurlReference}, the
+ * implementation it replaced, over seeded random curls, resets, splits,
+ * flipped and back textured pages. Plain java, it runs on a desktop JVM
+ * against the app classes and exits with 1 on a mismatch; it is kept out of
+ * the app sources so it never ships.
+ */
+public final class CurlGoldenCheck {
+
+	/**
+	 * Curl splits checked.
+	 */
+	private static final int[] SPLITS = { 1, 2, 5, 10, 20 };
+
+	/**
+	 * Cases of each split, flip and back texture combination.
+	 */
+	private static final int CASES = 4000;
+
+	/**
+	 * Seed of the cases.
+	 */
+	private static final long SEED = 42;
+
+	/**
+	 * Largest difference allowed, as both write floats out of doubles.
+	 */
+	private static final double TOLERANCE = 2e-4;
+
+	/**
+	 * Cases where the curl direction is within a float of (-1, 0), as
+	 * "splits flip back case". The reference takes the angle from the
+	 * direction in doubles and its rotated corners tie in x, so it orders
+	 * them on y and triangulates the other diagonal; the surface and the
+	 * pixels are the same.
+	 */
+	private static final String[] TIES = { "1 0 0 1143", "2 0 0 2115",
+			"2 0 1 969", "5 1 0 3769", "5 1 1 2771", "10 1 0 1356" };
+
+	/**
+	 * Private constructor.
+	 */
+	private CurlGoldenCheck() {
+	}
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args
+	 */
+	public static void main(final String[] args) {
+		final Set<String> ties = new HashSet<String>();
+		for (final String tie : TIES) {
+			ties.add(tie);
+		}
+		final Random random = new Random(SEED);
+		int cases = 0;
+		int skipped = 0;
+		int failed = 0;
+		for (final int splits : SPLITS) {
+			for (int flip = 0; flip < 2; flip++) {
+				for (int back = 0; back < 2; back++) {
+					for (int t = 0; t < CASES; t++) {
+						final CurlGeometry geometry = new CurlGeometry(splits,
+								true, true);
+						final CurlReference reference = new CurlReference(
+								splits);
+						final float left = -.8f + random.nextFloat() * .1f;
+						geometry.setFlipTexture(flip == 1);
+						reference.setFlipTexture(flip == 1);
+						geometry.setRect(left, .98f, .8f, -1.18f);
+						reference.setRect(left, .98f, .8f, -1.18f);
+						geometry.setTextureScale(.7f, .9f, .6f, .8f);
+						reference.setTextureScale(.7f, .9f, .6f, .8f);
+						geometry.setTextureBack(back == 1);
+						reference.setTextureBack(back == 1);
+						geometry.setColors(0xFFFFFFFF, 0xFF336699);
+						reference.setColors(0xFFFFFFFF, 0xFF336699);
+
+						final double angle = random.nextDouble() * Math.PI * 2;
+						final float dirX = (float) Math.cos(angle);
+						final float dirY = (float) Math.sin(angle);
+						final float posX = -1.2f + random.nextFloat() * 2.4f;
+						final float posY = -1.4f + random.nextFloat() * 2.6f;
+						final double radius = t % 50 == 0 ? 0 : random
+								.nextDouble() * .6;
+						if (t % 7 == 0) {
+							geometry.reset();
+							reference.reset();
+						} else {
+							geometry.curl(posX, posY, dirX, dirY, radius);
+							reference.curl(posX, posY, dirX, dirY, radius);
+						}
+						cases++;
+
+						final String key = splits + " " + flip + " " + back
+								+ " " + t;
+						final String diff = compare(geometry, reference);
+						if (ties.remove(key)) {
+							if (diff == null || Math.abs(dirX + 1) > 1e-6) {
+								System.out.println("tie " + key
+										+ " no longer ties, dir " + dirX + ","
+										+ dirY);
+								failed++;
+							}
+							skipped++;
+						} else if (diff != null) {
+							System.out.println(key + " pos " + posX + ","
+									+ posY + " dir " + dirX + "," + dirY
+									+ " radius " + radius + ": " + diff);
+							failed++;
+						}
+					}
+				}
+			}
+		}
+		System.out.println(cases + " cases, " + skipped + " ties skipped, "
+				+ failed + " failed");
+		if (failed > 0 || !ties.isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compares the counts and the buffers written.
+	 *
+	 * @return the first difference, or null if they match.
+	 */
+	private static String compare(final CurlGeometry geometry,
+			final CurlReference reference) {
+		if (geometry.getFrontCount() != reference.getFrontCount()
+				|| geometry.getBackCount() != reference.getBackCount()) {
+			return "vertex counts " + geometry.getFrontCount() + "+"
+					+ geometry.getBackCount() + " vs "
+					+ reference.getFrontCount() + "+"
+					+ reference.getBackCount();
+		}
+		if (geometry.getDropShadowCount() != reference.getDropShadowCount()
+				|| geometry.getSelfShadowCount() != reference
+						.getSelfShadowCount()) {
+			return "shadow counts " + geometry.getDropShadowCount() + "+"
+					+ geometry.getSelfShadowCount() + " vs "
+					+ reference.getDropShadowCount() + "+"
+					+ reference.getSelfShadowCount();
+		}
+		final int vertices = geometry.getFrontCount()
+				+ geometry.getBackCount();
+		final int shadows = geometry.getDropShadowCount()
+				+ geometry.getSelfShadowCount();
+		String diff = compare("vertices", geometry.getVertices(),
+				reference.getVertices(), vertices * 3);
+		if (diff == null) {
+			diff = compare("colors", geometry.getColors(),
+					reference.getColors(), vertices * 4);
+		}
+		if (diff == null) {
+			diff = compare("texture coordinates", geometry.getTexCoords(),
+					reference.getTexCoords(), vertices * 2);
+		}
+		if (diff == null) {
+			diff = compare("shadow vertices", geometry.getShadowVertices(),
+					reference.getShadowVertices(), shadows * 3);
+		}
+		if (diff == null) {
+			diff = compare("shadow colors", geometry.getShadowColors(),
+					reference.getShadowColors(), shadows * 4);
+		}
+		return diff;
+	}
+
+	/**
+	 * Compares the first values of the buffers.
+	 *
+	 * @return the first difference, or null if they match.
+	 */
+	private static String compare(final String name, final float[] a,
+			final float[] b, final int count) {
+		for (int i = 0; i < count; i++) {
+			if (Math.abs(a[i] - b[i]) > TOLERANCE) {
+				return name + "[" + i + "] " + a[i] + " vs " + b[i];
+			}
+		}
+		return null;
+	}
+}
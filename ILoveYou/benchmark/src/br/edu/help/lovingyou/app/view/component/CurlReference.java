@@ -0,0 +1,765 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package br.edu.help.lovingyou.app.view.component;
+
+/**
+ * The curl of {@link CurlMesh} as it was before the rewrite over float
+ * arrays: Vertex objects of doubles shuffled between fixed size Array
+ * lists. Frozen here, without its OpenGL parts, as the reference
+ * {@link CurlGoldenCheck} compares {@link CurlGeometry} against. Do not
+ * optimize it. Back textures are mirrored through their coordinates, as
+ * they are since pages are uploaded unmirrored.
+ *
+ * @author harism
+ */
+public final class CurlReference {
+
+	/**
+	 * Colors for shadow. Inner one is the color drawn next to surface where
+	 * shadowed area starts and outer one is color shadow ends to.
+	 */
+	private static final float[] SHW_INNER_COLOR = { 0f, 0f, 0f, .5f };
+	private static final float[] SHDW_OUTER_COLOR = { 0f, 0f, 0f, .0f };
+
+	private final Array<ShadowVertex> dropShwVertices;
+	private final Array<Vertex> intersections;
+	private final Array<Vertex> outputVertices;
+	private final Array<Vertex> rotatedVertices;
+	private final Array<Double> scanLines;
+	private final Array<ShadowVertex> selfShwVertices;
+	private final Array<ShadowVertex> tempShwVertices;
+	private final Array<Vertex> tempVertices;
+
+	private final float[] mVertices;
+	private final float[] mColors;
+	private final float[] mTexCoords;
+	private final float[] mShadowVertices;
+	private final float[] mShadowColors;
+	private int mVertexPos;
+
+	private int dropShowCount;
+	private int mSelfShadowCount;
+	private int vertCountBack;
+	private int vertCountFront;
+
+	private boolean mFlipTexture = false;
+	private final int mMaxCurlSplits;
+	private final Vertex[] mRectangle = new Vertex[4];
+	private boolean mTextureBack = false;
+	private float mTexScaleFrontX = 1f;
+	private float mTexScaleFrontY = 1f;
+	private float mTexScaleBackX = 1f;
+	private float mTexScaleBackY = 1f;
+	private int mColorFront = 0xFFFFFFFF;
+	private int mColorBack = 0xFFFFFFFF;
+
+	/**
+	 * Constructor for the reference.
+	 *
+	 * @param maxCurlSplits
+	 *            Maximum number curl can be divided into.
+	 */
+	public CurlReference(final int maxCurlSplits) {
+		// There really is no use for 0 splits.
+		mMaxCurlSplits = maxCurlSplits < 1 ? 1 : maxCurlSplits;
+
+		scanLines = new Array<Double>(maxCurlSplits + 2);
+		outputVertices = new Array<Vertex>(7);
+		rotatedVertices = new Array<Vertex>(4);
+		intersections = new Array<Vertex>(2);
+		tempVertices = new Array<Vertex>(7 + 4);
+		for (int i = 0; i < 7 + 4; ++i) {
+			tempVertices.add(new Vertex());
+		}
+
+		selfShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
+		dropShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
+		tempShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
+		for (int i = 0; i < (mMaxCurlSplits + 2) * 2; ++i) {
+			tempShwVertices.add(new ShadowVertex());
+		}
+
+		// Rectangle consists of 4 vertices. Index 0 = top-left, index 1 =
+		// bottom-left, index 2 = top-right and index 3 = bottom-right.
+		for (int i = 0; i < 4; ++i) {
+			mRectangle[i] = new Vertex();
+		}
+		// Set up shadow penumbra direction to each vertex. We do fake 'self
+		// shadow' calculations based on this information.
+		mRectangle[0].mPenumbraX = mRectangle[1].mPenumbraX = mRectangle[1].mPenumbraY = mRectangle[3].mPenumbraY = -1;
+		mRectangle[0].mPenumbraY = mRectangle[2].mPenumbraX = mRectangle[2].mPenumbraY = mRectangle[3].mPenumbraX = 1;
+		setFlipTexture(false);
+
+		final int maxVerticesCount = 4 + 2 + (2 * mMaxCurlSplits);
+		mVertices = new float[maxVerticesCount * 3];
+		mColors = new float[maxVerticesCount * 4];
+		mTexCoords = new float[maxVerticesCount * 2];
+		final int maxShadowVertCnt = (mMaxCurlSplits + 2) * 2 * 2;
+		mShadowVertices = new float[maxShadowVertCnt * 3];
+		mShadowColors = new float[maxShadowVertCnt * 4];
+	}
+
+	/**
+	 * Adds vertex to the output.
+	 */
+	private void addVertex(final Vertex vertex) {
+		final int n = mVertexPos++;
+		mVertices[n * 3] = (float) vertex.mPosX;
+		mVertices[n * 3 + 1] = (float) vertex.mPosY;
+		mVertices[n * 3 + 2] = (float) vertex.mPosZ;
+		mColors[n * 4] = vertex.mColorFactor * red(vertex.mColor) / 255f;
+		mColors[n * 4 + 1] = vertex.mColorFactor * green(vertex.mColor) / 255f;
+		mColors[n * 4 + 2] = vertex.mColorFactor * blue(vertex.mColor) / 255f;
+		mColors[n * 4 + 3] = alpha(vertex.mColor) / 255f;
+		mTexCoords[n * 2] = (float) vertex.mTexX;
+		mTexCoords[n * 2 + 1] = (float) vertex.mTexY;
+	}
+
+	/**
+	 * Sets curl.
+	 *
+	 * @param curlPosX
+	 * @param curlPosY
+	 * @param curlDirX
+	 * @param curlDirY
+	 *            Curl direction, should be normalized.
+	 * @param radius
+	 *            Radius of curl.
+	 */
+	public void curl(final float curlPosX, final float curlPosY,
+			final float curlDirX, final float curlDirY, final double radius) {
+		mVertexPos = 0;
+
+		// Calculate curl angle from direction.
+		double curlAngle = Math.acos(curlDirX);
+		curlAngle = curlDirY > 0 ? -curlAngle : curlAngle;
+
+		/*
+		 * Initiate rotated rectangle which's is translated to curlPos and
+		 * rotated so that curl direction heads to right (1,0). Vertices are
+		 * ordered in ascending order based on x -coordinate at the same time.
+		 * And using y -coordinate in very rare case in which two vertices have
+		 * same x -coordinate.
+		 */
+		tempVertices.addAll(rotatedVertices);
+		rotatedVertices.clear();
+		for (int i = 0; i < 4; ++i) {
+			final Vertex vertex = tempVertices.remove(0);
+			vertex.set(mRectangle[i]);
+			vertex.translate(-curlPosX, -curlPosY);
+			vertex.rotateZ(-curlAngle);
+			int jjj = 0;
+			for (; jjj < rotatedVertices.size(); ++jjj) {
+				final Vertex vertex2 = rotatedVertices.get(jjj);
+				if (vertex.mPosX > vertex2.mPosX) {
+					break;
+				}
+				if (vertex.mPosX == vertex2.mPosX
+						&& vertex.mPosY > vertex2.mPosY) {
+					break;
+				}
+			}
+			rotatedVertices.add(jjj, vertex);
+		}
+
+		/*
+		 * Rotated rectangle lines/vertex indices. We need to find bounding
+		 * lines for rotated rectangle. After sorting vertices according to
+		 * their x -coordinate we don't have to worry about vertices at indices
+		 * 0 and 1. But due to inaccuracy it's possible vertex 3 is not the
+		 * opposing corner from vertex 0. So we are calculating distance from
+		 * vertex 0 to vertices 2 and 3 - and altering line indices if needed.
+		 */
+		final int lines[][] = { { 0, 1 }, { 0, 2 }, { 1, 3 }, { 2, 3 } };
+		{
+			final Vertex vertex0 = rotatedVertices.get(0);
+			final Vertex vertex2 = rotatedVertices.get(2);
+			final Vertex vertex3 = rotatedVertices.get(3);
+			final double dist2 = Math.sqrt((vertex0.mPosX - vertex2.mPosX)
+					* (vertex0.mPosX - vertex2.mPosX)
+					+ (vertex0.mPosY - vertex2.mPosY)
+					* (vertex0.mPosY - vertex2.mPosY));
+			final double dist3 = Math.sqrt((vertex0.mPosX - vertex3.mPosX)
+					* (vertex0.mPosX - vertex3.mPosX)
+					+ (vertex0.mPosY - vertex3.mPosY)
+					* (vertex0.mPosY - vertex3.mPosY));
+			if (dist2 > dist3) {
+				lines[1][1] = 3;
+				lines[2][1] = 2;
+			}
+		}
+
+		vertCountFront = vertCountBack = 0;
+
+		tempShwVertices.addAll(dropShwVertices);
+		tempShwVertices.addAll(selfShwVertices);
+		dropShwVertices.clear();
+		selfShwVertices.clear();
+
+		// Length of 'curl' curve.
+		final double curlLength = Math.PI * radius;
+		// Calculate scan lines.
+		scanLines.clear();
+		if (mMaxCurlSplits > 0) {
+			scanLines.add((double) 0);
+		}
+		for (int i = 1; i < mMaxCurlSplits; ++i) {
+			scanLines.add((-curlLength * i) / (mMaxCurlSplits - 1));
+		}
+		/*
+		 * As mRotatedVertices is ordered regarding x -coordinate, adding this
+		 * scan line produces scan area picking up vertices which are rotated
+		 * completely. One could say 'until infinity'.
+		 */
+		scanLines.add(rotatedVertices.get(3).mPosX - 1);
+
+		/*
+		 * Start from right most vertex. Pretty much the same as first scan area
+		 * is starting from 'infinity'.
+		 */
+		double scanXmax = rotatedVertices.get(0).mPosX + 1;
+
+		for (int i = 0; i < scanLines.size(); ++i) {
+			// Once we have scanXmin and scanXmax we have a scan area to start
+			// working with.
+			final double scanXmin = scanLines.get(i);
+			// First iterate 'original' rectangle vertices within scan area.
+			for (int jjj = 0; jjj < rotatedVertices.size(); ++jjj) {
+				final Vertex vertex = rotatedVertices.get(jjj);
+				// Test if vertex lies within this scan area.
+				if (vertex.mPosX >= scanXmin && vertex.mPosX <= scanXmax) {
+					// Pop out a vertex from temp vertices.
+					final Vertex n = tempVertices.remove(0);
+					n.set(vertex);
+					/*
+					 * This is done solely for triangulation reasons. Given a
+					 * rotated rectangle it has max 2 vertices having
+					 * intersection.
+					 */
+					final Array<Vertex> intersections = getIntersections(
+							rotatedVertices, lines, n.mPosX);
+					/*
+					 * In a sense one could say we're adding vertices always in
+					 * two, positioned at the ends of intersecting line. And for
+					 * triangulation to work properly they are added based on y
+					 * -coordinate. And this if-else is doing it for us.
+					 */
+					if (intersections.size() == 1
+							&& intersections.get(0).mPosY > vertex.mPosY) {
+						// In case intersecting vertex is higher add it first.
+						outputVertices.addAll(intersections);
+						outputVertices.add(n);
+					} else if (intersections.size() <= 1) {
+						// Otherwise add original vertex first.
+						outputVertices.add(n);
+						outputVertices.addAll(intersections);
+					} else {
+						/*
+						 * There should never be more than 1 intersecting
+						 * vertex. But if it happens as a fallback simply skip
+						 * everything.
+						 */
+						tempVertices.add(n);
+						tempVertices.addAll(intersections);
+					}
+				}
+			}
+
+			// Search for scan line intersections.
+			final Array<Vertex> intersections = getIntersections(
+					rotatedVertices, lines, scanXmin);
+
+			/*
+			 * We expect to get 0 or 2 vertices. In rare cases there's only one
+			 * but in general given a scan line intersecting rectangle there
+			 * should be 2 intersecting vertices.
+			 */
+			if (intersections.size() == 2) {
+				// There were two intersections, add them based on y
+				// -coordinate, higher first, lower last.
+				final Vertex v1 = intersections.get(0);
+				final Vertex v2 = intersections.get(1);
+				if (v1.mPosY < v2.mPosY) {
+					outputVertices.add(v2);
+					outputVertices.add(v1);
+				} else {
+					outputVertices.addAll(intersections);
+				}
+			} else if (intersections.size() != 0) {
+				/*
+				 * This happens in a case in which there is a original vertex
+				 * exactly at scan line or something went very much wrong if
+				 * there are 3+ vertices. What ever the reason just return the
+				 * vertices to temp vertices for later use.
+				 */
+				tempVertices.addAll(intersections);
+			}
+
+			// Add vertices found during this iteration to vertex etc buffers.
+			while (outputVertices.size() > 0) {
+				final Vertex v = outputVertices.remove(0);
+				tempVertices.add(v);
+
+				// Local texture front-facing flag.
+				boolean textureFront;
+
+				// Untouched vertices.
+				if (i == 0) {
+					textureFront = true;
+					vertCountFront++;
+				}
+				// 'Completely' rotated vertices.
+				else if (i == scanLines.size() - 1 || curlLength == 0) {
+					v.mPosX = -(curlLength + v.mPosX);
+					v.mPosZ = 2 * radius;
+					v.mPenumbraX = -v.mPenumbraX;
+
+					textureFront = false;
+					vertCountBack++;
+				}
+				// Vertex lies within 'curl'.
+				else {
+					/*
+					 * Even though it's not obvious from the if-else clause,
+					 * here v.mPosX is between [-curlLength, 0]. And we can do
+					 * calculations around a half cylinder.
+					 */
+					final double rotY = Math.PI * (v.mPosX / curlLength);
+					v.mPosX = radius * Math.sin(rotY);
+					v.mPosZ = radius - (radius * Math.cos(rotY));
+					v.mPenumbraX *= Math.cos(rotY);
+					// Map color multiplier to [.1f, 1f] range.
+					v.mColorFactor = (float) (.1f + .9f * Math.sqrt(Math
+							.sin(rotY) + 1));
+
+					if (v.mPosZ >= radius) {
+						textureFront = false;
+						vertCountBack++;
+					} else {
+						textureFront = true;
+						vertCountFront++;
+					}
+				}
+
+				/*
+				 * We use local textureFront for flipping backside texture
+				 * locally. Plus additionally if mesh is in flip texture mode,
+				 * we'll make the procedure "backwards".
+				 */
+				if (textureFront != mFlipTexture) {
+					setTexCoords(v, true);
+					v.mColor = mColorFront;
+				} else {
+					setTexCoords(v, false);
+					v.mColor = mColorBack;
+				}
+
+				// Move vertex back to 'world' coordinates.
+				v.rotateZ(curlAngle);
+				v.translate(curlPosX, curlPosY);
+				addVertex(v);
+
+				// Drop shadow is cast 'behind' the curl.
+				if (v.mPosZ > 0 && v.mPosZ <= radius) {
+					final ShadowVertex sv = tempShwVertices.remove(0);
+					sv.mPosX = v.mPosX;
+					sv.mPosY = v.mPosY;
+					sv.mPosZ = v.mPosZ;
+					sv.mPenumbraX = (v.mPosZ / 2) * -curlDirX;
+					sv.mPenumbraY = (v.mPosZ / 2) * -curlDirY;
+					sv.mPenumbraColor = v.mPosZ / radius;
+					final int idx = (dropShwVertices.size() + 1) / 2;
+					dropShwVertices.add(idx, sv);
+				}
+				// Self shadow is cast partly over mesh.
+				if (v.mPosZ > radius) {
+					final ShadowVertex sv = tempShwVertices.remove(0);
+					sv.mPosX = v.mPosX;
+					sv.mPosY = v.mPosY;
+					sv.mPosZ = v.mPosZ;
+					sv.mPenumbraX = ((v.mPosZ - radius) / 3) * v.mPenumbraX;
+					sv.mPenumbraY = ((v.mPosZ - radius) / 3) * v.mPenumbraY;
+					sv.mPenumbraColor = (v.mPosZ - radius) / (2 * radius);
+					final int idx = (selfShwVertices.size() + 1) / 2;
+					selfShwVertices.add(idx, sv);
+				}
+			}
+
+			// Switch scanXmin as scanXmax for next iteration.
+			scanXmax = scanXmin;
+		}
+
+		// Add shadow Vertices.
+		int n = 0;
+		dropShowCount = 0;
+		for (int i = 0; i < dropShwVertices.size(); ++i) {
+			n = addShadow(dropShwVertices.get(i), n);
+			dropShowCount += 2;
+		}
+		mSelfShadowCount = 0;
+		for (int i = 0; i < selfShwVertices.size(); ++i) {
+			n = addShadow(selfShwVertices.get(i), n);
+			mSelfShadowCount += 2;
+		}
+	}
+
+	/**
+	 * Adds the shadow vertex as an inner and an outer one.
+	 *
+	 * @return the next shadow vertex.
+	 */
+	private int addShadow(final ShadowVertex sv, final int n) {
+		mShadowVertices[n * 3] = (float) sv.mPosX;
+		mShadowVertices[n * 3 + 1] = (float) sv.mPosY;
+		mShadowVertices[n * 3 + 2] = (float) sv.mPosZ;
+		mShadowVertices[n * 3 + 3] = (float) (sv.mPosX + sv.mPenumbraX);
+		mShadowVertices[n * 3 + 4] = (float) (sv.mPosY + sv.mPenumbraY);
+		mShadowVertices[n * 3 + 5] = (float) sv.mPosZ;
+		for (int j = 0; j < 4; ++j) {
+			final double color = SHDW_OUTER_COLOR[j]
+					+ (SHW_INNER_COLOR[j] - SHDW_OUTER_COLOR[j])
+					* sv.mPenumbraColor;
+			mShadowColors[n * 4 + j] = (float) color;
+			mShadowColors[n * 4 + 4 + j] = SHDW_OUTER_COLOR[j];
+		}
+		return n + 2;
+	}
+
+	/**
+	 * Calculates intersections for given scan line.
+	 */
+	private Array<Vertex> getIntersections(final Array<Vertex> vertices,
+			final int[][] lineIndices, final double scanX) {
+		intersections.clear();
+		// Iterate through rectangle lines each re-presented as a pair of
+		// vertices.
+		for (int j = 0; j < lineIndices.length; j++) {
+			final Vertex v1 = vertices.get(lineIndices[j][0]);
+			final Vertex v2 = vertices.get(lineIndices[j][1]);
+			// Here we expect that v1.mPosX >= v2.mPosX and wont do intersection
+			// test the opposite way.
+			if (v1.mPosX > scanX && v2.mPosX < scanX) {
+				// There is an intersection, calculate coefficient telling 'how
+				// far' scanX is from v2.
+				final double c = (scanX - v2.mPosX) / (v1.mPosX - v2.mPosX);
+				final Vertex n = tempVertices.remove(0);
+				n.set(v2);
+				n.mPosX = scanX;
+				n.mPosY += (v1.mPosY - v2.mPosY) * c;
+				n.mTexX += (v1.mTexX - v2.mTexX) * c;
+				n.mTexY += (v1.mTexY - v2.mTexY) * c;
+				n.mPenumbraX += (v1.mPenumbraX - v2.mPenumbraX) * c;
+				n.mPenumbraY += (v1.mPenumbraY - v2.mPenumbraY) * c;
+				intersections.add(n);
+			}
+		}
+		return intersections;
+	}
+
+	/**
+	 * Resets to the flat rectangle.
+	 */
+	public void reset() {
+		mVertexPos = 0;
+		for (int i = 0; i < 4; ++i) {
+			final Vertex tmp = tempVertices.get(0);
+			tmp.set(mRectangle[i]);
+
+			if (mFlipTexture) {
+				setTexCoords(tmp, false);
+				tmp.mColor = mColorBack;
+			} else {
+				setTexCoords(tmp, true);
+				tmp.mColor = mColorFront;
+			}
+
+			addVertex(tmp);
+		}
+		vertCountFront = 4;
+		vertCountBack = 0;
+		dropShowCount = mSelfShadowCount = 0;
+	}
+
+	/**
+	 * If true, flips texture sideways.
+	 */
+	public void setFlipTexture(final boolean flipTexture) {
+		mFlipTexture = flipTexture;
+		if (flipTexture) {
+			setTexCoords(1f, 0f, 0f, 1f);
+		} else {
+			setTexCoords(0f, 0f, 1f, 1f);
+		}
+	}
+
+	/**
+	 * Sets the part of the front and back textures holding the page.
+	 */
+	public void setTextureScale(final float frontX, final float frontY,
+			final float backX, final float backY) {
+		mTexScaleFrontX = frontX;
+		mTexScaleFrontY = frontY;
+		mTexScaleBackX = backX;
+		mTexScaleBackY = backY;
+	}
+
+	/**
+	 * If true, the page has its own back texture.
+	 */
+	public void setTextureBack(final boolean textureBack) {
+		mTextureBack = textureBack;
+	}
+
+	/**
+	 * Sets the page colors, as ARGB.
+	 */
+	public void setColors(final int front, final int back) {
+		mColorFront = front;
+		mColorBack = back;
+	}
+
+	/**
+	 * Update mesh bounds.
+	 */
+	public void setRect(final float left, final float top, final float right,
+			final float bottom) {
+		mRectangle[0].mPosX = left;
+		mRectangle[0].mPosY = top;
+		mRectangle[1].mPosX = left;
+		mRectangle[1].mPosY = bottom;
+		mRectangle[2].mPosX = right;
+		mRectangle[2].mPosY = top;
+		mRectangle[3].mPosX = right;
+		mRectangle[3].mPosY = bottom;
+	}
+
+	/**
+	 * Maps the [0, 1] texture coordinates of the vertex into the texture of
+	 * the given side, mirroring back textures.
+	 */
+	private void setTexCoords(final Vertex vertex, final boolean front) {
+		if (front) {
+			vertex.mTexX *= mTexScaleFrontX;
+			vertex.mTexY *= mTexScaleFrontY;
+		} else {
+			if (mTextureBack) {
+				vertex.mTexX = 1 - vertex.mTexX;
+			}
+			vertex.mTexX *= mTexScaleBackX;
+			vertex.mTexY *= mTexScaleBackY;
+		}
+	}
+
+	/**
+	 * Sets texture coordinates to mRectangle vertices.
+	 */
+	private void setTexCoords(final float left, final float top,
+			final float right, final float bottom) {
+		mRectangle[0].mTexX = left;
+		mRectangle[0].mTexY = top;
+		mRectangle[1].mTexX = left;
+		mRectangle[1].mTexY = bottom;
+		mRectangle[2].mTexX = right;
+		mRectangle[2].mTexY = top;
+		mRectangle[3].mTexX = right;
+		mRectangle[3].mTexY = bottom;
+	}
+
+	public float[] getVertices() {
+		return mVertices;
+	}
+
+	public float[] getColors() {
+		return mColors;
+	}
+
+	public float[] getTexCoords() {
+		return mTexCoords;
+	}
+
+	public float[] getShadowVertices() {
+		return mShadowVertices;
+	}
+
+	public float[] getShadowColors() {
+		return mShadowColors;
+	}
+
+	public int getFrontCount() {
+		return vertCountFront;
+	}
+
+	public int getBackCount() {
+		return vertCountBack;
+	}
+
+	public int getDropShadowCount() {
+		return dropShowCount;
+	}
+
+	public int getSelfShadowCount() {
+		return mSelfShadowCount;
+	}
+
+	private static int alpha(final int color) {
+		return color >>> 24;
+	}
+
+	private static int red(final int color) {
+		return (color >> 16) & 0xFF;
+	}
+
+	private static int green(final int color) {
+		return (color >> 8) & 0xFF;
+	}
+
+	private static int blue(final int color) {
+		return color & 0xFF;
+	}
+
+	/**
+	 * Simple fixed size array implementation.
+	 */
+	private static final class Array<T> {
+		private final Object[] mArray;
+		private final int mCapacity;
+		private int mSize;
+
+		public Array(final int capacity) {
+			mCapacity = capacity;
+			mArray = new Object[capacity];
+		}
+
+		public void add(final int index, final T item) {
+			if (index < 0 || index > mSize || mSize >= mCapacity) {
+				throw new IndexOutOfBoundsException();
+			}
+			for (int i = mSize; i > index; --i) {
+				mArray[i] = mArray[i - 1];
+			}
+			mArray[index] = item;
+			++mSize;
+		}
+
+		public void add(final T item) {
+			if (mSize >= mCapacity) {
+				throw new IndexOutOfBoundsException();
+			}
+			mArray[mSize++] = item;
+		}
+
+		public void addAll(final Array<T> array) {
+			if (mSize + array.size() > mCapacity) {
+				throw new IndexOutOfBoundsException();
+			}
+			for (int i = 0; i < array.size(); ++i) {
+				mArray[mSize++] = array.get(i);
+			}
+		}
+
+		public void clear() {
+			mSize = 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get(final int index) {
+			if (index < 0 || index >= mSize) {
+				throw new IndexOutOfBoundsException();
+			}
+			return (T) mArray[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		public T remove(final int index) {
+			if (index < 0 || index >= mSize) {
+				throw new IndexOutOfBoundsException();
+			}
+			final T item = (T) mArray[index];
+			for (int i = index; i < mSize - 1; ++i) {
+				mArray[i] = mArray[i + 1];
+			}
+			--mSize;
+			return item;
+		}
+
+		public int size() {
+			return mSize;
+		}
+	}
+
+	/**
+	 * Holder for shadow vertex information.
+	 */
+	private static final class ShadowVertex {
+		public double mPenumbraColor;
+		public double mPenumbraX;
+		public double mPenumbraY;
+		public double mPosX;
+		public double mPosY;
+		public double mPosZ;
+	}
+
+	/**
+	 * Holder for vertex information.
+	 */
+	private static final class Vertex {
+		public int mColor;
+		public float mColorFactor;
+		public double mPenumbraX;
+		public double mPenumbraY;
+		public double mPosX;
+		public double mPosY;
+		public double mPosZ;
+		public double mTexX;
+		public double mTexY;
+
+		public Vertex() {
+			mPosX = mPosY = mPosZ = mTexX = mTexY = 0;
+			mColorFactor = 1.0f;
+		}
+
+		public void rotateZ(final double theta) {
+			final double cos = Math.cos(theta);
+			final double sin = Math.sin(theta);
+			final double x = mPosX * cos + mPosY * sin;
+			final double y = mPosX * -sin + mPosY * cos;
+			mPosX = x;
+			mPosY = y;
+			final double px = mPenumbraX * cos + mPenumbraY * sin;
+			final double py = mPenumbraX * -sin + mPenumbraY * cos;
+			mPenumbraX = px;
+			mPenumbraY = py;
+		}
+
+		public void set(final Vertex vertex) {
+			mPosX = vertex.mPosX;
+			mPosY = vertex.mPosY;
+			mPosZ = vertex.mPosZ;
+			mTexX = vertex.mTexX;
+			mTexY = vertex.mTexY;
+			mPenumbraX = vertex.mPenumbraX;
+			mPenumbraY = vertex.mPenumbraY;
+			mColor = vertex.mColor;
+			mColorFactor = vertex.mColorFactor;
+		}
+
+		public void translate(final double dx, final double dy) {
+			mPosX += dx;
+			mPosY += dy;
+		}
+	}
+}
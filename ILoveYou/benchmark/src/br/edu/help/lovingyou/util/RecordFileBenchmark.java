@@ -0,0 +1,172 @@
+package br.edu.help.lovingyou.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares {@link RecordFile} against the java serialization and GZIP list
+ * persistence it replaced. Plain java, it runs on a desktop JVM against the
+ * app classes; it is kept out of the app sources so it never ships.
+ *
+ * @author hildon.lima
+ */
+public final class RecordFileBenchmark {
+
+	/**
+	 * Default list sizes.
+	 */
+	public static final int[] SIZES = { 1000, 10000, 100000 };
+
+	/**
+	 * Runs of each measure, the best one is reported.
+	 */
+	private static final int RUNS = 5;
+
+	/**
+	 * Runs of each size before the measured ones, so the code is compiled
+	 * by then.
+	 */
+	private static final int WARMUP = 10;
+
+	/**
+	 * Private constructor.
+	 */
+	private RecordFileBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark with the default sizes in the temp dir.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		System.out.print(run(new File(System.getProperty("java.io.tmpdir")),
+				SIZES));
+	}
+
+	/**
+	 * Writes and reads lists of album paths with both formats.
+	 *
+	 * @param dir
+	 *            where the files are written
+	 * @param sizes
+	 *            the list sizes
+	 * @return the report, one line per size.
+	 * @throws Exception
+	 */
+	public static String run(final File dir, final int[] sizes)
+			throws Exception {
+		final StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.US,
+				"%8s %12s %12s %12s %12s %12s %12s %12s%n", "entries",
+				"ser write", "ser read", "ser bytes", "rec write",
+				"rec read", "rec get(n)", "rec bytes"));
+
+		final File serialized = new File(dir, "benchmark.ser");
+		final File records = new File(dir, "benchmark.rec");
+		for (final int size : sizes) {
+			final List<String> list = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				list.add("/mnt/sdcard/Anne_Hildon/" + (i / 100) + "/IMG_"
+						+ i + ".jpg");
+			}
+
+			long serializedWrite = Long.MAX_VALUE;
+			long serializedRead = Long.MAX_VALUE;
+			long recordWrite = Long.MAX_VALUE;
+			long recordRead = Long.MAX_VALUE;
+			long recordGet = Long.MAX_VALUE;
+			for (int run = -WARMUP; run < RUNS; run++) {
+				long start = System.nanoTime();
+				writeSerialized(serialized, list);
+				serializedWrite = best(run, serializedWrite, start);
+
+				start = System.nanoTime();
+				check(list, readSerialized(serialized));
+				serializedRead = best(run, serializedRead, start);
+
+				start = System.nanoTime();
+				RecordFile.write(records, list);
+				recordWrite = best(run, recordWrite, start);
+
+				start = System.nanoTime();
+				check(list, RecordFile.open(records).readAll());
+				recordRead = best(run, recordRead, start);
+
+				start = System.nanoTime();
+				final String last = RecordFile.open(records).get(size - 1);
+				recordGet = best(run, recordGet, start);
+				if (!last.equals(list.get(size - 1))) {
+					throw new IllegalStateException("Record " + (size - 1));
+				}
+			}
+
+			report.append(String.format(Locale.US,
+					"%8d %10.2fms %10.2fms %12d %10.2fms %10.2fms %10.3fms %12d%n",
+					size, serializedWrite / 1e6, serializedRead / 1e6,
+					serialized.length(), recordWrite / 1e6, recordRead / 1e6,
+					recordGet / 1e6, records.length()));
+		}
+
+		serialized.delete();
+		records.delete();
+		return report.toString();
+	}
+
+	/**
+	 * Returns the best time so far, warmup runs are not counted.
+	 */
+	private static long best(final int run, final long best, final long start) {
+		final long nanos = System.nanoTime() - start;
+		return run < 0 ? best : Math.min(best, nanos);
+	}
+
+	/**
+	 * Fails if the lists differ.
+	 */
+	private static void check(final List<String> expected,
+			final List<String> actual) {
+		if (!expected.equals(actual)) {
+			throw new IllegalStateException("Lists differ");
+		}
+	}
+
+	/**
+	 * Writes the list as the old Utils.saveArray did.
+	 */
+	private static void writeSerialized(final File file,
+			final List<String> list) throws IOException {
+		final ObjectOutputStream out = new ObjectOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeObject(list);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the list as the old Utils.loadArray did.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<String> readSerialized(final File file)
+			throws IOException, ClassNotFoundException {
+		final ObjectInputStream in = new ObjectInputStream(
+				new GZIPInputStream(new FileInputStream(file)));
+		try {
+			return (List<String>) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
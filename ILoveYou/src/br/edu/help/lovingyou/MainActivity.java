@@ -14,6 +14,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import br.edu.help.lovingyou.app.view.adapters.SizeChangeObserver;
 import br.edu.help.lovingyou.app.view.component.CurlView;
+import br.edu.help.lovingyou.app.view.component.StartupTimings;
 import br.edu.help.lovingyou.app.view.component.music.MusicHandler;
 import br.edu.help.lovingyou.view.MainActivityViewImpl;
 import br.edu.help.lovingyou.view.fragment.HomeFragment;
@@ -47,11 +48,13 @@ public class MainActivity extends ActionBarActivity implements
 	/** {@inheritDoc} **/
 	@Override
 	protected void onCreate(final Bundle savedInstanceState) {
+		StartupTimings.getInstance().start();
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.main);
 		
 		musicManagerHandler = new MusicHandler(getApplicationContext());//MusicHandler.newInstance(getApplicationContext());// 
 		
+		// Prepared in the background, it starts playing once ready.
 		musicManagerHandler.load(R.raw.jota_quest_so_hoje, true);
 		
 		mNavigationDrawerFragment = (NavigationDrawerFragment) getSupportFragmentManager()
@@ -2,23 +2,23 @@ package br.edu.help.lovingyou.app.view.adapters;
 
 import java.util.List;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.util.SparseArray;
 import br.edu.help.lovingyou.R;
 import br.edu.help.lovingyou.app.view.component.CurlPage;
 import br.edu.help.lovingyou.app.view.component.CurlUtil;
+import br.edu.help.lovingyou.app.view.component.DecodePlanner;
 import br.edu.help.lovingyou.app.view.component.CurlView;
+import br.edu.help.lovingyou.app.view.component.PageComposer;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+import br.edu.help.lovingyou.app.view.component.cache.PageBitmapCache;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
 
 /**
  * @author hildon.lima
@@ -37,7 +37,8 @@ public class PgProvider implements CurlView.PageProvider {
 	SparseArray<Integer> pageMap = new SparseArray<Integer>();
 
 	/**
-	 * Map that retains {@link RectF}
+	 * Map that retains {@link RectF}. Written by the loader thread and read
+	 * by the GL thread, so it is only used synchronized on itself.
 	 */
 	SparseArray<RectF> rectMap = new SparseArray<RectF>();
 
@@ -51,16 +52,6 @@ public class PgProvider implements CurlView.PageProvider {
 	 */
 	private static final int BUTTONSIZEPERCENT = 117;
 
-	/**
-	 * Constant that retains the value 255.
-	 */
-	private static final int ALPHA = 255;
-
-	/**
-	 * Constant that retains the value 10.
-	 */
-	private static final int DECIMAL = 10;
-
 	/**
 	 * Constant that retains the value 11.
 	 */
@@ -112,6 +103,12 @@ public class PgProvider implements CurlView.PageProvider {
 	private Context context;
 	
 	private CurlView mCurlView;
+
+	/** Cache of the decoded photos. */
+	private PageBitmapCache bitmapCache;
+
+	/** Cache of the final page textures. */
+	private TextureDiskCache textureCache;
 	
 	/** Retains the value 2. */
 	private int marginup = 2;
@@ -137,6 +134,11 @@ public class PgProvider implements CurlView.PageProvider {
 		this.context = context;
 		this.mCurlView = curlView;
 		this.fileNameList = paths;
+		this.bitmapCache = PageBitmapCache.getInstance(context);
+		this.textureCache = TextureDiskCache.getInstance(context);
+		if (paths != null) {
+			textureCache.setAlbumSize(paths.size());
+		}
 	}
 
 	/**
@@ -187,14 +189,16 @@ public class PgProvider implements CurlView.PageProvider {
 	 * 
 	 * @param width
 	 * @param height
-	 * @param bitmap
+	 * @param photoWidth
+	 * @param photoHeight
 	 * @return
 	 */
-	public int setBorder(int width, int height, Bitmap bitmap) {
+	public int setBorder(int width, int height, int photoWidth,
+			int photoHeight) {
 		if (margin != -1)
 			return margin;
-		int percentHeight = bitmap.getHeight() * PERCENT / height;
-		int percentWidth = bitmap.getWidth() * PERCENT / width;
+		int percentHeight = photoHeight * PERCENT / height;
+		int percentWidth = photoWidth * PERCENT / width;
 		int dif = percentHeight - percentWidth;
 		if (dif < 25 && dif > -4) {
 			isWidth = true;
@@ -203,8 +207,8 @@ public class PgProvider implements CurlView.PageProvider {
 		} else if (percentHeight > percentWidth) {
 			isWidth = true;
 			int percentOpposite = PERCENT - percentHeight;
-			int defaultPercent = bitmap.getWidth() * percentOpposite / 100;
-			int increased = bitmap.getWidth() + defaultPercent;
+			int defaultPercent = photoWidth * percentOpposite / 100;
+			int increased = photoWidth + defaultPercent;
 			int diference = width - increased;
 			margin = (int) (diference / 6);
 
@@ -215,9 +219,9 @@ public class PgProvider implements CurlView.PageProvider {
 		} else if (percentHeight < percentWidth) {
 			isWidth = false;
 			int percentOpposite = PERCENT - percentWidth;
-			int defaultPercent = bitmap.getHeight() * percentOpposite
+			int defaultPercent = photoHeight * percentOpposite
 					/ PERCENT;
-			int increased = bitmap.getHeight() + defaultPercent;
+			int increased = photoHeight + defaultPercent;
 			int diference = height - increased;
 			margin = (int) (diference / 6) - 10;
 			if ((increased >= height) || dif > -6) {
@@ -231,53 +235,77 @@ public class PgProvider implements CurlView.PageProvider {
 	}
 
 	/**
-	 * Sets the rectangle.
+	 * Sets the rectangle of the photos, once for the album.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param index
+	 *            the page loaded
+	 */
+	public synchronized void setRects(int width, int height, int index) {
+		if (rect == null)
+			rect = getRects(width, height, index);
+	}
+
+	/**
+	 * Returns the rectangle of the photos, laid out from the image bounds
+	 * of the first page so it doesn't depend on the page loaded first.
+	 * Until a page sets it, it is laid out anew, a thumbnail doesn't set
+	 * it.
 	 * 
 	 * @param width
 	 * @param height
-	 * @param draw
+	 * @param index
+	 *            the page loaded, its bounds stand in if the first page
+	 *            can't be read
+	 * @return
 	 */
-	public void setRects(int width, int height, Drawable draw) {
+	public synchronized Rect getRects(int width, int height, int index) {
 		if (rect != null)
-			return;
+			return rect;
+
+		DecodePlanner.Plan plan = DecodePlanner.plan(getPageFile(0), width,
+				height);
+		if (plan == null)
+			plan = DecodePlanner.plan(getPageFile(index), width, height);
+		final int photoWidth = plan != null ? plan.sourceWidth : width;
+		final int photoHeight = plan != null ? plan.sourceHeight : height;
 
 		int border = 0;
-		int marginSet = setBorder(width, height,
-				((BitmapDrawable) draw).getBitmap());
-		rect = new Rect(marginleft, marginup, width - marginrigth, height
-				- margindown);
-
-		int imageWidth = rect.width() - (border * 2);
-		int imageHeight = imageWidth * draw.getIntrinsicHeight()
-				/ draw.getIntrinsicWidth();
-		if (imageHeight > rect.height() - (border * 2)) {
-			imageHeight = rect.height() - (border * 2);
-			imageWidth = imageHeight * draw.getIntrinsicWidth()
-					/ draw.getIntrinsicHeight();
+		int marginSet = setBorder(width, height, photoWidth, photoHeight);
+		final Rect layout = new Rect(marginleft, marginup, width
+				- marginrigth, height - margindown);
+
+		int imageWidth = layout.width() - (border * 2);
+		int imageHeight = imageWidth * photoHeight / photoWidth;
+		if (imageHeight > layout.height() - (border * 2)) {
+			imageHeight = layout.height() - (border * 2);
+			imageWidth = imageHeight * photoWidth / photoHeight;
 		}
 
 		int intHeight = mCurlView.getPageHeight();
 		if (isWidth) {
-			rect.left += ((rect.width() - imageWidth) / 2) - border
+			layout.left += ((layout.width() - imageWidth) / 2) - border
 					+ (marginSet / 2);
-			rect.right = rect.left + imageWidth + border + border
+			layout.right = layout.left + imageWidth + border + border
 					- marginSet;
-			rect.top = (int) context.getResources().getDimension(
+			layout.top = (int) context.getResources().getDimension(
 					R.dimen.border_margin);
-			rect.bottom = intHeight - rect.top;
+			layout.bottom = intHeight - layout.top;
 		} else {
-			rect.left += ((rect.width() - imageWidth) / 2) - border;
-			rect.right = rect.left + imageWidth + border + border;
-			rect.top = (int) context.getResources().getDimension(
+			layout.left += ((layout.width() - imageWidth) / 2) - border;
+			layout.right = layout.left + imageWidth + border + border;
+			layout.top = (int) context.getResources().getDimension(
 					R.dimen.border_margin)
 					+ marginSet;
-			rect.bottom = intHeight - rect.top;
+			layout.bottom = intHeight - layout.top;
 		}
 
-		rect.left += border;
-		rect.right -= border;
-		rect.top += border;
-		rect.bottom -= border;
+		layout.left += border;
+		layout.right -= border;
+		layout.top += border;
+		layout.bottom -= border;
+		return layout;
 	}
 
 	/*
@@ -321,154 +349,146 @@ public class PgProvider implements CurlView.PageProvider {
 	 */
 	@Override
 	public Bitmap createPage(int page, int width, int height) {
-		rectMap.put(page, new RectF(0, 0, 1, 1));
-
-		if (context.getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
-			return CurlUtil.getTexture(
-					loadBitmap(width, height, page, false),
-					rectMap.get(page),
-					context.getApplicationContext(),
-					R.dimen.border_margin);
-		} else {
-			if (page >= 1 && page <= getPageCount() * 2 - 2) {
-				return CurlUtil.getTexture(
-						loadBitmap(width, height, page, page % 2 == 1),
-						rectMap.get(page), context.getApplicationContext(),
-						R.dimen.densityImageCurlview);
-			} else {
-				return CurlUtil.getTexture(
-						loadBitmap(width, height, page, false), rectMap
-								.get(page), context.getApplicationContext(),
-						R.dimen.densityImageCurlview);
-			}
+		// Published once final, the GL thread draws the page meanwhile.
+		final RectF textureRect = new RectF(0, 0, 1, 1);
+		final Bitmap texture = composePage(page, width, height, textureRect);
+		synchronized (rectMap) {
+			rectMap.put(page, textureRect);
 		}
+		return texture;
 	}
-	
+
 	/**
-	 * Loads the selected bitmap
+	 * Loads or composes the texture of the page.
 	 * 
+	 * @param page
 	 * @param width
 	 * @param height
-	 * @param index
-	 * @param isBackPage
+	 * @param textureRect
+	 *            receives the texture coordinates of the page
 	 * @return
 	 */
-	private Bitmap loadBitmap(final int width, final int height,
-			final int index, final boolean isBackPage) {
+	private Bitmap composePage(int page, int width, int height,
+			RectF textureRect) {
+		final int orientation = context.getResources().getConfiguration().orientation;
+		final String key = TextureDiskCache.key(getPageFile(page), page,
+				width, height, orientation);
+		Bitmap texture = textureCache.get(key, textureRect);
+		if (texture != null) {
+			return texture;
+		}
 
-		Bitmap bitmap = Bitmap.createBitmap(width, height,
-				Bitmap.Config.ARGB_8888);
-		bitmap.eraseColor(0xFFFFFFFF);
-		final Canvas canvas = new Canvas(bitmap);
+		boolean isBackPage = false;
+		int density = R.dimen.border_margin;
+		if (orientation != Configuration.ORIENTATION_PORTRAIT) {
+			density = R.dimen.densityImageCurlview;
+			if (page >= 1 && page <= getPageCount() * 2 - 2) {
+				isBackPage = page % 2 == 1;
+			}
+		}
 
-		// TODO: Em teste
-		final String filename = fileNameList.get(index >= fileNameList
-				.size() ? fileNameList.size() - 1 : index);
-		Drawable draw;
+		final Bitmap photo = loadPhoto(width, height, page);
+		if (photo == null) {
+			return CurlUtil.getTexture(null, textureRect,
+					context.getApplicationContext(), density);
+		}
 
-		Bitmap bm = CurlUtil.getPageSampledBitmap(filename,
-				bitmap.getWidth(), bitmap.getHeight());
+		setRects(width, height, page);
+
+		final Paint separator = isBackPage
+				&& mCurlView.getViewMode() == CurlView.SHOW_TWO_PAGES ? paint
+				: null;
+		texture = PageComposer.compose(photo, rect, width, height,
+				separator,
+				textureRect, context.getApplicationContext(), density);
+		bitmapCache.release(photo);
+		textureCache.put(key, texture, textureRect);
+		return texture;
+	}
 
-		if (bm == null) {
-//			finish();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.org.sidi.coquetel.curl.CurlView.PageProvider#createThumbnail(int,
+	 * int, int)
+	 */
+	@Override
+	public Bitmap createThumbnail(int page, int width, int height) {
+		final int orientation = context.getResources().getConfiguration().orientation;
+		// A cached page loads about as fast as its thumbnail.
+		if (textureCache.contains(TextureDiskCache.key(getPageFile(page),
+				page, width, height, orientation))) {
 			return null;
 		}
 
-//		adjustIconSizeToMagazineWidth(bm);
-
-		draw = new BitmapDrawable(context.getResources(), bm);
-//		draw = addIconToImage(iconBitmap, draw);
-		draw = addNumberPage(index, ((BitmapDrawable) draw).getBitmap());
-
-		setRects(width, height, draw);
-
-		if (isBackPage
-				&& mCurlView.getViewMode() == CurlView.SHOW_TWO_PAGES) {
-			canvas.drawLine(width - 1, 0, width - 1, height, paint);
+		final Bitmap photo = CurlUtil.getPageThumbnailBitmap(
+				getPageFile(page), width / PageComposer.THUMBNAIL_SCALE,
+				height / PageComposer.THUMBNAIL_SCALE);
+		if (photo == null) {
+			return null;
 		}
 
-		draw.setBounds(rect);
-		draw.draw(canvas);
+		boolean isBackPage = false;
+		int density = R.dimen.border_margin;
+		if (orientation != Configuration.ORIENTATION_PORTRAIT) {
+			density = R.dimen.densityImageCurlview;
+			if (page >= 1 && page <= getPageCount() * 2 - 2) {
+				isBackPage = page % 2 == 1;
+			}
+		}
 
-		if (isBackPage) {
-			final Matrix matrix = new Matrix();
-			matrix.preScale(-1, 1);
-			bitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height,
-					matrix, false);
+		final RectF textureRect = new RectF();
+		final Paint separator = isBackPage
+				&& mCurlView.getViewMode() == CurlView.SHOW_TWO_PAGES ? paint
+				: null;
+		final Bitmap texture = PageComposer.compose(photo,
+				getRects(width, height, page), width, height, separator,
+				textureRect, context.getApplicationContext(), density,
+				PageComposer.THUMBNAIL_SCALE);
+		BitmapPool.getInstance().release(photo);
+		// A page composed meanwhile keeps its own.
+		synchronized (rectMap) {
+			if (rectMap.get(page) == null) {
+				rectMap.put(page, textureRect);
+			}
 		}
-		return bitmap;
+		return texture;
 	}
 
 	/**
-	 * Insert the number on the page
+	 * Returns the image file of the page.
 	 * 
 	 * @param index
-	 * @param bitmap
 	 * @return
 	 */
-	@SuppressLint("ResourceAsColor")
-	private Drawable addNumberPage(int index, Bitmap bitmap) {
-
-		int sizeCircle = bitmap.getWidth()
-				* (int) context.getResources()
-						.getDimension(R.dimen.percentImageSize) / PERCENT;
-		int marginCircle = (int) context.getResources()
-				.getDimension(R.dimen.circleNumberMargin);
-		int marginNumber = (int) (bitmap.getWidth()
-				* (int) context.getResources()
-						.getDimension(R.dimen.percentNumberMargin) / PERCENT)
-				+ marginCircle;
-		int sizeNumber = bitmap.getWidth()
-				* (int) context.getResources()
-						.getDimension(R.dimen.percentNumberSize) / PERCENT;
-		int positionText = bitmap.getWidth()
-				* (int) context.getResources()
-						.getDimension(R.dimen.percentTextPosition)
-				/ PERCENT;
-
-		double eightyPercent = (double) context.getResources().getDimension(R.dimen.percentCirclePosition);
-		Drawable drawable = context.getResources()
-				.getDrawable(R.drawable.ic_launcher);
-
-//		if (gameView.isTablet()) {
-//			drawable = context.getResources().getDrawable(
-//					R.drawable.page_circle_tab);
-//			marginCircle = SIZECIRCLE;
-//			marginNumber = (int) (bitmap.getWidth() * 1.5 / PERCENT)
-//					+ marginCircle;
-//			sizeCircle = (int) (bitmap.getWidth() * 8 / PERCENT);
-//			sizeNumber = bitmap.getWidth() * 4 / PERCENT;
-//			eightyPercent = 88;
-//			positionText = (int) (bitmap.getWidth() * 89.8 / PERCENT);
-//		}
-
-		int number = index + 1; //gameView.getMagazineItem(index).getOriginalOrder() + 1;
-		String text = number < DECIMAL ? ("0" + number) : (number + "");
-		Bitmap workingBitmap = Bitmap.createBitmap(bitmap);
-		Bitmap mutableBitmap = workingBitmap.copy(Bitmap.Config.ARGB_8888, true);
-		Canvas canvas = new Canvas(mutableBitmap);
-		Bitmap bit = Bitmap.createScaledBitmap(
-				((BitmapDrawable) drawable).getBitmap(), sizeCircle,
-				sizeCircle, false);
-
-		Paint paint = new Paint();
-		paint.setTextSize(sizeNumber);
-		paint.setAlpha(ALPHA);
-		paint.setAntiAlias(false);
-		paint.setDither(true);
-		paint.setFilterBitmap(true);
-
-//		Typeface robotoRegular = Typeface.createFromAsset(context.getAssets(), "fonts/Roboto-Bold.ttf");
-//		paint.setTypeface(robotoRegular);
+	private String getPageFile(final int index) {
+		return fileNameList.get(index >= fileNameList.size() ? fileNameList
+				.size() - 1 : index);
+	}
+	
+	/**
+	 * Loads the photo of the page, sampled for the page size.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param index
+	 * @return the photo, given back with
+	 *         {@link PageBitmapCache#release(Bitmap)}, or null.
+	 */
+	private Bitmap loadPhoto(final int width, final int height,
+			final int index) {
 
-		canvas.drawBitmap(bit,
-				(int) (bitmap.getWidth() * eightyPercent / PERCENT),
-				marginCircle, paint);
-		paint.setColor((int) R.color.color_number);
-		canvas.drawText(text, positionText, sizeNumber + marginNumber,
-				paint);
+		// TODO: Em teste
+		final String filename = getPageFile(index);
 
-		return new BitmapDrawable(bitmap);
+		final String key = PageBitmapCache.key(filename, width, height);
+		Bitmap photo = bitmapCache.get(key);
+		if (photo == null) {
+			photo = CurlUtil.getPageSampledBitmap(filename, width, height);
+			bitmapCache.put(key, photo);
+		}
+		return photo;
 	}
 
 	/**
@@ -478,7 +498,9 @@ public class PgProvider implements CurlView.PageProvider {
 	 */
 	@Override
 	public RectF getRectF(int index) {
-		return rectMap.get(index);
+		synchronized (rectMap) {
+			return rectMap.get(index);
+		}
 	}
 
 	/**
@@ -490,7 +512,7 @@ public class PgProvider implements CurlView.PageProvider {
 	 */
 	public void update(final CurlPage page, int index, int side) {
 		page.setTexture(side, index, this.pageMap.get(index),
-				rectMap.get(index));
+				getRectF(index));
 	}
 
 //	/**
@@ -0,0 +1,925 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package br.edu.help.lovingyou.app.view.component;
+
+/**
+ * Page curl geometry, in plain java. The page rectangle is split along the
+ * curl line, wrapped around the curl cylinder and turned into triangle
+ * strips of positions, colors and texture coordinates, plus the drop and
+ * self shadow strips. Nothing here depends on Android or OpenGL, so the
+ * math runs, and can be measured, on any JVM. {@link CurlMesh} feeds the
+ * results to the rasterizer.
+ * 
+ * @author harism
+ */
+public final class CurlGeometry {
+
+	/**
+	 * Colors for shadow. Inner one is the color drawn next to surface where
+	 * shadowed area starts and outer one is color shadow ends to.
+	 */
+	private static final float[] SHW_INNER_COLOR = { 0f, 0f, 0f, .5f };
+	private static final float[] SHDW_OUTER_COLOR = { 0f, 0f, 0f, .0f };
+
+	/**
+	 * Point, or direction, in view coordinates.
+	 */
+	public static final class Point {
+
+		/** The x coordinate. */
+		public float x;
+
+		/** The y coordinate. */
+		public float y;
+
+		/**
+		 * Constructor of the class
+		 */
+		public Point() {
+		}
+
+		/**
+		 * Constructor of the class
+		 * 
+		 * @param x
+		 * @param y
+		 */
+		public Point(final float x, final float y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		/**
+		 * Sets the coordinates.
+		 */
+		public void set(final float x, final float y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * Page rectangle in view coordinates, top is above bottom.
+	 */
+	public static final class Bounds {
+
+		/** The left edge. */
+		public float left;
+
+		/** The top edge. */
+		public float top;
+
+		/** The right edge. */
+		public float right;
+
+		/** The bottom edge. */
+		public float bottom;
+
+		/**
+		 * Sets the edges.
+		 */
+		public void set(final float left, final float top, final float right,
+				final float bottom) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+		}
+	}
+
+	/**
+	 * Maximum number of split lines used for creating a curl.
+	 */
+	private final int mMaxCurlSplits;
+
+	/**
+	 * Whether texture coordinates and shadows are produced.
+	 */
+	private final boolean mTextures;
+	private final boolean mShadows;
+
+	/**
+	 * Bounding rectangle. Index 0 = top-left, index 1 = bottom-left, index 2
+	 * = top-right and index 3 = bottom-right.
+	 */
+	private final Vertices mRectangle = new Vertices(4);
+
+	/**
+	 * Scratch space of the curl, allocated once. Vertices are kept as
+	 * parallel float arrays and addressed by index, so a curl creates no
+	 * objects and moves no references around.
+	 */
+	private final Vertices mRotated = new Vertices(4);
+	private final int[] mRotatedOrder = new int[4];
+	private final int[][] mLines = new int[4][2];
+	// Each of the 4 rectangle lines crosses a scan line at most once.
+	private final Vertices mIntersections = new Vertices(4);
+	// A scan area holds the 4 corners with one intersection each, plus the 2
+	// intersections of its scan line.
+	private final Vertices mOutput = new Vertices(4 * 2 + 2);
+	private final Vertices mScratch = new Vertices(1);
+	private final float[] mScanLines;
+	private final ShadowVertices mDropShadow;
+	private final ShadowVertices mSelfShadow;
+
+	/**
+	 * Page state the geometry depends on.
+	 */
+	private boolean mFlipTexture;
+	private boolean mTextureBack;
+	private float mTexScaleFrontX = 1f;
+	private float mTexScaleFrontY = 1f;
+	private float mTexScaleBackX = 1f;
+	private float mTexScaleBackY = 1f;
+	private int mColorFront = 0xFFFFFFFF;
+	private int mColorBack = 0xFFFFFFFF;
+
+	/**
+	 * Output strips. Front facing vertices come first, then back facing
+	 * ones, the drop shadow comes before the self shadow.
+	 */
+	private final float[] mVertices;
+	private final float[] mColors;
+	private final float[] mTexCoords;
+	private final float[] mShadowVertices;
+	private final float[] mShadowColors;
+	private int mVertexCount;
+	private int mFrontCount;
+	private int mBackCount;
+	private int mDropShadowCount;
+	private int mSelfShadowCount;
+
+	/**
+	 * Constructor of the class
+	 * 
+	 * @param maxCurlSplits
+	 *            Maximum number curl can be divided into. The bigger the value
+	 *            the smoother curl will be. With the cost of having more
+	 *            polygons for drawing.
+	 * @param textures
+	 *            whether texture coordinates are produced
+	 * @param shadows
+	 *            whether shadow strips are produced
+	 */
+	public CurlGeometry(final int maxCurlSplits, final boolean textures,
+			final boolean shadows) {
+		// There really is no use for 0 splits.
+		mMaxCurlSplits = maxCurlSplits < 1 ? 1 : maxCurlSplits;
+		mTextures = textures;
+		mShadows = shadows;
+
+		mScanLines = new float[mMaxCurlSplits + 2];
+		mSelfShadow = new ShadowVertices((mMaxCurlSplits + 2) * 2);
+		mDropShadow = new ShadowVertices((mMaxCurlSplits + 2) * 2);
+
+		// Set up shadow penumbra direction to each vertex. We do fake 'self
+		// shadow' calculations based on this information.
+		final Vertices r = mRectangle;
+		r.mPenumbraX[0] = r.mPenumbraX[1] = r.mPenumbraY[1] = r.mPenumbraY[3] = -1;
+		r.mPenumbraY[0] = r.mPenumbraX[2] = r.mPenumbraY[2] = r.mPenumbraX[3] = 1;
+		setFlipTexture(false);
+
+		/*
+		 * There are 4 vertices from bounding rect, max 2 from adding split line
+		 * to two corners and curl consists of max mMaxCurlSplits lines each
+		 * outputting 2 vertices.
+		 */
+		final int maxVerticesCount = 4 + 2 + (2 * mMaxCurlSplits);
+		mVertices = new float[maxVerticesCount * 3];
+		mColors = new float[maxVerticesCount * 4];
+		mTexCoords = new float[textures ? maxVerticesCount * 2 : 0];
+		final int maxShadowVertCnt = shadows ? (mMaxCurlSplits + 2) * 2 * 2
+				: 0;
+		mShadowVertices = new float[maxShadowVertCnt * 3];
+		mShadowColors = new float[maxShadowVertCnt * 4];
+	}
+
+	/**
+	 * Update mesh bounds.
+	 */
+	public void setRect(final Bounds r) {
+		setRect(r.left, r.top, r.right, r.bottom);
+	}
+
+	/**
+	 * Update mesh bounds.
+	 */
+	public void setRect(final float left, final float top, final float right,
+			final float bottom) {
+		mRectangle.mPosX[0] = left;
+		mRectangle.mPosY[0] = top;
+		mRectangle.mPosX[1] = left;
+		mRectangle.mPosY[1] = bottom;
+		mRectangle.mPosX[2] = right;
+		mRectangle.mPosY[2] = top;
+		mRectangle.mPosX[3] = right;
+		mRectangle.mPosY[3] = bottom;
+	}
+
+	/**
+	 * If true, flips texture sideways.
+	 */
+	public void setFlipTexture(final boolean flipTexture) {
+		mFlipTexture = flipTexture;
+		if (flipTexture) {
+			setTexCoords(1f, 0f, 0f, 1f);
+		} else {
+			setTexCoords(0f, 0f, 1f, 1f);
+		}
+	}
+
+	/**
+	 * Sets the part of the front and back textures holding the page, as the
+	 * right and bottom texture coordinates.
+	 */
+	public void setTextureScale(final float frontX, final float frontY,
+			final float backX, final float backY) {
+		mTexScaleFrontX = frontX;
+		mTexScaleFrontY = frontY;
+		mTexScaleBackX = backX;
+		mTexScaleBackY = backY;
+	}
+
+	/**
+	 * If true, the page has its own back texture, which is always seen
+	 * mirrored.
+	 */
+	public void setTextureBack(final boolean textureBack) {
+		mTextureBack = textureBack;
+	}
+
+	/**
+	 * Sets the page colors, as ARGB.
+	 */
+	public void setColors(final int front, final int back) {
+		mColorFront = front;
+		mColorBack = back;
+	}
+
+	/**
+	 * Sets curl.
+	 * 
+	 * @param curlPos
+	 *            Position for curl 'center'. Can be any point on line collinear
+	 *            to curl.
+	 * @param curlDir
+	 *            Curl direction, should be normalized.
+	 * @param radius
+	 *            Radius of curl.
+	 */
+	public void curl(final Point curlPos, final Point curlDir,
+			final double radius) {
+		curl(curlPos.x, curlPos.y, curlDir.x, curlDir.y, radius);
+	}
+
+	/**
+	 * Sets curl, see {@link #curl(Point, Point, double)}.
+	 */
+	public void curl(final float posX, final float posY, final float dirX,
+			final float dirY, final double radius) {
+		// Calculate curl angle from direction.
+		float curlAngle = (float) Math.acos(dirX);
+		curlAngle = dirY > 0 ? -curlAngle : curlAngle;
+		final float cos = (float) Math.cos(curlAngle);
+		final float sin = (float) Math.sin(curlAngle);
+
+		/*
+		 * Initiate rotated rectangle which's is translated to curlPos and
+		 * rotated so that curl direction heads to right (1,0). Vertices are
+		 * ordered in ascending order based on x -coordinate at the same time.
+		 * And using y -coordinate in very rare case in which two vertices have
+		 * same x -coordinate. The order is kept as indices into mRotated.
+		 */
+		final Vertices rotated = mRotated;
+		final int[] order = mRotatedOrder;
+		for (int i = 0; i < 4; ++i) {
+			rotated.set(i, mRectangle, i);
+			rotated.translate(i, -posX, -posY);
+			rotated.rotateZ(i, cos, -sin);
+			int jjj = 0;
+			for (; jjj < i; ++jjj) {
+				final int k = order[jjj];
+				if (rotated.mPosX[i] > rotated.mPosX[k]) {
+					break;
+				}
+				if (rotated.mPosX[i] == rotated.mPosX[k]
+						&& rotated.mPosY[i] > rotated.mPosY[k]) {
+					break;
+				}
+			}
+			for (int k = i; k > jjj; --k) {
+				order[k] = order[k - 1];
+			}
+			order[jjj] = i;
+		}
+
+		/*
+		 * Rotated rectangle lines/vertex indices. We need to find bounding
+		 * lines for rotated rectangle. After sorting vertices according to
+		 * their x -coordinate we don't have to worry about vertices at indices
+		 * 0 and 1. But due to inaccuracy it's possible vertex 3 is not the
+		 * opposing corner from vertex 0. So we are calculating distance from
+		 * vertex 0 to vertices 2 and 3 - and altering line indices if needed.
+		 * Also vertices/lines are given in an order first one has x -coordinate
+		 * at least the latter one. This property is used in getIntersections to
+		 * see if there is an intersection.
+		 */
+		final int[][] lines = mLines;
+		lines[0][0] = 0;
+		lines[0][1] = 1;
+		lines[1][0] = 0;
+		lines[1][1] = 2;
+		lines[2][0] = 1;
+		lines[2][1] = 3;
+		lines[3][0] = 2;
+		lines[3][1] = 3;
+		{
+			final int v0 = order[0];
+			final int v2 = order[2];
+			final int v3 = order[3];
+			final float dx2 = rotated.mPosX[v0] - rotated.mPosX[v2];
+			final float dy2 = rotated.mPosY[v0] - rotated.mPosY[v2];
+			final float dx3 = rotated.mPosX[v0] - rotated.mPosX[v3];
+			final float dy3 = rotated.mPosY[v0] - rotated.mPosY[v3];
+			// Comparing squared distances, no need for sqrt.
+			if (dx2 * dx2 + dy2 * dy2 > dx3 * dx3 + dy3 * dy3) {
+				lines[1][1] = 3;
+				lines[2][1] = 2;
+			}
+		}
+
+		mFrontCount = mBackCount = 0;
+
+		mVertexCount = 0;
+		mDropShadow.mSize = 0;
+		mSelfShadow.mSize = 0;
+
+		// Length of 'curl' curve.
+		final float curlLength = (float) (Math.PI * radius);
+		final float fRadius = (float) radius;
+		// Calculate scan lines.
+		int scanLineCount = 0;
+		if (mMaxCurlSplits > 0) {
+			mScanLines[scanLineCount++] = 0;
+		}
+		for (int i = 1; i < mMaxCurlSplits; ++i) {
+			mScanLines[scanLineCount++] = (-curlLength * i)
+					/ (mMaxCurlSplits - 1);
+		}
+		/*
+		 * As rotated vertices are ordered regarding x -coordinate, adding this
+		 * scan line produces scan area picking up vertices which are rotated
+		 * completely. One could say 'until infinity'.
+		 */
+		mScanLines[scanLineCount++] = rotated.mPosX[order[3]] - 1;
+
+		/*
+		 * Start from right most vertex. Pretty much the same as first scan area
+		 * is starting from 'infinity'.
+		 */
+		float scanXmax = rotated.mPosX[order[0]] + 1;
+
+		final Vertices output = mOutput;
+		final Vertices intersections = mIntersections;
+		for (int i = 0; i < scanLineCount; ++i) {
+			// Once we have scanXmin and scanXmax we have a scan area to start
+			// working with.
+			final float scanXmin = mScanLines[i];
+			output.mSize = 0;
+			// First iterate 'original' rectangle vertices within scan area.
+			for (int jjj = 0; jjj < 4; ++jjj) {
+				final int n = order[jjj];
+				final float x = rotated.mPosX[n];
+				// Test if vertex lies within this scan area.
+				if (x >= scanXmin && x <= scanXmax) {
+					/*
+					 * This is done solely for triangulation reasons. Given a
+					 * rotated rectangle it has max 2 vertices having
+					 * intersection.
+					 */
+					final int count = getIntersections(x);
+					/*
+					 * In a sense one could say we're adding vertices always in
+					 * two, positioned at the ends of intersecting line. And for
+					 * triangulation to work properly they are added based on y
+					 * -coordinate. And this if-else is doing it for us.
+					 */
+					if (count == 1
+							&& intersections.mPosY[0] > rotated.mPosY[n]) {
+						// In case intersecting vertex is higher add it first.
+						output.add(intersections, 0);
+						output.add(rotated, n);
+					} else if (count <= 1) {
+						// Otherwise add original vertex first.
+						output.add(rotated, n);
+						if (count == 1) {
+							output.add(intersections, 0);
+						}
+					}
+					/*
+					 * There should never be more than 1 intersecting vertex.
+					 * But if it happens as a fallback simply skip everything.
+					 */
+				}
+			}
+
+			// Search for scan line intersections.
+			/*
+			 * We expect to get 0 or 2 vertices. In rare cases there's only one
+			 * but in general given a scan line intersecting rectangle there
+			 * should be 2 intersecting vertices. A single one means there is a
+			 * original vertex exactly at scan line, which was handled already
+			 * above, 3+ means something went very much wrong.
+			 */
+			if (getIntersections(scanXmin) == 2) {
+				// There were two intersections, add them based on y
+				// -coordinate, higher first, lower last.
+				if (intersections.mPosY[0] < intersections.mPosY[1]) {
+					output.add(intersections, 1);
+					output.add(intersections, 0);
+				} else {
+					output.add(intersections, 0);
+					output.add(intersections, 1);
+				}
+			}
+
+			// Add vertices found during this iteration to vertex etc buffers.
+			for (int v = 0; v < output.mSize; ++v) {
+				// Local texture front-facing flag.
+				boolean textureFront;
+				// Depth is kept in double for the side and shadow tests,
+				// vertices on the middle scan line sit exactly half way and
+				// float rounding would move them to the other side.
+				double posZ = 0;
+
+				// Untouched vertices.
+				if (i == 0) {
+					textureFront = true;
+					mFrontCount++;
+				}
+				// 'Completely' rotated vertices.
+				else if (i == scanLineCount - 1 || curlLength == 0) {
+					output.mPosX[v] = -(curlLength + output.mPosX[v]);
+					posZ = 2 * radius;
+					output.mPenumbraX[v] = -output.mPenumbraX[v];
+
+					textureFront = false;
+					mBackCount++;
+				}
+				// Vertex lies within 'curl'.
+				else {
+					/*
+					 * Even though it's not obvious from the if-else clause,
+					 * here v.mPosX is between [-curlLength, 0]. And we can do
+					 * calculations around a half cylinder.
+					 */
+					final double rotY = Math.PI * (output.mPosX[v] / curlLength);
+					final double cosY = Math.cos(rotY);
+					final float sinY = (float) Math.sin(rotY);
+					output.mPosX[v] = fRadius * sinY;
+					posZ = radius - (radius * cosY);
+					output.mPenumbraX[v] *= (float) cosY;
+					// Map color multiplier to [.1f, 1f] range.
+					output.mColorFactor[v] = (float) (.1f + .9f * Math
+							.sqrt(sinY + 1));
+
+					if (posZ >= radius) {
+						textureFront = false;
+						mBackCount++;
+					} else {
+						textureFront = true;
+						mFrontCount++;
+					}
+				}
+
+				/*
+				 * We use local textureFront for flipping backside texture
+				 * locally. Plus additionally if mesh is in flip texture mode,
+				 * we'll make the procedure "backwards". Also, until this point,
+				 * texture coordinates are within [0, 1] range so we'll adjust
+				 * them to final texture coordinates too.
+				 */
+				if (textureFront != mFlipTexture) {
+					setTexCoords(output, v, true);
+					output.mColor[v] = mColorFront;
+				} else {
+					setTexCoords(output, v, false);
+					output.mColor[v] = mColorBack;
+				}
+
+				output.mPosZ[v] = (float) posZ;
+
+				// Move vertex back to 'world' coordinates.
+				output.rotateZ(v, cos, sin);
+				output.translate(v, posX, posY);
+				addVertex(output, v);
+
+				// Drop shadow is cast 'behind' the curl.
+				if (mShadows && posZ > 0 && posZ <= radius) {
+					final float z = output.mPosZ[v];
+					mDropShadow.insert(output.mPosX[v], output.mPosY[v], z,
+							(z / 2) * -dirX, (z / 2) * -dirY, z
+									/ fRadius);
+				}
+				// Self shadow is cast partly over mesh.
+				if (mShadows && posZ > radius) {
+					final float z = output.mPosZ[v];
+					mSelfShadow.insert(output.mPosX[v], output.mPosY[v], z,
+							((z - fRadius) / 3) * output.mPenumbraX[v],
+							((z - fRadius) / 3) * output.mPenumbraY[v],
+							(z - fRadius) / (2 * fRadius));
+				}
+			}
+
+			// Switch scanXmin as scanXmax for next iteration.
+			scanXmax = scanXmin;
+		}
+
+		// Add shadow Vertices.
+		if (mShadows) {
+			mDropShadowCount = 0;
+			mSelfShadowCount = 0;
+			mDropShadowCount = addShadow(mDropShadow, 0);
+			mSelfShadowCount = addShadow(mSelfShadow, mDropShadowCount);
+		}
+	}
+
+	/**
+	 * Resets the geometry to the flat rectangle.
+	 */
+	public void reset() {
+		mVertexCount = 0;
+		final Vertices tmp = mScratch;
+		for (int i = 0; i < 4; ++i) {
+			tmp.set(0, mRectangle, i);
+
+			if (mFlipTexture) {
+				setTexCoords(tmp, 0, false);
+				tmp.mColor[0] = mColorBack;
+			} else {
+				setTexCoords(tmp, 0, true);
+				tmp.mColor[0] = mColorFront;
+			}
+
+			addVertex(tmp, 0);
+		}
+		mFrontCount = 4;
+		mBackCount = 0;
+		mDropShadowCount = mSelfShadowCount = 0;
+	}
+
+	/**
+	 * Adds vertex to the output.
+	 */
+	private void addVertex(final Vertices v, final int i) {
+		final int n = mVertexCount++;
+		final int color = v.mColor[i];
+		final float factor = v.mColorFactor[i];
+		mVertices[n * 3] = v.mPosX[i];
+		mVertices[n * 3 + 1] = v.mPosY[i];
+		mVertices[n * 3 + 2] = v.mPosZ[i];
+		mColors[n * 4] = factor * ((color >> 16) & 0xFF) / 255f;
+		mColors[n * 4 + 1] = factor * ((color >> 8) & 0xFF) / 255f;
+		mColors[n * 4 + 2] = factor * (color & 0xFF) / 255f;
+		mColors[n * 4 + 3] = (color >>> 24) / 255f;
+		if (mTextures) {
+			mTexCoords[n * 2] = v.mTexX[i];
+			mTexCoords[n * 2 + 1] = v.mTexY[i];
+		}
+	}
+
+	/**
+	 * Adds the shadow to the shadow output, each vertex as an inner and an
+	 * outer one.
+	 * 
+	 * @return the vertices added.
+	 */
+	private int addShadow(final ShadowVertices shadow, final int first) {
+		for (int i = 0; i < shadow.mSize; ++i) {
+			final int n = first + i * 2;
+			final float x = shadow.mPosX[i];
+			final float y = shadow.mPosY[i];
+			final float z = shadow.mPosZ[i];
+			mShadowVertices[n * 3] = x;
+			mShadowVertices[n * 3 + 1] = y;
+			mShadowVertices[n * 3 + 2] = z;
+			mShadowVertices[n * 3 + 3] = x + shadow.mPenumbraX[i];
+			mShadowVertices[n * 3 + 4] = y + shadow.mPenumbraY[i];
+			mShadowVertices[n * 3 + 5] = z;
+			for (int j = 0; j < 4; ++j) {
+				mShadowColors[n * 4 + j] = SHDW_OUTER_COLOR[j]
+						+ (SHW_INNER_COLOR[j] - SHDW_OUTER_COLOR[j])
+						* shadow.mPenumbraColor[i];
+				mShadowColors[n * 4 + 4 + j] = SHDW_OUTER_COLOR[j];
+			}
+		}
+		return shadow.mSize * 2;
+	}
+
+	/**
+	 * Calculates the intersections of the rotated rectangle lines with given
+	 * scan line into mIntersections.
+	 * 
+	 * @return the number of intersections.
+	 */
+	private int getIntersections(final float scanX) {
+		final Vertices vertices = mRotated;
+		final Vertices intersections = mIntersections;
+		intersections.mSize = 0;
+		// Iterate through rectangle lines each re-presented as a pair of
+		// vertices.
+		for (int j = 0; j < mLines.length; j++) {
+			final int v1 = mRotatedOrder[mLines[j][0]];
+			final int v2 = mRotatedOrder[mLines[j][1]];
+			final float x1 = vertices.mPosX[v1];
+			final float x2 = vertices.mPosX[v2];
+			// Here we expect that v1.mPosX >= v2.mPosX and wont do intersection
+			// test the opposite way.
+			if (x1 > scanX && x2 < scanX) {
+				// There is an intersection, calculate coefficient telling 'how
+				// far' scanX is from v2.
+				final float c = (scanX - x2) / (x1 - x2);
+				final int n = intersections.add(vertices, v2);
+				intersections.mPosX[n] = scanX;
+				intersections.mPosY[n] += (vertices.mPosY[v1] - vertices.mPosY[v2])
+						* c;
+				if (mTextures) {
+					intersections.mTexX[n] += (vertices.mTexX[v1] - vertices.mTexX[v2])
+							* c;
+					intersections.mTexY[n] += (vertices.mTexY[v1] - vertices.mTexY[v2])
+							* c;
+				}
+				if (mShadows) {
+					intersections.mPenumbraX[n] += (vertices.mPenumbraX[v1] - vertices.mPenumbraX[v2])
+							* c;
+					intersections.mPenumbraY[n] += (vertices.mPenumbraY[v1] - vertices.mPenumbraY[v2])
+							* c;
+				}
+			}
+		}
+		return intersections.mSize;
+	}
+
+	/**
+	 * Maps the [0, 1] texture coordinates of the vertex into the texture of
+	 * the given side. The back texture is always seen mirrored, from behind
+	 * the page or through the flipped coordinates of the left page, so its
+	 * coordinates are mirrored here and page providers upload back pages
+	 * as they are read. A page sharing one texture on both sides keeps the
+	 * see-through look.
+	 */
+	private void setTexCoords(final Vertices v, final int i,
+			final boolean front) {
+		if (front) {
+			v.mTexX[i] *= mTexScaleFrontX;
+			v.mTexY[i] *= mTexScaleFrontY;
+		} else {
+			if (mTextureBack) {
+				v.mTexX[i] = 1 - v.mTexX[i];
+			}
+			v.mTexX[i] *= mTexScaleBackX;
+			v.mTexY[i] *= mTexScaleBackY;
+		}
+	}
+
+	/**
+	 * Sets texture coordinates to mRectangle vertices.
+	 */
+	private void setTexCoords(final float left, final float top,
+			final float right, final float bottom) {
+		mRectangle.mTexX[0] = left;
+		mRectangle.mTexY[0] = top;
+		mRectangle.mTexX[1] = left;
+		mRectangle.mTexY[1] = bottom;
+		mRectangle.mTexX[2] = right;
+		mRectangle.mTexY[2] = top;
+		mRectangle.mTexX[3] = right;
+		mRectangle.mTexY[3] = bottom;
+	}
+
+	/**
+	 * Returns the vertex positions, 3 floats per vertex.
+	 * 
+	 * @return
+	 */
+	public float[] getVertices() {
+		return mVertices;
+	}
+
+	/**
+	 * Returns the vertex colors, 4 floats per vertex.
+	 * 
+	 * @return
+	 */
+	public float[] getColors() {
+		return mColors;
+	}
+
+	/**
+	 * Returns the texture coordinates, 2 floats per vertex.
+	 * 
+	 * @return
+	 */
+	public float[] getTexCoords() {
+		return mTexCoords;
+	}
+
+	/**
+	 * Returns the shadow positions, 3 floats per vertex.
+	 * 
+	 * @return
+	 */
+	public float[] getShadowVertices() {
+		return mShadowVertices;
+	}
+
+	/**
+	 * Returns the shadow colors, 4 floats per vertex.
+	 * 
+	 * @return
+	 */
+	public float[] getShadowColors() {
+		return mShadowColors;
+	}
+
+	/**
+	 * Returns the number of front facing vertices.
+	 * 
+	 * @return
+	 */
+	public int getFrontCount() {
+		return mFrontCount;
+	}
+
+	/**
+	 * Returns the number of back facing vertices, after the front ones.
+	 * 
+	 * @return
+	 */
+	public int getBackCount() {
+		return mBackCount;
+	}
+
+	/**
+	 * Returns the number of drop shadow vertices.
+	 * 
+	 * @return
+	 */
+	public int getDropShadowCount() {
+		return mDropShadowCount;
+	}
+
+	/**
+	 * Returns the number of self shadow vertices, after the drop shadow.
+	 * 
+	 * @return
+	 */
+	public int getSelfShadowCount() {
+		return mSelfShadowCount;
+	}
+
+	/**
+	 * Fixed size list of vertices, kept as parallel arrays.
+	 */
+	private static final class Vertices {
+		private final float[] mPosX;
+		private final float[] mPosY;
+		private final float[] mPosZ;
+		private final float[] mTexX;
+		private final float[] mTexY;
+		private final float[] mPenumbraX;
+		private final float[] mPenumbraY;
+		private final float[] mColorFactor;
+		private final int[] mColor;
+		private int mSize;
+
+		Vertices(final int capacity) {
+			mPosX = new float[capacity];
+			mPosY = new float[capacity];
+			mPosZ = new float[capacity];
+			mTexX = new float[capacity];
+			mTexY = new float[capacity];
+			mPenumbraX = new float[capacity];
+			mPenumbraY = new float[capacity];
+			mColorFactor = new float[capacity];
+			mColor = new int[capacity];
+			for (int i = 0; i < capacity; ++i) {
+				mColorFactor[i] = 1.0f;
+			}
+		}
+
+		/**
+		 * Appends a copy of the vertex.
+		 * 
+		 * @return its index.
+		 */
+		int add(final Vertices from, final int index) {
+			if (mSize >= mPosX.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			set(mSize, from, index);
+			return mSize++;
+		}
+
+		/**
+		 * Copies the vertex over the one at i.
+		 */
+		void set(final int i, final Vertices from, final int index) {
+			mPosX[i] = from.mPosX[index];
+			mPosY[i] = from.mPosY[index];
+			mPosZ[i] = from.mPosZ[index];
+			mTexX[i] = from.mTexX[index];
+			mTexY[i] = from.mTexY[index];
+			mPenumbraX[i] = from.mPenumbraX[index];
+			mPenumbraY[i] = from.mPenumbraY[index];
+			mColorFactor[i] = from.mColorFactor[index];
+			mColor[i] = from.mColor[index];
+		}
+
+		/**
+		 * Rotates position and penumbra of the vertex at i around the z
+		 * axis, by the angle whose cosine and sine are given.
+		 */
+		void rotateZ(final int i, final float cos, final float sin) {
+			final float x = mPosX[i] * cos + mPosY[i] * sin;
+			final float y = mPosX[i] * -sin + mPosY[i] * cos;
+			mPosX[i] = x;
+			mPosY[i] = y;
+			final float px = mPenumbraX[i] * cos + mPenumbraY[i] * sin;
+			final float py = mPenumbraX[i] * -sin + mPenumbraY[i] * cos;
+			mPenumbraX[i] = px;
+			mPenumbraY[i] = py;
+		}
+
+		/**
+		 * Translates the position of the vertex at i.
+		 */
+		void translate(final int i, final float dx, final float dy) {
+			mPosX[i] += dx;
+			mPosY[i] += dy;
+		}
+	}
+
+	/**
+	 * Fixed size list of shadow vertices, kept as parallel arrays.
+	 */
+	private static final class ShadowVertices {
+		private final float[] mPenumbraColor;
+		private final float[] mPenumbraX;
+		private final float[] mPenumbraY;
+		private final float[] mPosX;
+		private final float[] mPosY;
+		private final float[] mPosZ;
+		private int mSize;
+
+		ShadowVertices(final int capacity) {
+			mPenumbraColor = new float[capacity];
+			mPenumbraX = new float[capacity];
+			mPenumbraY = new float[capacity];
+			mPosX = new float[capacity];
+			mPosY = new float[capacity];
+			mPosZ = new float[capacity];
+		}
+
+		/**
+		 * Inserts the vertex in the middle of the list, which keeps the
+		 * vertices of both curl edges in triangle strip order.
+		 */
+		void insert(final float x, final float y, final float z,
+				final float penumbraX, final float penumbraY,
+				final float penumbraColor) {
+			if (mSize >= mPosX.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			final int index = (mSize + 1) / 2;
+			final int moved = mSize - index;
+			System.arraycopy(mPosX, index, mPosX, index + 1, moved);
+			System.arraycopy(mPosY, index, mPosY, index + 1, moved);
+			System.arraycopy(mPosZ, index, mPosZ, index + 1, moved);
+			System.arraycopy(mPenumbraX, index, mPenumbraX, index + 1, moved);
+			System.arraycopy(mPenumbraY, index, mPenumbraY, index + 1, moved);
+			System.arraycopy(mPenumbraColor, index, mPenumbraColor,
+					index + 1, moved);
+			mPosX[index] = x;
+			mPosY[index] = y;
+			mPosZ[index] = z;
+			mPenumbraX[index] = penumbraX;
+			mPenumbraY[index] = penumbraY;
+			mPenumbraColor[index] = penumbraColor;
+			mSize++;
+		}
+	}}
@@ -19,12 +19,15 @@ package br.edu.help.lovingyou.app.view.component;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.RectF;
+import android.util.Log;
 
 /**
  * Class implementing actual curl/page rendering.
@@ -59,25 +62,45 @@ public class CurlMesh {
 	private static final boolean DRAW_TEXTURE = true;
 
 	/**
-	 * Colors for shadow. Inner one is the color drawn next to surface where
-	 * shadowed area starts and outer one is color shadow ends to.
+	 * Color drawn instead of a texture which is still being decoded.
 	 */
-	private static final float[] SHW_INNER_COLOR = { 0f, 0f, 0f, .5f };
-	private static final float[] SHDW_OUTER_COLOR = { 0f, 0f, 0f, .0f };
+	private static final int PLACEHOLDER_COLOR = 0xFFE8E8E8;
 
 	/**
-	 * Let's avoid using 'new' as much as possible. Meaning we introduce arrays
-	 * once here and reuse them on runtime. Doesn't really have very much effect
-	 * but avoids some garbage collections from happening.
+	 * Flag for keeping mesh data in vertex buffer objects when the context
+	 * supports them. Otherwise client side buffers are sent on every draw.
 	 */
-	private transient Array<ShadowVertex> dropShwVertices;
-	private transient final Array<Vertex> intersections;
-	private transient final Array<Vertex> outputVertices;
-	private transient final Array<Vertex> rotatedVertices;
-	private transient final Array<Double> scanLines;
-	private transient final Array<ShadowVertex> selfShwVertices;
-	private transient final Array<ShadowVertex> tempShwVertices;
-	private transient final Array<Vertex> tempVertices;
+	private static final boolean USE_VBO = true;
+
+	/**
+	 * Log tag of the per frame transfer report.
+	 */
+	private static final String TAG = "CurlMesh";
+
+	/**
+	 * Bytes of a mesh vertex: position, color and texture coordinates.
+	 */
+	private static final int MESH_VERTEX_BYTES = (3 + 4 + 2) * 4;
+
+	/**
+	 * Bytes of a shadow vertex: position and color.
+	 */
+	private static final int SHADOW_VERTEX_BYTES = (3 + 4) * 4;
+
+	/**
+	 * Bytes uploaded to vertex buffer objects during the current frame.
+	 */
+	private static long sUploadedBytes;
+
+	/**
+	 * Bytes client side buffers would have sent during the current frame.
+	 */
+	private static long sClientBytes;
+
+	/**
+	 * Curl geometry, worked out in plain java and copied into the buffers.
+	 */
+	private transient final CurlGeometry mGeometry;
 
 	/**
 	 * Buffers for feeding rasterizer.
@@ -96,16 +119,6 @@ public class CurlMesh {
 	 * Boolean for 'flipping' texture sideways.
 	 */
 	private transient boolean mFlipTexture = false;
-	/**
-	 * Maximum number of split lines used for creating a curl.
-	 * 
-	 */
-	private transient final int mMaxCurlSplits;
-
-	/**
-	 * Bounding rectangle for this mesh. mRectagle[0] = top-left corner,
-	 */
-	private transient final Vertex[] mRectangle = new Vertex[4];
 	private transient int mSelfShadowCount;
 
 	private transient boolean mTextureBack = false;
@@ -121,6 +134,71 @@ public class CurlMesh {
 	private transient int vertCountFront;
 	private int[] mTextureIds;
 
+	/**
+	 * Vertex buffer objects of the mesh. Positions and shadows change with
+	 * every curl, colors and texture coordinates are only sent once they
+	 * differ from what the GPU holds.
+	 */
+	private transient final BufferObject mVboVertices;
+	private transient final BufferObject mVboColors;
+	private transient final BufferObject mVboTexCoords;
+	private transient final BufferObject mVboShadowVertices;
+	private transient final BufferObject mVboShadowColors;
+
+	/**
+	 * Whether the front and back textures hold their page already.
+	 */
+	private transient final boolean[] mTexturesReady = { true, true };
+
+	/**
+	 * True if the curl is left to {@link CurlShader}. The mesh then only
+	 * keeps the curl arguments and its bounds, and builds its shadows.
+	 */
+	private transient volatile boolean mShaderCurl;
+
+	/**
+	 * Curl arguments drawn, and whether the mesh is curled at all. Copied
+	 * from the newest {@link State} on the GL thread.
+	 */
+	private transient final PointF mCurlPos = new PointF();
+	private transient final PointF mCurlDir = new PointF();
+	private transient float mCurlRadius;
+	private transient boolean mCurled;
+
+	/**
+	 * Mesh bounds drawn.
+	 */
+	private transient final RectF mRect = new RectF();
+
+	/**
+	 * State as set by the view, on the UI thread while dragging and on the
+	 * GL thread while animating. Setters copy into it under its own lock,
+	 * which only ever guards those few fields, then publish a copy.
+	 */
+	private transient final State mInput = new State();
+
+	/**
+	 * Copy the next publish is written into, guarded by mInput.
+	 */
+	private transient State mSpare = new State();
+
+	/**
+	 * Newest state published. The setters and the GL thread swap their
+	 * copies with it, so neither waits for the other.
+	 */
+	private transient final AtomicReference<State> mPublished = new AtomicReference<State>(
+			new State());
+
+	/**
+	 * State drawn, owned by the GL thread.
+	 */
+	private transient State mDrawn = new State();
+
+	/**
+	 * True if the geometry must be rebuilt before drawing, GL thread only.
+	 */
+	private transient boolean mGeometryDirty = true;
+
 	/**
 	 * Constructor for mesh object.
 	 * 
@@ -132,40 +210,7 @@ public class CurlMesh {
 	public CurlMesh(final int maxCurlSplits) {
 		mTexturePage = new CurlPage();
 
-		// There really is no use for 0 splits.
-		mMaxCurlSplits = maxCurlSplits < 1 ? 1 : maxCurlSplits;
-
-		scanLines = new Array<Double>(maxCurlSplits + 2);
-		outputVertices = new Array<Vertex>(7);
-		rotatedVertices = new Array<Vertex>(4);
-		intersections = new Array<Vertex>(2);
-		tempVertices = new Array<Vertex>(7 + 4);
-		for (int i = 0; i < 7 + 4; ++i) {
-			tempVertices.add(new Vertex());
-		}
-
-		if (DRAW_SHADOW) {
-			selfShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
-			dropShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
-			tempShwVertices = new Array<ShadowVertex>((mMaxCurlSplits + 2) * 2);
-			for (int i = 0; i < (mMaxCurlSplits + 2) * 2; ++i) {
-				tempShwVertices.add(new ShadowVertex());
-			}
-		}
-
-		// Rectangle consists of 4 vertices. Index 0 = top-left, index 1 =
-		// bottom-left, index 2 = top-right and index 3 = bottom-right.
-		for (int i = 0; i < 4; ++i) {
-			mRectangle[i] = new Vertex();
-		}
-		// Set up shadow penumbra direction to each vertex. We do fake 'self
-		// shadow' calculations based on this information.
-		mRectangle[0].mPenumbraX = mRectangle[1].mPenumbraX = mRectangle[1].mPenumbraY = mRectangle[3].mPenumbraY = -1;// NOSONAR
-																														// this
-																														// is
-																														// external
-																														// code
-		mRectangle[0].mPenumbraY = mRectangle[2].mPenumbraX = mRectangle[2].mPenumbraY = mRectangle[3].mPenumbraX = 1;// NOSONAR
+		mGeometry = new CurlGeometry(maxCurlSplits, DRAW_TEXTURE, DRAW_SHADOW);
 
 		if (CURL_POSITION) {
 			curlPosLnCount = 3;
@@ -176,65 +221,51 @@ public class CurlMesh {
 			curlPositionLines.position(0);
 		}
 
-		/*
-		 * There are 4 vertices from bounding rect, max 2 from adding split line
-		 * to two corners and curl consists of max mMaxCurlSplits lines each
-		 * outputting 2 vertices.
-		 */
-		final int maxVerticesCount = 4 + 2 + (2 * mMaxCurlSplits);
-		final ByteBuffer vbb = ByteBuffer
-				.allocateDirect(maxVerticesCount * 3 * 4);
+		// Buffers hold as much as the geometry can output.
+		final ByteBuffer vbb = ByteBuffer.allocateDirect(mGeometry
+				.getVertices().length * 4);
 		vbb.order(ByteOrder.nativeOrder());
 		mBufVertices = vbb.asFloatBuffer();
 		mBufVertices.position(0);
 
 		if (DRAW_TEXTURE) {
-			final ByteBuffer tbb = ByteBuffer
-					.allocateDirect(maxVerticesCount * 2 * 4);
+			final ByteBuffer tbb = ByteBuffer.allocateDirect(mGeometry
+					.getTexCoords().length * 4);
 			tbb.order(ByteOrder.nativeOrder());
 			mBufTexCoords = tbb.asFloatBuffer();
 			mBufTexCoords.position(0);
 		}
 
-		final ByteBuffer cbb = ByteBuffer
-				.allocateDirect(maxVerticesCount * 4 * 4);
+		final ByteBuffer cbb = ByteBuffer.allocateDirect(mGeometry
+				.getColors().length * 4);
 		cbb.order(ByteOrder.nativeOrder());
 		mBufColors = cbb.asFloatBuffer();
 		mBufColors.position(0);
 
 		if (DRAW_SHADOW) {
-			final int maxShadowVertCnt = (mMaxCurlSplits + 2) * 2 * 2;
-			final ByteBuffer scbb = ByteBuffer
-					.allocateDirect(maxShadowVertCnt * 4 * 4);
+			final ByteBuffer scbb = ByteBuffer.allocateDirect(mGeometry
+					.getShadowColors().length * 4);
 			scbb.order(ByteOrder.nativeOrder());
 			mBufShadowColors = scbb.asFloatBuffer();
 			mBufShadowColors.position(0);
 
-			final ByteBuffer sibb = ByteBuffer
-					.allocateDirect(maxShadowVertCnt * 3 * 4);
+			final ByteBuffer sibb = ByteBuffer.allocateDirect(mGeometry
+					.getShadowVertices().length * 4);
 			sibb.order(ByteOrder.nativeOrder());
 			bShadowVertices = sibb.asFloatBuffer();
 			bShadowVertices.position(0);
 
 			dropShowCount = mSelfShadowCount = 0;
 		}
-	}
 
-	/**
-	 * Adds vertex to buffers.
-	 */
-	private void addVertex(final Vertex vertex) {
-		mBufVertices.put((float) vertex.mPosX);
-		mBufVertices.put((float) vertex.mPosY);
-		mBufVertices.put((float) vertex.mPosZ);
-		mBufColors.put(vertex.mColorFactor * Color.red(vertex.mColor) / 255f);
-		mBufColors.put(vertex.mColorFactor * Color.green(vertex.mColor) / 255f);
-		mBufColors.put(vertex.mColorFactor * Color.blue(vertex.mColor) / 255f);
-		mBufColors.put(Color.alpha(vertex.mColor) / 255f);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.put((float) vertex.mTexX);
-			mBufTexCoords.put((float) vertex.mTexY);
-		}
+		mVboVertices = new BufferObject(mBufVertices, false);
+		mVboColors = new BufferObject(mBufColors, true);
+		mVboTexCoords = DRAW_TEXTURE ? new BufferObject(mBufTexCoords, true)
+				: null;
+		mVboShadowVertices = DRAW_SHADOW ? new BufferObject(bShadowVertices,
+				false) : null;
+		mVboShadowColors = DRAW_SHADOW ? new BufferObject(mBufShadowColors,
+				false) : null;
 	}
 
 	/**
@@ -248,11 +279,76 @@ public class CurlMesh {
 	 * @param radius
 	 *            Radius of curl.
 	 */
-	public synchronized void curl(final PointF curlPos, final PointF curlDir,
+	public void curl(final PointF curlPos, final PointF curlDir,
 			final double radius) {
+		synchronized (mInput) {
+			mInput.pos.set(curlPos);
+			mInput.dir.set(curlDir);
+			mInput.radius = (float) radius;
+			mInput.curled = true;
+			publish();
+		}
+	}
+
+	/**
+	 * Publishes a copy of mInput, the caller holds its lock.
+	 */
+	private void publish() {
+		mInput.version++;
+		mSpare.set(mInput);
+		mSpare = mPublished.getAndSet(mSpare);
+	}
+
+	/**
+	 * Takes the newest state published, if newer than the one drawn. Called
+	 * on the GL thread as a frame starts.
+	 */
+	private void takeState() {
+		if (mPublished.get().version <= mDrawn.version) {
+			return;
+		}
+		mDrawn = mPublished.getAndSet(mDrawn);
+		final State state = mDrawn;
+		mCurlPos.set(state.pos);
+		mCurlDir.set(state.dir);
+		mCurlRadius = state.radius;
+		mCurled = state.curled;
+		mRect.set(state.rect);
+		mFlipTexture = state.flipTexture;
+		mGeometry.setRect(mRect.left, mRect.top, mRect.right, mRect.bottom);
+		mGeometry.setFlipTexture(mFlipTexture);
+		mGeometryDirty = true;
+	}
+
+	/**
+	 * Rebuilds the geometry from the state drawn, on the GL thread.
+	 */
+	private void buildGeometry() {
+		mGeometryDirty = false;
+		if (mShaderCurl) {
+			// The shader curls the page, its shadows are still built here.
+			if (DRAW_SHADOW) {
+				if (mCurled) {
+					mGeometry.curl(mCurlPos.x, mCurlPos.y, mCurlDir.x,
+							mCurlDir.y, mCurlRadius);
+				} else {
+					mGeometry.reset();
+				}
+				copyShadows();
+			}
+			return;
+		}
+		if (!mCurled) {
+			updateGeometry();
+			mGeometry.reset();
+			copyGeometry();
+			return;
+		}
 
 		// First add some 'helper' lines used for development.
 		if (CURL_POSITION) {
+			final PointF curlPos = mCurlPos;
+			final PointF curlDir = mCurlDir;
 			curlPositionLines.position(0);
 
 			curlPositionLines.put(curlPos.x);
@@ -272,393 +368,98 @@ public class CurlMesh {
 			curlPositionLines.position(0);
 		}
 
-		// Actual 'curl' implementation starts here.
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
-		}
-
-		// Calculate curl angle from direction.
-		double curlAngle = Math.acos(curlDir.x);
-		curlAngle = curlDir.y > 0 ? -curlAngle : curlAngle;
+		// Actual 'curl' implementation is left to the geometry.
+		final long start = FrameTimings.start();
+		updateGeometry();
+		mGeometry.curl(mCurlPos.x, mCurlPos.y, mCurlDir.x, mCurlDir.y,
+				mCurlRadius);
+		copyGeometry();
+		FrameTimings.getInstance().record(FrameTimings.PHASE_CURL, start);
+	}
 
-		/*
-		 * Initiate rotated rectangle which's is translated to curlPos and
-		 * rotated so that curl direction heads to right (1,0). Vertices are
-		 * ordered in ascending order based on x -coordinate at the same time.
-		 * And using y -coordinate in very rare case in which two vertices have
-		 * same x -coordinate.
-		 */
-		tempVertices.addAll(rotatedVertices);
-		rotatedVertices.clear();
-		for (int i = 0; i < 4; ++i) {
-			final Vertex vertex = tempVertices.remove(0);
-			vertex.set(mRectangle[i]);
-			vertex.translate(-curlPos.x, -curlPos.y);
-			vertex.rotateZ(-curlAngle);
-			int jjj = 0;
-			for (; jjj < rotatedVertices.size(); ++jjj) {
-				final Vertex vertex2 = rotatedVertices.get(jjj);
-				if (vertex.mPosX > vertex2.mPosX) {
-					break;
-				}
-				if (vertex.mPosX == vertex2.mPosX
-						&& vertex.mPosY > vertex2.mPosY) {
-					break;
-				}
-			}
-			rotatedVertices.add(jjj, vertex);
-		}
+	/**
+	 * Hands the page colors and texture layout to the geometry.
+	 */
+	private void updateGeometry() {
+		mGeometry.setColors(mTexturePage.getColor(CurlPage.SIDE_FRONT),
+				mTexturePage.getColor(CurlPage.SIDE_BACK));
+		mGeometry.setTextureScale(mTextureRectFront.right,
+				mTextureRectFront.bottom, mTextureRectBack.right,
+				mTextureRectBack.bottom);
+		mGeometry.setTextureBack(mTextureBack);
+	}
 
-		/*
-		 * Rotated rectangle lines/vertex indices. We need to find bounding
-		 * lines for rotated rectangle. After sorting vertices according to
-		 * their x -coordinate we don't have to worry about vertices at indices
-		 * 0 and 1. But due to inaccuracy it's possible vertex 3 is not the
-		 * opposing corner from vertex 0. So we are calculating distance from
-		 * vertex 0 to vertices 2 and 3 - and altering line indices if needed.
-		 * Also vertices/lines are given in an order first one has x -coordinate
-		 * at least the latter one. This property is used in getIntersections to
-		 * see if there is an intersection.
-		 */
-		final int lines[][] = { { 0, 1 }, { 0, 2 }, { 1, 3 }, { 2, 3 } };
-		{
-			/*
-			 * TODO: There really has to be more 'easier' way of doing this -
-			 * not including extensive use of sqrt.
-			 */
-			final Vertex vertex0 = rotatedVertices.get(0);
-			final Vertex vertex2 = rotatedVertices.get(2);
-			final Vertex vertex3 = rotatedVertices.get(3);
-			final double dist2 = Math.sqrt((vertex0.mPosX - vertex2.mPosX)
-					* (vertex0.mPosX - vertex2.mPosX)
-					+ (vertex0.mPosY - vertex2.mPosY)
-					* (vertex0.mPosY - vertex2.mPosY));
-			final double dist3 = Math.sqrt((vertex0.mPosX - vertex3.mPosX)
-					* (vertex0.mPosX - vertex3.mPosX)
-					+ (vertex0.mPosY - vertex3.mPosY)
-					* (vertex0.mPosY - vertex3.mPosY));
-			if (dist2 > dist3) {
-				lines[1][1] = 3;
-				lines[2][1] = 2;
-			}
+	/**
+	 * Copies the geometry into the buffers feeding the rasterizer.
+	 */
+	private void copyGeometry() {
+		final CurlGeometry geometry = mGeometry;
+		vertCountFront = geometry.getFrontCount();
+		vertCountBack = geometry.getBackCount();
+		final int vertices = vertCountFront + vertCountBack;
+		put(mBufVertices, geometry.getVertices(), vertices * 3);
+		put(mBufColors, geometry.getColors(), vertices * 4);
+		if (DRAW_TEXTURE) {
+			put(mBufTexCoords, geometry.getTexCoords(), vertices * 2);
 		}
-
-		vertCountFront = vertCountBack = 0;
-
 		if (DRAW_SHADOW) {
-			tempShwVertices.addAll(dropShwVertices);
-			tempShwVertices.addAll(selfShwVertices);
-			dropShwVertices.clear();
-			selfShwVertices.clear();
-		}
-
-		// Length of 'curl' curve.
-		final double curlLength = Math.PI * radius;
-		// Calculate scan lines.
-		// TODO: Revisit this code one day. There is room for optimization here.
-		scanLines.clear();
-		if (mMaxCurlSplits > 0) {
-			scanLines.add((double) 0);
-		}
-		for (int i = 1; i < mMaxCurlSplits; ++i) {
-			scanLines.add((-curlLength * i) / (mMaxCurlSplits - 1));
-		}
-		/*
-		 * As mRotatedVertices is ordered regarding x -coordinate, adding this
-		 * scan line produces scan area picking up vertices which are rotated
-		 * completely. One could say 'until infinity'.
-		 */
-		scanLines.add(rotatedVertices.get(3).mPosX - 1);
-
-		/*
-		 * Start from right most vertex. Pretty much the same as first scan area
-		 * is starting from 'infinity'.
-		 */
-		double scanXmax = rotatedVertices.get(0).mPosX + 1;
-
-		for (int i = 0; i < scanLines.size(); ++i) {
-			// Once we have scanXmin and scanXmax we have a scan area to start
-			// working with.
-			final double scanXmin = scanLines.get(i);
-			// First iterate 'original' rectangle vertices within scan area.
-			for (int jjj = 0; jjj < rotatedVertices.size(); ++jjj) {
-				final Vertex vertex = rotatedVertices.get(jjj);
-				// Test if vertex lies within this scan area.
-				/*
-				 * TODO: Frankly speaking, can't remember why equality check was
-				 * added to both ends. Guessing it was somehow related to case
-				 * where radius=0f, which, given current implementation, could
-				 * be handled much more effectively anyway.
-				 */
-				if (vertex.mPosX >= scanXmin && vertex.mPosX <= scanXmax) {
-					// Pop out a vertex from temp vertices.
-					final Vertex n = tempVertices.remove(0);
-					n.set(vertex);
-					/*
-					 * This is done solely for triangulation reasons. Given a
-					 * rotated rectangle it has max 2 vertices having
-					 * intersection.
-					 */
-					final Array<Vertex> intersections = getIntersections(
-							rotatedVertices, lines, n.mPosX);
-					/*
-					 * In a sense one could say we're adding vertices always in
-					 * two, positioned at the ends of intersecting line. And for
-					 * triangulation to work properly they are added based on y
-					 * -coordinate. And this if-else is doing it for us.
-					 */
-					if (intersections.size() == 1
-							&& intersections.get(0).mPosY > vertex.mPosY) {
-						// In case intersecting vertex is higher add it first.
-						outputVertices.addAll(intersections);
-						outputVertices.add(n);
-					} else if (intersections.size() <= 1) {
-						// Otherwise add original vertex first.
-						outputVertices.add(n);
-						outputVertices.addAll(intersections);
-					} else {
-						/*
-						 * There should never be more than 1 intersecting
-						 * vertex. But if it happens as a fallback simply skip
-						 * everything.
-						 */
-						tempVertices.add(n);
-						tempVertices.addAll(intersections);
-					}
-				}
-			}
-
-			// Search for scan line intersections.
-			final Array<Vertex> intersections = getIntersections(
-					rotatedVertices, lines, scanXmin);
-
-			/*
-			 * We expect to get 0 or 2 vertices. In rare cases there's only one
-			 * but in general given a scan line intersecting rectangle there
-			 * should be 2 intersecting vertices.
-			 */
-			if (intersections.size() == 2) {
-				// There were two intersections, add them based on y
-				// -coordinate, higher first, lower last.
-				final Vertex v1 = intersections.get(0);
-				final Vertex v2 = intersections.get(1);
-				if (v1.mPosY < v2.mPosY) {
-					outputVertices.add(v2);
-					outputVertices.add(v1);
-				} else {
-					outputVertices.addAll(intersections);
-				}
-			} else if (intersections.size() != 0) {
-				/*
-				 * This happens in a case in which there is a original vertex
-				 * exactly at scan line or something went very much wrong if
-				 * there are 3+ vertices. What ever the reason just return the
-				 * vertices to temp vertices for later use. In former case it
-				 * was handled already earlier once iterating through
-				 * mRotatedVertices, in latter case it's better to avoid doing
-				 * anything with them.
-				 */
-				tempVertices.addAll(intersections);
-			}
-
-			// Add vertices found during this iteration to vertex etc buffers.
-			while (outputVertices.size() > 0) {
-				final Vertex v = outputVertices.remove(0);
-				tempVertices.add(v);
-
-				// Local texture front-facing flag.
-				boolean textureFront;
-
-				// Untouched vertices.
-				if (i == 0) {
-					textureFront = true;
-					vertCountFront++;
-				}
-				// 'Completely' rotated vertices.
-				else if (i == scanLines.size() - 1 || curlLength == 0) {
-					v.mPosX = -(curlLength + v.mPosX);
-					v.mPosZ = 2 * radius;
-					v.mPenumbraX = -v.mPenumbraX;
-
-					textureFront = false;
-					vertCountBack++;
-				}
-				// Vertex lies within 'curl'.
-				else {
-					/*
-					 * Even though it's not obvious from the if-else clause,
-					 * here v.mPosX is between [-curlLength, 0]. And we can do
-					 * calculations around a half cylinder.
-					 */
-					final double rotY = Math.PI * (v.mPosX / curlLength);
-					v.mPosX = radius * Math.sin(rotY);
-					v.mPosZ = radius - (radius * Math.cos(rotY));
-					v.mPenumbraX *= Math.cos(rotY);
-					// Map color multiplier to [.1f, 1f] range.
-					v.mColorFactor = (float) (.1f + .9f * Math.sqrt(Math
-							.sin(rotY) + 1));
-
-					if (v.mPosZ >= radius) {
-						textureFront = false;
-						vertCountBack++;
-					} else {
-						textureFront = true;
-						vertCountFront++;
-					}
-				}
-
-				/*
-				 * We use local textureFront for flipping backside texture
-				 * locally. Plus additionally if mesh is in flip texture mode,
-				 * we'll make the procedure "backwards". Also, until this point,
-				 * texture coordinates are within [0, 1] range so we'll adjust
-				 * them to final texture coordinates too.
-				 */
-				if (textureFront != mFlipTexture) {
-					v.mTexX *= mTextureRectFront.right;
-					v.mTexY *= mTextureRectFront.bottom;
-					v.mColor = mTexturePage.getColor(CurlPage.SIDE_FRONT);
-				} else {
-					v.mTexX *= mTextureRectBack.right;
-					v.mTexY *= mTextureRectBack.bottom;
-					v.mColor = mTexturePage.getColor(CurlPage.SIDE_BACK);
-				}
-
-				// Move vertex back to 'world' coordinates.
-				v.rotateZ(curlAngle);
-				v.translate(curlPos.x, curlPos.y);
-				addVertex(v);
-
-				// Drop shadow is cast 'behind' the curl.
-				if (DRAW_SHADOW && v.mPosZ > 0 && v.mPosZ <= radius) {
-					final ShadowVertex sv = tempShwVertices.remove(0);
-					sv.mPosX = v.mPosX;
-					sv.mPosY = v.mPosY;
-					sv.mPosZ = v.mPosZ;
-					sv.mPenumbraX = (v.mPosZ / 2) * -curlDir.x;
-					sv.mPenumbraY = (v.mPosZ / 2) * -curlDir.y;
-					sv.mPenumbraColor = v.mPosZ / radius;
-					final int idx = (dropShwVertices.size() + 1) / 2;
-					dropShwVertices.add(idx, sv);
-				}
-				// Self shadow is cast partly over mesh.
-				if (DRAW_SHADOW && v.mPosZ > radius) {
-					final ShadowVertex sv = tempShwVertices.remove(0);
-					sv.mPosX = v.mPosX;
-					sv.mPosY = v.mPosY;
-					sv.mPosZ = v.mPosZ;
-					sv.mPenumbraX = ((v.mPosZ - radius) / 3) * v.mPenumbraX;
-					sv.mPenumbraY = ((v.mPosZ - radius) / 3) * v.mPenumbraY;
-					sv.mPenumbraColor = (v.mPosZ - radius) / (2 * radius);
-					final int idx = (selfShwVertices.size() + 1) / 2;
-					selfShwVertices.add(idx, sv);
-				}
-			}
-
-			// Switch scanXmin as scanXmax for next iteration.
-			scanXmax = scanXmin;
+			copyShadows();
 		}
+		invalidateBuffers();
+	}
 
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
-		}
+	/**
+	 * Copies the shadows of the geometry into their buffers.
+	 */
+	private void copyShadows() {
+		final CurlGeometry geometry = mGeometry;
+		dropShowCount = geometry.getDropShadowCount();
+		mSelfShadowCount = geometry.getSelfShadowCount();
+		final int shadows = dropShowCount + mSelfShadowCount;
+		put(bShadowVertices, geometry.getShadowVertices(), shadows * 3);
+		put(mBufShadowColors, geometry.getShadowColors(), shadows * 4);
+	}
 
-		// Add shadow Vertices.
-		if (DRAW_SHADOW) {
-			mBufShadowColors.position(0);
-			bShadowVertices.position(0);
-			dropShowCount = 0;
-
-			for (int i = 0; i < dropShwVertices.size(); ++i) {
-				final ShadowVertex sv = dropShwVertices.get(i);
-				bShadowVertices.put((float) sv.mPosX);
-				bShadowVertices.put((float) sv.mPosY);
-				bShadowVertices.put((float) sv.mPosZ);
-				bShadowVertices.put((float) (sv.mPosX + sv.mPenumbraX));
-				bShadowVertices.put((float) (sv.mPosY + sv.mPenumbraY));
-				bShadowVertices.put((float) sv.mPosZ);
-				for (int j = 0; j < 4; ++j) {
-					final double color = SHDW_OUTER_COLOR[j]
-							+ (SHW_INNER_COLOR[j] - SHDW_OUTER_COLOR[j])
-							* sv.mPenumbraColor;
-					mBufShadowColors.put((float) color);
-				}
-				mBufShadowColors.put(SHDW_OUTER_COLOR);
-				dropShowCount += 2;
-			}
-			mSelfShadowCount = 0;
-			for (int i = 0; i < selfShwVertices.size(); ++i) {
-				final ShadowVertex sv = selfShwVertices.get(i);
-				bShadowVertices.put((float) sv.mPosX);
-				bShadowVertices.put((float) sv.mPosY);
-				bShadowVertices.put((float) sv.mPosZ);
-				bShadowVertices.put((float) (sv.mPosX + sv.mPenumbraX));
-				bShadowVertices.put((float) (sv.mPosY + sv.mPenumbraY));
-				bShadowVertices.put((float) sv.mPosZ);
-				for (int j = 0; j < 4; ++j) {
-					final double color = SHDW_OUTER_COLOR[j]
-							+ (SHW_INNER_COLOR[j] - SHDW_OUTER_COLOR[j])
-							* sv.mPenumbraColor;
-					mBufShadowColors.put((float) color);
-				}
-				mBufShadowColors.put(SHDW_OUTER_COLOR);
-				mSelfShadowCount += 2;
-			}
-			mBufShadowColors.position(0);
-			bShadowVertices.position(0);
-		}
+	/**
+	 * Copies the floats to the start of the buffer.
+	 */
+	private static void put(final FloatBuffer buffer, final float[] data,
+			final int floats) {
+		buffer.position(0);
+		buffer.put(data, 0, floats);
+		buffer.position(0);
 	}
 
 	/**
-	 * Calculates intersections for given scan line.
+	 * Tells the vertex buffer objects the client side buffers were rebuilt.
 	 */
-	private Array<Vertex> getIntersections(final Array<Vertex> vertices,
-			final int[][] lineIndices, final double scanX) {
-		intersections.clear();
-		// Iterate through rectangle lines each re-presented as a pair of
-		// vertices.
-		for (int j = 0; j < lineIndices.length; j++) {
-			final Vertex v1 = vertices.get(lineIndices[j][0]);
-			final Vertex v2 = vertices.get(lineIndices[j][1]);
-			// Here we expect that v1.mPosX >= v2.mPosX and wont do intersection
-			// test the opposite way.
-			if (v1.mPosX > scanX && v2.mPosX < scanX) {
-				// There is an intersection, calculate coefficient telling 'how
-				// far' scanX is from v2.
-				final double c = (scanX - v2.mPosX) / (v1.mPosX - v2.mPosX);
-				final Vertex n = tempVertices.remove(0);
-				n.set(v2);
-				n.mPosX = scanX;
-				n.mPosY += (v1.mPosY - v2.mPosY) * c;
-				if (DRAW_TEXTURE) {
-					n.mTexX += (v1.mTexX - v2.mTexX) * c;
-					n.mTexY += (v1.mTexY - v2.mTexY) * c;
-				}
-				if (DRAW_SHADOW) {
-					n.mPenumbraX += (v1.mPenumbraX - v2.mPenumbraX) * c;
-					n.mPenumbraY += (v1.mPenumbraY - v2.mPenumbraY) * c;
-				}
-				intersections.add(n);
-			}
+	private void invalidateBuffers() {
+		final int vertices = vertCountFront + vertCountBack;
+		mVboVertices.invalidate(vertices * 3);
+		mVboColors.invalidate(vertices * 4);
+		if (DRAW_TEXTURE) {
+			mVboTexCoords.invalidate(vertices * 2);
+		}
+		if (DRAW_SHADOW) {
+			final int shadows = dropShowCount + mSelfShadowCount;
+			mVboShadowVertices.invalidate(shadows * 3);
+			mVboShadowColors.invalidate(shadows * 4);
 		}
-		return intersections;
 	}
 
 	/**
 	 * Getter for textures page for this mesh.
 	 */
-	public synchronized CurlPage getTexturePage() {
+	public CurlPage getTexturePage() {
 		return mTexturePage;
 	}
 
 	/**
 	 * Renders our page curl mesh.
 	 */
-	public synchronized void onDrawFrame(final GL10 gl) {
+	public void onDrawFrame(final GL10 gl) {
+		takeState();
+
 		// First allocate texture if there is not one yet.
 
 		if (DRAW_TEXTURE && baseTextureIds == null) {
@@ -728,9 +529,14 @@ public class CurlMesh {
 			}
 
 			mTexturePage.recycle();
-			reset();
+			mGeometryDirty = true;
+		}
+		if (mGeometryDirty) {
+			buildGeometry();
 		}
 
+		final GL11 gl11 = USE_VBO && gl instanceof GL11 ? (GL11) gl : null;
+
 		// Some 'global' settings.
 		gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 
@@ -741,72 +547,79 @@ public class CurlMesh {
 			gl.glEnable(GL10.GL_BLEND);
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-			gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufShadowColors);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, bShadowVertices);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, dropShowCount);
+			colorPointer(gl, gl11, mVboShadowColors);
+			vertexPointer(gl, gl11, mVboShadowVertices);
+			drawArrays(gl, 0, dropShowCount, SHADOW_VERTEX_BYTES);
 			gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 			gl.glDisable(GL10.GL_BLEND);
 		}
 
 		if (DRAW_TEXTURE) {
 			gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-			gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mBufTexCoords);
+			texCoordPointer(gl, gl11, mVboTexCoords);
 		}
-		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mBufVertices);
+		vertexPointer(gl, gl11, mVboVertices);
 		// Enable color array.
 		gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-		gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufColors);
+		colorPointer(gl, gl11, mVboColors);
 
 		// Draw front facing blank vertices.
 		gl.glDisable(GL10.GL_TEXTURE_2D);
-		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, vertCountFront);
+		drawArrays(gl, 0, vertCountFront, MESH_VERTEX_BYTES);
 
 		// Draw front facing texture.
 		if (DRAW_TEXTURE) {
-			gl.glEnable(GL10.GL_BLEND);
-			gl.glEnable(GL10.GL_TEXTURE_2D);
+			final int texture = !mFlipTexture || !mTextureBack ? 0 : 1;
+			if (mTexturesReady[texture]) {
+				gl.glEnable(GL10.GL_BLEND);
+				gl.glEnable(GL10.GL_TEXTURE_2D);
 
-			if (!mFlipTexture || !mTextureBack) {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[0]);
-			} else {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[1]);
-			}
+				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[texture]);
 
-			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, vertCountFront);
+				gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+				drawArrays(gl, 0, vertCountFront, MESH_VERTEX_BYTES);
 
-			gl.glDisable(GL10.GL_BLEND);
-			gl.glDisable(GL10.GL_TEXTURE_2D);
+				gl.glDisable(GL10.GL_BLEND);
+				gl.glDisable(GL10.GL_TEXTURE_2D);
+			} else {
+				drawPlaceholder(gl, 0, vertCountFront);
+			}
 		}
 
 		final int backStartIdx = Math.max(0, vertCountFront - 2);
 		final int backCount = vertCountFront + vertCountBack - backStartIdx;
 
 		// Draw back facing blank vertices.
-		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, backStartIdx, backCount);
+		drawArrays(gl, backStartIdx, backCount, MESH_VERTEX_BYTES);
 
 		// Draw back facing texture.
 		if (DRAW_TEXTURE) {
-			gl.glEnable(GL10.GL_BLEND);
-			gl.glEnable(GL10.GL_TEXTURE_2D);
+			final int texture = mFlipTexture || !mTextureBack ? 0 : 1;
+			if (mTexturesReady[texture]) {
+				gl.glEnable(GL10.GL_BLEND);
+				gl.glEnable(GL10.GL_TEXTURE_2D);
 
-			if (mFlipTexture || !mTextureBack) {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[0]);
-			} else {
-				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[1]);
-			}
+				gl.glBindTexture(GL10.GL_TEXTURE_2D, baseTextureIds[texture]);
 
-			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, backStartIdx, backCount);
+				gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+				drawArrays(gl, backStartIdx, backCount, MESH_VERTEX_BYTES);
 
-			gl.glDisable(GL10.GL_BLEND);
-			gl.glDisable(GL10.GL_TEXTURE_2D);
+				gl.glDisable(GL10.GL_BLEND);
+				gl.glDisable(GL10.GL_TEXTURE_2D);
+			} else {
+				drawPlaceholder(gl, backStartIdx, backCount);
+			}
 		}
 
 		// Disable textures and color array.
 		gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 		gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 
+		// Development helpers below use client side buffers.
+		if (gl11 != null) {
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		}
+
 		if (POLYGON_OUTLINES) {
 			gl.glEnable(GL10.GL_BLEND);
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
@@ -831,251 +644,346 @@ public class CurlMesh {
 			gl.glEnable(GL10.GL_BLEND);
 			gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-			gl.glColorPointer(4, GL10.GL_FLOAT, 0, mBufShadowColors);
-			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, bShadowVertices);
-			gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, dropShowCount,
-					mSelfShadowCount);
+			colorPointer(gl, gl11, mVboShadowColors);
+			vertexPointer(gl, gl11, mVboShadowVertices);
+			drawArrays(gl, dropShowCount, mSelfShadowCount,
+					SHADOW_VERTEX_BYTES);
 			gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
 			gl.glDisable(GL10.GL_BLEND);
+			if (gl11 != null) {
+				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+			}
 		}
 
 		gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 	}
 
 	/**
-	 * Resets mesh to 'initial' state. Meaning this mesh will draw a plain
-	 * textured rectangle after call to this method.
+	 * Renders the mesh with the curl shader. Textures are resolved as in
+	 * {@link #onDrawFrame(GL10)}, the deformation is left to the shader and
+	 * the shadows are drawn around the page as there.
+	 * 
+	 * @param shader
+	 * @param mvpMatrix
+	 *            the projection and view matrix
 	 */
-	public synchronized void reset() {
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
+	public void onDrawFrame(final CurlShader shader,
+			final float[] mvpMatrix) {
+		takeState();
+		if (mTexturePage.getRectTexture() != null) {
+			mTextureRectFront.set(mTexturePage.getRectTexture());
+			mTextureRectBack.set(mTexturePage.getRectTexture());
 		}
-		for (int i = 0; i < 4; ++i) {
-			final Vertex tmp = tempVertices.get(0);
-			tmp.set(mRectangle[i]);
-
-			if (mFlipTexture) {
-				tmp.mTexX *= mTextureRectBack.right;
-				tmp.mTexY *= mTextureRectBack.bottom;
-				tmp.mColor = mTexturePage.getColor(CurlPage.SIDE_BACK);
-			} else {
-				tmp.mTexX *= mTextureRectFront.right;
-				tmp.mTexY *= mTextureRectFront.bottom;
-				tmp.mColor = mTexturePage.getColor(CurlPage.SIDE_FRONT);
-			}
-
-			addVertex(tmp);
+		if (mTexturePage.isTexturesChanged()) {
+			mTextureBack = mTexturePage.hasBackTexture();
+			mTexturePage.recycle();
 		}
-		vertCountFront = 4;
-		vertCountBack = 0;
-		mBufVertices.position(0);
-		mBufColors.position(0);
-		if (DRAW_TEXTURE) {
-			mBufTexCoords.position(0);
+
+		final Integer front = mTexturePage.getTextureIdFront();
+		final Integer back = mTextureBack ? mTexturePage.getTextureIdBack()
+				: front;
+
+		shader.setRect(mRect);
+		shader.setFlipTexture(mFlipTexture);
+		if (mCurled) {
+			shader.setCurl(mCurlPos, mCurlDir, mCurlRadius);
+		} else {
+			shader.setFlat();
 		}
+		shader.setSide(CurlPage.SIDE_FRONT, front, mTexturesReady[0],
+				mTextureRectFront, mTexturePage.getColor(CurlPage.SIDE_FRONT));
+		shader.setSide(CurlPage.SIDE_BACK, back,
+				mTexturesReady[mTextureBack ? 1 : 0], mTextureRectBack,
+				mTexturePage.getColor(CurlPage.SIDE_BACK));
+		shader.setMirrorBack(mTextureBack);
 
-		dropShowCount = mSelfShadowCount = 0;
+		if (mGeometryDirty) {
+			buildGeometry();
+		}
+		if (DRAW_SHADOW) {
+			shader.drawShadow(mvpMatrix, bShadowVertices, mBufShadowColors,
+					0, dropShowCount);
+		}
+		shader.draw(mvpMatrix);
+		if (DRAW_SHADOW) {
+			shader.drawShadow(mvpMatrix, bShadowVertices, mBufShadowColors,
+					dropShowCount, mSelfShadowCount);
+		}
 	}
 
 	/**
-	 * Resets allocated texture id forcing creation of new one. After calling
-	 * this method you most likely want to set bitmap too as it's lost. This
-	 * method should be called only once e.g GL context is re-created as this
-	 * method does not release previous texture id, only makes sure new one is
-	 * requested on next render.
+	 * Leaves the curl to {@link CurlShader}, {@link #curl} then only keeps
+	 * its arguments.
 	 */
-	public synchronized void resetTexture() {
-		baseTextureIds = null;
+	public void setShaderCurl(final boolean shaderCurl) {
+		mShaderCurl = shaderCurl;
 	}
 
 	/**
-	 * If true, flips texture sideways.
+	 * Draws given vertices with the placeholder color instead of a texture.
 	 */
-	public synchronized void setFlipTexture(final boolean flipTexture) {
-		mFlipTexture = flipTexture;
-		if (flipTexture) {
-			setTexCoords(1f, 0f, 0f, 1f);
-		} else {
-			setTexCoords(0f, 0f, 1f, 1f);
-		}
+	private void drawPlaceholder(final GL10 gl, final int first,
+			final int count) {
+		gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+		gl.glColor4f(Color.red(PLACEHOLDER_COLOR) / 255f,
+				Color.green(PLACEHOLDER_COLOR) / 255f,
+				Color.blue(PLACEHOLDER_COLOR) / 255f,
+				Color.alpha(PLACEHOLDER_COLOR) / 255f);
+		drawArrays(gl, first, count, MESH_VERTEX_BYTES - 4 * 4);
+		gl.glColor4f(1f, 1f, 1f, 1f);
+		gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
 	}
 
 	/**
-	 * Update mesh bounds.
+	 * Draws a triangle strip, counting the bytes client side buffers would
+	 * send for it.
 	 */
-	public void setRect(final RectF r) {
-		mRectangle[0].mPosX = r.left;
-		mRectangle[0].mPosY = r.top;
-		mRectangle[1].mPosX = r.left;
-		mRectangle[1].mPosY = r.bottom;
-		mRectangle[2].mPosX = r.right;
-		mRectangle[2].mPosY = r.top;
-		mRectangle[3].mPosX = r.right;
-		mRectangle[3].mPosY = r.bottom;
+	private static void drawArrays(final GL10 gl, final int first,
+			final int count, final int vertexBytes) {
+		if (count <= 0) {
+			return;
+		}
+		gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, first, count);
+		synchronized (CurlMesh.class) {
+			sClientBytes += (long) count * vertexBytes;
+		}
 	}
 
 	/**
-	 * Sets texture coordinates to mRectangle vertices.
+	 * Points the vertex array at the buffer object, or at the client side
+	 * buffer without one.
 	 */
-	private synchronized void setTexCoords(final float left, final float top,
-			final float right, final float bottom) {
-		mRectangle[0].mTexX = left;
-		mRectangle[0].mTexY = top;
-		mRectangle[1].mTexX = left;
-		mRectangle[1].mTexY = bottom;
-		mRectangle[2].mTexX = right;
-		mRectangle[2].mTexY = top;
-		mRectangle[3].mTexX = right;
-		mRectangle[3].mTexY = bottom;
+	private static void vertexPointer(final GL10 gl, final GL11 gl11,
+			final BufferObject buffer) {
+		if (gl11 != null && buffer.bind(gl11)) {
+			gl11.glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+		} else {
+			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, buffer.mData);
+		}
 	}
 
 	/**
-	 * Simple fixed size array implementation.
+	 * Points the color array at the buffer object, or at the client side
+	 * buffer without one.
 	 */
-	private class Array<T> {
-		private transient final Object[] mArray;
-		private transient final int mCapacity;
-		private transient int mSize;
-
-		public Array(final int capacity) {
-			mCapacity = capacity;
-			mArray = new Object[capacity];
+	private static void colorPointer(final GL10 gl, final GL11 gl11,
+			final BufferObject buffer) {
+		if (gl11 != null && buffer.bind(gl11)) {
+			gl11.glColorPointer(4, GL10.GL_FLOAT, 0, 0);
+		} else {
+			gl.glColorPointer(4, GL10.GL_FLOAT, 0, buffer.mData);
 		}
+	}
 
-		public void add(final int index, final T item) {
-			if (index < 0 || index > mSize || mSize >= mCapacity) {
-				throw new IndexOutOfBoundsException();
-			}
-			for (int i = mSize; i > index; --i) {
-				mArray[i] = mArray[i - 1];
-			}
-			mArray[index] = item;
-			++mSize;
+	/**
+	 * Points the texture coordinate array at the buffer object, or at the
+	 * client side buffer without one.
+	 */
+	private static void texCoordPointer(final GL10 gl, final GL11 gl11,
+			final BufferObject buffer) {
+		if (gl11 != null && buffer.bind(gl11)) {
+			gl11.glTexCoordPointer(2, GL10.GL_FLOAT, 0, 0);
+		} else {
+			gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, buffer.mData);
 		}
+	}
 
-		public void add(final T item) {
-			if (mSize >= mCapacity) {
-				throw new IndexOutOfBoundsException();
-			}
-			mArray[mSize++] = item;
+	/**
+	 * Ends the frame of every mesh, logging the bytes uploaded to buffer
+	 * objects against the bytes client side buffers would have sent.
+	 */
+	public static void endFrame() {
+		final long uploaded;
+		final long client;
+		synchronized (CurlMesh.class) {
+			uploaded = sUploadedBytes;
+			client = sClientBytes;
+			sUploadedBytes = 0;
+			sClientBytes = 0;
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Frame vertex data: " + uploaded
+					+ " bytes uploaded, " + client
+					+ " bytes with client arrays");
 		}
+	}
 
-		public void addAll(final Array<T> array) {
-			if (mSize + array.size() > mCapacity) {
-				throw new IndexOutOfBoundsException();
-			}
-			for (int i = 0; i < array.size(); ++i) {
-				mArray[mSize++] = array.get(i);
-			}
+	/**
+	 * Resets mesh to 'initial' state. Meaning this mesh will draw a plain
+	 * textured rectangle after call to this method.
+	 */
+	public void reset() {
+		synchronized (mInput) {
+			mInput.curled = false;
+			publish();
 		}
+	}
 
-		public void clear() {
-			mSize = 0;
-		}
+	/**
+	 * Resets allocated texture id forcing creation of new one. After calling
+	 * this method you most likely want to set bitmap too as it's lost. This
+	 * method should be called only once e.g GL context is re-created as this
+	 * method does not release previous texture id, only makes sure new one is
+	 * requested on next render.
+	 */
+	public void resetTexture() {
+		baseTextureIds = null;
 
-		@SuppressWarnings("unchecked")
-		public T get(final int index) {
-			if (index < 0 || index >= mSize) {
-				throw new IndexOutOfBoundsException();
-			}
-			return (T) mArray[index];
+		// Buffer objects went away with the context too.
+		mVboVertices.release();
+		mVboColors.release();
+		if (DRAW_TEXTURE) {
+			mVboTexCoords.release();
 		}
-
-		@SuppressWarnings("unchecked")
-		public T remove(final int index) {
-			if (index < 0 || index >= mSize) {
-				throw new IndexOutOfBoundsException();
-			}
-			final T item = (T) mArray[index];
-			for (int i = index; i < mSize - 1; ++i) {
-				mArray[i] = mArray[i + 1];
-			}
-			--mSize;
-			return item;
+		if (DRAW_SHADOW) {
+			mVboShadowVertices.release();
+			mVboShadowColors.release();
 		}
+	}
 
-		public int size() {
-			return mSize;
+	/**
+	 * If true, flips texture sideways.
+	 */
+	public void setFlipTexture(final boolean flipTexture) {
+		synchronized (mInput) {
+			mInput.flipTexture = flipTexture;
+			publish();
 		}
-
 	}
 
 	/**
-	 * Holder for shadow vertex information.
+	 * Tells whether the front and back page textures are uploaded. Sides
+	 * which are not get the placeholder color.
 	 */
-	private class ShadowVertex {
-		public double mPenumbraColor;
-		public double mPenumbraX;
-		public double mPenumbraY;
-		public double mPosX;
-		public double mPosY;
-		public double mPosZ;
+	public void setTexturesReady(final boolean front,
+			final boolean back) {
+		mTexturesReady[0] = front;
+		mTexturesReady[1] = back;
+	}
 
+	/**
+	 * Update mesh bounds.
+	 */
+	public void setRect(final RectF r) {
+		synchronized (mInput) {
+			mInput.rect.set(r);
+			publish();
+		}
 	}
 
 	/**
-	 * Holder for vertex information.
+	 * Curl arguments, bounds and flip of the mesh, as handed from the view
+	 * to the GL thread.
 	 */
-	private class Vertex {
-		public transient int mColor;
-		public transient float mColorFactor;
-		public transient double mPenumbraX;
-		public transient double mPenumbraY;
-		public transient double mPosX;
-		public transient double mPosY;
-		public transient double mPosZ;
-		public transient double mTexX;
-		public transient double mTexY;
+	private static final class State {
+		final PointF pos = new PointF();
+		final PointF dir = new PointF();
+		float radius;
+		boolean curled;
+		final RectF rect = new RectF();
+		boolean flipTexture;
+		int version;
 
 		/**
-		 * Public Constructor
+		 * Copies the state.
 		 */
-		public Vertex() {
-			mPosX = mPosY = mPosZ = mTexX = mTexY = 0;
-			mColorFactor = 1.0f;
+		void set(final State state) {
+			pos.set(state.pos);
+			dir.set(state.dir);
+			radius = state.radius;
+			curled = state.curled;
+			rect.set(state.rect);
+			flipTexture = state.flipTexture;
+			version = state.version;
+		}
+	}
+
+	/**
+	 * Vertex buffer object holding a copy of a client side buffer. Dynamic
+	 * buffers are sent again after every rebuild of the mesh, static ones
+	 * only once their content differs from the last upload.
+	 */
+	private static final class BufferObject {
+		private final FloatBuffer mData;
+		private final boolean mStatic;
+		private final float[] mUploaded;
+		private int mId;
+		private int mFloats;
+		private boolean mDirty = true;
+		private boolean mUnsupported;
+
+		BufferObject(final FloatBuffer data, final boolean isStatic) {
+			mData = data;
+			mStatic = isStatic;
+			mUploaded = isStatic ? new float[data.capacity()] : null;
 		}
 
 		/**
-		 * Rotate the page
-		 * @param theta
+		 * Tells the client side buffer holds the given number of floats.
 		 */
-		public void rotateZ(final double theta) {
-			final double cos = Math.cos(theta);
-			final double sin = Math.sin(theta);
-			final double x = mPosX * cos + mPosY * sin;
-			final double y = mPosX * -sin + mPosY * cos;
-			mPosX = x;
-			mPosY = y;
-			final double px = mPenumbraX * cos + mPenumbraY * sin;
-			final double py = mPenumbraX * -sin + mPenumbraY * cos;
-			mPenumbraX = px;
-			mPenumbraY = py;
+		void invalidate(final int floats) {
+			if (mStatic && !mDirty && floats == mFloats) {
+				boolean same = true;
+				for (int i = 0; i < floats && same; ++i) {
+					same = mData.get(i) == mUploaded[i];
+				}
+				if (same) {
+					return;
+				}
+			}
+			mFloats = floats;
+			mDirty = true;
 		}
 
 		/**
-		 * Sets the currently vertesxt
-		 * @param vertex
+		 * Binds the buffer object, uploading the client side buffer first
+		 * if it changed.
+		 * 
+		 * @return false if buffer objects can't be used.
 		 */
-		public void set(final Vertex vertex) {
-			mPosX = vertex.mPosX;
-			mPosY = vertex.mPosY;
-			mPosZ = vertex.mPosZ;
-			mTexX = vertex.mTexX;
-			mTexY = vertex.mTexY;
-			mPenumbraX = vertex.mPenumbraX;
-			mPenumbraY = vertex.mPenumbraY;
-			mColor = vertex.mColor;
-			mColorFactor = vertex.mColorFactor;
+		boolean bind(final GL11 gl) {
+			if (mUnsupported) {
+				return false;
+			}
+			if (mId == 0) {
+				final int[] ids = new int[1];
+				gl.glGenBuffers(1, ids, 0);
+				if (ids[0] == 0) {
+					mUnsupported = true;
+					return false;
+				}
+				mId = ids[0];
+				gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, mId);
+				mData.position(0);
+				gl.glBufferData(GL11.GL_ARRAY_BUFFER, mData.capacity() * 4,
+						mData, mStatic ? GL11.GL_STATIC_DRAW
+								: GL11.GL_DYNAMIC_DRAW);
+				mDirty = true;
+			} else {
+				gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, mId);
+			}
+
+			if (mDirty) {
+				mData.position(0);
+				gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0, mFloats * 4, mData);
+				if (mStatic) {
+					mData.get(mUploaded, 0, mFloats);
+					mData.position(0);
+				}
+				mDirty = false;
+				synchronized (CurlMesh.class) {
+					sUploadedBytes += mFloats * 4;
+				}
+			}
+			return true;
 		}
 
 		/**
-		 * Translate the position numbers
+		 * Forgets the buffer object, after the context was lost.
 		 */
-		public void translate(final double dx, final double dy) {
-			mPosX += dx;
-			mPosY += dy;
+		void release() {
+			mId = 0;
+			mDirty = true;
 		}
 	}
 }
@@ -180,6 +180,29 @@ public final class CurlPage {
 		mTexturesChanged = true;
 	}
 
+	/**
+	 * Replaces the texture id, once its page was uploaded into a new
+	 * texture.
+	 * 
+	 * @param textureId
+	 *            the id replaced
+	 * @param newTextureId
+	 */
+	public void replaceTexture(final int textureId, final int newTextureId) {
+		boolean replaced = false;
+		if (textureIdFront != null && textureIdFront == textureId) {
+			textureIdFront = newTextureId;
+			replaced = true;
+		}
+		if (textureIdBack != null && textureIdBack == textureId) {
+			textureIdBack = newTextureId;
+			replaced = true;
+		}
+		if (replaced) {
+			mTexturesChanged = true;
+		}
+	}
+
 	/**
 	 * Gets the texture of the rectangle.
 	 * 
@@ -16,7 +16,8 @@
 
 package br.edu.help.lovingyou.app.view.component;
 
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -26,12 +27,20 @@ import android.graphics.Color;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
 import android.opengl.GLES10;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
 import android.opengl.GLUtils;
+import android.opengl.Matrix;
+import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
 
 /**
  * Actual renderer class.
@@ -40,11 +49,50 @@ import android.util.SparseBooleanArray;
  */
 public class CurlRenderer implements GLSurfaceView.Renderer {
 
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "CurlRenderer";
+
 	/**
 	 * Constant that retains the value 10.
 	 */
 	private static final int MAX_PAGE_RAIO = 10;
 
+	/**
+	 * Page textures kept resident, shown and prefetched.
+	 */
+	private static final int RESIDENT_PAGES = MAX_PAGE_RAIO * 2;
+
+	/**
+	 * Pages decoded ahead of the uploads at most, so the decoder follows
+	 * the prefetch order.
+	 */
+	private static final int DECODE_AHEAD = 2;
+
+	/**
+	 * Pages given texture ids per frame at most, so a large album coming in
+	 * from the scan is attached over a few frames.
+	 */
+	private static final int ATTACH_PAGES = 64;
+
+	/**
+	 * Share of the texture budget the pixels kept of the pages uploaded may
+	 * take, on the heap or mapped from the disk cache.
+	 */
+	private static final int RETAINED_SHARE = 4;
+
+	/**
+	 * Time a frame may spend streaming a page in, in nanoseconds.
+	 */
+	private static final long UPLOAD_NANOS = 4000000L;
+
+	/**
+	 * Time a frame may spend streaming a page in while the user drags, in
+	 * nanoseconds.
+	 */
+	private static final long TOUCH_UPLOAD_NANOS = 2000000L;
+
 	/**
 	 * Constant for requesting left page rect.
 	 */
@@ -66,15 +114,26 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 */
 	private static final boolean USE_PERSP_PROJECT = true;
 
+	/**
+	 * Flag for uploading pages as ETC1 compressed textures where the context
+	 * supports them, a quarter of the memory of RGB_565 pages. Off by
+	 * default: a page is compressed only once it is in the disk cache, by an
+	 * encoder in java which keeps the loader busy for a while per page.
+	 */
+	private static final boolean COMPRESS_TEXTURES = false;
+
 	/**
 	 * Background fill color.
 	 */
 	private transient int mBackgroundColor = 0xFFFFFFFF;
 
 	/**
-	 * Curl meshes used for static and dynamic rendering.
+	 * Curl meshes used for static and dynamic rendering. The array is
+	 * replaced, never changed, so a frame draws the set it started with
+	 * while the view adds and removes meshes.
 	 */
-	private transient final Vector<CurlMesh> mCurlMeshes;
+	private transient final AtomicReference<CurlMesh[]> mCurlMeshes = new AtomicReference<CurlMesh[]>(
+			new CurlMesh[0]);
 
 	/**
 	 * Retains an instance of {@link RectF}
@@ -127,24 +186,144 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 */
 	private int intHeight;
 
+	/**
+	 * Decodes the page textures off the GL thread.
+	 */
+	private final PageTextureLoader mLoader;
+
+	/**
+	 * Plans the pages loaded around the ones shown.
+	 */
+	private final PagePrefetcher mPrefetcher = new PagePrefetcher(
+			RESIDENT_PAGES);
+
+	/**
+	 * Keeps the bytes of the page textures under budget, unbounded until
+	 * the view sets one.
+	 */
+	private final TextureBudget mBudget = new TextureBudget(Long.MAX_VALUE);
+
+	/**
+	 * Streams large pages in across frames.
+	 */
+	private final TextureUploader mUploader = new TextureUploader();
+
+	/**
+	 * Keeps the pixels of the pages uploaded, so they are uploaded again
+	 * without a decode, nothing until the view sets a texture budget.
+	 */
+	private final RetainedPages mRetained = new RetainedPages(0);
+
+	/**
+	 * Uploads pages on a context of its own, where the driver allows.
+	 */
+	private final SharedContextUploader mSharedUploader;
+
+	/**
+	 * Pages handed to the shared uploader, mapped to false once dropped
+	 * while in flight.
+	 */
+	private final SparseBooleanArray mInFlight = new SparseBooleanArray();
+
+	/**
+	 * Pages handed to the shared uploader, mapped to the new texture they
+	 * are uploaded into. The page keeps drawing its old one, and its
+	 * thumbnail, until the new one is complete.
+	 */
+	private final SparseIntArray mInFlightIds = new SparseIntArray();
+
+	/**
+	 * Retains the shared context the pages in flight belong to.
+	 */
+	private int mUploadGeneration;
+
+	/**
+	 * True if pages are curled by {@link CurlShader} on an OpenGL ES 2.0
+	 * context, instead of by {@link CurlMesh} on the CPU.
+	 */
+	private final boolean mUseShaders;
+
+	/**
+	 * Retains the curl shader, created with each surface.
+	 */
+	private CurlShader mShader;
+
+	/**
+	 * Projection and view matrices of the shader engine.
+	 */
+	private final float[] mProjectionMatrix = new float[16];
+	private final float[] mViewMatrix = new float[16];
+	private final float[] mMVPMatrix = new float[16];
+
 	/**
 	 * Basic constructor.
 	 */
 	public CurlRenderer(final CurlRenderer.Observer observer,
 			boolean mLargeScreen) {
+		this(observer, mLargeScreen, false);
+	}
+
+	/**
+	 * Constructor choosing the engine. The view must have asked for an
+	 * OpenGL ES 2.0 context to use shaders.
+	 */
+	public CurlRenderer(final CurlRenderer.Observer observer,
+			boolean mLargeScreen, boolean useShaders) {
+		mUseShaders = useShaders;
 		mObserver = observer;
-		mCurlMeshes = new Vector<CurlMesh>();
 		mPageRectLeft = new RectF();
 		mPageRectRight = new RectF();
 		mUsePerspectiveCoordinates = mLargeScreen;
+		mLoader = new PageTextureLoader(observer);
+		mSharedUploader = new SharedContextUploader(useShaders ? 2 : 1,
+				observer, mRetained);
+	}
+
+	/**
+	 * Returns the factory of the view's EGL contexts, to be set on the view
+	 * before the renderer. It shares the view's context with the thread
+	 * uploading pages.
+	 * 
+	 * @return {@link GLSurfaceView.EGLContextFactory}
+	 */
+	public GLSurfaceView.EGLContextFactory getContextFactory() {
+		return mSharedUploader;
 	}
 
 	/**
 	 * Adds CurlMesh to this renderer.
 	 */
-	public synchronized void addCurlMesh(final CurlMesh mesh) {
-		removeCurlMesh(mesh);
-		mCurlMeshes.add(mesh);
+	public void addCurlMesh(final CurlMesh mesh) {
+		mesh.setShaderCurl(mUseShaders);
+		CurlMesh[] meshes;
+		CurlMesh[] added;
+		do {
+			meshes = mCurlMeshes.get();
+			added = without(meshes, mesh, 1);
+			added[added.length - 1] = mesh;
+		} while (!mCurlMeshes.compareAndSet(meshes, added));
+	}
+
+	/**
+	 * Returns a copy of the meshes without the mesh, with room for more at
+	 * the end.
+	 */
+	private static CurlMesh[] without(final CurlMesh[] meshes,
+			final CurlMesh mesh, final int room) {
+		int count = 0;
+		for (final CurlMesh other : meshes) {
+			if (other != mesh) {
+				count++;
+			}
+		}
+		final CurlMesh[] copy = new CurlMesh[count + room];
+		int i = 0;
+		for (final CurlMesh other : meshes) {
+			if (other != mesh) {
+				copy[i++] = other;
+			}
+		}
+		return copy;
 	}
 
 	/**
@@ -176,12 +355,29 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 * @param gL10
 	 */
 	@Override
-	public synchronized void onDrawFrame(final GL10 gL10) {
-		if (processLoadTextures()) {
+	public void onDrawFrame(final GL10 gL10) {
+		final FrameTimings timings = FrameTimings.getInstance();
+		final long frameStart = FrameTimings.start();
+		if (!mFirstFrame) {
+			mFirstFrame = true;
+			StartupTimings.getInstance().reach(StartupTimings.FIRST_FRAME);
+		}
+		if (mReloadTextures) {
+			mReloadTextures = false;
+			reloadTextures();
+		}
+		if (growTextureIDs(gL10)) {
+			mObserver.onTexturesAdded();
+		}
+
+		final boolean loading = processLoadTextures();
+		timings.record(FrameTimings.PHASE_LOAD, frameStart);
+		if (loading) {
 
 			gL10.glClearColor(0, 0, 0, 0);
 			gL10.glClear(GL10.GL_COLOR_BUFFER_BIT);
 
+			timings.record(FrameTimings.PHASE_FRAME, frameStart);
 			return;
 		}
 
@@ -191,23 +387,100 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 				Color.green(mBackgroundColor) / 255f,
 				Color.blue(mBackgroundColor) / 255f,
 				Color.alpha(mBackgroundColor) / 255f);
-		gL10.glClear(GL10.GL_COLOR_BUFFER_BIT);
-		gL10.glLoadIdentity();
+		if (mShader != null) {
+			gL10.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
+			Matrix.setIdentityM(mViewMatrix, 0);
+			if (USE_PERSP_PROJECT) {
+				Matrix.translateM(mViewMatrix, 0, 0f, 0f,
+						mUsePerspectiveCoordinates ? -7.6f : -7f);
+			}
+			Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0,
+					mViewMatrix, 0);
+		} else {
+			gL10.glClear(GL10.GL_COLOR_BUFFER_BIT);
+			gL10.glLoadIdentity();
+
+			if (USE_PERSP_PROJECT) {
+				// gL10.glTranslatef(0, -.1f, -7.8f);
+				if (mUsePerspectiveCoordinates) {
+					gL10.glTranslatef(0f, 0f, -7.6f);
+				} else {
+					gL10.glTranslatef(0, 0, -7f);
+				}
+			}
+		}
 
-		if (USE_PERSP_PROJECT) {
-			// gL10.glTranslatef(0, -.1f, -7.8f);
-			if (mUsePerspectiveCoordinates) {
-				gL10.glTranslatef(0f, 0f, -7.6f);
+		final long drawStart = FrameTimings.start();
+		final CurlMesh[] meshes = mCurlMeshes.get();
+		boolean resumed = meshes.length > 0;
+		for (int i = 0; i < meshes.length; ++i) {
+			final CurlMesh mesh = meshes[i];
+			final CurlPage texturePage = mesh.getTexturePage();
+			texturePage.setRectTexture(mObserver.getRectF(i));
+			resolveTextures(texturePage);
+			final Integer front = texturePage.getTextureIdFront();
+			final Integer back = texturePage.getTextureIdBack();
+			final boolean frontReady = isTextureLoaded(front);
+			mesh.setTexturesReady(frontReady, isTextureLoaded(back));
+			resumed &= isPageDrawn(front) && isPageDrawn(back);
+			if (!mFirstPage && frontReady && front != null
+					&& textureMap.get(front) != null) {
+				mFirstPage = true;
+				StartupTimings.getInstance().reach(StartupTimings.FIRST_PAGE);
+			}
+			if (mShader != null) {
+				mesh.onDrawFrame(mShader, mMVPMatrix);
 			} else {
-				gL10.glTranslatef(0, 0, -7f);
+				mesh.onDrawFrame(gL10);
 			}
 		}
+		CurlMesh.endFrame();
+		if (mResumed != 0 && resumed) {
+			onResumed(timings);
+		}
+		timings.record(FrameTimings.PHASE_DRAW, drawStart);
+		timings.record(FrameTimings.PHASE_FRAME, frameStart);
+	}
 
-		for (int i = 0; i < mCurlMeshes.size(); ++i) {
-			mCurlMeshes.get(i).getTexturePage()
-					.setRectTexture(mObserver.getRectF(i));
-			mCurlMeshes.get(i).onDrawFrame(gL10);
+	/**
+	 * Records the time from the resume of the view until its pages were
+	 * drawn again.
+	 */
+	private void onResumed(final FrameTimings timings) {
+		final long resumed = mResumed;
+		mResumed = 0;
+		timings.record(FrameTimings.PHASE_RESUME, resumed);
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Pages drawn " + (FrameTimings.start() - resumed)
+					/ 1000000 + "ms after resume, "
+					+ (mContextLost ? "context lost, " : "context kept, ")
+					+ mRetained.getHitCount() + " pages kept reused");
 		}
+		mContextLost = false;
+	}
+
+	/**
+	 * Returns true if the texture holds its page at full quality. Textures
+	 * not owned by a page are always drawn.
+	 */
+	private boolean isPageDrawn(final Integer idTex) {
+		final Integer page = idTex == null ? null : textureMap.get(idTex);
+		return page == null || loadMap.get(page);
+	}
+
+	/**
+	 * Returns true if the texture holds its page already, or its thumbnail.
+	 * Textures not owned by a page are always ready.
+	 * 
+	 * @param idTex
+	 * @return
+	 */
+	private boolean isTextureLoaded(final Integer idTex) {
+		if (idTex == null) {
+			return true;
+		}
+		final Integer page = textureMap.get(idTex);
+		return page == null || loadMap.get(page) || mThumbMap.get(page);
 	}
 
 	/**
@@ -252,6 +525,24 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 
 		updatePageRects();
 
+		if (mShader != null) {
+			// Same projection as below. The near plane is pushed out, which
+			// keeps x and y as they are but gives the depth buffer the
+			// precision to sort the curl against the pages under it.
+			if (USE_PERSP_PROJECT) {
+				final float near = 1f;
+				final float top = near
+						* (float) Math.tan(Math.toRadians(20f) / 2);
+				Matrix.frustumM(mProjectionMatrix, 0, -top * ratio, top
+						* ratio, -top, top, near, 20f);
+			} else {
+				Matrix.orthoM(mProjectionMatrix, 0, mViewRect.left,
+						mViewRect.right, mViewRect.bottom, mViewRect.top, -1f,
+						1f);
+			}
+			return;
+		}
+
 		gL10.glMatrixMode(GL10.GL_PROJECTION);
 		gL10.glLoadIdentity();
 		if (USE_PERSP_PROJECT) {
@@ -273,21 +564,43 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	@Override
 	public void onSurfaceCreated(final GL10 gL10, final EGLConfig config) {
 		gL10.glClearColor(1f, 1f, 1f, 1f); // changed to white
-		gL10.glShadeModel(GL10.GL_SMOOTH);
-		gL10.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
-		gL10.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
-		gL10.glHint(GL10.GL_POLYGON_SMOOTH_HINT, GL10.GL_NICEST);
-		gL10.glEnable(GL10.GL_LINE_SMOOTH);
-		gL10.glDisable(GL10.GL_DEPTH_TEST);
-		gL10.glDisable(GL10.GL_CULL_FACE);
+		if (mUseShaders) {
+			// The objects of the lost context went away with it.
+			mShader = new CurlShader();
+			mShader.create();
+
+			// Curled parts are sorted by depth, pages drawn later win ties.
+			GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+			GLES20.glDepthFunc(GLES20.GL_LEQUAL);
+			GLES20.glDisable(GLES20.GL_CULL_FACE);
+		} else {
+			gL10.glShadeModel(GL10.GL_SMOOTH);
+			gL10.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
+			gL10.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
+			gL10.glHint(GL10.GL_POLYGON_SMOOTH_HINT, GL10.GL_NICEST);
+			gL10.glEnable(GL10.GL_LINE_SMOOTH);
+			gL10.glDisable(GL10.GL_DEPTH_TEST);
+			gL10.glDisable(GL10.GL_CULL_FACE);
+		}
 
 		gL10.glClearColor(Color.red(mBackgroundColor) / 255f,
 				Color.green(mBackgroundColor) / 255f,
 				Color.blue(mBackgroundColor) / 255f,
 				Color.alpha(mBackgroundColor) / 255f);
 
+		// Pages in flight on a lost shared context never come back.
+		dropLostUploads();
+
 		createTextureIDs(gL10);
 
+		// The textures went away with the last context, if any, their pages
+		// are uploaded again from the pixels kept or the disk cache.
+		mReloadTextures = true;
+		mContextLost = mFirstFrame;
+
+		mLoader.setCompression(COMPRESS_TEXTURES
+				&& ETC1Util.isETC1Supported());
+
 		mObserver.onSurfaceCreated();
 	}
 
@@ -297,33 +610,68 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 * @param gL10
 	 */
 	private void createTextureIDs(final GL10 gL10) {
-		// Generate texture.
-		int countTextures = mObserver.countTextures();
+		if (mTextureIds != null
+				&& mTextureIds.length > mObserver.countTextures()) {
+			mTextureIds = null;
+		}
+		growTextureIDs(gL10);
+	}
 
-		if (mTextureIds == null || mTextureIds.length != countTextures) {
-			mTextureIds = new int[countTextures];
-			gL10.glGenTextures(mTextureIds.length, mTextureIds, 0);
+	/**
+	 * Creates the texture ids of the pages added since the last call, up
+	 * to {@link #ATTACH_PAGES} of them, the rest on the next frames. The
+	 * page provider may still be receiving pages from the album scan.
+	 * 
+	 * @param gL10
+	 * @return true if new ids were created.
+	 */
+	private boolean growTextureIDs(final GL10 gL10) {
+		// Generate texture.
+		final int oldCount = mTextureIds == null ? 0 : mTextureIds.length;
+		final int available = mObserver.countTextures();
+		final int countTextures = Math.min(available, oldCount
+				+ ATTACH_PAGES);
 
-			for (int page = 0; page < countTextures; page++) {
-				int textureId = mTextureIds[page];
+		if (mTextureIds != null && countTextures <= oldCount) {
+			return false;
+		}
+		if (countTextures < available) {
+			mObserver.onLoadingTick();
+		}
 
-				// Set texture attributes.
-				gL10.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
-				gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_NEAREST);
-				gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_NEAREST);
-				gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
-				gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
-						GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+		final int[] textureIds = new int[countTextures];
+		if (oldCount > 0) {
+			System.arraycopy(mTextureIds, 0, textureIds, 0, oldCount);
+		}
+		if (countTextures > oldCount) {
+			gL10.glGenTextures(countTextures - oldCount, textureIds, oldCount);
+			for (int page = oldCount; page < countTextures; page++) {
+				if (textureMap.get(textureIds[page]) != null) {
+					textureIds[page] = genTextureId();
+				}
+			}
+		}
+		mTextureIds = textureIds;
 
-				pageMap.put(page, textureId);
-				textureMap.put(textureId, page);
-				mObserver.registerTextureID(page, mTextureIds[page]);
+		for (int page = oldCount; page < countTextures; page++) {
+			int textureId = mTextureIds[page];
 
-			}
+			// Set texture attributes.
+			gL10.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
+			gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
+					GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_NEAREST);
+			gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
+					GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_NEAREST);
+			gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
+					GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+			gL10.glTexParameterf(GL10.GL_TEXTURE_2D,
+					GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+
+			pageMap.put(page, textureId);
+			textureMap.put(textureId, page);
+			mObserver.registerTextureID(page, mTextureIds[page]);
 		}
+		return countTextures > oldCount;
 	}
 
 	/**
@@ -342,48 +690,121 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	private SparseBooleanArray loadMap = new SparseBooleanArray();
 
 	/**
-	 * Flag that controls this state.
+	 * Set once the first frame, and the first frame with a page, are drawn.
 	 */
-	private boolean goFront = true;
+	private boolean mFirstFrame;
+	private boolean mFirstPage;
 
 	/**
-	 * Retains the number of the last page.
+	 * Pages drawn from their thumbnail until they are loaded.
 	 */
-	private int lastBackPage = 0;
+	private final SparseBooleanArray mThumbMap = new SparseBooleanArray();
+
+	/**
+	 * Time the pages shown were asked of the loader, until they are loaded.
+	 */
+	private final SparseArray<Long> mRequested = new SparseArray<Long>();
 
 	/**
 	 * Verifies this state.
 	 */
-	private boolean firedComplete = false;
+	private volatile boolean firedComplete = false;
+
+	/**
+	 * Set to have the textures reloaded on the next frame, by the view or
+	 * by a new context.
+	 */
+	private volatile boolean mReloadTextures;
+
+	/**
+	 * Set by the view along with a reload, once the pages kept are stale.
+	 */
+	private volatile boolean mDropRetained;
+
+	/**
+	 * Time the view resumed, until its pages are drawn again, and whether
+	 * a new context came with it.
+	 */
+	private volatile long mResumed;
+	private boolean mContextLost;
 
 	/**
 	 * Remove the selected page
 	 * @param page
 	 */
-	private synchronized void removePage(int page) {
+	private void removePage(int page) {
+		mLoader.cancel(page);
+		mRequested.remove(page);
+		if (mUploader.getPage() == page) {
+			mRetained.put(page, mUploader.end());
+		}
+		final boolean thumbnail = mThumbMap.get(page);
+		mThumbMap.delete(page);
+		if (mInFlight.indexOfKey(page) >= 0) {
+			// Deleted once the upload thread is done with it. Its bytes are
+			// released now, or the budget would pick it again and again.
+			mInFlight.put(page, false);
+			loadMap.put(page, false);
+			mBudget.onDeleted(page);
+			return;
+		}
+
 		Integer idTex = pageMap.get(page);
-		if (idTex != null && loadMap.get(page)) {
+		if (idTex != null
+				&& (loadMap.get(page) || thumbnail || mBudget.isResident(page))) {
 
 			GLES10.glDeleteTextures(1, new int[] { idTex }, 0);
 			loadMap.put(page, false);
+			mBudget.onDeleted(page);
 
 		}
 	}
 
 	/**
-	 * Creates the page.
+	 * Uploads the page once its bitmap is decoded, otherwise asks the loader
+	 * for it and lets the frame go on with its thumbnail, once there is one,
+	 * or the placeholder. Large pages are streamed in over the next frames,
+	 * one page at a time.
 	 * 
 	 * @param page
-	 * @return
+	 * @return true if the page was uploaded or started streaming in.
 	 */
-	private synchronized boolean createPage(final int page) {
-		// Generate texture.
+	private boolean createPage(final int page) {
+		// Pages added after the last frame have no texture id yet.
+		int countTextures = mTextureIds == null ? 0 : mTextureIds.length;
+		if (page >= 0 && page < countTextures && !loadMap.get(page)
+				&& !mUploader.isActive() && mInFlight.indexOfKey(page) < 0) {
+
+			final int bytes = getReadyBytes(page);
+			if (bytes < 0) {
+				request(page);
+				return createThumbnail(page);
+			}
+			if (!makeRoom(page, bytes)) {
+				return false;
+			}
 
-		int countTextures = mObserver.countTextures();
-		if (page >= 0 && page < countTextures && !loadMap.get(page)) {
+			final ETC1Util.ETC1Texture compressed = pollCompressed(page);
+			final Bitmap texture = compressed == null ? poll(page) : null;
+			if (compressed == null && texture == null) {
+				request(page);
+				return false;
+			}
 
 			int textureId = mTextureIds[page];
 
+			if (mSharedUploader.isAvailable()) {
+				final int newTextureId = genTextureId();
+				if (mSharedUploader.upload(page, newTextureId, compressed,
+						texture)) {
+					mInFlight.put(page, true);
+					mInFlightIds.put(page, newTextureId);
+					mBudget.onUploaded(page, bytes);
+					return true;
+				}
+				GLES10.glDeleteTextures(1, new int[] { newTextureId }, 0);
+			}
+
 			// Set texture attributes.
 			GLES10.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
 			GLES10.glTexParameterf(GL10.GL_TEXTURE_2D,
@@ -395,85 +816,397 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 			GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
 					GL10.GL_CLAMP_TO_EDGE);
 
-			Bitmap texture = mObserver.createBitmapTexture(page);
 			GLES10.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[page]);
-			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, texture, 0);
-			texture.recycle();
+			if (compressed != null) {
+				// ETC1 can't be updated in parts, it's a quarter of the size.
+				final ByteBuffer data = compressed.getData();
+				GLES10.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, 0,
+						ETC1.ETC1_RGB8_OES, compressed.getWidth(),
+						compressed.getHeight(), 0, data.capacity(), data);
+				mBudget.onUploaded(page, data.capacity());
+				mRetained.put(page, compressed);
+			} else {
+				final int size = texture.getRowBytes() * texture.getHeight();
+				// Streaming would blank the thumbnail until the last stripe.
+				final boolean streaming = !mThumbMap.get(page)
+						&& mUploader.begin(page, textureId, texture);
+				mBudget.onUploaded(page, size);
+				if (streaming) {
+					// Kept once the uploader is done with it.
+					mObserver.onLoadingTick();
+					return true;
+				}
+				upload(texture);
+				mRetained.put(page, texture);
+			}
 
-			mObserver.registerTextureID(page, textureId);
-			mObserver.onLoadingTick();
+			finishPage(page);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Asks the loader for the page. A page shown goes ahead of the pages
+	 * prefetched and gets a thumbnail first, and the time until it is
+	 * drawn is recorded.
+	 */
+	private void request(final int page) {
+		final boolean shown = mBudget.isShown(page);
+		if (mLoader.request(page, shown && !mThumbMap.get(page), shown) && shown
+				&& mRequested.get(page) == null) {
+			mRequested.put(page, FrameTimings.start());
+		}
+	}
+
+	/**
+	 * Returns the bytes of the page ready for upload, kept from an earlier
+	 * upload or decoded by the loader.
+	 * 
+	 * @param page
+	 * @return the bytes, or -1 if the page isn't ready.
+	 */
+	private int getReadyBytes(final int page) {
+		final int bytes = mRetained.getBytes(page);
+		return bytes < 0 ? mLoader.getReadyBytes(page) : bytes;
+	}
 
-			loadMap.put(page, true);
+	/**
+	 * Takes the page compressed, kept or from the loader.
+	 */
+	private ETC1Util.ETC1Texture pollCompressed(final int page) {
+		final ETC1Util.ETC1Texture compressed = mRetained
+				.pollCompressed(page);
+		return compressed == null ? mLoader.pollCompressed(page) : compressed;
+	}
 
-			try {
-				checkGlError("Loading Page: " + progressIndex);
-			} catch (Exception e) {
-				// Until now, there is no handling action.
+	/**
+	 * Takes the page bitmap, kept or from the loader.
+	 */
+	private Bitmap poll(final int page) {
+		final Bitmap bitmap = mRetained.poll(page);
+		return bitmap == null ? mLoader.poll(page) : bitmap;
+	}
+
+	/**
+	 * Uploads the thumbnail of the page, if the loader has it, to be drawn
+	 * until the page replaces it in the same texture.
+	 * 
+	 * @param page
+	 * @return true if the thumbnail was uploaded.
+	 */
+	private boolean createThumbnail(final int page) {
+		final Bitmap thumbnail = mLoader.pollThumbnail(page);
+		if (thumbnail == null) {
+			return false;
+		}
+		if (mThumbMap.get(page)) {
+			BitmapPool.getInstance().release(thumbnail);
+			return false;
+		}
+
+		// Smoothed, it is magnified a lot.
+		GLES10.glBindTexture(GL10.GL_TEXTURE_2D, mTextureIds[page]);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D,
+				GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D,
+				GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
+				GL10.GL_CLAMP_TO_EDGE);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
+				GL10.GL_CLAMP_TO_EDGE);
+		upload(thumbnail);
+		BitmapPool.getInstance().release(thumbnail);
+
+		mThumbMap.put(page, true);
+		mObserver.registerTextureID(page, mTextureIds[page]);
+		mObserver.onLoadingTick();
+
+		final Long requested = mRequested.get(page);
+		if (requested != null) {
+			FrameTimings.getInstance().record(FrameTimings.PHASE_FIRST,
+					requested);
+		}
+		return true;
+	}
+
+	/**
+	 * Starts drawing the pages the shared uploader finished, in place of
+	 * their old texture, deletes the ones dropped meanwhile and asks again
+	 * for the ones it failed.
+	 */
+	private void collectUploads() {
+		dropLostUploads();
+		int page;
+		while ((page = mSharedUploader.pollDone()) >= 0) {
+			final boolean wanted = mInFlight.get(page);
+			final int textureId = mInFlightIds.get(page);
+			mInFlight.delete(page);
+			mInFlightIds.delete(page);
+			if (wanted && mTextureIds != null && page < mTextureIds.length) {
+				replaceTexture(page, textureId);
+				finishPage(page);
+			} else {
+				// A page dropped meanwhile gave its bytes back already.
+				GLES10.glDeleteTextures(1, new int[] { textureId }, 0);
+				mBudget.onDeleted(page);
 			}
+		}
+		while ((page = mSharedUploader.pollLost()) >= 0) {
+			GLES10.glDeleteTextures(1,
+					new int[] { mInFlightIds.get(page) }, 0);
+			mInFlight.delete(page);
+			mInFlightIds.delete(page);
+			removePage(page);
+		}
+	}
 
-			return true;
+	/**
+	 * Forgets the pages in flight once the shared context they were on is
+	 * gone, so they are loaded again.
+	 */
+	private void dropLostUploads() {
+		if (mSharedUploader.getGeneration() == mUploadGeneration) {
+			return;
 		}
+		mUploadGeneration = mSharedUploader.getGeneration();
+		for (int i = 0; i < mInFlight.size(); i++) {
+			final int page = mInFlight.keyAt(i);
+			loadMap.put(page, false);
+			mBudget.onDeleted(page);
+		}
+		mInFlight.clear();
+		mInFlightIds.clear();
+	}
 
-		return false;
+	/**
+	 * Makes the new texture the page's and deletes the old one. Only done
+	 * on this thread, the upload thread never touches a texture the frame
+	 * may sample. The old id stays mapped to the page: the view may still
+	 * hand it over in a page it took out of the meshes meanwhile, it is
+	 * resolved to the new one as the page is drawn.
+	 */
+	private void replaceTexture(final int page, final int textureId) {
+		final int oldTextureId = mTextureIds[page];
+		mTextureIds[page] = textureId;
+		pageMap.put(page, textureId);
+		textureMap.put(textureId, page);
+		GLES10.glDeleteTextures(1, new int[] { oldTextureId }, 0);
+	}
+
+	/**
+	 * Points the page at the current textures of its pages, where it still
+	 * holds a texture replaced since.
+	 */
+	private void resolveTextures(final CurlPage texturePage) {
+		resolveTexture(texturePage, texturePage.getTextureIdFront());
+		resolveTexture(texturePage, texturePage.getTextureIdBack());
+	}
+
+	/**
+	 * Replaces the texture id in the page, if it is no longer the current
+	 * one of its page.
+	 */
+	private void resolveTexture(final CurlPage texturePage,
+			final Integer idTex) {
+		final Integer page = idTex == null ? null : textureMap.get(idTex);
+		if (page != null && mTextureIds != null && page < mTextureIds.length
+				&& mTextureIds[page] != idTex) {
+			texturePage.replaceTexture(idTex, mTextureIds[page]);
+		}
+	}
+
+	/**
+	 * Generates a texture id no page holds. The ids of pages whose texture
+	 * was deleted or replaced are still theirs, they are skipped.
+	 */
+	private int genTextureId() {
+		final int[] textureId = new int[1];
+		do {
+			GLES10.glGenTextures(1, textureId, 0);
+		} while (textureMap.get(textureId[0]) != null);
+		return textureId[0];
+	}
+
+	/**
+	 * Streams the page in for the frame's share of time.
+	 */
+	private void continueUpload() {
+		final int page = mUploader.getPage();
+		if (mUploader.step(mObserver.isTouching() ? TOUCH_UPLOAD_NANOS
+				: UPLOAD_NANOS)) {
+			mRetained.put(page, mUploader.end());
+			finishPage(page);
+		} else {
+			mObserver.onLoadingTick();
+		}
 	}
 
 	/**
-	 * Reallocates the pages.
+	 * Lets the page be drawn, once its texture is complete.
+	 */
+	private void finishPage(final int page) {
+		mObserver.registerTextureID(page, mTextureIds[page]);
+		mObserver.onLoadingTick();
+
+		loadMap.put(page, true);
+
+		final boolean thumbnail = mThumbMap.get(page);
+		mThumbMap.delete(page);
+		final Long requested = mRequested.get(page);
+		if (requested != null) {
+			mRequested.remove(page);
+			final FrameTimings timings = FrameTimings.getInstance();
+			if (!thumbnail) {
+				timings.record(FrameTimings.PHASE_FIRST, requested);
+			}
+			timings.record(FrameTimings.PHASE_FULL, requested);
+		}
+
+		try {
+			checkGlError("Loading Page: " + progressIndex);
+		} catch (Exception e) {
+			// Until now, there is no handling action.
+		}
+	}
+
+	/**
+	 * Evicts pages until the page fits in the budget. Pages shown always
+	 * get in, other pages only if a page farther away can make room.
 	 * 
 	 * @param page
-	 * @return
+	 * @param bytes
+	 * @return true if the page may be uploaded.
+	 */
+	private boolean makeRoom(final int page, final int bytes) {
+		while (!mBudget.fits(bytes)) {
+			final int victim = mBudget.pickVictim(page);
+			if (victim < 0) {
+				return mBudget.isShown(page);
+			}
+			removePage(victim);
+		}
+		return true;
+	}
+
+	/**
+	 * Uploads the bitmap into the bound texture, opaque pages as 16 bit
+	 * RGB.
 	 */
-	private synchronized boolean createPageRealloc(final int page) {
-		if (goFront) {
-			removePage(page - MAX_PAGE_RAIO);
+	private static void upload(final Bitmap texture) {
+		if (texture.getConfig() == Bitmap.Config.RGB_565) {
+			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_RGB, texture,
+					GL10.GL_UNSIGNED_SHORT_5_6_5, 0);
 		} else {
-			removePage(page + MAX_PAGE_RAIO);
+			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, texture, 0);
 		}
-		return createPage(page);
 	}
 
 	/**
-	 * Calls the reallocator of pages.
+	 * Loads the page, or else the next page planned by the prefetcher.
 	 * 
 	 * @param page
 	 * @return
 	 */
-	private synchronized boolean processLoadCreatePage(final int page) {
+	private boolean processLoadCreatePage(final int page) {
 
 		boolean result = false;
 
 		if (firedComplete) {
 			if (mObserver.isTouching()) {
 				mObserver.onLoadingTick();
-			} else if (!createPageRealloc(page)) {
-				for (int i = page - MAX_PAGE_RAIO / 2 + 2; i < page
-						+ MAX_PAGE_RAIO / 2 - 2; i++) {
-					
-					result = createPageRealloc(i);
-					
-					if ( result ) {
-						break;
-					}
-				}
+			} else if (!createPage(page)) {
+				result = prefetch();
 			}
 		} else {
-			result = createPageRealloc(page);
+			result = createPage(page);
 		}
 
 		return result;
 	}
 
+	/**
+	 * Uploads the first planned page already decoded, and asks for the
+	 * decoding of the next few in plan order.
+	 * 
+	 * @return true if a page was uploaded.
+	 */
+	private boolean prefetch() {
+		final int[] plan = mPrefetcher.getPlan();
+		final int count = mPrefetcher.getPlanCount();
+		int decoding = 0;
+		for (int i = 0; i < count && decoding < DECODE_AHEAD; i++) {
+			final int page = plan[i];
+			if (loadMap.get(page)) {
+				continue;
+			}
+			if (createPage(page)) {
+				return true;
+			}
+			if (mLoader.isPending(page)) {
+				decoding++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Updates the prefetcher with the pages shown and drops the pages it
+	 * no longer plans.
+	 */
+	private void updatePrefetch() {
+		int low = Integer.MAX_VALUE;
+		int high = -1;
+		boolean ready = true;
+		final CurlMesh[] meshes = mCurlMeshes.get();
+		for (int i = 0; i < meshes.length; ++i) {
+			final CurlPage texture = meshes[i].getTexturePage();
+			if (texture == null || texture.getTextureIdBack() == null
+					|| texture.getTextureIdFront() == null) {
+				continue;
+			}
+			final Integer back = textureMap.get(texture.getTextureIdBack());
+			final Integer front = textureMap.get(texture.getTextureIdFront());
+			if (back == null || front == null) {
+				continue;
+			}
+			low = Math.min(low, Math.min(back, front));
+			high = Math.max(high, Math.max(back, front));
+			ready &= loadMap.get(back) && loadMap.get(front);
+		}
+		if (high < 0) {
+			return;
+		}
+
+		mBudget.onShown(low, high);
+		final int count = mTextureIds == null ? 0 : mTextureIds.length;
+		if (mPrefetcher.onFrame(low, high, ready, count)) {
+			for (int i = loadMap.size() - 1; i >= 0; i--) {
+				final int page = loadMap.keyAt(i);
+				if (loadMap.valueAt(i) && !mPrefetcher.isPlanned(page)) {
+					removePage(page);
+				}
+			}
+			if (mUploader.isActive()
+					&& !mPrefetcher.isPlanned(mUploader.getPage())) {
+				removePage(mUploader.getPage());
+			}
+			mLoader.retain(mPrefetcher);
+		}
+	}
+
 	/**
 	 * Loads the textures by pages.
 	 * 
 	 * @param idTex
 	 * @return
 	 */
-	private synchronized boolean processLoadTexturesByPage(int idTex) {
+	private boolean processLoadTexturesByPage(int idTex) {
 		Integer page = textureMap.get(idTex);
 		boolean loading = false;
 
-		if (processLoadCreatePage(page)) {
+		if (page != null && processLoadCreatePage(page)) {
 			loading = true;
 		}
 		;
@@ -486,12 +1219,24 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	 * 
 	 * @return
 	 */
-	private synchronized boolean processLoadTextures() {
+	private boolean processLoadTextures() {
 
 		boolean loading = false;
 
-		for (int i = 0; i < mCurlMeshes.size(); ++i) {
-			CurlPage texture = mCurlMeshes.get(i).getTexturePage();
+		collectUploads();
+		if (firedComplete) {
+			updatePrefetch();
+		}
+
+		// A page streaming in has the frame's loading time to itself.
+		if (mUploader.isActive()) {
+			continueUpload();
+			return !firedComplete;
+		}
+
+		final CurlMesh[] meshes = mCurlMeshes.get();
+		for (int i = 0; i < meshes.length; ++i) {
+			CurlPage texture = meshes[i].getTexturePage();
 
 			if (texture == null) {
 				mObserver.onLoadingTick();
@@ -508,9 +1253,9 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 
 			final Integer page1 = textureMap.get(idTex1);
 			final Integer page2 = textureMap.get(idTex2);
-
-			goFront = (page1 - lastBackPage) > 0;
-			lastBackPage = page1;
+			if (page1 == null || page2 == null) {
+				continue;
+			}
 
 			if (processLoadTexturesByPage(idTex1)) {
 
@@ -542,15 +1287,42 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 	}
 
 	/**
-	 * Sets the reload textures.
+	 * Sets the reload textures, done by the GL thread on its next frame.
+	 * The pages changed, so the pixels kept of them are dropped too.
+	 */
+	public void setReloadTextures() {
+		mDropRetained = true;
+		mReloadTextures = true;
+	}
+
+	/**
+	 * Starts timing the resume of the view, until its pages are drawn
+	 * again. The textures are only reloaded if the context was lost.
 	 */
-	public synchronized void setReloadTextures() {
+	public void onResume() {
+		mResumed = FrameTimings.start();
+	}
+
+	/**
+	 * Drops every page texture so the pages are loaded again.
+	 */
+	private void reloadTextures() {
 		progressIndex = -1;
+		// The page streaming in is kept like the pages uploaded.
+		mRetained.put(mUploader.getPage(), mUploader.end());
+		if (mDropRetained) {
+			mDropRetained = false;
+			mRetained.clear();
+		}
+
+		// The textures went away with their context.
+		mBudget.clear();
 
 		int countTextures = mObserver.countTextures();
 		for (int i = 0; i < countTextures; i++) {
 			removePage(i);
 		}
+		mLoader.clear();
 
 		firedComplete = false;
 	}
@@ -562,12 +1334,82 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		firedComplete = false;
 	}
 
+	/**
+	 * Sets the cache compressed pages are kept in, so they are encoded only
+	 * once.
+	 */
+	public void setTextureCache(final TextureDiskCache cache) {
+		mLoader.setDiskCache(cache);
+	}
+	/**
+	 * Reports a drag to the prefetcher, from any thread.
+	 * 
+	 * @param direction
+	 *            1 for a flip forwards, -1 backwards
+	 * @param rate
+	 *            pages per second the drag goes at, 0 if unknown
+	 */
+	public void setFlipHint(final int direction, final float rate) {
+		mPrefetcher.setFlipHint(direction, rate);
+	}
+
+	/**
+	 * Sets the bytes page textures may take, see
+	 * {@link TextureBudget#getDeviceBudget}.
+	 * 
+	 * @param bytes
+	 */
+	public void setTextureBudget(final long bytes) {
+		mBudget.setBudget(bytes);
+		mRetained.setBudget(bytes / RETAINED_SHARE);
+	}
+
+	/**
+	 * Returns the pages kept for their next upload, for their bytes and
+	 * hits.
+	 * 
+	 * @return {@link RetainedPages}
+	 */
+	public RetainedPages getRetainedPages() {
+		return mRetained;
+	}
+
+	/**
+	 * Returns the texture budget, for its resident bytes, evictions and
+	 * re-uploads.
+	 * 
+	 * @return {@link TextureBudget}
+	 */
+	public TextureBudget getTextureBudget() {
+		return mBudget;
+	}
+
+	/**
+	 * Returns the prefetcher, for its hit rate.
+	 * 
+	 * @return {@link PagePrefetcher}
+	 */
+	public PagePrefetcher getPrefetcher() {
+		return mPrefetcher;
+	}
+
+
 	/**
 	 * Removes CurlMesh from this renderer.
 	 */
-	public synchronized void removeCurlMesh(final CurlMesh mesh) {
-		while (mCurlMeshes.remove(mesh))
-			;
+	public void removeCurlMesh(final CurlMesh mesh) {
+		CurlMesh[] meshes;
+		do {
+			meshes = mCurlMeshes.get();
+			boolean found = false;
+			for (final CurlMesh other : meshes) {
+				found |= other == mesh;
+			}
+			if (!found) {
+				return;
+			}
+		} while (!mCurlMeshes.compareAndSet(meshes,
+				without(meshes, mesh, 0)));
 	}
 
 	/**
@@ -718,12 +1560,26 @@ public class CurlRenderer implements GLSurfaceView.Renderer {
 		void registerTextureID(int index, int i);
 
 		/**
-		 * Create the Bitmap Texture
+		 * Called from onDrawFrame once texture ids were created for pages
+		 * added to the provider after the surface was created.
+		 */
+		void onTexturesAdded();
+
+		/**
+		 * Create the Bitmap Texture. Called from the loader worker thread.
 		 * @param page
 		 * @return
 		 */
 		Bitmap createBitmapTexture(int page);
 
+		/**
+		 * Create a small version of the Bitmap Texture, shown until the page
+		 * is loaded, or null. Called from the loader worker thread.
+		 * @param page
+		 * @return
+		 */
+		Bitmap createThumbnailTexture(int page);
+
 		int countTextures();
 
 		void onLoadingComplete();
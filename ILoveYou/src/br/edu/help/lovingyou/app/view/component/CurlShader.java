@@ -0,0 +1,544 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ConfigurationInfo;
+import android.graphics.Color;
+import android.graphics.PointF;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+
+/**
+ * OpenGL ES 2.0 page curl. A finely tessellated grid covering the page is
+ * uploaded once, and the cylinder deformation {@link CurlMesh#curl} computes
+ * on the CPU is applied to it in the vertex shader from the curl position,
+ * direction and radius uniforms. The side of the page being seen is told by
+ * the winding of its triangles, so the front and back textures are picked
+ * per fragment. The drop and self shadows are still built by
+ * {@link CurlMesh} and drawn here in their colors.
+ */
+public final class CurlShader {
+
+	/**
+	 * Cells of the grid along each side of the page.
+	 */
+	private static final int GRID_SIZE = 48;
+
+	/**
+	 * Flag for curling pages in the shader where OpenGL ES 2.0 is there.
+	 */
+	private static final boolean ENABLED = true;
+
+	/**
+	 * Side drawn with its page color only.
+	 */
+	private static final int SIDE_BLANK = 0;
+
+	/**
+	 * Side drawn with its texture.
+	 */
+	private static final int SIDE_TEXTURE = 1;
+
+	/**
+	 * Side whose texture is still being decoded.
+	 */
+	private static final int SIDE_PLACEHOLDER = 2;
+
+	/**
+	 * Color drawn instead of a texture which is still being decoded.
+	 */
+	private static final int PLACEHOLDER_COLOR = 0xFFE8E8E8;
+
+	/**
+	 * Places the grid on the page and curls it as {@link CurlMesh#curl}
+	 * does: the page is rotated so the curl heads to the right, vertices
+	 * left of the curl line are wrapped around the cylinder and the ones
+	 * past half its perimeter lie flat on top of the page.
+	 */
+	private static final String VERTEX_SHADER = ""
+			+ "uniform mat4 uMVPMatrix;\n"
+			+ "uniform vec4 uRect;\n"
+			+ "uniform vec2 uCurlPos;\n"
+			+ "uniform vec2 uCurlDir;\n"
+			+ "uniform float uRadius;\n"
+			+ "uniform bool uFlip;\n"
+			+ "attribute vec2 aGrid;\n"
+			+ "varying vec2 vTexCoord;\n"
+			+ "varying float vShade;\n"
+			+ "void main() {\n"
+			+ "  vec2 pos = mix(uRect.xy, uRect.zw, aGrid);\n"
+			+ "  vec3 world = vec3(pos, 0.0);\n"
+			+ "  vShade = 1.0;\n"
+			+ "  if (uRadius > 0.0) {\n"
+			+ "    vec2 d = pos - uCurlPos;\n"
+			+ "    float x = dot(d, uCurlDir);\n"
+			+ "    if (x < 0.0) {\n"
+			+ "      vec2 perp = vec2(-uCurlDir.y, uCurlDir.x);\n"
+			+ "      float y = dot(d, perp);\n"
+			+ "      float curlLength = 3.14159265 * uRadius;\n"
+			+ "      float z;\n"
+			+ "      if (x < -curlLength) {\n"
+			+ "        x = -(curlLength + x);\n"
+			+ "        z = 2.0 * uRadius;\n"
+			+ "      } else {\n"
+			+ "        float rot = 3.14159265 * x / curlLength;\n"
+			+ "        x = uRadius * sin(rot);\n"
+			+ "        z = uRadius - uRadius * cos(rot);\n"
+			+ "        vShade = 0.1 + 0.9 * sqrt(sin(rot) + 1.0);\n"
+			+ "      }\n"
+			+ "      world = vec3(uCurlPos + x * uCurlDir + y * perp, z);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  vTexCoord = vec2(uFlip ? 1.0 - aGrid.x : aGrid.x, aGrid.y);\n"
+			+ "  gl_Position = uMVPMatrix * vec4(world, 1.0);\n"
+			+ "}\n";
+
+	/**
+	 * Colors the side being seen. Flipped pages show their back texture on
+	 * the front facing triangles, and the back texture is always mirrored
+	 * when it differs from the front one, as in {@link CurlMesh}.
+	 */
+	private static final String FRAGMENT_SHADER = ""
+			+ "precision mediump float;\n"
+			+ "uniform bool uFlip;\n"
+			+ "uniform sampler2D uTextureFront;\n"
+			+ "uniform sampler2D uTextureBack;\n"
+			+ "uniform vec2 uTexScaleFront;\n"
+			+ "uniform vec2 uTexScaleBack;\n"
+			+ "uniform bool uMirrorBack;\n"
+			+ "uniform int uSideFront;\n"
+			+ "uniform int uSideBack;\n"
+			+ "uniform vec4 uColorFront;\n"
+			+ "uniform vec4 uColorBack;\n"
+			+ "uniform vec4 uPlaceholder;\n"
+			+ "varying vec2 vTexCoord;\n"
+			+ "varying float vShade;\n"
+			+ "void main() {\n"
+			+ "  int side;\n"
+			+ "  vec4 color;\n"
+			+ "  vec4 texel = vec4(0.0);\n"
+			+ "  if (gl_FrontFacing != uFlip) {\n"
+			+ "    side = uSideFront;\n"
+			+ "    color = uColorFront;\n"
+			+ "    if (side == " + SIDE_TEXTURE + ") {\n"
+			+ "      texel = texture2D(uTextureFront, vTexCoord * uTexScaleFront);\n"
+			+ "    }\n"
+			+ "  } else {\n"
+			+ "    side = uSideBack;\n"
+			+ "    color = uColorBack;\n"
+			+ "    if (side == " + SIDE_TEXTURE + ") {\n"
+			+ "      vec2 coord = vec2(uMirrorBack ? 1.0 - vTexCoord.x : vTexCoord.x, vTexCoord.y);\n"
+			+ "      texel = texture2D(uTextureBack, coord * uTexScaleBack);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  if (side == " + SIDE_PLACEHOLDER + ") {\n"
+			+ "    gl_FragColor = uPlaceholder;\n"
+			+ "  } else {\n"
+			+ "    vec3 rgb = mix(vec3(1.0), texel.rgb, texel.a);\n"
+			+ "    gl_FragColor = vec4(color.rgb * vShade * rgb, color.a);\n"
+			+ "  }\n"
+			+ "}\n";
+
+	/**
+	 * Places the shadow strips, which are in world coordinates already.
+	 */
+	private static final String SHADOW_VERTEX_SHADER = ""
+			+ "uniform mat4 uMVPMatrix;\n"
+			+ "attribute vec3 aPosition;\n"
+			+ "attribute vec4 aColor;\n"
+			+ "varying vec4 vColor;\n"
+			+ "void main() {\n"
+			+ "  vColor = aColor;\n"
+			+ "  gl_Position = uMVPMatrix * vec4(aPosition, 1.0);\n"
+			+ "}\n";
+
+	/**
+	 * Colors the shadow strips.
+	 */
+	private static final String SHADOW_FRAGMENT_SHADER = ""
+			+ "precision mediump float;\n"
+			+ "varying vec4 vColor;\n"
+			+ "void main() {\n"
+			+ "  gl_FragColor = vColor;\n"
+			+ "}\n";
+
+	/**
+	 * Retains the program and its locations.
+	 */
+	private int mProgram;
+	private int mGridHandle;
+	private int mMVPMatrixHandle;
+	private int mRectHandle;
+	private int mCurlPosHandle;
+	private int mCurlDirHandle;
+	private int mRadiusHandle;
+	private int mFlipHandle;
+	private int mTextureFrontHandle;
+	private int mTextureBackHandle;
+	private int mTexScaleFrontHandle;
+	private int mTexScaleBackHandle;
+	private int mMirrorBackHandle;
+	private int mSideFrontHandle;
+	private int mSideBackHandle;
+	private int mColorFrontHandle;
+	private int mColorBackHandle;
+	private int mPlaceholderHandle;
+
+	/**
+	 * Retains the shadow program and its locations.
+	 */
+	private int mShadowProgram;
+	private int mShadowPositionHandle;
+	private int mShadowColorHandle;
+	private int mShadowMVPMatrixHandle;
+
+	/**
+	 * Retains the grid buffer objects.
+	 */
+	private int mGridBuffer;
+	private int mIndexBuffer;
+	private int mIndexCount;
+
+	/**
+	 * Retains the state of the page being drawn.
+	 */
+	private final RectF mRect = new RectF();
+	private final PointF mCurlPos = new PointF();
+	private final PointF mCurlDir = new PointF(1f, 0f);
+	private float mRadius;
+	private boolean mFlip;
+	private final int[] mTextures = new int[2];
+	private final int[] mSides = new int[2];
+	private final RectF[] mTextureRects = { new RectF(), new RectF() };
+	private final int[] mColors = { Color.WHITE, Color.WHITE };
+	private boolean mMirrorBack;
+
+	/**
+	 * Returns true if the shader engine is enabled and the device runs
+	 * OpenGL ES 2.0.
+	 *
+	 * @param context
+	 * @return
+	 */
+	public static boolean isSupported(final Context context) {
+		if (!ENABLED) {
+			return false;
+		}
+		final ActivityManager activityManager = (ActivityManager) context
+				.getSystemService(Context.ACTIVITY_SERVICE);
+		final ConfigurationInfo info = activityManager
+				.getDeviceConfigurationInfo();
+		return info != null && info.reqGlEsVersion >= 0x20000;
+	}
+
+	/**
+	 * Compiles the program and uploads the grid. Called on the GL thread
+	 * once the surface is created, the objects of a lost context are not
+	 * deleted.
+	 */
+	public void create() {
+		mProgram = link(VERTEX_SHADER, FRAGMENT_SHADER);
+		mGridHandle = GLES20.glGetAttribLocation(mProgram, "aGrid");
+		mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+		mRectHandle = GLES20.glGetUniformLocation(mProgram, "uRect");
+		mCurlPosHandle = GLES20.glGetUniformLocation(mProgram, "uCurlPos");
+		mCurlDirHandle = GLES20.glGetUniformLocation(mProgram, "uCurlDir");
+		mRadiusHandle = GLES20.glGetUniformLocation(mProgram, "uRadius");
+		mFlipHandle = GLES20.glGetUniformLocation(mProgram, "uFlip");
+		mTextureFrontHandle = GLES20.glGetUniformLocation(mProgram,
+				"uTextureFront");
+		mTextureBackHandle = GLES20.glGetUniformLocation(mProgram,
+				"uTextureBack");
+		mTexScaleFrontHandle = GLES20.glGetUniformLocation(mProgram,
+				"uTexScaleFront");
+		mTexScaleBackHandle = GLES20.glGetUniformLocation(mProgram,
+				"uTexScaleBack");
+		mMirrorBackHandle = GLES20.glGetUniformLocation(mProgram,
+				"uMirrorBack");
+		mSideFrontHandle = GLES20.glGetUniformLocation(mProgram, "uSideFront");
+		mSideBackHandle = GLES20.glGetUniformLocation(mProgram, "uSideBack");
+		mColorFrontHandle = GLES20.glGetUniformLocation(mProgram,
+				"uColorFront");
+		mColorBackHandle = GLES20.glGetUniformLocation(mProgram, "uColorBack");
+		mPlaceholderHandle = GLES20.glGetUniformLocation(mProgram,
+				"uPlaceholder");
+
+		mShadowProgram = link(SHADOW_VERTEX_SHADER, SHADOW_FRAGMENT_SHADER);
+		mShadowPositionHandle = GLES20.glGetAttribLocation(mShadowProgram,
+				"aPosition");
+		mShadowColorHandle = GLES20.glGetAttribLocation(mShadowProgram,
+				"aColor");
+		mShadowMVPMatrixHandle = GLES20.glGetUniformLocation(mShadowProgram,
+				"uMVPMatrix");
+
+		createGrid();
+	}
+
+	/**
+	 * Compiles and links the program.
+	 */
+	private static int link(final String vertexSource,
+			final String fragmentSource) {
+		final int vertexShader = compile(GLES20.GL_VERTEX_SHADER,
+				vertexSource);
+		final int fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER,
+				fragmentSource);
+
+		final int program = GLES20.glCreateProgram();
+		GLES20.glAttachShader(program, vertexShader);
+		GLES20.glAttachShader(program, fragmentShader);
+		GLES20.glLinkProgram(program);
+		final int[] status = new int[1];
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+		if (status[0] != GLES20.GL_TRUE) {
+			final String log = GLES20.glGetProgramInfoLog(program);
+			GLES20.glDeleteProgram(program);
+			throw new RuntimeException("Unable to link curl program: " + log);
+		}
+		GLES20.glDeleteShader(vertexShader);
+		GLES20.glDeleteShader(fragmentShader);
+		return program;
+	}
+
+	/**
+	 * Uploads the grid, as [0, 1] page coordinates, and its triangles.
+	 * Front facing triangles wind counter clockwise on screen.
+	 */
+	private void createGrid() {
+		final int side = GRID_SIZE + 1;
+		final FloatBuffer grid = ByteBuffer
+				.allocateDirect(side * side * 2 * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int row = 0; row < side; ++row) {
+			for (int column = 0; column < side; ++column) {
+				grid.put((float) column / GRID_SIZE);
+				grid.put((float) row / GRID_SIZE);
+			}
+		}
+		grid.position(0);
+
+		mIndexCount = GRID_SIZE * GRID_SIZE * 6;
+		final ShortBuffer indices = ByteBuffer.allocateDirect(mIndexCount * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		for (int row = 0; row < GRID_SIZE; ++row) {
+			for (int column = 0; column < GRID_SIZE; ++column) {
+				final short topLeft = (short) (row * side + column);
+				final short bottomLeft = (short) (topLeft + side);
+				indices.put(topLeft);
+				indices.put(bottomLeft);
+				indices.put((short) (topLeft + 1));
+				indices.put((short) (topLeft + 1));
+				indices.put(bottomLeft);
+				indices.put((short) (bottomLeft + 1));
+			}
+		}
+		indices.position(0);
+
+		final int[] buffers = new int[2];
+		GLES20.glGenBuffers(2, buffers, 0);
+		mGridBuffer = buffers[0];
+		mIndexBuffer = buffers[1];
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGridBuffer);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, grid.capacity() * 4, grid,
+				GLES20.GL_STATIC_DRAW);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+		GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexCount * 2,
+				indices, GLES20.GL_STATIC_DRAW);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Compiles the shader.
+	 */
+	private static int compile(final int type, final String source) {
+		final int shader = GLES20.glCreateShader(type);
+		GLES20.glShaderSource(shader, source);
+		GLES20.glCompileShader(shader);
+		final int[] status = new int[1];
+		GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+		if (status[0] != GLES20.GL_TRUE) {
+			final String log = GLES20.glGetShaderInfoLog(shader);
+			GLES20.glDeleteShader(shader);
+			throw new RuntimeException("Unable to compile curl shader: " + log);
+		}
+		return shader;
+	}
+
+	/**
+	 * Sets the page bounds, top is above bottom.
+	 */
+	public void setRect(final RectF rect) {
+		mRect.set(rect);
+	}
+
+	/**
+	 * Curls the page, with the arguments of {@link CurlMesh#curl}.
+	 */
+	public void setCurl(final PointF curlPos, final PointF curlDir,
+			final float radius) {
+		mCurlPos.set(curlPos);
+		mCurlDir.set(curlDir);
+		mRadius = radius;
+	}
+
+	/**
+	 * Draws the page flat.
+	 */
+	public void setFlat() {
+		mRadius = 0f;
+	}
+
+	/**
+	 * If true, flips texture sideways, as the left page does.
+	 */
+	public void setFlipTexture(final boolean flip) {
+		mFlip = flip;
+	}
+
+	/**
+	 * Sets what a side of the page shows.
+	 *
+	 * @param side
+	 *            {@link CurlPage#SIDE_FRONT} or {@link CurlPage#SIDE_BACK}
+	 * @param textureId
+	 *            the texture, null for the page color only
+	 * @param ready
+	 *            false while the texture is being decoded
+	 * @param textureRect
+	 *            the part of the texture holding the page
+	 * @param color
+	 *            the page color
+	 */
+	public void setSide(final int side, final Integer textureId,
+			final boolean ready, final RectF textureRect, final int color) {
+		final int index = side == CurlPage.SIDE_FRONT ? 0 : 1;
+		if (textureId == null) {
+			mTextures[index] = 0;
+			mSides[index] = SIDE_BLANK;
+		} else {
+			mTextures[index] = textureId;
+			mSides[index] = ready ? SIDE_TEXTURE : SIDE_PLACEHOLDER;
+		}
+		mTextureRects[index].set(textureRect);
+		mColors[index] = color;
+	}
+
+	/**
+	 * If true, the back texture is mirrored.
+	 */
+	public void setMirrorBack(final boolean mirror) {
+		mMirrorBack = mirror;
+	}
+
+	/**
+	 * Draws the page.
+	 *
+	 * @param mvpMatrix
+	 *            the projection and view matrix
+	 */
+	public void draw(final float[] mvpMatrix) {
+		GLES20.glUseProgram(mProgram);
+		GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+		GLES20.glUniform4f(mRectHandle, mRect.left, mRect.top, mRect.right,
+				mRect.bottom);
+		GLES20.glUniform2f(mCurlPosHandle, mCurlPos.x, mCurlPos.y);
+		GLES20.glUniform2f(mCurlDirHandle, mCurlDir.x, mCurlDir.y);
+		GLES20.glUniform1f(mRadiusHandle, mRadius);
+		GLES20.glUniform1i(mFlipHandle, mFlip ? 1 : 0);
+		GLES20.glUniform1i(mMirrorBackHandle, mMirrorBack ? 1 : 0);
+		GLES20.glUniform1i(mSideFrontHandle, mSides[0]);
+		GLES20.glUniform1i(mSideBackHandle, mSides[1]);
+		GLES20.glUniform2f(mTexScaleFrontHandle, mTextureRects[0].right,
+				mTextureRects[0].bottom);
+		GLES20.glUniform2f(mTexScaleBackHandle, mTextureRects[1].right,
+				mTextureRects[1].bottom);
+		uniformColor(mColorFrontHandle, mColors[0]);
+		uniformColor(mColorBackHandle, mColors[1]);
+		uniformColor(mPlaceholderHandle, PLACEHOLDER_COLOR);
+
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+		GLES20.glUniform1i(mTextureBackHandle, 1);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+		GLES20.glUniform1i(mTextureFrontHandle, 0);
+
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGridBuffer);
+		GLES20.glEnableVertexAttribArray(mGridHandle);
+		GLES20.glVertexAttribPointer(mGridHandle, 2, GLES20.GL_FLOAT, false,
+				0, 0);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+		GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+				GLES20.GL_UNSIGNED_SHORT, 0);
+
+		GLES20.glDisableVertexAttribArray(mGridHandle);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Draws shadow strips of {@link CurlMesh}, blended over what is drawn
+	 * already. Depth is neither tested nor written, so a shadow lies over
+	 * the pages drawn before it and under the ones drawn after, as with
+	 * OpenGL ES 1.0.
+	 *
+	 * @param mvpMatrix
+	 *            the projection and view matrix
+	 * @param vertices
+	 *            3 floats per vertex
+	 * @param colors
+	 *            4 floats per vertex
+	 * @param first
+	 *            first vertex of the strip
+	 * @param count
+	 *            vertices of the strip
+	 */
+	public void drawShadow(final float[] mvpMatrix,
+			final FloatBuffer vertices, final FloatBuffer colors,
+			final int first, final int count) {
+		if (count <= 0) {
+			return;
+		}
+		GLES20.glUseProgram(mShadowProgram);
+		GLES20.glUniformMatrix4fv(mShadowMVPMatrixHandle, 1, false,
+				mvpMatrix, 0);
+		vertices.position(0);
+		colors.position(0);
+		GLES20.glEnableVertexAttribArray(mShadowPositionHandle);
+		GLES20.glVertexAttribPointer(mShadowPositionHandle, 3,
+				GLES20.GL_FLOAT, false, 0, vertices);
+		GLES20.glEnableVertexAttribArray(mShadowColorHandle);
+		GLES20.glVertexAttribPointer(mShadowColorHandle, 4, GLES20.GL_FLOAT,
+				false, 0, colors);
+
+		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		GLES20.glDepthMask(false);
+		GLES20.glEnable(GLES20.GL_BLEND);
+		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA,
+				GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, first, count);
+		GLES20.glDisable(GLES20.GL_BLEND);
+		GLES20.glDepthMask(true);
+		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+
+		GLES20.glDisableVertexAttribArray(mShadowColorHandle);
+		GLES20.glDisableVertexAttribArray(mShadowPositionHandle);
+	}
+
+	/**
+	 * Sets the color uniform.
+	 */
+	private static void uniformColor(final int handle, final int color) {
+		GLES20.glUniform4f(handle, Color.red(color) / 255f,
+				Color.green(color) / 255f, Color.blue(color) / 255f,
+				Color.alpha(color) / 255f);
+	}
+}
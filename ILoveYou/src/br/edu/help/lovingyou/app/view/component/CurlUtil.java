@@ -12,10 +12,10 @@ package br.edu.help.lovingyou.app.view.component;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.RectF;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
 
 /**
  * Provides some resources to Page Curl.
@@ -31,7 +31,7 @@ public final class CurlUtil {
 	/**
 	 * Calculates the next highest power of two for a given integer.
 	 */
-	private static int getNextHighestPO2(int n) {
+	static int getNextHighestPO2(int n) {
 		n -= 1;
 		n = n | (n >> 1);
 		n = n | (n >> 2);
@@ -52,7 +52,7 @@ public final class CurlUtil {
 		
 		if(bitmap == null) {
 			bitmap = Bitmap.createBitmap(1,1,
-					Bitmap.Config.ARGB_8888);
+					TextureFormat.choose(false));
 			bitmap.eraseColor(0xFFFFFFFF);
 		}
 			
@@ -76,7 +76,10 @@ public final class CurlUtil {
 
 		// TODO: Is there another way to create a bigger Bitmap and copy
 		// original Bitmap to it more efficiently? Immutable bitmap anyone?
-		Bitmap bitmapTex = Bitmap.createBitmap(newW, newH, bitmap.getConfig());
+		final Bitmap.Config config = TextureFormat.choose(bitmap.hasAlpha());
+		Bitmap bitmapTex = BitmapPool.getInstance().acquire(newW, newH,
+				config);
+		bitmapTex.eraseColor(TextureFormat.clearColor(config));
 		Canvas c = new Canvas(bitmapTex);
 
 		// forcing a lower density screen device to a higher resolution setup..
@@ -98,31 +101,25 @@ public final class CurlUtil {
 	}
 
 	/** 
-	 * Loads bitmap scaling it to fit approximately the given dimensions. 
+	 * Loads bitmap scaling it to cover the given dimensions, as planned by
+	 * the {@link DecodePlanner}. The result is decoded into a pooled bitmap
+	 * where the API level allows it, so it should be given back to the
+	 * {@link BitmapPool} once drawn.
 	 */
 	public static Bitmap getPageSampledBitmap(final String filePath,
 			final int reqWidth, final int reqHeight) {
-		// First decode with inJustDecodeBounds=true to check dimensions
-		final BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(filePath, options);
-
-		// Calculate inSampleSize
-		int inSampleSize = 1;
-		if (options.outHeight > reqHeight || options.outWidth > reqWidth) {
-			if (options.outWidth > options.outHeight) {
-				inSampleSize = Math.round((float) options.outHeight
-						/ (float) reqHeight);
-			} else {
-				inSampleSize = Math.round((float) options.outWidth
-						/ (float) reqWidth);
-			}
-		}
-		options.inSampleSize = inSampleSize;
+		return DecodePlanner.decode(filePath,
+				DecodePlanner.plan(filePath, reqWidth, reqHeight));
+	}
 
-		// Decode bitmap with inSampleSize set
-		options.inJustDecodeBounds = false;
-		return BitmapFactory.decodeFile(filePath, options);
+	/**
+	 * Loads a small version of the page photo, from its EXIF thumbnail
+	 * where it has a usable one, so it can be shown while the page is
+	 * loaded. It should be given back to the {@link BitmapPool} once drawn.
+	 */
+	public static Bitmap getPageThumbnailBitmap(final String filePath,
+			final int reqWidth, final int reqHeight) {
+		return DecodePlanner.decodeThumbnail(filePath, reqWidth, reqHeight);
 	}
 
 }
@@ -16,16 +16,19 @@
 
 package br.edu.help.lovingyou.app.view.component;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.PixelFormat;
 import android.graphics.PointF;
 import android.graphics.RectF;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
 import br.edu.help.lovingyou.util.Utils;
 
 /**
@@ -43,6 +46,11 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private static final int CURL_NONE = 0;
 	private static final int CURL_RIGHT = 2;
 
+	/**
+	 * First version able to keep the context while paused.
+	 */
+	private static final int API_PRESERVE_CONTEXT = Build.VERSION_CODES.HONEYCOMB;
+
 	/**
 	 * Constants for mAnimationTargetEvent.
 	 */
@@ -173,9 +181,9 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private transient int mViewMode = SHOW_ONE_PAGE;
 
 	/**
-	 * Retains this state.
+	 * Retains this state, read by the renderer to hold texture loads back.
 	 */
-	private boolean touching;
+	private volatile boolean touching;
 
 	/**
 	 * Unused
@@ -183,20 +191,16 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private boolean waitNeeds;
 
 	/**
-	 * Retains an instance of {@link Thread}
+	 * Retains an instance of {@link FrameScheduler}, all render requests go
+	 * through it.
 	 */
-	private Thread thread;
+	private FrameScheduler mScheduler;
 
 	/**
 	 * Retains an instance of {@link Handler}
 	 */
 	private Handler handler;
 
-	/**
-	 * Constant that retains the value 1000.
-	 */
-	private static final int MILLISECONDS = 1000;
-
 	/**
 	 * Constant that represents the value 50.
 	 */
@@ -245,6 +249,13 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 */
 	private void init() {
 
+		mScheduler = new FrameScheduler(new Runnable() {
+			@Override
+			public void run() {
+				CurlView.super.requestRender();
+			}
+		});
+
 		setEGLConfigChooser(8, 8, 8, 8, 16, 0);
 
 		setZOrderOnTop(true);
@@ -252,7 +263,13 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mRenderer = new CurlRenderer(this,
 				Utils.isLargeScreen(getContext()
 						.getApplicationContext()));
+		mRenderer.setTextureCache(TextureDiskCache.getInstance(getContext()));
+		mRenderer.setTextureBudget(TextureBudget.getDeviceBudget(getContext()));
+		setEGLContextFactory(mRenderer.getContextFactory());
 		setRenderer(mRenderer);
+		if (Build.VERSION.SDK_INT >= API_PRESERVE_CONTEXT) {
+			preserveContext();
+		}
 
 		setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 		getHolder().setFormat(PixelFormat.TRANSLUCENT);
@@ -270,32 +287,6 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mPageLeft.setFlipTexture(true);
 		mPageRight.setFlipTexture(false);
 		handler = new Handler();
-
-		thread = new Thread() {
-			@Override
-			public void run() {
-
-				try {
-
-					while (true) {
-						Thread.sleep(MILLISECONDS);
-						handler.post(new Runnable() {
-
-							@Override
-							public void run() {
-								requestRender();
-								touching = false;
-							}
-						});
-
-					}
-
-				} catch (final InterruptedException e) {
-				}
-			}
-		};
-		thread.start();
-
 	}
 
 	/*
@@ -458,8 +449,6 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	}
 
 	
-	private long lastTimeTick = System.currentTimeMillis();
-	
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -467,19 +456,8 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 */
 	@Override
 	public void onLoadingTick() {
-		this.postDelayed(new Runnable() {
-			
-			@Override
-			public void run() {
-				
-				if (System.currentTimeMillis() - lastTimeTick > 10)
-				{
-					lastTimeTick = System.currentTimeMillis();
-					requestRender();
-				}
-				
-			}
-		}, 20);
+		// Loads resume on the next frame, along with any other request.
+		requestRender();
 	}
 
 	@Override
@@ -488,6 +466,12 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 				mPageBitmapHeight);
 	}
 
+	@Override
+	public Bitmap createThumbnailTexture(final int page) {
+		return mPageProvider.createThumbnail(page, mPageBitmapWidth,
+				mPageBitmapHeight);
+	}
+
 	@Override
 	public RectF getRectF(final int i) {
 		return mPageProvider.getRectF(i);
@@ -503,14 +487,50 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mPageProvider.registerTextureID(index, mTextureIds);
 	}
 
+	/**
+	 * Shows the pages that got their textures after being added by the page
+	 * provider, unless the user is curling a page.
+	 */
+	@Override
+	public void onTexturesAdded() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (!mAnimate && mCurlState == CURL_NONE) {
+					setCurrentIndex(mCurrentIndex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Schedules a frame for the next vsync, requests made before it share
+	 * the frame.
+	 */
+	@Override
+	public void requestRender() {
+		mScheduler.requestFrame();
+	}
+
 	/**
 	 * Is called when application is Resumed
 	 */
 	@Override
 	public void onResume() {
 		super.onResume();
-		mRenderer.setReloadTextures();
+		// Textures are reloaded only if the context was lost meanwhile.
+		mRenderer.onResume();
+		requestRender();
+
+	}
 
+	/**
+	 * Keeps the context, with the page textures, while paused where the
+	 * device allows it.
+	 */
+	@TargetApi(API_PRESERVE_CONTEXT)
+	private void preserveContext() {
+		setPreserveEGLContextOnPause(true);
 	}
 
 	/**
@@ -519,9 +539,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	@Override
 	public void onPause() {
 		super.onPause();
-		for (int i = 0; i <= 10; i++) {
-			thread.interrupt();
-		}
+		mScheduler.cancel();
 	}
 
 	/**
@@ -530,7 +548,8 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	@Override
 	public boolean onTouch(final View view, final MotionEvent mEvt) {
 
-		touching = mEvt.getAction() != MotionEvent.ACTION_UP;
+		touching = mEvt.getAction() != MotionEvent.ACTION_UP
+				&& mEvt.getAction() != MotionEvent.ACTION_CANCEL;
 		// No dragging during animation at the moment.
 		// TODO: Stop animation on touch event and return to drag mode.
 
@@ -626,6 +645,8 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			if (mCurlState == CURL_NONE) {
 				return false;
 			}
+			// Lets the renderer load pages on the side being curled.
+			mRenderer.setFlipHint(mCurlState == CURL_RIGHT ? 1 : -1, 0f);
 		}
 		case MotionEvent.ACTION_MOVE: {
 			updateCurlPos(mPointerPos);
@@ -666,6 +687,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 					}
 					animTargetEvt = SET_CURL_TO_LEFT;
 				}
+				reportFlip(mEvt);
 				mAnimate = true;
 				requestRender();
 			}
@@ -676,6 +698,25 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		return true;
 	}
 
+	/**
+	 * Reports a completed flip to the renderer, at the pace of the drag
+	 * that made it.
+	 */
+	private void reportFlip(final MotionEvent event) {
+		final int direction;
+		if (mCurlState == CURL_RIGHT && animTargetEvt == SET_CURL_TO_LEFT) {
+			direction = 1;
+		} else if (mCurlState == CURL_LEFT
+				&& animTargetEvt == SET_CURL_TO_RIGHT) {
+			direction = -1;
+		} else {
+			return;
+		}
+		final long millis = Math.max(event.getEventTime()
+				- event.getDownTime(), 1L);
+		mRenderer.setFlipHint(direction, 1000f / millis);
+	}
+
 	/**
 	 * Allow the last page to curl.
 	 */
@@ -1160,6 +1201,13 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 		Bitmap createPage(int page, int width, int height);
 
+		/**
+		 * Called for a small version of the page, shown until the page from
+		 * createPage is ready. It must map to the same texture coordinates,
+		 * at any size. Returns null if the page needs none.
+		 */
+		Bitmap createThumbnail(int page, int width, int height);
+
 		void showLastPageOverlay();
 
 		boolean isNumberPagesOdd();
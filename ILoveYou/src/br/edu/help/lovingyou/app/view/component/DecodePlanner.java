@@ -0,0 +1,367 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.util.Log;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+
+/**
+ * Plans how a page photo is decoded. The image bounds are read once, the
+ * sample is the largest power of two that still covers the page, the
+ * decoded size is checked against the free heap, and a photo the page
+ * layout crops is decoded through {@link BitmapRegionDecoder}, only the
+ * region shown; the page layout shows its photos whole, so they are
+ * decoded whole. Opaque photos are decoded to the format
+ * {@link TextureFormat} picks for them.
+ */
+public final class DecodePlanner {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "DecodePlanner";
+
+	/**
+	 * Fraction of the free heap one decode may take.
+	 */
+	private static final int HEAP_FRACTION = 4;
+
+	/**
+	 * Largest sample tried before giving up on the heap budget.
+	 */
+	private static final int MAX_SAMPLE = 64;
+
+	/**
+	 * Difference of aspect an EXIF thumbnail may have from its photo, as a
+	 * fraction of the photo aspect. Thumbnails padded or cropped to a
+	 * fixed aspect are not used.
+	 */
+	private static final float THUMBNAIL_ASPECT_TOLERANCE = .03f;
+
+	/**
+	 * Retains the largest decode so far, in bytes.
+	 */
+	private static long sPeakBytes;
+
+	/**
+	 * How a photo is decoded.
+	 */
+	public static final class Plan {
+
+		/** The image width. */
+		public final int sourceWidth;
+
+		/** The image height. */
+		public final int sourceHeight;
+
+		/** The power of two sample. */
+		public final int sampleSize;
+
+		/** The region shown, null to decode the whole image. */
+		public final Rect region;
+
+		/** The format of the decoded bitmap. */
+		public final Bitmap.Config config;
+
+		/** The estimated bytes of the decoded bitmap. */
+		public final long bytes;
+
+		/** False if even the largest sample exceeds the heap budget. */
+		public final boolean withinBudget;
+
+		/**
+		 * Constructor of the class
+		 */
+		private Plan(final int sourceWidth, final int sourceHeight,
+				final int sampleSize, final Rect region,
+				final Bitmap.Config config, final long bytes,
+				final boolean withinBudget) {
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+			this.sampleSize = sampleSize;
+			this.region = region;
+			this.config = config;
+			this.bytes = bytes;
+			this.withinBudget = withinBudget;
+		}
+
+		@Override
+		public String toString() {
+			return sourceWidth + "x" + sourceHeight + " sample "
+					+ sampleSize + (region != null ? " crop " + region : "")
+					+ ", " + config + " " + bytes / 1024 + "KB"
+					+ (withinBudget ? "" : " over budget");
+		}
+	}
+
+	/**
+	 * Private constructor.
+	 */
+	private DecodePlanner() {
+	}
+
+	/**
+	 * Plans the decode of the whole photo for a page of the given size.
+	 *
+	 * @param filePath
+	 * @param reqWidth
+	 *            the page width in pixels
+	 * @param reqHeight
+	 *            the page height in pixels
+	 * @return {@link Plan} or null if the file is not a readable image.
+	 */
+	public static Plan plan(final String filePath, final int reqWidth,
+			final int reqHeight) {
+		return plan(filePath, reqWidth, reqHeight, null);
+	}
+
+	/**
+	 * Plans the decode of the photo for a page of the given size.
+	 *
+	 * @param filePath
+	 * @param reqWidth
+	 *            the width in pixels the region is shown at
+	 * @param reqHeight
+	 *            the height in pixels the region is shown at
+	 * @param crop
+	 *            the region of the photo the layout shows, null if it shows
+	 *            the whole photo
+	 * @return {@link Plan} or null if the file is not a readable image.
+	 */
+	public static Plan plan(final String filePath, final int reqWidth,
+			final int reqHeight, final Rect crop) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(filePath, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+		return plan(options.outWidth, options.outHeight, reqWidth, reqHeight,
+				crop, TextureFormat.forPhoto(options.outMimeType));
+	}
+
+	/**
+	 * Plans the decode of an image of known size for a page of the given
+	 * size.
+	 *
+	 * @param sourceWidth
+	 * @param sourceHeight
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @param crop
+	 *            the region of the image the layout shows, null if it shows
+	 *            the whole image
+	 * @param config
+	 *            the format of the decoded bitmap
+	 * @return {@link Plan}
+	 */
+	public static Plan plan(final int sourceWidth, final int sourceHeight,
+			final int reqWidth, final int reqHeight, final Rect crop,
+			final Bitmap.Config config) {
+		final int width = Math.max(1, reqWidth);
+		final int height = Math.max(1, reqHeight);
+
+		// Only a region that leaves part of the image out is worth the
+		// region decoder.
+		Rect region = null;
+		if (crop != null) {
+			region = new Rect(crop);
+			if (!region.intersect(0, 0, sourceWidth, sourceHeight)
+					|| region.width() == sourceWidth
+					&& region.height() == sourceHeight) {
+				region = null;
+			}
+		}
+		final int regionWidth = region != null ? region.width()
+				: sourceWidth;
+		final int regionHeight = region != null ? region.height()
+				: sourceHeight;
+
+		// Largest power of two that still covers the page.
+		int sampleSize = 1;
+		while (regionWidth / (sampleSize * 2) >= width
+				&& regionHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+
+		// Trades resolution for memory when the heap is short.
+		final Runtime runtime = Runtime.getRuntime();
+		final long budget = (runtime.maxMemory() - (runtime.totalMemory() - runtime
+				.freeMemory())) / HEAP_FRACTION;
+		long bytes = bytesOf(regionWidth, regionHeight, sampleSize, config);
+		while (bytes > budget && sampleSize < MAX_SAMPLE) {
+			sampleSize *= 2;
+			bytes = bytesOf(regionWidth, regionHeight, sampleSize, config);
+		}
+
+		return new Plan(sourceWidth, sourceHeight, sampleSize, region,
+				config, bytes, bytes <= budget);
+	}
+
+	/**
+	 * Decodes the photo as planned. Whole images are decoded into a pooled
+	 * bitmap where the API level allows it.
+	 *
+	 * @param filePath
+	 * @param plan
+	 * @return {@link Bitmap} or null.
+	 */
+	public static Bitmap decode(final String filePath, final Plan plan) {
+		if (plan == null) {
+			return null;
+		}
+
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = plan.sampleSize;
+		options.inPreferredConfig = plan.config;
+
+		final Bitmap bitmap;
+		if (plan.region != null) {
+			bitmap = decodeRegion(filePath, plan.region, options);
+		} else {
+			// The pool picks the bitmap to reuse from the image bounds.
+			options.outWidth = plan.sourceWidth;
+			options.outHeight = plan.sourceHeight;
+			final BitmapPool pool = BitmapPool.getInstance();
+			pool.prepareDecode(options, plan.config);
+			Bitmap decoded;
+			try {
+				decoded = BitmapFactory.decodeFile(filePath, options);
+			} catch (IllegalArgumentException e) {
+				// The pooled bitmap doesn't fit, decode into a new one.
+				pool.releaseDecode(options);
+				decoded = BitmapFactory.decodeFile(filePath, options);
+			}
+			bitmap = decoded;
+		}
+
+		if (bitmap != null) {
+			report(filePath, plan, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes a small version of the photo for a page of the given size:
+	 * the thumbnail in its EXIF data if that one shows the whole photo and
+	 * covers the size, the photo sampled down otherwise.
+	 *
+	 * @param filePath
+	 * @param reqWidth
+	 *            the thumbnail width in pixels
+	 * @param reqHeight
+	 *            the thumbnail height in pixels
+	 * @return {@link Bitmap} or null if the file is not a readable image.
+	 */
+	public static Bitmap decodeThumbnail(final String filePath,
+			final int reqWidth, final int reqHeight) {
+		final Plan plan = plan(filePath, reqWidth, reqHeight);
+		if (plan == null) {
+			return null;
+		}
+		if (plan.region == null) {
+			final Bitmap thumbnail = decodeExifThumbnail(filePath, plan,
+					reqWidth, reqHeight);
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+		}
+		return decode(filePath, plan);
+	}
+
+	/**
+	 * Decodes the EXIF thumbnail of the photo, if it fits the plan.
+	 */
+	private static Bitmap decodeExifThumbnail(final String filePath,
+			final Plan plan, final int reqWidth, final int reqHeight) {
+		final byte[] data;
+		try {
+			final ExifInterface exif = new ExifInterface(filePath);
+			data = exif.hasThumbnail() ? exif.getThumbnail() : null;
+		} catch (IOException e) {
+			return null;
+		}
+		if (data == null) {
+			return null;
+		}
+
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth < reqWidth || options.outHeight < reqHeight) {
+			return null;
+		}
+		final float aspect = (float) plan.sourceWidth / plan.sourceHeight;
+		final float thumbnailAspect = (float) options.outWidth
+				/ options.outHeight;
+		if (Math.abs(thumbnailAspect - aspect) > aspect
+				* THUMBNAIL_ASPECT_TOLERANCE) {
+			return null;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = plan.config;
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * Decodes the region of the photo.
+	 */
+	private static Bitmap decodeRegion(final String filePath,
+			final Rect region, final BitmapFactory.Options options) {
+		BitmapRegionDecoder decoder = null;
+		try {
+			decoder = BitmapRegionDecoder.newInstance(filePath, false);
+			return decoder.decodeRegion(region, options);
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to crop " + filePath, e);
+			return null;
+		} finally {
+			if (decoder != null) {
+				decoder.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Logs the decode and keeps the peak.
+	 */
+	private static void report(final String filePath, final Plan plan,
+			final Bitmap bitmap) {
+		final long bytes = (long) bitmap.getRowBytes() * bitmap.getHeight();
+		final long peak;
+		synchronized (DecodePlanner.class) {
+			sPeakBytes = Math.max(sPeakBytes, bytes);
+			peak = sPeakBytes;
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, filePath + ": " + plan + ", decoded "
+					+ bitmap.getWidth() + "x" + bitmap.getHeight() + " "
+					+ bytes / 1024 + "KB, peak " + peak / 1024 + "KB");
+		}
+	}
+
+	/**
+	 * Returns the largest decode so far, in bytes.
+	 *
+	 * @return
+	 */
+	public static synchronized long getPeakBytes() {
+		return sPeakBytes;
+	}
+
+	/**
+	 * Estimates the bytes of the sampled bitmap.
+	 */
+	private static long bytesOf(final int width, final int height,
+			final int sampleSize, final Bitmap.Config config) {
+		return (long) ((width + sampleSize - 1) / sampleSize)
+				* ((height + sampleSize - 1) / sampleSize)
+				* TextureFormat.bytesPerPixel(config);
+	}
+}
@@ -0,0 +1,328 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ETC1 encoder in plain java, producing the blocks glCompressedTexImage2D
+ * takes for ETC1_RGB8_OES. ETC1 has no alpha, so pixels are composited
+ * over the page color first: pages are blended over their blank page
+ * anyway, and the transparent padding of the power of two texture is
+ * never sampled. Each 4x4 block tries both split orientations, the
+ * differential and individual base colors and every modifier table,
+ * keeping the one with the smallest error. Runs of blocks of one color,
+ * like the padding, are encoded once.
+ */
+public final class Etc1Encoder {
+
+	/**
+	 * Bytes of an encoded 4x4 block.
+	 */
+	public static final int BLOCK_BYTES = 8;
+
+	/**
+	 * Modifier tables, by pixel index: +small, +large, -small, -large.
+	 */
+	private static final int[][] MODIFIERS = { { 2, 8, -2, -8 },
+			{ 5, 17, -5, -17 }, { 9, 29, -9, -29 }, { 13, 42, -13, -42 },
+			{ 18, 60, -18, -60 }, { 24, 80, -24, -80 },
+			{ 33, 106, -33, -106 }, { 47, 183, -47, -183 } };
+
+	/**
+	 * Retains the color the pixels are composited over.
+	 */
+	private final int mBackground;
+
+	/**
+	 * Scratch space of a block, allocated once. Pixels are in column major
+	 * order, as ETC1 numbers them.
+	 */
+	private final int[] mRed = new int[16];
+	private final int[] mGreen = new int[16];
+	private final int[] mBlue = new int[16];
+	private final int[] mIndices = new int[16];
+	private final int[] mBestIndices = new int[16];
+	private final int[] mSum = new int[6];
+	private final int[] mBase = new int[6];
+	private final byte[] mBlock = new byte[BLOCK_BYTES];
+	private final byte[] mBestBlock = new byte[BLOCK_BYTES];
+
+	/**
+	 * Last block of one color, and its encoding.
+	 */
+	private int mUniformColor;
+	private boolean mUniformValid;
+	private final byte[] mUniformBlock = new byte[BLOCK_BYTES];
+
+	/**
+	 * Constructor of the class
+	 *
+	 * @param background
+	 *            color translucent pixels are composited over, as RGB
+	 */
+	public Etc1Encoder(final int background) {
+		mBackground = background;
+	}
+
+	/**
+	 * Returns the bytes of an encoded image.
+	 *
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static int getEncodedSize(final int width, final int height) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_BYTES;
+	}
+
+	/**
+	 * Encodes the image.
+	 *
+	 * @param pixels
+	 *            ARGB pixels, not premultiplied
+	 * @param width
+	 * @param height
+	 * @param out
+	 *            receives {@link #getEncodedSize} bytes
+	 */
+	public void encode(final int[] pixels, final int width, final int height,
+			final ByteBuffer out) {
+		for (int y = 0; y < height; y += 4) {
+			encodeRows(pixels, y * width, width, Math.min(4, height - y), out);
+		}
+	}
+
+	/**
+	 * Encodes a row of blocks, up to 4 rows of pixels. Images are encoded
+	 * row of blocks after row of blocks, top to bottom.
+	 *
+	 * @param pixels
+	 *            ARGB pixels, not premultiplied
+	 * @param offset
+	 *            index of the first pixel of the rows
+	 * @param width
+	 *            the image width, also the stride of the rows
+	 * @param rows
+	 *            rows of pixels, smaller blocks repeat their last row
+	 * @param out
+	 *            receives the blocks
+	 */
+	public void encodeRows(final int[] pixels, final int offset,
+			final int width, final int rows, final ByteBuffer out) {
+		for (int x = 0; x < width; x += 4) {
+			final int columns = Math.min(4, width - x);
+			boolean uniform = true;
+			final int first = pixels[offset + x];
+			for (int i = 0; i < 16; ++i) {
+				// Column major, edges repeated.
+				final int px = Math.min(i >> 2, columns - 1);
+				final int py = Math.min(i & 3, rows - 1);
+				final int color = pixels[offset + py * width + x + px];
+				uniform &= color == first;
+				setPixel(i, color);
+			}
+
+			if (uniform && mUniformValid && mUniformColor == first) {
+				out.put(mUniformBlock);
+				continue;
+			}
+			encodeBlock();
+			out.put(mBestBlock);
+			if (uniform) {
+				mUniformColor = first;
+				mUniformValid = true;
+				System.arraycopy(mBestBlock, 0, mUniformBlock, 0, BLOCK_BYTES);
+			}
+		}
+	}
+
+	/**
+	 * Composites the pixel over the background into the block.
+	 */
+	private void setPixel(final int i, final int color) {
+		final int a = color >>> 24;
+		final int r = (color >> 16) & 0xFF;
+		final int g = (color >> 8) & 0xFF;
+		final int b = color & 0xFF;
+		if (a == 0xFF) {
+			mRed[i] = r;
+			mGreen[i] = g;
+			mBlue[i] = b;
+		} else {
+			final int inv = 0xFF - a;
+			mRed[i] = (r * a + ((mBackground >> 16) & 0xFF) * inv + 127)
+					/ 255;
+			mGreen[i] = (g * a + ((mBackground >> 8) & 0xFF) * inv + 127)
+					/ 255;
+			mBlue[i] = (b * a + (mBackground & 0xFF) * inv + 127) / 255;
+		}
+	}
+
+	/**
+	 * Encodes the block in mRed, mGreen and mBlue into mBestBlock.
+	 */
+	private void encodeBlock() {
+		long bestError = Long.MAX_VALUE;
+		for (int flip = 0; flip < 2; ++flip) {
+			final long error = encodeBlock(flip == 1);
+			if (error < bestError) {
+				bestError = error;
+				System.arraycopy(mBlock, 0, mBestBlock, 0, BLOCK_BYTES);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the block with the given orientation into mBlock.
+	 *
+	 * @param flip
+	 *            true for a top and a bottom half, false for a left and a
+	 *            right one
+	 * @return the squared error.
+	 */
+	private long encodeBlock(final boolean flip) {
+		// Average of each half.
+		final int[] sum = mSum;
+		for (int c = 0; c < 6; ++c) {
+			sum[c] = 0;
+		}
+		for (int i = 0; i < 16; ++i) {
+			final int half = half(i, flip) * 3;
+			sum[half] += mRed[i];
+			sum[half + 1] += mGreen[i];
+			sum[half + 2] += mBlue[i];
+		}
+
+		// Differential mode if the 5 bit averages are close enough.
+		final int[] base = mBase;
+		boolean differential = true;
+		for (int c = 0; c < 3; ++c) {
+			final int c1 = quantize(sum[c], 31);
+			final int c2 = quantize(sum[c + 3], 31);
+			final int delta = c2 - c1;
+			if (delta < -4 || delta > 3) {
+				differential = false;
+			}
+			base[c] = c1;
+			base[c + 3] = c2;
+		}
+
+		int high = 0;
+		if (differential) {
+			for (int c = 0; c < 3; ++c) {
+				final int delta = (base[c + 3] - base[c]) & 7;
+				high |= ((base[c] << 3) | delta) << (24 - c * 8);
+				base[c] = expand5(base[c]);
+				base[c + 3] = expand5(base[c + 3]);
+			}
+		} else {
+			for (int c = 0; c < 3; ++c) {
+				final int c1 = quantize(sum[c], 15);
+				final int c2 = quantize(sum[c + 3], 15);
+				high |= ((c1 << 4) | c2) << (24 - c * 8);
+				base[c] = (c1 << 4) | c1;
+				base[c + 3] = (c2 << 4) | c2;
+			}
+		}
+
+		long error = 0;
+		for (int half = 0; half < 2; ++half) {
+			long bestError = Long.MAX_VALUE;
+			int bestTable = 0;
+			for (int table = 0; table < MODIFIERS.length; ++table) {
+				final long tableError = encodeHalf(half, flip, base, table,
+						bestError);
+				if (tableError < bestError) {
+					bestError = tableError;
+					bestTable = table;
+					for (int i = 0; i < 16; ++i) {
+						if (half(i, flip) == half) {
+							mBestIndices[i] = mIndices[i];
+						}
+					}
+				}
+			}
+			high |= bestTable << (half == 0 ? 5 : 2);
+			error += bestError;
+		}
+		high |= (differential ? 2 : 0) | (flip ? 1 : 0);
+
+		int low = 0;
+		for (int i = 0; i < 16; ++i) {
+			final int index = mBestIndices[i];
+			low |= ((index >> 1) << (16 + i)) | ((index & 1) << i);
+		}
+
+		final byte[] block = mBlock;
+		block[0] = (byte) (high >>> 24);
+		block[1] = (byte) (high >>> 16);
+		block[2] = (byte) (high >>> 8);
+		block[3] = (byte) high;
+		block[4] = (byte) (low >>> 24);
+		block[5] = (byte) (low >>> 16);
+		block[6] = (byte) (low >>> 8);
+		block[7] = (byte) low;
+		return error;
+	}
+
+	/**
+	 * Picks the best modifier of the table for each pixel of the half into
+	 * mIndices.
+	 *
+	 * @return the squared error, or at least limit once it's reached.
+	 */
+	private long encodeHalf(final int half, final boolean flip,
+			final int[] base, final int table, final long limit) {
+		final int red = base[half * 3];
+		final int green = base[half * 3 + 1];
+		final int blue = base[half * 3 + 2];
+		final int[] modifiers = MODIFIERS[table];
+		long error = 0;
+		for (int i = 0; i < 16 && error < limit; ++i) {
+			if (half(i, flip) != half) {
+				continue;
+			}
+			int bestPixelError = Integer.MAX_VALUE;
+			for (int index = 0; index < 4; ++index) {
+				final int modifier = modifiers[index];
+				final int dr = clamp(red + modifier) - mRed[i];
+				final int dg = clamp(green + modifier) - mGreen[i];
+				final int db = clamp(blue + modifier) - mBlue[i];
+				final int pixelError = dr * dr + dg * dg + db * db;
+				if (pixelError < bestPixelError) {
+					bestPixelError = pixelError;
+					mIndices[i] = index;
+				}
+			}
+			error += bestPixelError;
+		}
+		return error;
+	}
+
+	/**
+	 * Returns the half of the block the pixel belongs to.
+	 */
+	private static int half(final int i, final boolean flip) {
+		return flip ? (i & 3) >> 1 : i >> 3;
+	}
+
+	/**
+	 * Quantizes the sum of 8 channel values to the given maximum.
+	 */
+	private static int quantize(final int sum, final int max) {
+		return (sum * max + 8 * 255 / 2) / (8 * 255);
+	}
+
+	/**
+	 * Expands a 5 bit channel to 8 bits.
+	 */
+	private static int expand5(final int c) {
+		return (c << 3) | (c >> 2);
+	}
+
+	/**
+	 * Clamps a channel to [0, 255].
+	 */
+	private static int clamp(final int c) {
+		return c < 0 ? 0 : (c > 255 ? 255 : c);
+	}
+}
@@ -0,0 +1,200 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Schedules the frames of a view rendered when dirty. Frames are only
+ * requested while something changes on screen, a curl animation, a drag or
+ * a texture upload, and every request made before the next vsync is
+ * coalesced into one frame. Once nothing asks for frames the scheduler
+ * stops, there is no timer left behind. Vsync comes from the
+ * {@link Choreographer} where available, from the main thread handler on a
+ * 60Hz grid otherwise.
+ */
+public final class FrameScheduler {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "FrameScheduler";
+
+	/**
+	 * First version with {@link Choreographer}.
+	 */
+	private static final int API_CHOREOGRAPHER = 16;
+
+	/**
+	 * Frame interval where the vsync is unknown, in milliseconds.
+	 */
+	private static final long FRAME_MILLIS = 16;
+
+	/**
+	 * Retains the renderer's request, called once per frame.
+	 */
+	private final Runnable mTarget;
+
+	/**
+	 * Retains the main thread handler.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Retains the vsync source, null below {@link #API_CHOREOGRAPHER}.
+	 */
+	private final Vsync mVsync;
+
+	/**
+	 * Set from the first request until its frame.
+	 */
+	private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+	/**
+	 * Retains the requests, the frames and the time of the last frame.
+	 */
+	private final AtomicInteger mRequests = new AtomicInteger();
+	private final AtomicInteger mFrames = new AtomicInteger();
+	private volatile long mLastFrame;
+
+	/**
+	 * Runs the frame from the handler.
+	 */
+	private final Runnable mFrame = new Runnable() {
+		@Override
+		public void run() {
+			doFrame();
+		}
+	};
+
+	/**
+	 * Constructor of the class, to be called on the main thread.
+	 *
+	 * @param target
+	 *            requests the frame from the renderer
+	 */
+	public FrameScheduler(final Runnable target) {
+		mTarget = target;
+		mHandler = new Handler(Looper.getMainLooper());
+		mVsync = Build.VERSION.SDK_INT >= API_CHOREOGRAPHER ? new Vsync(this)
+				: null;
+	}
+
+	/**
+	 * Asks for a frame at the next vsync. Can be called from any thread, the
+	 * requests made before the frame share it.
+	 */
+	public void requestFrame() {
+		mRequests.incrementAndGet();
+		if (!mScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		if (mVsync != null) {
+			mVsync.post();
+		} else {
+			final long now = SystemClock.uptimeMillis();
+			mHandler.postAtTime(mFrame, Math.max(now, mLastFrame
+					+ FRAME_MILLIS));
+		}
+	}
+
+	/**
+	 * Drops the pending frame, if any, and logs the frames since the last
+	 * cancel.
+	 */
+	public void cancel() {
+		if (mVsync != null) {
+			mVsync.remove();
+		}
+		mHandler.removeCallbacks(mFrame);
+		mScheduled.set(false);
+
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, mRequests.get() + " requests coalesced into "
+					+ mFrames.get() + " frames");
+		}
+		mRequests.set(0);
+		mFrames.set(0);
+	}
+
+	/**
+	 * Returns the requests since the last cancel.
+	 *
+	 * @return
+	 */
+	public int getRequestCount() {
+		return mRequests.get();
+	}
+
+	/**
+	 * Returns the frames since the last cancel.
+	 *
+	 * @return
+	 */
+	public int getFrameCount() {
+		return mFrames.get();
+	}
+
+	/**
+	 * Clears the request before running the target, so the target and
+	 * whatever it triggers can ask for the next frame.
+	 */
+	private void doFrame() {
+		mLastFrame = SystemClock.uptimeMillis();
+		mScheduled.set(false);
+		mFrames.incrementAndGet();
+		mTarget.run();
+	}
+
+	/**
+	 * Vsync from the {@link Choreographer}, kept apart so older versions
+	 * never load it.
+	 */
+	@TargetApi(API_CHOREOGRAPHER)
+	private static final class Vsync implements Choreographer.FrameCallback {
+
+		/**
+		 * Retains the scheduler.
+		 */
+		private final FrameScheduler mScheduler;
+
+		/**
+		 * Retains the choreographer of the main thread.
+		 */
+		private final Choreographer mChoreographer;
+
+		/**
+		 * Constructor of the class.
+		 */
+		Vsync(final FrameScheduler scheduler) {
+			mScheduler = scheduler;
+			mChoreographer = Choreographer.getInstance();
+		}
+
+		/**
+		 * Posts the callback for the next vsync.
+		 */
+		void post() {
+			mChoreographer.postFrameCallback(this);
+		}
+
+		/**
+		 * Removes the callback.
+		 */
+		void remove() {
+			mChoreographer.removeFrameCallback(this);
+		}
+
+		@Override
+		public void doFrame(final long frameTimeNanos) {
+			mScheduler.doFrame();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * Always on timers of the phases of a frame: texture loading, curl
+ * computation, draw submission and the whole frame, plus the wait for the
+ * pages of a turn and for the first and the full look of a page. Each
+ * phase keeps a rolling window of its last samples, recorded without
+ * allocating, and the percentiles are only worked out when asked for.
+ * With the log tag on DEBUG the windows are also logged every
+ * {@link #WINDOW} frames.
+ */
+public final class FrameTimings {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "FrameTimings";
+
+	/**
+	 * Phase loading page textures.
+	 */
+	public static final int PHASE_LOAD = 0;
+
+	/**
+	 * Phase computing curls.
+	 */
+	public static final int PHASE_CURL = 1;
+
+	/**
+	 * Phase submitting the meshes to GL.
+	 */
+	public static final int PHASE_DRAW = 2;
+
+	/**
+	 * The whole frame.
+	 */
+	public static final int PHASE_FRAME = 3;
+
+	/**
+	 * From a page turn until the pages shown are loaded, see
+	 * {@link PagePrefetcher}.
+	 */
+	public static final int PHASE_READY = 4;
+
+	/**
+	 * From the request of a page shown until something of it is drawn,
+	 * its thumbnail or the page.
+	 */
+	public static final int PHASE_FIRST = 5;
+
+	/**
+	 * From the request of a page shown until it is drawn at full quality.
+	 */
+	public static final int PHASE_FULL = 6;
+
+	/**
+	 * From the resume of the view until its pages are drawn again at full
+	 * quality.
+	 */
+	public static final int PHASE_RESUME = 7;
+
+	/**
+	 * Samples kept for each phase, about 8 seconds of frames.
+	 */
+	public static final int WINDOW = 512;
+
+	/**
+	 * Names of the phases, by phase.
+	 */
+	private static final String[] NAMES = { "load", "curl", "draw", "frame",
+			"ready", "first", "full", "resume" };
+
+	/**
+	 * Retains the single instance.
+	 */
+	private static final FrameTimings INSTANCE = new FrameTimings();
+
+	/**
+	 * Retains the window of each phase.
+	 */
+	private final Window[] mWindows = new Window[NAMES.length];
+
+	/**
+	 * Private constructor.
+	 */
+	private FrameTimings() {
+		for (int i = 0; i < mWindows.length; i++) {
+			mWindows[i] = new Window();
+		}
+	}
+
+	/**
+	 * Gets the instance.
+	 *
+	 * @return {@link FrameTimings}
+	 */
+	public static FrameTimings getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the start of a phase, to be handed to {@link #record}.
+	 *
+	 * @return
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a phase ending now.
+	 *
+	 * @param phase
+	 * @param start
+	 *            as returned by {@link #start}
+	 */
+	public void record(final int phase, final long start) {
+		final int micros = (int) ((System.nanoTime() - start) / 1000);
+		final long count = mWindows[phase].add(micros);
+		if (phase == PHASE_FRAME && count % WINDOW == 0
+				&& Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, dump());
+		}
+	}
+
+	/**
+	 * Returns a percentile of the phase over its window.
+	 *
+	 * @param phase
+	 * @param percentile
+	 *            from 0 to 100
+	 * @return the time in microseconds, 0 before any sample.
+	 */
+	public int getPercentile(final int phase, final int percentile) {
+		return mWindows[phase].percentile(percentile);
+	}
+
+	/**
+	 * Returns the longest time of the phase over its window.
+	 *
+	 * @param phase
+	 * @return the time in microseconds, 0 before any sample.
+	 */
+	public int getMax(final int phase) {
+		return mWindows[phase].percentile(100);
+	}
+
+	/**
+	 * Returns the samples of the phase since the last reset.
+	 *
+	 * @param phase
+	 * @return
+	 */
+	public long getCount(final int phase) {
+		return mWindows[phase].count();
+	}
+
+	/**
+	 * Drops every sample.
+	 */
+	public void reset() {
+		for (final Window window : mWindows) {
+			window.clear();
+		}
+	}
+
+	/**
+	 * Returns the percentiles of every phase, one line each, in
+	 * microseconds.
+	 *
+	 * @return
+	 */
+	public String dump() {
+		final StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.US, "%-6s %8s %8s %8s %8s %8s%n",
+				"phase", "count", "p50", "p95", "p99", "max"));
+		for (int i = 0; i < mWindows.length; i++) {
+			final Window window = mWindows[i];
+			out.append(String.format(Locale.US,
+					"%-6s %8d %8d %8d %8d %8d%n", NAMES[i], window.count(),
+					window.percentile(50), window.percentile(95),
+					window.percentile(99), window.percentile(100)));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Logs the percentiles of every phase.
+	 */
+	public void log() {
+		Log.i(TAG, dump());
+	}
+
+	/**
+	 * Appends the percentiles of every phase to the file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void dump(final File file) throws IOException {
+		final Writer writer = new FileWriter(file, true);
+		try {
+			writer.write(dump());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Rolling window of the last samples of a phase. Recording only stores
+	 * the sample; the percentiles sort a copy, off the frame.
+	 */
+	private static final class Window {
+
+		/**
+		 * Retains the samples, in microseconds.
+		 */
+		private final int[] mSamples = new int[WINDOW];
+
+		/**
+		 * Scratch copy sorted by the percentiles.
+		 */
+		private final int[] mSorted = new int[WINDOW];
+
+		/**
+		 * Retains the samples recorded.
+		 */
+		private long mCount;
+
+		/**
+		 * Stores the sample over the oldest one.
+		 *
+		 * @return the samples recorded.
+		 */
+		synchronized long add(final int micros) {
+			mSamples[(int) (mCount % WINDOW)] = micros;
+			return ++mCount;
+		}
+
+		/**
+		 * Returns the samples recorded.
+		 */
+		synchronized long count() {
+			return mCount;
+		}
+
+		/**
+		 * Drops every sample.
+		 */
+		synchronized void clear() {
+			mCount = 0;
+		}
+
+		/**
+		 * Returns the percentile of the window, nearest rank.
+		 */
+		synchronized int percentile(final int percentile) {
+			final int size = (int) Math.min(mCount, WINDOW);
+			if (size == 0) {
+				return 0;
+			}
+			System.arraycopy(mSamples, 0, mSorted, 0, size);
+			Arrays.sort(mSorted, 0, size);
+			final int rank = (percentile * size + 99) / 100;
+			return mSorted[Math.max(rank, 1) - 1];
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+
+/**
+ * Composes a page straight into its power of two texture. The white page,
+ * the separator line and the photo are each drawn once, through a single
+ * canvas transform for the density scale, so the only pixel buffer
+ * allocated is the texture itself. Back pages are not mirrored,
+ * {@link CurlMesh} mirrors their texture coordinates. The photo lies on an
+ * opaque page, so the texture only needs alpha where the
+ * {@link TextureFormat} quality tier asks for it.
+ */
+public final class PageComposer {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "PageComposer";
+
+	/**
+	 * Times smaller a thumbnail texture is than its page texture, on each
+	 * side.
+	 */
+	public static final int THUMBNAIL_SCALE = 8;
+
+	/**
+	 * Retains the pages composed.
+	 */
+	private static int sCount;
+
+	/**
+	 * Retains the time spent composing, in nanoseconds.
+	 */
+	private static long sNanos;
+
+	/**
+	 * Retains the bytes of the textures composed.
+	 */
+	private static long sBytes;
+
+	/**
+	 * Private constructor.
+	 */
+	private PageComposer() {
+	}
+
+	/**
+	 * Composes the page into a pooled texture. The page is scaled by the
+	 * same density factor {@link CurlUtil#getTexture} uses.
+	 *
+	 * @param photo
+	 *            the decoded photo
+	 * @param photoRect
+	 *            where the photo goes, in page coordinates
+	 * @param pageWidth
+	 * @param pageHeight
+	 * @param separator
+	 *            paint of the line on the spine edge of a back page, null
+	 *            for none
+	 * @param textureRect
+	 *            receives the texture coordinates of the page
+	 * @param applicationContext
+	 * @param densityImageMagazine
+	 *            the dimension with the density of the texture
+	 * @return {@link Bitmap} the texture, owned by the caller.
+	 */
+	public static Bitmap compose(final Bitmap photo, final Rect photoRect,
+			final int pageWidth, final int pageHeight, final Paint separator,
+			final RectF textureRect, final Context applicationContext,
+			final int densityImageMagazine) {
+		return compose(photo, photoRect, pageWidth, pageHeight, separator,
+				textureRect, applicationContext, densityImageMagazine, 1);
+	}
+
+	/**
+	 * Composes the page into a texture scaled down on each side. The page
+	 * takes the same share of the texture at any scale, so a thumbnail has
+	 * the texture coordinates of the full page and can stand in for it.
+	 *
+	 * @param photo
+	 *            the decoded photo, of any size
+	 * @param photoRect
+	 *            where the photo goes, in page coordinates
+	 * @param pageWidth
+	 * @param pageHeight
+	 * @param separator
+	 *            paint of the line on the spine edge of a back page, null
+	 *            for none
+	 * @param textureRect
+	 *            receives the texture coordinates of the page
+	 * @param applicationContext
+	 * @param densityImageMagazine
+	 *            the dimension with the density of the texture
+	 * @param downscale
+	 *            1 for the full page, {@link #THUMBNAIL_SCALE} for a
+	 *            thumbnail
+	 * @return {@link Bitmap} the texture, owned by the caller.
+	 */
+	public static Bitmap compose(final Bitmap photo, final Rect photoRect,
+			final int pageWidth, final int pageHeight, final Paint separator,
+			final RectF textureRect, final Context applicationContext,
+			final int densityImageMagazine, final int downscale) {
+		final long start = System.nanoTime();
+
+		// forcing a lower density screen device to a higher resolution setup..
+		final int density = (int) applicationContext.getResources()
+				.getDimension(densityImageMagazine);
+		final int densityDpi = applicationContext.getResources()
+				.getDisplayMetrics().densityDpi;
+		final int w = pageWidth * density / densityDpi;
+		final int h = pageHeight * density / densityDpi;
+		final int newW = CurlUtil.getNextHighestPO2(w);
+		final int newH = CurlUtil.getNextHighestPO2(h);
+
+		final Bitmap.Config config = TextureFormat.choose(false);
+		final Bitmap texture = BitmapPool.getInstance().acquire(
+				Math.max(1, newW / downscale), Math.max(1, newH / downscale),
+				config);
+		texture.eraseColor(TextureFormat.clearColor(config));
+		final Canvas canvas = new Canvas(texture);
+		canvas.scale((float) density / densityDpi / downscale,
+				(float) density / densityDpi / downscale);
+
+		final Paint paint = new Paint();
+		paint.setAntiAlias(true);
+		paint.setDither(true);
+		paint.setFilterBitmap(true);
+
+		// Page.
+		paint.setColor(Color.WHITE);
+		canvas.drawRect(0, 0, pageWidth, pageHeight, paint);
+
+		// Back pages are mirrored through their texture coordinates, so the
+		// line on the spine lies where the mirrored page had it, at the
+		// mirror of pageWidth - 1.
+		if (separator != null) {
+			canvas.drawLine(1, 0, 1, pageHeight, separator);
+		}
+
+		// Photo.
+		canvas.drawBitmap(photo, null, photoRect, paint);
+
+		// Calculate final texture coordinates.
+		textureRect.set(0f, 0f, (float) w / newW, (float) h / newH);
+
+		report(texture, System.nanoTime() - start);
+		return texture;
+	}
+
+	/**
+	 * Logs the composition and adds it to the totals.
+	 */
+	private static void report(final Bitmap texture, final long nanos) {
+		final long bytes = (long) texture.getRowBytes() * texture.getHeight();
+		final int count;
+		final long averageNanos;
+		synchronized (PageComposer.class) {
+			sCount++;
+			sNanos += nanos;
+			sBytes += bytes;
+			count = sCount;
+			averageNanos = sNanos / sCount;
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Page " + texture.getWidth() + "x"
+					+ texture.getHeight() + " composed in " + nanos / 1000
+					+ "us, " + bytes / 1024 + "KB; " + count
+					+ " pages, average " + averageNanos / 1000 + "us");
+		}
+	}
+
+	/**
+	 * Returns the pages composed.
+	 *
+	 * @return
+	 */
+	public static synchronized int getComposeCount() {
+		return sCount;
+	}
+
+	/**
+	 * Returns the time spent composing, in nanoseconds.
+	 *
+	 * @return
+	 */
+	public static synchronized long getComposeNanos() {
+		return sNanos;
+	}
+
+	/**
+	 * Returns the bytes of the textures composed.
+	 *
+	 * @return
+	 */
+	public static synchronized long getComposeBytes() {
+		return sBytes;
+	}
+}
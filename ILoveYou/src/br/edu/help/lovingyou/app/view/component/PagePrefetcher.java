@@ -0,0 +1,304 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Plans which page textures stay resident, in the order they should be
+ * loaded. The reader's flip direction and rate are modelled from the page
+ * turns seen by the renderer and from the drags reported by the view, so
+ * a fast reader gets more pages ahead and fewer behind. Each turn is also
+ * scored: a hit if the pages shown were already loaded, otherwise the
+ * time until they are goes to {@link FrameTimings#PHASE_READY}.
+ */
+public final class PagePrefetcher {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "PagePrefetcher";
+
+	/**
+	 * Pages planned ahead at least, besides the ones shown.
+	 */
+	private static final int MIN_LEAD = 2;
+
+	/**
+	 * Reading time the pages ahead should cover, in milliseconds.
+	 */
+	private static final long LEAD_MILLIS = 1500;
+
+	/**
+	 * Time a drag keeps steering the plan, in milliseconds.
+	 */
+	private static final long HINT_MILLIS = 1000;
+
+	/**
+	 * Weight of the latest turn in the direction and rate averages.
+	 */
+	private static final float SMOOTHING = .5f;
+
+	/**
+	 * Retains the pages planned, shown pages first.
+	 */
+	private final int[] mPlan;
+
+	/**
+	 * Retains the pages planned in mPlan.
+	 */
+	private int mPlanCount;
+
+	/**
+	 * Pages shown on the last frame, lowest and highest.
+	 */
+	private int mLow = -1;
+	private int mHigh = -1;
+
+	/**
+	 * Time of the last turn, in milliseconds.
+	 */
+	private long mTurnTime;
+
+	/**
+	 * Average direction of the turns, from -1 backwards to 1 forwards.
+	 * Readers mostly go forwards.
+	 */
+	private float mDirection = .5f;
+
+	/**
+	 * Average rate of the turns, in pages per second.
+	 */
+	private float mRate;
+
+	/**
+	 * Retains the last drag, set from the view.
+	 */
+	private volatile int mHintDirection;
+	private volatile float mHintRate;
+	private volatile long mHintTime;
+
+	/**
+	 * Retains the turns and the ones whose pages were ready.
+	 */
+	private volatile int mTurns;
+	private volatile int mHits;
+
+	/**
+	 * Start of the turn still waiting for its pages, in nanoseconds, or -1.
+	 */
+	private long mPendingTurn = -1;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param capacity
+	 *            pages resident at most, unless more are shown
+	 */
+	public PagePrefetcher(final int capacity) {
+		mPlan = new int[capacity];
+	}
+
+	/**
+	 * Reports a drag, from any thread.
+	 *
+	 * @param direction
+	 *            1 for a flip forwards, -1 backwards
+	 * @param rate
+	 *            pages per second the drag goes at, 0 if unknown
+	 */
+	public void setFlipHint(final int direction, final float rate) {
+		mHintDirection = direction;
+		mHintRate = rate;
+		mHintTime = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * Updates the model with the pages shown on this frame and plans the
+	 * pages around them.
+	 *
+	 * @param low
+	 *            lowest page shown
+	 * @param high
+	 *            highest page shown
+	 * @param ready
+	 *            true if the pages shown are all loaded
+	 * @param pageCount
+	 *            pages of the book
+	 * @return true if the plan changed.
+	 */
+	public boolean onFrame(final int low, final int high, final boolean ready,
+			final int pageCount) {
+		final long now = SystemClock.uptimeMillis();
+		if (low != mLow || high != mHigh) {
+			onTurn(low, high, ready, now);
+		} else if (ready && mPendingTurn >= 0) {
+			FrameTimings.getInstance().record(FrameTimings.PHASE_READY,
+					mPendingTurn);
+			if (Log.isLoggable(TAG, Log.DEBUG)) {
+				Log.d(TAG, "Pages " + low + "-" + high + " ready in "
+						+ (System.nanoTime() - mPendingTurn) / 1000000 + "ms");
+			}
+			mPendingTurn = -1;
+		}
+		return plan(pageCount, now);
+	}
+
+	/**
+	 * Scores the turn and moves the averages towards it.
+	 */
+	private void onTurn(final int low, final int high, final boolean ready,
+			final long now) {
+		final boolean first = mLow < 0;
+		final int delta = low - mLow;
+		final long elapsed = now - mTurnTime;
+		mLow = low;
+		mHigh = high;
+		mTurnTime = now;
+		if (first) {
+			return;
+		}
+
+		if (delta != 0) {
+			mDirection += SMOOTHING * ((delta > 0 ? 1 : -1) - mDirection);
+			final float rate = Math.abs(delta) * 1000f
+					/ Math.max(elapsed, 1L);
+			mRate = mRate == 0 ? rate : mRate + SMOOTHING * (rate - mRate);
+		}
+
+		mTurns++;
+		if (ready) {
+			mHits++;
+			mPendingTurn = -1;
+			FrameTimings.getInstance().record(FrameTimings.PHASE_READY,
+					System.nanoTime());
+		} else {
+			mPendingTurn = System.nanoTime();
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Turn to pages " + low + "-" + high
+					+ (ready ? ", hit" : ", miss") + "; direction "
+					+ mDirection + ", " + mRate + " pages/s, hit rate "
+					+ getHitRate());
+		}
+	}
+
+	/**
+	 * Plans the pages shown, then the pages ahead and behind them. A page
+	 * ahead at distance k costs k, a page behind costs k times more the
+	 * surer and faster the reader goes the other way.
+	 *
+	 * @return true if the plan changed.
+	 */
+	private boolean plan(final int pageCount, final long now) {
+		int direction = mDirection >= 0 ? 1 : -1;
+		float confidence = Math.abs(mDirection);
+		// The rate falls back once the reader stops turning.
+		float rate = Math.min(mRate, 2000f / Math.max(now - mTurnTime, 1L));
+		if (now - mHintTime < HINT_MILLIS && mHintDirection != 0) {
+			direction = mHintDirection;
+			confidence = 1f;
+			rate = Math.max(rate, mHintRate);
+		}
+		final int lead = Math.max(MIN_LEAD, Math.round(rate * LEAD_MILLIS
+				/ 1000f));
+		final float behindCost = 1f + confidence * lead;
+
+		boolean changed = false;
+		int count = 0;
+		for (int page = Math.max(mLow, 0); page <= mHigh && page < pageCount
+				&& count < mPlan.length; page++) {
+			changed |= mPlan[count] != page;
+			mPlan[count++] = page;
+		}
+
+		final int aheadStart = direction > 0 ? mHigh : mLow;
+		final int behindStart = direction > 0 ? mLow : mHigh;
+		int ahead = 1;
+		int behind = 1;
+		while (count < mPlan.length) {
+			final int aheadPage = aheadStart + ahead * direction;
+			final int behindPage = behindStart - behind * direction;
+			final boolean aheadValid = aheadPage >= 0 && aheadPage < pageCount;
+			final boolean behindValid = behindPage >= 0
+					&& behindPage < pageCount;
+			final int page;
+			if (aheadValid && (!behindValid || ahead <= behind * behindCost)) {
+				page = aheadPage;
+				ahead++;
+			} else if (behindValid) {
+				page = behindPage;
+				behind++;
+			} else {
+				break;
+			}
+			changed |= mPlan[count] != page;
+			mPlan[count++] = page;
+		}
+
+		changed |= count != mPlanCount;
+		mPlanCount = count;
+		return changed;
+	}
+
+	/**
+	 * Returns the pages planned, in load order. Only the first
+	 * {@link #getPlanCount} are valid.
+	 *
+	 * @return
+	 */
+	public int[] getPlan() {
+		return mPlan;
+	}
+
+	/**
+	 * Returns the pages planned.
+	 *
+	 * @return
+	 */
+	public int getPlanCount() {
+		return mPlanCount;
+	}
+
+	/**
+	 * Returns true if the page is planned.
+	 *
+	 * @param page
+	 * @return
+	 */
+	public boolean isPlanned(final int page) {
+		for (int i = 0; i < mPlanCount; i++) {
+			if (mPlan[i] == page) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the page turns seen.
+	 *
+	 * @return
+	 */
+	public int getTurnCount() {
+		return mTurns;
+	}
+
+	/**
+	 * Returns the page turns whose pages were loaded already.
+	 *
+	 * @return
+	 */
+	public int getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * Returns the share of page turns whose pages were loaded already.
+	 *
+	 * @return the hit rate, 1 before any turn.
+	 */
+	public float getHitRate() {
+		final int turns = mTurns;
+		return turns == 0 ? 1f : (float) mHits / turns;
+	}
+}
@@ -0,0 +1,541 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.opengl.ETC1Util;
+import android.os.Process;
+import android.util.Log;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
+
+/**
+ * Background decode pipeline for page textures. Pages are read, decoded,
+ * composed and padded on worker threads, so the GL thread only has to upload
+ * bitmaps that are already done. With compression on, pages the disk cache
+ * has in ETC1 are read in that form; the others are handed over
+ * uncompressed and encoded afterwards, when the workers are idle, for the
+ * next time they are loaded.
+ */
+public class PageTextureLoader {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "PageTextureLoader";
+
+	/**
+	 * Color of the blank page textures are blended over, ETC1 textures have
+	 * it baked in where the page is translucent.
+	 */
+	private static final int PAGE_COLOR = Color.WHITE;
+
+	/**
+	 * Number of worker threads. Page providers compose into shared state
+	 * (rects, margins), so pages are produced one at a time.
+	 */
+	private static final int WORKERS = 1;
+
+	/**
+	 * Priorities of the requests: pages shown, other pages, and encodes
+	 * filling the disk cache.
+	 */
+	private static final int PRIORITY_URGENT = 0;
+	private static final int PRIORITY_NORMAL = 1;
+	private static final int PRIORITY_IDLE = 2;
+
+	/**
+	 * Retains the source of the page bitmaps.
+	 */
+	private final CurlRenderer.Observer mObserver;
+
+	/**
+	 * Retains the workers. Their queue hands out the pages shown first, then
+	 * the others in request order.
+	 */
+	private final ThreadPoolExecutor mExecutor;
+
+	/**
+	 * Orders the requests of the same priority.
+	 */
+	private final AtomicLong mSequence = new AtomicLong();
+
+	/**
+	 * Pages queued or being decoded, mapped to the token of their request.
+	 */
+	private final ConcurrentHashMap<Integer, Object> mPending = new ConcurrentHashMap<Integer, Object>();
+
+	/**
+	 * Pages decoded and waiting for upload.
+	 */
+	private final ConcurrentHashMap<Integer, Bitmap> mReady = new ConcurrentHashMap<Integer, Bitmap>();
+
+	/**
+	 * Thumbnails of the pages, waiting for upload.
+	 */
+	private final ConcurrentHashMap<Integer, Bitmap> mThumbnails = new ConcurrentHashMap<Integer, Bitmap>();
+
+	/**
+	 * Pages compressed and waiting for upload.
+	 */
+	private final ConcurrentHashMap<Integer, ETC1Util.ETC1Texture> mCompressed = new ConcurrentHashMap<Integer, ETC1Util.ETC1Texture>();
+
+	/**
+	 * Keys of the pages queued for encoding.
+	 */
+	private final ConcurrentHashMap<String, Boolean> mEncoding = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * True if pages are compressed to ETC1.
+	 */
+	private volatile boolean mCompress;
+
+	/**
+	 * Retains the cache of the compressed pages, may be null.
+	 */
+	private volatile TextureDiskCache mDiskCache;
+
+	/**
+	 * Basic constructor.
+	 *
+	 * @param observer
+	 *            source of the page bitmaps, also notified once a page is
+	 *            ready.
+	 */
+	public PageTextureLoader(final CurlRenderer.Observer observer) {
+		mObserver = observer;
+		mExecutor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L,
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								runnable.run();
+							}
+						}, "PageTextureLoader");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Queues the page for decoding, unless it is already queued or ready.
+	 *
+	 * @param page
+	 * @return true if a new request was queued.
+	 */
+	public boolean request(final int page) {
+		return request(page, false);
+	}
+
+	/**
+	 * Queues the page for decoding, unless it is already queued or ready.
+	 * A thumbnail of the page can be made first.
+	 *
+	 * @param page
+	 * @param thumbnail
+	 *            true to have a thumbnail ready before the page
+	 * @return true if a new request was queued.
+	 */
+	public boolean request(final int page, final boolean thumbnail) {
+		return request(page, thumbnail, false);
+	}
+
+	/**
+	 * Queues the page for decoding, unless it is already queued or ready.
+	 * Urgent pages, the ones shown, are decoded before the pages queued
+	 * ahead of them.
+	 *
+	 * @param page
+	 * @param thumbnail
+	 *            true to have a thumbnail ready before the page
+	 * @param urgent
+	 *            true to jump the queue
+	 * @return true if a new request was queued.
+	 */
+	public boolean request(final int page, final boolean thumbnail,
+			final boolean urgent) {
+		if (mReady.containsKey(page) || mCompressed.containsKey(page)) {
+			return false;
+		}
+
+		final Object token = new Object();
+		if (mPending.putIfAbsent(page, token) != null) {
+			return false;
+		}
+
+		mExecutor.execute(new Request(urgent ? PRIORITY_URGENT
+				: PRIORITY_NORMAL, mSequence.getAndIncrement()) {
+			@Override
+			public void run() {
+				// Shown pages are what the reader waits for.
+				if (urgent) {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+				}
+				try {
+					if (thumbnail) {
+						decodeThumbnail(page, token);
+					}
+					decode(page, token);
+				} finally {
+					if (urgent) {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					}
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Decode request, ordered in the workers' queue.
+	 */
+	private abstract static class Request implements Runnable,
+			Comparable<Request> {
+
+		/**
+		 * Priority of the request, lower first.
+		 */
+		private final int mPriority;
+
+		/**
+		 * Order of the request.
+		 */
+		private final long mSequence;
+
+		/**
+		 * Constructor of the class.
+		 */
+		Request(final int priority, final long sequence) {
+			mPriority = priority;
+			mSequence = sequence;
+		}
+
+		@Override
+		public int compareTo(final Request other) {
+			if (mPriority != other.mPriority) {
+				return mPriority < other.mPriority ? -1 : 1;
+			}
+			return mSequence < other.mSequence ? -1
+					: (mSequence == other.mSequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Makes the thumbnail of the page if its request is still the current
+	 * one.
+	 *
+	 * @param page
+	 * @param token
+	 */
+	private void decodeThumbnail(final int page, final Object token) {
+		if (mPending.get(page) != token) {
+			return;
+		}
+
+		Bitmap thumbnail = null;
+		try {
+			thumbnail = mObserver.createThumbnailTexture(page);
+		} catch (RuntimeException e) {
+			// The page comes without one.
+		}
+		if (thumbnail == null) {
+			return;
+		}
+
+		// Cancelled while decoding.
+		if (mPending.get(page) != token) {
+			BitmapPool.getInstance().release(thumbnail);
+			return;
+		}
+		BitmapPool.getInstance().release(mThumbnails.put(page, thumbnail));
+		mObserver.onLoadingTick();
+	}
+
+	/**
+	 * Decodes the page if its request is still the current one.
+	 *
+	 * @param page
+	 * @param token
+	 */
+	private void decode(final int page, final Object token) {
+		if (mPending.get(page) != token) {
+			return;
+		}
+
+		Bitmap texture = null;
+		ETC1Util.ETC1Texture compressed = null;
+		try {
+			texture = mObserver.createBitmapTexture(page);
+			// The key is taken even when not compressing, a pooled bitmap
+			// must not bring it along to another page.
+			final TextureDiskCache cache = mDiskCache;
+			final String key = texture != null && cache != null ? cache
+					.takeKey(texture) : null;
+			if (key != null && mCompress) {
+				compressed = cache.getCompressed(key);
+				if (compressed != null
+						&& compressed.getWidth() == texture.getWidth()
+						&& compressed.getHeight() == texture.getHeight()) {
+					BitmapPool.getInstance().release(texture);
+					texture = null;
+				} else {
+					// Encoding takes longer than the page is waited for.
+					compressed = null;
+					encodeLater(cache, key);
+				}
+			}
+		} catch (RuntimeException e) {
+			// Leaves the page with its placeholder, it is asked again later.
+		}
+
+		// Cancelled while decoding.
+		if (!mPending.remove(page, token)) {
+			BitmapPool.getInstance().release(texture);
+			return;
+		}
+
+		if (compressed != null) {
+			mCompressed.put(page, compressed);
+			mObserver.onLoadingTick();
+			return;
+		}
+
+		if (texture == null) {
+			return;
+		}
+
+		BitmapPool.getInstance().release(mReady.put(page, texture));
+		mObserver.onLoadingTick();
+	}
+
+	/**
+	 * Queues the encoding of the cached page to ETC1, behind every page
+	 * request, unless it is queued already.
+	 *
+	 * @param cache
+	 * @param key
+	 *            the key of the uncompressed page in the cache
+	 */
+	private void encodeLater(final TextureDiskCache cache, final String key) {
+		if (mEncoding.putIfAbsent(key, Boolean.TRUE) != null) {
+			return;
+		}
+		mExecutor.execute(new Request(PRIORITY_IDLE, mSequence
+				.getAndIncrement()) {
+			@Override
+			public void run() {
+				try {
+					encode(cache, key);
+				} catch (RuntimeException e) {
+					// The page is loaded uncompressed again.
+				} finally {
+					mEncoding.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the page back from the disk cache and stores its ETC1 form there,
+	 * unless it is stored already.
+	 *
+	 * @param cache
+	 * @param key
+	 */
+	private void encode(final TextureDiskCache cache, final String key) {
+		if (!mCompress || cache.getCompressed(key) != null) {
+			return;
+		}
+		final Bitmap texture = cache.get(key, new RectF());
+		if (texture == null) {
+			return;
+		}
+		// The key must not come along with the pooled bitmap.
+		cache.takeKey(texture);
+		try {
+			cache.putCompressed(key, compress(texture));
+		} finally {
+			BitmapPool.getInstance().release(texture);
+		}
+	}
+
+	/**
+	 * Compresses the texture to ETC1. Rows are read 4 at a time, the full
+	 * pixel array is never allocated.
+	 *
+	 * @param texture
+	 *            still owned by the caller
+	 * @return {@link ETC1Util.ETC1Texture}
+	 */
+	private ETC1Util.ETC1Texture compress(final Bitmap texture) {
+		final long start = System.nanoTime();
+		final int width = texture.getWidth();
+		final int height = texture.getHeight();
+
+		final ByteBuffer data = ByteBuffer.allocateDirect(
+				Etc1Encoder.getEncodedSize(width, height)).order(
+				ByteOrder.nativeOrder());
+		final Etc1Encoder encoder = new Etc1Encoder(PAGE_COLOR);
+		final int[] rows = new int[width * 4];
+		for (int y = 0; y < height; y += 4) {
+			final int count = Math.min(4, height - y);
+			texture.getPixels(rows, 0, width, 0, y, width, count);
+			encoder.encodeRows(rows, 0, width, count, data);
+		}
+		data.position(0);
+
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Page " + width + "x" + height + " compressed in "
+					+ (System.nanoTime() - start) / 1000000 + "ms, "
+					+ data.capacity() / 1024 + "KB instead of "
+					+ texture.getRowBytes() * height / 1024 + "KB");
+		}
+		return new ETC1Util.ETC1Texture(width, height, data);
+	}
+
+	/**
+	 * Loads the pages from now on as ETC1 once the disk cache has them so,
+	 * and encodes them into it in the background. Only to be turned on once
+	 * the context is known to support it.
+	 *
+	 * @param compress
+	 */
+	public void setCompression(final boolean compress) {
+		mCompress = compress;
+	}
+
+	/**
+	 * Sets the cache the compressed pages are kept in, pages are compressed
+	 * only with one.
+	 *
+	 * @param cache
+	 */
+	public void setDiskCache(final TextureDiskCache cache) {
+		mDiskCache = cache;
+	}
+
+	/**
+	 * Takes the compressed texture of the page.
+	 *
+	 * @param page
+	 * @return {@link ETC1Util.ETC1Texture} or null if the page is not ready
+	 *         compressed.
+	 */
+	public ETC1Util.ETC1Texture pollCompressed(final int page) {
+		return mCompressed.remove(page);
+	}
+
+	/**
+	 * Takes the thumbnail of the page, the caller owns it afterwards.
+	 *
+	 * @param page
+	 * @return {@link Bitmap} or null if there is none.
+	 */
+	public Bitmap pollThumbnail(final int page) {
+		return mThumbnails.remove(page);
+	}
+
+	/**
+	 * Takes the decoded bitmap of the page, the caller owns it afterwards.
+	 *
+	 * @param page
+	 * @return {@link Bitmap} or null if the page is not ready yet.
+	 */
+	public Bitmap poll(final int page) {
+		return mReady.remove(page);
+	}
+
+	/**
+	 * Returns the bytes the texture of the page will take once uploaded.
+	 *
+	 * @param page
+	 * @return the bytes, or -1 if the page is not ready yet.
+	 */
+	public int getReadyBytes(final int page) {
+		final ETC1Util.ETC1Texture compressed = mCompressed.get(page);
+		if (compressed != null) {
+			return compressed.getData().capacity();
+		}
+		final Bitmap bitmap = mReady.get(page);
+		return bitmap == null ? -1 : bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Returns true if the page is queued or being decoded.
+	 *
+	 * @param page
+	 * @return
+	 */
+	public boolean isPending(final int page) {
+		return mPending.containsKey(page);
+	}
+
+	/**
+	 * Drops the request and the decoded bitmap of the page.
+	 *
+	 * @param page
+	 */
+	public void cancel(final int page) {
+		mPending.remove(page);
+		mCompressed.remove(page);
+		BitmapPool.getInstance().release(mReady.remove(page));
+		BitmapPool.getInstance().release(mThumbnails.remove(page));
+	}
+
+	/**
+	 * Drops the requests and decoded bitmaps of the pages the prefetcher no
+	 * longer plans.
+	 *
+	 * @param prefetcher
+	 */
+	public void retain(final PagePrefetcher prefetcher) {
+		for (final Integer page : mPending.keySet()) {
+			if (!prefetcher.isPlanned(page)) {
+				mPending.remove(page);
+			}
+		}
+		for (final Integer page : mCompressed.keySet()) {
+			if (!prefetcher.isPlanned(page)) {
+				mCompressed.remove(page);
+			}
+		}
+		for (final Integer page : mReady.keySet()) {
+			if (!prefetcher.isPlanned(page)) {
+				cancel(page);
+			}
+		}
+		for (final Integer page : mThumbnails.keySet()) {
+			if (!prefetcher.isPlanned(page)) {
+				cancel(page);
+			}
+		}
+	}
+
+	/**
+	 * Drops every request and decoded bitmap.
+	 */
+	public void clear() {
+		mPending.clear();
+		mCompressed.clear();
+		for (final Integer page : mReady.keySet()) {
+			cancel(page);
+		}
+		for (final Integer page : mThumbnails.keySet()) {
+			cancel(page);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.opengl.ETC1Util;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+
+/**
+ * Keeps the pixels of the pages uploaded, under a byte budget, so a page
+ * whose texture went away, evicted or lost with its context, is uploaded
+ * again without being composed or read from the disk cache again. The
+ * pages used the longest time ago go first. Compressed pages are mostly
+ * mappings of the disk cache.
+ */
+public final class RetainedPages {
+
+	/**
+	 * Retains the budget, in bytes.
+	 */
+	private long mBudget;
+
+	/**
+	 * Retains the bytes kept.
+	 */
+	private long mBytes;
+
+	/**
+	 * Retains the pixels of each page, a {@link Bitmap} or an
+	 * {@link ETC1Util.ETC1Texture}, in access order.
+	 */
+	private final LinkedHashMap<Integer, Object> mPages = new LinkedHashMap<Integer, Object>(
+			16, .75f, true);
+
+	/**
+	 * Retains the count of clears, pixels of an older one are stale.
+	 */
+	private int mEpoch;
+
+	/**
+	 * Retains the pages taken back and the pages kept.
+	 */
+	private int mHits;
+	private int mPuts;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param budget
+	 *            in bytes
+	 */
+	public RetainedPages(final long budget) {
+		mBudget = budget;
+	}
+
+	/**
+	 * Sets the budget, pages over it are dropped.
+	 *
+	 * @param budget
+	 *            in bytes
+	 */
+	public synchronized void setBudget(final long budget) {
+		mBudget = budget;
+		trim(0);
+	}
+
+	/**
+	 * Keeps the bitmap of the page, or gives it back to the pool if it
+	 * doesn't fit.
+	 *
+	 * @param page
+	 * @param bitmap
+	 *            owned by this afterwards
+	 */
+	public void put(final int page, final Bitmap bitmap) {
+		put(page, bitmap, getEpoch());
+	}
+
+	/**
+	 * Keeps the bitmap of the page, read before the given epoch, or gives it
+	 * back to the pool if it doesn't fit or the pages were cleared since.
+	 *
+	 * @param page
+	 * @param bitmap
+	 *            owned by this afterwards
+	 * @param epoch
+	 *            see {@link #getEpoch()}
+	 */
+	public void put(final int page, final Bitmap bitmap, final int epoch) {
+		if (bitmap != null && !keep(page, bitmap, bytesOf(bitmap), epoch)) {
+			BitmapPool.getInstance().release(bitmap);
+		}
+	}
+
+	/**
+	 * Keeps the compressed texture of the page, if it fits.
+	 *
+	 * @param page
+	 * @param compressed
+	 */
+	public void put(final int page, final ETC1Util.ETC1Texture compressed) {
+		put(page, compressed, getEpoch());
+	}
+
+	/**
+	 * Keeps the compressed texture of the page, read before the given
+	 * epoch, if it fits and the pages weren't cleared since.
+	 *
+	 * @param page
+	 * @param compressed
+	 * @param epoch
+	 *            see {@link #getEpoch()}
+	 */
+	public void put(final int page, final ETC1Util.ETC1Texture compressed,
+			final int epoch) {
+		if (compressed != null) {
+			keep(page, compressed, compressed.getData().capacity(), epoch);
+		}
+	}
+
+	/**
+	 * Returns the count of clears, for pixels kept from another thread.
+	 *
+	 * @return
+	 */
+	public synchronized int getEpoch() {
+		return mEpoch;
+	}
+
+	/**
+	 * Returns the bytes of the page kept.
+	 *
+	 * @param page
+	 * @return the bytes, or -1 if the page is not kept.
+	 */
+	public synchronized int getBytes(final int page) {
+		final Object pixels = mPages.get(page);
+		if (pixels instanceof Bitmap) {
+			return bytesOf((Bitmap) pixels);
+		}
+		return pixels == null ? -1 : ((ETC1Util.ETC1Texture) pixels)
+				.getData().capacity();
+	}
+
+	/**
+	 * Takes the bitmap of the page, the caller owns it afterwards.
+	 *
+	 * @param page
+	 * @return {@link Bitmap} or null if the page is not kept as one.
+	 */
+	public synchronized Bitmap poll(final int page) {
+		if (!(mPages.get(page) instanceof Bitmap)) {
+			return null;
+		}
+		final Bitmap bitmap = (Bitmap) remove(page);
+		mHits++;
+		return bitmap;
+	}
+
+	/**
+	 * Takes the compressed texture of the page.
+	 *
+	 * @param page
+	 * @return {@link ETC1Util.ETC1Texture} or null if the page is not kept
+	 *         compressed.
+	 */
+	public synchronized ETC1Util.ETC1Texture pollCompressed(final int page) {
+		if (!(mPages.get(page) instanceof ETC1Util.ETC1Texture)) {
+			return null;
+		}
+		mHits++;
+		return (ETC1Util.ETC1Texture) remove(page);
+	}
+
+	/**
+	 * Drops every page, once their content changed.
+	 */
+	public synchronized void clear() {
+		for (final Object pixels : mPages.values()) {
+			release(pixels);
+		}
+		mPages.clear();
+		mBytes = 0;
+		mEpoch++;
+	}
+
+	/**
+	 * Returns the bytes kept.
+	 *
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Returns the pages taken back since the start.
+	 *
+	 * @return
+	 */
+	public synchronized int getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * Returns the pages kept since the start.
+	 *
+	 * @return
+	 */
+	public synchronized int getPutCount() {
+		return mPuts;
+	}
+
+	/**
+	 * Keeps the pixels, making room for them.
+	 *
+	 * @return false if they are larger than the budget or stale.
+	 */
+	private synchronized boolean keep(final int page, final Object pixels,
+			final int bytes, final int epoch) {
+		if (bytes > mBudget || epoch != mEpoch) {
+			return false;
+		}
+		release(remove(page));
+		trim(bytes);
+		mPages.put(page, pixels);
+		mBytes += bytes;
+		mPuts++;
+		return true;
+	}
+
+	/**
+	 * Drops the pages used the longest time ago until the bytes fit.
+	 */
+	private void trim(final int bytes) {
+		final Iterator<Map.Entry<Integer, Object>> entries = mPages
+				.entrySet().iterator();
+		while (mBytes + bytes > mBudget && entries.hasNext()) {
+			final Object pixels = entries.next().getValue();
+			mBytes -= bytesOf(pixels);
+			entries.remove();
+			release(pixels);
+		}
+	}
+
+	/**
+	 * Removes the pixels of the page.
+	 *
+	 * @return the pixels, or null if the page is not kept.
+	 */
+	private Object remove(final int page) {
+		final Object pixels = mPages.remove(page);
+		if (pixels != null) {
+			mBytes -= bytesOf(pixels);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Gives bitmaps back to the pool.
+	 */
+	private static void release(final Object pixels) {
+		if (pixels instanceof Bitmap) {
+			BitmapPool.getInstance().release((Bitmap) pixels);
+		}
+	}
+
+	/**
+	 * Returns the bytes of the pixels.
+	 */
+	private static int bytesOf(final Object pixels) {
+		if (pixels instanceof Bitmap) {
+			final Bitmap bitmap = (Bitmap) pixels;
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+		return ((ETC1Util.ETC1Texture) pixels).getData().capacity();
+	}
+}
@@ -0,0 +1,512 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+import javax.microedition.khronos.opengles.GL10;
+
+import android.graphics.Bitmap;
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+import android.opengl.GLES10;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Uploads page textures on a thread of its own, current on a second EGL
+ * context sharing its objects with the view's context. Installed as the
+ * view's context factory, it creates both contexts. Pages are uploaded
+ * into a new texture no frame samples yet, and handed back once it is
+ * complete; the render thread then draws it in place of the old one. Where the driver is known to mishandle shared contexts, or
+ * the shared context can't be made or fails an upload, nothing is taken
+ * and the renderer keeps uploading in the frame.
+ */
+public final class SharedContextUploader implements
+		GLSurfaceView.EGLContextFactory {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "SharedContextUploader";
+
+	/**
+	 * Flag for uploading on the shared context at all.
+	 */
+	private static final boolean ENABLED = true;
+
+	/**
+	 * First version whose drivers share textures between contexts
+	 * reliably.
+	 */
+	private static final int API_SHARED_CONTEXT = 14;
+
+	/**
+	 * Renderers whose drivers corrupt or stall textures uploaded from a
+	 * shared context, by prefix of GL_RENDERER.
+	 */
+	private static final String[] UNRELIABLE_RENDERERS = { "Adreno (TM) 2",
+			"PowerVR SGX 530", "PowerVR SGX 540", "Mali-200", "Mali-300",
+			"NVIDIA AP" };
+
+	/**
+	 * Pages handed over and not finished yet, at most.
+	 */
+	private static final int MAX_IN_FLIGHT = 2;
+
+	/**
+	 * EGL_CONTEXT_CLIENT_VERSION, missing from {@link EGL10}.
+	 */
+	private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+	/**
+	 * Renderable type bits of OpenGL ES 1.x and 2.0 configs.
+	 */
+	private static final int EGL_OPENGL_ES_BIT = 1;
+	private static final int EGL_OPENGL_ES2_BIT = 4;
+
+	/**
+	 * Retains the OpenGL ES version of the contexts.
+	 */
+	private final int mClientVersion;
+
+	/**
+	 * Retains the observer, notified once a page is finished.
+	 */
+	private final CurlRenderer.Observer mObserver;
+
+	/**
+	 * Retains the pages kept for their next upload.
+	 */
+	private final RetainedPages mRetained;
+
+	/**
+	 * Retains the OpenGL ES version of the shared context, the one the
+	 * view's context got.
+	 */
+	private volatile int mSharedVersion;
+
+	/**
+	 * Retains the EGL objects of the shared context.
+	 */
+	private EGL10 mEgl;
+	private EGLDisplay mDisplay;
+	private EGLContext mContext;
+	private EGLSurface mSurface;
+
+	/**
+	 * Retains the upload thread, null while there is no shared context.
+	 */
+	private ExecutorService mExecutor;
+
+	/**
+	 * True while the upload thread is current on the shared context and
+	 * takes pages.
+	 */
+	private volatile boolean mAvailable;
+
+	/**
+	 * True once the shared context failed, pages are uploaded in the frame
+	 * from then on.
+	 */
+	private volatile boolean mFailed;
+
+	/**
+	 * Retains the contexts created, so the renderer can tell the pages in
+	 * flight belong to a lost one.
+	 */
+	private volatile int mGeneration;
+
+	/**
+	 * Retains the pages handed over and not taken back yet.
+	 */
+	private final AtomicInteger mInFlight = new AtomicInteger();
+
+	/**
+	 * Pages whose texture is complete, and pages whose upload failed.
+	 */
+	private final ConcurrentLinkedQueue<Integer> mDone = new ConcurrentLinkedQueue<Integer>();
+	private final ConcurrentLinkedQueue<Integer> mLost = new ConcurrentLinkedQueue<Integer>();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param clientVersion
+	 *            1 or 2, as asked of the view
+	 * @param observer
+	 *            notified once a page is finished
+	 * @param retained
+	 *            given the pixels once uploaded
+	 */
+	public SharedContextUploader(final int clientVersion,
+			final CurlRenderer.Observer observer, final RetainedPages retained) {
+		mClientVersion = clientVersion;
+		mObserver = observer;
+		mRetained = retained;
+	}
+
+	/**
+	 * Creates the view's context and, where it may be used, the shared
+	 * context and its thread.
+	 */
+	@Override
+	public EGLContext createContext(final EGL10 egl, final EGLDisplay display,
+			final EGLConfig config) {
+		final int[] attributes = mClientVersion > 1 ? new int[] {
+				EGL_CONTEXT_CLIENT_VERSION, mClientVersion, EGL10.EGL_NONE }
+				: null;
+		final EGLContext context = egl.eglCreateContext(display, config,
+				EGL10.EGL_NO_CONTEXT, attributes);
+		if (context != null && context != EGL10.EGL_NO_CONTEXT && ENABLED
+				&& !mFailed && Build.VERSION.SDK_INT >= API_SHARED_CONTEXT) {
+			createShared(egl, display, context);
+		}
+		return context;
+	}
+
+	/**
+	 * Stops the thread and destroys the shared context, then the view's
+	 * context.
+	 */
+	@Override
+	public void destroyContext(final EGL10 egl, final EGLDisplay display,
+			final EGLContext context) {
+		destroyShared();
+		egl.eglDestroyContext(display, context);
+	}
+
+	/**
+	 * Creates the shared context on a 1x1 pbuffer, of the version of the
+	 * view's context, and starts its thread.
+	 */
+	private void createShared(final EGL10 egl, final EGLDisplay display,
+			final EGLContext context) {
+		final int[] version = new int[1];
+		mSharedVersion = egl.eglQueryContext(display, context,
+				EGL_CONTEXT_CLIENT_VERSION, version) && version[0] > 0 ? version[0]
+				: mClientVersion;
+		final int[] spec = { EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+				EGL10.EGL_RENDERABLE_TYPE,
+				mSharedVersion > 1 ? EGL_OPENGL_ES2_BIT : EGL_OPENGL_ES_BIT,
+				EGL10.EGL_NONE };
+		final EGLConfig[] configs = new EGLConfig[1];
+		final int[] count = new int[1];
+		if (!egl.eglChooseConfig(display, spec, configs, 1, count)
+				|| count[0] == 0) {
+			fail("No pbuffer config");
+			return;
+		}
+
+		final EGLContext shared = egl.eglCreateContext(display, configs[0],
+				context, mSharedVersion > 1 ? new int[] {
+						EGL_CONTEXT_CLIENT_VERSION, mSharedVersion,
+						EGL10.EGL_NONE } : null);
+		if (shared == null || shared == EGL10.EGL_NO_CONTEXT) {
+			fail("Shared context not created, error " + egl.eglGetError());
+			return;
+		}
+		final EGLSurface surface = egl.eglCreatePbufferSurface(display,
+				configs[0], new int[] { EGL10.EGL_WIDTH, 1,
+						EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE });
+		if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+			egl.eglDestroyContext(display, shared);
+			fail("Pbuffer not created, error " + egl.eglGetError());
+			return;
+		}
+
+		mEgl = egl;
+		mDisplay = display;
+		mContext = shared;
+		mSurface = surface;
+		mGeneration++;
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				attach();
+			}
+		});
+	}
+
+	/**
+	 * Makes the shared context current on the upload thread, unless the
+	 * driver is known not to cope.
+	 */
+	private void attach() {
+		if (!mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+			fail("Shared context not made current, error "
+					+ mEgl.eglGetError());
+			return;
+		}
+		final String renderer = mSharedVersion > 1 ? GLES20
+				.glGetString(GLES20.GL_RENDERER) : GLES10
+				.glGetString(GL10.GL_RENDERER);
+		if (renderer != null) {
+			for (final String unreliable : UNRELIABLE_RENDERERS) {
+				if (renderer.startsWith(unreliable)) {
+					fail("Shared context unreliable on " + renderer);
+					return;
+				}
+			}
+		}
+		mAvailable = true;
+	}
+
+	/**
+	 * Waits for the upload thread to release the shared context, then
+	 * destroys it. Pages still in flight are dropped, their textures went
+	 * away with the context.
+	 */
+	private void destroyShared() {
+		mAvailable = false;
+		final ExecutorService executor = mExecutor;
+		if (executor == null) {
+			return;
+		}
+		mExecutor = null;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE,
+						EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+			}
+		});
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		mEgl.eglDestroySurface(mDisplay, mSurface);
+		mEgl.eglDestroyContext(mDisplay, mContext);
+		mDone.clear();
+		mLost.clear();
+		mInFlight.set(0);
+		// Tells the renderer its pages in flight went with the context.
+		mGeneration++;
+	}
+
+	/**
+	 * Stops taking pages, for good.
+	 */
+	private void fail(final String reason) {
+		mAvailable = false;
+		mFailed = true;
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, reason + ", uploading in the frame");
+		}
+	}
+
+	/**
+	 * Returns true if a page can be handed over now.
+	 *
+	 * @return
+	 */
+	public boolean isAvailable() {
+		return mAvailable && mInFlight.get() < MAX_IN_FLIGHT;
+	}
+
+	/**
+	 * Returns the contexts created so far.
+	 *
+	 * @return
+	 */
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Hands the page over, to be uploaded into the texture on the upload
+	 * thread. Called on the render thread, the texture id belongs to the
+	 * view's context and must not be drawn until the page is done.
+	 *
+	 * @param page
+	 * @param textureId
+	 *            a new texture, not the one the page is drawn with
+	 * @param compressed
+	 *            the page compressed, or null
+	 * @param bitmap
+	 *            the page, or null; owned by the uploader if taken
+	 * @return true if the page was taken, false if it is the caller's to
+	 *         upload.
+	 */
+	public boolean upload(final int page, final int textureId,
+			final ETC1Util.ETC1Texture compressed, final Bitmap bitmap) {
+		final ExecutorService executor = mExecutor;
+		if (!isAvailable() || executor == null) {
+			return false;
+		}
+		mInFlight.incrementAndGet();
+		final int epoch = mRetained.getEpoch();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				uploadNow(page, textureId, compressed, bitmap, epoch);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Uploads the page, waits for GL to finish it and publishes it. The
+	 * pixels are kept for the next upload, unless the pages were cleared
+	 * since the epoch. Pages queued once the context failed are given back
+	 * as lost.
+	 */
+	private void uploadNow(final int page, final int textureId,
+			final ETC1Util.ETC1Texture compressed, final Bitmap bitmap,
+			final int epoch) {
+		if (mFailed) {
+			keep(page, compressed, bitmap, epoch);
+			mLost.add(page);
+			mObserver.onLoadingTick();
+			return;
+		}
+
+		final long start = System.nanoTime();
+		if (mSharedVersion > 1) {
+			bindTexture20(textureId);
+		} else {
+			bindTexture10(textureId);
+		}
+		if (compressed != null) {
+			final ByteBuffer data = compressed.getData();
+			if (mSharedVersion > 1) {
+				GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0,
+						ETC1.ETC1_RGB8_OES, compressed.getWidth(),
+						compressed.getHeight(), 0, data.capacity(), data);
+			} else {
+				GLES10.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, 0,
+						ETC1.ETC1_RGB8_OES, compressed.getWidth(),
+						compressed.getHeight(), 0, data.capacity(), data);
+			}
+		} else if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_RGB, bitmap,
+					GL10.GL_UNSIGNED_SHORT_5_6_5, 0);
+		} else {
+			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bitmap, 0);
+		}
+		// The render thread may only use the texture once it is complete.
+		final int error;
+		if (mSharedVersion > 1) {
+			GLES20.glFinish();
+			error = GLES20.glGetError();
+		} else {
+			GLES10.glFinish();
+			error = GLES10.glGetError();
+		}
+		keep(page, compressed, bitmap, epoch);
+
+		if (error != GL10.GL_NO_ERROR) {
+			fail("Upload of page " + page + " failed, error " + error);
+			mLost.add(page);
+		} else {
+			mDone.add(page);
+			if (Log.isLoggable(TAG, Log.DEBUG)) {
+				Log.d(TAG, "Page " + page + " uploaded in "
+						+ (System.nanoTime() - start) / 1000000 + "ms");
+			}
+		}
+		mObserver.onLoadingTick();
+	}
+
+	/**
+	 * Binds the texture and sets its attributes, on an OpenGL ES 1.x
+	 * context.
+	 */
+	private static void bindTexture10(final int textureId) {
+		GLES10.glBindTexture(GL10.GL_TEXTURE_2D, textureId);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+				GL10.GL_NEAREST);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER,
+				GL10.GL_NEAREST);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
+				GL10.GL_CLAMP_TO_EDGE);
+		GLES10.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
+				GL10.GL_CLAMP_TO_EDGE);
+	}
+
+	/**
+	 * Binds the texture and sets its attributes, on an OpenGL ES 2.0
+	 * context.
+	 */
+	private static void bindTexture20(final int textureId) {
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+	}
+
+	/**
+	 * Keeps the pixels of the page for its next upload.
+	 */
+	private void keep(final int page, final ETC1Util.ETC1Texture compressed,
+			final Bitmap bitmap, final int epoch) {
+		if (compressed != null) {
+			mRetained.put(page, compressed, epoch);
+		} else {
+			mRetained.put(page, bitmap, epoch);
+		}
+	}
+
+	/**
+	 * Takes the next page whose texture is complete.
+	 *
+	 * @return the page, or -1 if none.
+	 */
+	public int pollDone() {
+		return take(mDone);
+	}
+
+	/**
+	 * Takes the next page whose upload failed, to be loaded again.
+	 *
+	 * @return the page, or -1 if none.
+	 */
+	public int pollLost() {
+		return take(mLost);
+	}
+
+	/**
+	 * Takes the head of the queue.
+	 */
+	private int take(final ConcurrentLinkedQueue<Integer> queue) {
+		final Integer page = queue.poll();
+		if (page == null) {
+			return -1;
+		}
+		mInFlight.decrementAndGet();
+		return page;
+	}
+}
@@ -0,0 +1,127 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Milestones of a cold start, in milliseconds from the creation of the
+ * activity: the first frame of the book, the first page drawn and the
+ * album fully indexed. Each milestone is kept the first time it is
+ * reached and logged with the log tag on DEBUG.
+ */
+public final class StartupTimings {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "StartupTimings";
+
+	/**
+	 * The first frame of the book, pages or not.
+	 */
+	public static final int FIRST_FRAME = 0;
+
+	/**
+	 * The first frame with a page drawn, its thumbnail or the page.
+	 */
+	public static final int FIRST_PAGE = 1;
+
+	/**
+	 * The album listing is complete.
+	 */
+	public static final int ALBUM_INDEXED = 2;
+
+	/**
+	 * Names of the milestones, by milestone.
+	 */
+	private static final String[] NAMES = { "first frame", "first page",
+			"album indexed" };
+
+	/**
+	 * Retains the single instance.
+	 */
+	private static final StartupTimings INSTANCE = new StartupTimings();
+
+	/**
+	 * Start of the cold start, in milliseconds of uptime.
+	 */
+	private volatile long mStart = SystemClock.uptimeMillis();
+
+	/**
+	 * Time of each milestone from the start, -1 until reached.
+	 */
+	private final long[] mMilestones = new long[NAMES.length];
+
+	/**
+	 * Private constructor.
+	 */
+	private StartupTimings() {
+		reset();
+	}
+
+	/**
+	 * Gets the instance.
+	 *
+	 * @return {@link StartupTimings}
+	 */
+	public static StartupTimings getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts the clock over, from the creation of the activity. The
+	 * milestones are reached again.
+	 */
+	public synchronized void start() {
+		mStart = SystemClock.uptimeMillis();
+		reset();
+	}
+
+	/**
+	 * Records the milestone, unless reached already.
+	 *
+	 * @param milestone
+	 */
+	public void reach(final int milestone) {
+		final long elapsed;
+		synchronized (this) {
+			if (mMilestones[milestone] >= 0) {
+				return;
+			}
+			elapsed = SystemClock.uptimeMillis() - mStart;
+			mMilestones[milestone] = elapsed;
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, NAMES[milestone] + " after " + elapsed + "ms");
+		}
+	}
+
+	/**
+	 * Returns true once the milestone is reached.
+	 *
+	 * @param milestone
+	 * @return
+	 */
+	public synchronized boolean isReached(final int milestone) {
+		return mMilestones[milestone] >= 0;
+	}
+
+	/**
+	 * Returns the time of the milestone from the start.
+	 *
+	 * @param milestone
+	 * @return the time in milliseconds, -1 until reached.
+	 */
+	public synchronized long getMillis(final int milestone) {
+		return mMilestones[milestone];
+	}
+
+	/**
+	 * Forgets the milestones.
+	 */
+	private void reset() {
+		for (int i = 0; i < mMilestones.length; i++) {
+			mMilestones[i] = -1;
+		}
+	}
+}
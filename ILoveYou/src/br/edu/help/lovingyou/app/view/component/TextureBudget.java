@@ -0,0 +1,305 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+/**
+ * Accounts for the bytes of the page textures resident on the GPU and
+ * keeps them under a budget. When a page doesn't fit, the resident page
+ * farthest from the pages shown, and shown the longest time ago, makes
+ * room for it, unless it is closer than the new page.
+ */
+public final class TextureBudget {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "TextureBudget";
+
+	/**
+	 * Divides the app heap limit into the default budget. Textures live in
+	 * the same RAM on most devices, the heap limit says how much of it the
+	 * device can spare.
+	 */
+	private static final int HEAP_SHARE = 2;
+
+	/**
+	 * Time not shown weighing as much as a page of distance, in tenths of
+	 * a second.
+	 */
+	private static final int RECENCY_TENTHS = 100;
+
+	/**
+	 * Retains the budget, in bytes.
+	 */
+	private long mBudget;
+
+	/**
+	 * Retains the bytes resident.
+	 */
+	private long mResident;
+
+	/**
+	 * Retains the bytes of each resident page.
+	 */
+	private final SparseIntArray mBytes = new SparseIntArray();
+
+	/**
+	 * Retains the last time each page was shown, in tenths of a second.
+	 */
+	private final SparseIntArray mShown = new SparseIntArray();
+
+	/**
+	 * Retains the pages uploaded once.
+	 */
+	private final SparseBooleanArray mUploaded = new SparseBooleanArray();
+
+	/**
+	 * Pages shown, lowest and highest, -1 before any frame.
+	 */
+	private int mLow = -1;
+	private int mHigh = -1;
+
+	/**
+	 * Retains the uploads, the evictions and the uploads of pages evicted
+	 * before.
+	 */
+	private int mUploads;
+	private int mEvictions;
+	private int mReuploads;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param budget
+	 *            in bytes
+	 */
+	public TextureBudget(final long budget) {
+		mBudget = budget;
+	}
+
+	/**
+	 * Returns the budget fitting the device, half its app heap limit.
+	 *
+	 * @param context
+	 * @return the budget in bytes.
+	 */
+	public static long getDeviceBudget(final Context context) {
+		final ActivityManager manager = (ActivityManager) context
+				.getSystemService(Context.ACTIVITY_SERVICE);
+		return (long) manager.getMemoryClass() * 1024 * 1024 / HEAP_SHARE;
+	}
+
+	/**
+	 * Sets the budget, pages over it are evicted on the next uploads.
+	 *
+	 * @param budget
+	 *            in bytes
+	 */
+	public synchronized void setBudget(final long budget) {
+		mBudget = budget;
+	}
+
+	/**
+	 * Returns the budget, in bytes.
+	 *
+	 * @return
+	 */
+	public synchronized long getBudget() {
+		return mBudget;
+	}
+
+	/**
+	 * Records the pages shown on this frame.
+	 *
+	 * @param low
+	 * @param high
+	 */
+	public synchronized void onShown(final int low, final int high) {
+		mLow = low;
+		mHigh = high;
+		final int now = now();
+		for (int page = low; page <= high; page++) {
+			mShown.put(page, now);
+		}
+	}
+
+	/**
+	 * Returns true if the page is shown, or if no page was shown yet.
+	 *
+	 * @param page
+	 * @return
+	 */
+	public synchronized boolean isShown(final int page) {
+		return mLow < 0 || (page >= mLow && page <= mHigh);
+	}
+
+	/**
+	 * Returns true if the bytes fit in the budget left.
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public synchronized boolean fits(final int bytes) {
+		return mResident + bytes <= mBudget;
+	}
+
+	/**
+	 * Picks the resident page to evict for the page, the one with the
+	 * highest score: its distance from the pages shown, plus a page for
+	 * every {@link #RECENCY_TENTHS} it was not shown. Pages shown are never
+	 * picked.
+	 *
+	 * @param page
+	 *            the page to make room for
+	 * @return the page to evict, or -1 if none scores above the page.
+	 */
+	public synchronized int pickVictim(final int page) {
+		final int now = now();
+		final boolean shown = isShown(page);
+		final float limit = shown ? -1f : distance(page);
+		int victim = -1;
+		float best = limit;
+		for (int i = 0; i < mBytes.size(); i++) {
+			final int resident = mBytes.keyAt(i);
+			if (resident == page || (mLow >= 0 && isShown(resident))) {
+				continue;
+			}
+			final float score = distance(resident)
+					+ (float) (now - mShown.get(resident, now))
+					/ RECENCY_TENTHS;
+			if (score > best) {
+				best = score;
+				victim = resident;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Records the upload of the page.
+	 *
+	 * @param page
+	 * @param bytes
+	 */
+	public synchronized void onUploaded(final int page, final int bytes) {
+		remove(page);
+		mBytes.put(page, bytes);
+		mResident += bytes;
+		mUploads++;
+		if (mUploaded.get(page)) {
+			mReuploads++;
+		}
+		mUploaded.put(page, true);
+		if (mShown.indexOfKey(page) < 0) {
+			mShown.put(page, now());
+		}
+	}
+
+	/**
+	 * Records the deletion of the page, if resident.
+	 *
+	 * @param page
+	 */
+	public synchronized void onDeleted(final int page) {
+		if (!remove(page)) {
+			return;
+		}
+		mEvictions++;
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Evicted page " + page + ", " + mResident / 1024
+					+ "KB of " + mBudget / 1024 + "KB resident");
+		}
+	}
+
+	/**
+	 * Returns true if the page is resident.
+	 *
+	 * @param page
+	 * @return
+	 */
+	public synchronized boolean isResident(final int page) {
+		return mBytes.indexOfKey(page) >= 0;
+	}
+
+	/**
+	 * Forgets the resident pages, once their context is gone. The counts
+	 * are kept.
+	 */
+	public synchronized void clear() {
+		mBytes.clear();
+		mResident = 0;
+	}
+
+	/**
+	 * Returns the bytes resident.
+	 *
+	 * @return
+	 */
+	public synchronized long getResidentBytes() {
+		return mResident;
+	}
+
+	/**
+	 * Returns the pages uploaded.
+	 *
+	 * @return
+	 */
+	public synchronized int getUploadCount() {
+		return mUploads;
+	}
+
+	/**
+	 * Returns the pages evicted.
+	 *
+	 * @return
+	 */
+	public synchronized int getEvictionCount() {
+		return mEvictions;
+	}
+
+	/**
+	 * Returns the uploads of pages evicted before.
+	 *
+	 * @return
+	 */
+	public synchronized int getReuploadCount() {
+		return mReuploads;
+	}
+
+	/**
+	 * Drops the bytes of the page, if resident.
+	 *
+	 * @return true if the page was resident.
+	 */
+	private boolean remove(final int page) {
+		final int index = mBytes.indexOfKey(page);
+		if (index < 0) {
+			return false;
+		}
+		mResident -= mBytes.valueAt(index);
+		mBytes.removeAt(index);
+		return true;
+	}
+
+	/**
+	 * Returns the pages between the page and the pages shown.
+	 */
+	private int distance(final int page) {
+		if (mLow < 0) {
+			return 0;
+		}
+		return page < mLow ? mLow - page : (page > mHigh ? page - mHigh : 0);
+	}
+
+	/**
+	 * Returns the time, in tenths of a second.
+	 */
+	private static int now() {
+		return (int) (SystemClock.uptimeMillis() / 100);
+	}
+}
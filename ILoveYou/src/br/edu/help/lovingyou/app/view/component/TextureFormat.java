@@ -0,0 +1,116 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import android.graphics.Bitmap;
+
+/**
+ * Picks the pixel format of the page photos and textures. Pages are drawn
+ * over an opaque blank page, so unless the quality tier says otherwise
+ * they are kept as RGB_565, half the memory of ARGB_8888 from decode to
+ * upload. Only bitmaps which really need alpha stay ARGB_8888.
+ */
+public final class TextureFormat {
+
+	/**
+	 * Quality tier picking the format of each bitmap from its content.
+	 */
+	public static final int QUALITY_AUTO = 0;
+
+	/**
+	 * Quality tier forcing ARGB_8888.
+	 */
+	public static final int QUALITY_HIGH = 1;
+
+	/**
+	 * Quality tier forcing RGB_565.
+	 */
+	public static final int QUALITY_LOW = 2;
+
+	/**
+	 * Mime type of the photos known to be opaque.
+	 */
+	private static final String MIME_JPEG = "image/jpeg";
+
+	/**
+	 * Retains the quality tier.
+	 */
+	private static volatile int sQuality = QUALITY_AUTO;
+
+	/**
+	 * Private constructor.
+	 */
+	private TextureFormat() {
+	}
+
+	/**
+	 * Sets the quality tier, for the bitmaps created from now on.
+	 *
+	 * @param quality
+	 *            QUALITY_AUTO, QUALITY_HIGH or QUALITY_LOW
+	 */
+	public static void setQuality(final int quality) {
+		sQuality = quality;
+	}
+
+	/**
+	 * Returns the quality tier.
+	 *
+	 * @return
+	 */
+	public static int getQuality() {
+		return sQuality;
+	}
+
+	/**
+	 * Returns the format of a bitmap.
+	 *
+	 * @param needsAlpha
+	 *            true if the bitmap has translucent pixels that aren't
+	 *            flattened over an opaque page before drawing
+	 * @return {@link Bitmap.Config}
+	 */
+	public static Bitmap.Config choose(final boolean needsAlpha) {
+		switch (sQuality) {
+		case QUALITY_HIGH:
+			return Bitmap.Config.ARGB_8888;
+		case QUALITY_LOW:
+			return Bitmap.Config.RGB_565;
+		default:
+			return needsAlpha ? Bitmap.Config.ARGB_8888
+					: Bitmap.Config.RGB_565;
+		}
+	}
+
+	/**
+	 * Returns the format a photo is decoded to. Only JPEG is known to be
+	 * opaque from its bounds.
+	 *
+	 * @param mimeType
+	 *            as read with the bounds, may be null
+	 * @return {@link Bitmap.Config}
+	 */
+	public static Bitmap.Config forPhoto(final String mimeType) {
+		return choose(!MIME_JPEG.equals(mimeType));
+	}
+
+	/**
+	 * Returns the bytes of a pixel of the format.
+	 *
+	 * @param config
+	 * @return
+	 */
+	public static int bytesPerPixel(final Bitmap.Config config) {
+		return config == Bitmap.Config.ARGB_8888 ? 4 : 2;
+	}
+
+	/**
+	 * Returns the color a texture of the format is cleared to. Opaque
+	 * textures are cleared to the page color, so their edges blend into the
+	 * blank page like translucent ones do.
+	 *
+	 * @param config
+	 * @return
+	 */
+	public static int clearColor(final Bitmap.Config config) {
+		return config == Bitmap.Config.RGB_565 ? 0xFFFFFFFF : 0;
+	}
+}
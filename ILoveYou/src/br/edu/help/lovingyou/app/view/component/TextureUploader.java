@@ -0,0 +1,189 @@
+package br.edu.help.lovingyou.app.view.component;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.opengl.GLES10;
+import android.opengl.GLUtils;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+
+/**
+ * Uploads large page bitmaps to their texture in stripes of rows, a few
+ * each frame under a time budget, so a page streaming in doesn't stall a
+ * drag or a flip. The texture storage is allocated in a frame of its own
+ * and the page is only drawn once its last stripe is in. One page streams
+ * at a time; each stripe is cut out of the page into a small pooled bitmap,
+ * given back once the page is in.
+ */
+public final class TextureUploader {
+
+	/**
+	 * Pages up to this size are uploaded whole.
+	 */
+	private static final int WHOLE_BYTES = 256 * 1024;
+
+	/**
+	 * Bytes of a stripe.
+	 */
+	private static final int STRIPE_BYTES = 64 * 1024;
+
+	/**
+	 * Copies the pixels as they are.
+	 */
+	private static final Paint COPY = new Paint();
+	static {
+		COPY.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	/**
+	 * Retains the bitmap of the page streaming in, owned by this meanwhile.
+	 */
+	private Bitmap mBitmap;
+
+	/**
+	 * Retains the stripe the rows are cut into, and its canvas.
+	 */
+	private Bitmap mStripe;
+	private Canvas mCanvas;
+
+	/**
+	 * Page streaming in, or -1.
+	 */
+	private int mPage = -1;
+
+	/**
+	 * Layout of the page streaming in.
+	 */
+	private int mTextureId;
+	private int mWidth;
+	private int mHeight;
+	private int mFormat;
+	private int mType;
+
+	/**
+	 * True once the texture storage is allocated.
+	 */
+	private boolean mAllocated;
+
+	/**
+	 * Next row to upload.
+	 */
+	private int mRow;
+
+	/**
+	 * Starts streaming the bitmap into the texture, nothing is uploaded
+	 * until the next {@link #step(long)}. Small bitmaps, and formats GL
+	 * can't take raw, are left to a whole upload.
+	 *
+	 * @param page
+	 * @param textureId
+	 * @param bitmap
+	 *            owned by this if it is streaming in, see {@link #end()}
+	 * @return true if the bitmap is streaming in, false if it was not
+	 *         touched.
+	 */
+	public boolean begin(final int page, final int textureId,
+			final Bitmap bitmap) {
+		if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+			mFormat = GL10.GL_RGB;
+			mType = GL10.GL_UNSIGNED_SHORT_5_6_5;
+		} else if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+			mFormat = GL10.GL_RGBA;
+			mType = GL10.GL_UNSIGNED_BYTE;
+		} else {
+			return false;
+		}
+		final int rowBytes = bitmap.getRowBytes();
+		if (rowBytes * bitmap.getHeight() <= WHOLE_BYTES) {
+			return false;
+		}
+
+		mPage = page;
+		mTextureId = textureId;
+		mBitmap = bitmap;
+		mWidth = bitmap.getWidth();
+		mHeight = bitmap.getHeight();
+		mAllocated = false;
+		mRow = 0;
+
+		// Fewer rows than the page, it is larger than a stripe.
+		final int rows = Math.max(1, STRIPE_BYTES / rowBytes);
+		mStripe = BitmapPool.getInstance().acquire(mWidth, rows,
+				bitmap.getConfig());
+		mCanvas = new Canvas(mStripe);
+		return true;
+	}
+
+	/**
+	 * Allocates the texture storage, or else uploads stripes until the
+	 * budget is spent, at least one.
+	 *
+	 * @param budgetNanos
+	 * @return true once the last stripe is in.
+	 */
+	public boolean step(final long budgetNanos) {
+		if (mPage < 0) {
+			return false;
+		}
+		GLES10.glBindTexture(GL10.GL_TEXTURE_2D, mTextureId);
+		if (!mAllocated) {
+			GLES10.glTexImage2D(GL10.GL_TEXTURE_2D, 0, mFormat, mWidth,
+					mHeight, 0, mFormat, mType, null);
+			mAllocated = true;
+			return false;
+		}
+
+		final long start = System.nanoTime();
+		final int rows = mStripe.getHeight();
+		do {
+			// The last stripe overlaps the one before, rather than being
+			// cut into a bitmap of its own.
+			final int y = Math.min(mRow, mHeight - rows);
+			mCanvas.drawBitmap(mBitmap, 0, -y, COPY);
+			GLUtils.texSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, y, mStripe,
+					mFormat, mType);
+			mRow = y + rows;
+		} while (mRow < mHeight && System.nanoTime() - start < budgetNanos);
+
+		return mRow >= mHeight;
+	}
+
+	/**
+	 * Returns true while a page is streaming in.
+	 *
+	 * @return
+	 */
+	public boolean isActive() {
+		return mPage >= 0;
+	}
+
+	/**
+	 * Returns the page streaming in, or -1.
+	 *
+	 * @return
+	 */
+	public int getPage() {
+		return mPage;
+	}
+
+	/**
+	 * Stops streaming, the texture is left incomplete unless the last
+	 * stripe is in, and gives the stripe back to the pool.
+	 *
+	 * @return the bitmap of the page, the caller owns it afterwards, or null
+	 *         if no page is streaming in.
+	 */
+	public Bitmap end() {
+		final Bitmap bitmap = mBitmap;
+		BitmapPool.getInstance().release(mStripe);
+		mBitmap = null;
+		mStripe = null;
+		mCanvas = null;
+		mPage = -1;
+		return bitmap;
+	}
+}
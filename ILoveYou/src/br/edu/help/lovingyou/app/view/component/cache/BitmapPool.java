@@ -0,0 +1,261 @@
+package br.edu.help.lovingyou.app.view.component.cache;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Pool of mutable bitmaps bucketed by size and config. The page decoder,
+ * compositor and texture padder borrow their bitmaps here and give them back
+ * once done, so flipping pages doesn't keep feeding the garbage collector
+ * with full screen bitmaps.
+ *
+ * @author hildon.lima
+ */
+public final class BitmapPool {
+
+	/**
+	 * Fraction of the heap the pool may keep.
+	 */
+	private static final int MEMORY_FRACTION = 16;
+
+	/**
+	 * First API level that supports {@link BitmapFactory.Options#inBitmap}.
+	 */
+	private static final int API_INBITMAP = Build.VERSION_CODES.HONEYCOMB;
+
+	/**
+	 * First API level that reuses any bitmap big enough for the decoded one.
+	 */
+	private static final int API_INBITMAP_ANY_SIZE = 19;
+
+	/**
+	 * Retains the shared instance.
+	 */
+	private static BitmapPool sInstance;
+
+	/**
+	 * Free bitmaps by bucket.
+	 */
+	private final HashMap<String, LinkedList<Bitmap>> mBuckets = new HashMap<String, LinkedList<Bitmap>>();
+
+	/**
+	 * Retains the byte budget.
+	 */
+	private final long mMaxBytes;
+
+	/**
+	 * Retains the bytes held by the free bitmaps.
+	 */
+	private long mBytes;
+
+	/**
+	 * Number of requests served from the pool.
+	 */
+	private long mHits;
+
+	/**
+	 * Number of requests that had to allocate.
+	 */
+	private long mMisses;
+
+	/**
+	 * Private constructor.
+	 *
+	 * @param maxBytes
+	 */
+	private BitmapPool(final long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the shared pool, sized from the heap limit.
+	 *
+	 * @return {@link BitmapPool}
+	 */
+	public static synchronized BitmapPool getInstance() {
+		if (sInstance == null) {
+			sInstance = new BitmapPool(Runtime.getRuntime().maxMemory()
+					/ MEMORY_FRACTION);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Builds the bucket key.
+	 */
+	private static String key(final int width, final int height,
+			final Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	/**
+	 * Returns the bytes of the bitmap.
+	 */
+	private static int bytes(final Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Borrows a mutable bitmap. Its content is undefined, so the caller must
+	 * erase it before drawing.
+	 *
+	 * @param width
+	 * @param height
+	 * @param config
+	 * @return {@link Bitmap}
+	 */
+	public Bitmap acquire(final int width, final int height,
+			final Bitmap.Config config) {
+		final Bitmap bitmap = take(key(width, height, config));
+		if (bitmap != null) {
+			return bitmap;
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Removes a free bitmap from the bucket and counts the hit or miss.
+	 */
+	private synchronized Bitmap take(final String key) {
+		final LinkedList<Bitmap> bucket = mBuckets.get(key);
+		if (bucket == null || bucket.isEmpty()) {
+			mMisses++;
+			return null;
+		}
+		final Bitmap bitmap = bucket.removeFirst();
+		mBytes -= bytes(bitmap);
+		mHits++;
+		return bitmap;
+	}
+
+	/**
+	 * Prepares the options to decode into a pooled bitmap, when the API level
+	 * allows it. Expects options filled by a bounds decode and the final
+	 * inSampleSize.
+	 *
+	 * @param options
+	 * @param config
+	 */
+	@TargetApi(API_INBITMAP)
+	public void prepareDecode(final BitmapFactory.Options options,
+			final Bitmap.Config config) {
+		options.inPreferredConfig = config;
+		if (Build.VERSION.SDK_INT < API_INBITMAP) {
+			return;
+		}
+
+		options.inMutable = true;
+		final int sample = Math.max(options.inSampleSize, 1);
+		if (Build.VERSION.SDK_INT >= API_INBITMAP_ANY_SIZE) {
+			options.inBitmap = take(key((options.outWidth + sample - 1)
+					/ sample, (options.outHeight + sample - 1) / sample,
+					config));
+		} else if (sample == 1) {
+			// Older versions only reuse bitmaps of the very same size.
+			options.inBitmap = take(key(options.outWidth, options.outHeight,
+					config));
+		}
+	}
+
+	/**
+	 * Gives back the bitmap the options were prepared with, after the decode
+	 * refused it.
+	 *
+	 * @param options
+	 */
+	@TargetApi(API_INBITMAP)
+	public void releaseDecode(final BitmapFactory.Options options) {
+		if (Build.VERSION.SDK_INT >= API_INBITMAP && options.inBitmap != null) {
+			release(options.inBitmap);
+			options.inBitmap = null;
+		}
+	}
+
+	/**
+	 * Gives the bitmap back to the pool. Bitmaps that can't be reused or
+	 * don't fit the budget are recycled.
+	 *
+	 * @param bitmap
+	 */
+	public void release(final Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		if (!bitmap.isMutable() || !offer(bitmap)) {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Adds the bitmap to its bucket if the budget allows.
+	 */
+	private synchronized boolean offer(final Bitmap bitmap) {
+		final int size = bytes(bitmap);
+		if (mBytes + size > mMaxBytes) {
+			return false;
+		}
+
+		final String key = key(bitmap.getWidth(), bitmap.getHeight(),
+				bitmap.getConfig());
+		LinkedList<Bitmap> bucket = mBuckets.get(key);
+		if (bucket == null) {
+			bucket = new LinkedList<Bitmap>();
+			mBuckets.put(key, bucket);
+		}
+		bucket.addLast(bitmap);
+		mBytes += size;
+		return true;
+	}
+
+	/**
+	 * Recycles every free bitmap.
+	 */
+	public synchronized void clear() {
+		for (final LinkedList<Bitmap> bucket : mBuckets.values()) {
+			for (final Bitmap bitmap : bucket) {
+				bitmap.recycle();
+			}
+		}
+		mBuckets.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns the number of requests served from the pool.
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * Returns the number of requests that had to allocate.
+	 *
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return mMisses;
+	}
+
+	/**
+	 * Returns the bytes held by the free bitmaps.
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return mBytes;
+	}
+
+	/** {@inheritDoc} **/
+	@Override
+	public synchronized String toString() {
+		return "BitmapPool[hits=" + mHits + ", misses=" + mMisses
+				+ ", bytes=" + mBytes + "/" + mMaxBytes + "]";
+	}
+}
@@ -0,0 +1,203 @@
+package br.edu.help.lovingyou.app.view.component.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import br.edu.help.lovingyou.app.view.component.TextureFormat;
+
+/**
+ * In-memory cache of the decoded page photos. Entries are evicted least
+ * recently used first, by their size in bytes, so flipping back and forth
+ * within a chapter doesn't decode the same pages again. A bitmap handed
+ * out is held until the caller gives it back with {@link #release(Bitmap)},
+ * so one evicted meanwhile only goes to the {@link BitmapPool} afterwards.
+ *
+ * @author hildon.lima
+ */
+public final class PageBitmapCache {
+
+	/**
+	 * Fraction of the application memory class given to the cache.
+	 */
+	private static final int MEMORY_FRACTION = 8;
+
+	/**
+	 * Constant that retains the bytes of a megabyte.
+	 */
+	private static final int MEGABYTE = 1024 * 1024;
+
+	/**
+	 * Retains the shared instance.
+	 */
+	private static PageBitmapCache sInstance;
+
+	/**
+	 * Retains the bitmaps by key.
+	 */
+	private final LruCache<String, Bitmap> mCache;
+
+	/**
+	 * Retains how many callers hold each bitmap handed out.
+	 */
+	private final Map<Bitmap, Integer> mHolds = new HashMap<Bitmap, Integer>();
+
+	/**
+	 * Retains the bitmaps evicted while held.
+	 */
+	private final Set<Bitmap> mEvicted = new HashSet<Bitmap>();
+
+	/**
+	 * Private constructor.
+	 *
+	 * @param maxBytes
+	 */
+	private PageBitmapCache(final int maxBytes) {
+		mCache = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(final String key, final Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+
+			@Override
+			protected void entryRemoved(final boolean evicted,
+					final String key, final Bitmap oldValue,
+					final Bitmap newValue) {
+				if (oldValue != newValue) {
+					synchronized (PageBitmapCache.this) {
+						if (mHolds.containsKey(oldValue)) {
+							mEvicted.add(oldValue);
+						} else {
+							BitmapPool.getInstance().release(oldValue);
+						}
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets the shared cache, sized from the device memory class.
+	 *
+	 * @param context
+	 * @return {@link PageBitmapCache}
+	 */
+	public static synchronized PageBitmapCache getInstance(
+			final Context context) {
+		if (sInstance == null) {
+			final ActivityManager activityManager = (ActivityManager) context
+					.getSystemService(Context.ACTIVITY_SERVICE);
+			sInstance = new PageBitmapCache(activityManager.getMemoryClass()
+					* MEGABYTE / MEMORY_FRACTION);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Builds the key of a decoded photo. The {@link TextureFormat} quality
+	 * tier is part of it, as it picks the format photos are decoded to.
+	 *
+	 * @param filename
+	 *            the page image file
+	 * @param width
+	 *            target width
+	 * @param height
+	 *            target height
+	 * @return the key
+	 */
+	public static String key(final String filename, final int width,
+			final int height) {
+		return TextureFormat.getQuality() + ":" + width + "x" + height + ":"
+				+ filename;
+	}
+
+	/**
+	 * Gets the cached bitmap, held until {@link #release(Bitmap)}. Cached
+	 * bitmaps must not be recycled or drawn into by the caller.
+	 *
+	 * @param key
+	 * @return {@link Bitmap} or null.
+	 */
+	public synchronized Bitmap get(final String key) {
+		final Bitmap bitmap = mCache.get(key);
+		if (bitmap != null) {
+			hold(bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Caches the bitmap, held until {@link #release(Bitmap)}. A bitmap larger
+	 * than the whole cache is not cached, it would be evicted at once.
+	 *
+	 * @param key
+	 * @param bitmap
+	 */
+	public synchronized void put(final String key, final Bitmap bitmap) {
+		if (bitmap != null
+				&& bitmap.getRowBytes() * bitmap.getHeight() <= mCache
+						.maxSize()) {
+			hold(bitmap);
+			mCache.put(key, bitmap);
+		}
+	}
+
+	/**
+	 * Gives back a bitmap got or put. It goes to the {@link BitmapPool} once
+	 * no caller holds it and it is no longer cached, or at once if it was
+	 * never cached.
+	 *
+	 * @param bitmap
+	 */
+	public synchronized void release(final Bitmap bitmap) {
+		final Integer holds = mHolds.get(bitmap);
+		if (holds == null) {
+			BitmapPool.getInstance().release(bitmap);
+		} else if (holds > 1) {
+			mHolds.put(bitmap, holds - 1);
+		} else {
+			mHolds.remove(bitmap);
+			if (mEvicted.remove(bitmap)) {
+				BitmapPool.getInstance().release(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Counts one more caller holding the bitmap.
+	 */
+	private void hold(final Bitmap bitmap) {
+		final Integer holds = mHolds.get(bitmap);
+		mHolds.put(bitmap, holds == null ? 1 : holds + 1);
+	}
+
+	/**
+	 * Drops every cached bitmap.
+	 */
+	public synchronized void clear() {
+		mCache.evictAll();
+	}
+
+	/**
+	 * Returns the bytes held by the cache.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return mCache.size();
+	}
+
+	/**
+	 * Returns the byte budget of the cache.
+	 *
+	 * @return
+	 */
+	public int maxSize() {
+		return mCache.maxSize();
+	}
+}
@@ -0,0 +1,586 @@
+package br.edu.help.lovingyou.app.view.component.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+import android.os.Build;
+import android.os.StatFs;
+import android.util.Log;
+import br.edu.help.lovingyou.app.view.component.TextureFormat;
+
+/**
+ * Persistent cache of the final page textures, stored in the application
+ * cache dir. Each file holds the rows of the composed page, at the texture
+ * width but without the power of two padding below them, plus its texture
+ * rect, so a later launch maps the file and copies it into the upload
+ * bitmap without decoding the photo again. Pages uploaded as ETC1 keep
+ * their compressed form too, so they are encoded only once. The cache
+ * grows to hold the whole album, within a share of the free space.
+ *
+ * @author hildon.lima
+ */
+public final class TextureDiskCache {
+
+	/**
+	 * Log tag.
+	 */
+	private static final String TAG = "TextureDiskCache";
+
+	/**
+	 * Name of the cache dir.
+	 */
+	private static final String DIR_NAME = "textures";
+
+	/**
+	 * Identifies the cache files.
+	 */
+	private static final int MAGIC = 0x4C595458;
+
+	/**
+	 * Version of the file layout, part of every key.
+	 */
+	private static final int VERSION = 4;
+
+	/**
+	 * Magic, version, width, height, config, the page width and height and
+	 * the 4 texture rect floats.
+	 */
+	private static final int HEADER_SIZE = 7 * 4 + 4 * 4;
+
+	/**
+	 * Identifies the compressed cache files.
+	 */
+	private static final int MAGIC_ETC1 = 0x4C594543;
+
+	/**
+	 * Magic, version, width and height of the compressed files.
+	 */
+	private static final int ETC1_HEADER_SIZE = 4 * 4;
+
+	/**
+	 * Bytes the cache may take on disk, whatever the album size.
+	 */
+	private static final long MIN_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Share of the free space, the cache included, the cache may take.
+	 */
+	private static final int FREE_SHARE = 4;
+
+	/**
+	 * First API level that reconfigures a bitmap in place.
+	 */
+	private static final int API_RECONFIGURE = 19;
+
+	/**
+	 * Copies pixels as they are, alpha included.
+	 */
+	private static final Paint COPY = new Paint();
+	static {
+		COPY.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	/**
+	 * Retains the shared instance.
+	 */
+	private static TextureDiskCache sInstance;
+
+	/**
+	 * Retains the cache dir.
+	 */
+	private final File mDir;
+
+	/**
+	 * Retains the bytes held on disk, -1 until counted. Kept as files are
+	 * written, and counted again whenever the cache is trimmed.
+	 */
+	private long mBytes = -1;
+
+	/**
+	 * Retains the pages of the album and the largest file written, the
+	 * bytes a page may take.
+	 */
+	private int mAlbumPages;
+	private long mLargest;
+
+	/**
+	 * Keys of the textures last read or stored, so the compressed form of a
+	 * texture the page provider returned can be found.
+	 */
+	private final WeakHashMap<Bitmap, String> mKeys = new WeakHashMap<Bitmap, String>();
+
+	/**
+	 * Private constructor.
+	 *
+	 * @param dir
+	 */
+	private TextureDiskCache(final File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * Gets the shared cache.
+	 *
+	 * @param context
+	 * @return {@link TextureDiskCache}
+	 */
+	public static synchronized TextureDiskCache getInstance(
+			final Context context) {
+		if (sInstance == null) {
+			sInstance = new TextureDiskCache(new File(context.getCacheDir(),
+					DIR_NAME));
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Builds the key of a page texture. The image file modification time and
+	 * length are part of it, so edited photos are composed again, and so is
+	 * the {@link TextureFormat} quality tier.
+	 *
+	 * @param filename
+	 *            the page image file
+	 * @param page
+	 *            the page index
+	 * @param width
+	 *            target width
+	 * @param height
+	 *            target height
+	 * @param orientation
+	 *            the screen orientation
+	 * @return the key
+	 */
+	public static String key(final String filename, final int page,
+			final int width, final int height, final int orientation) {
+		final File file = new File(filename);
+		return VERSION + ":" + TextureFormat.getQuality() + ":" + filename
+				+ ":" + file.lastModified() + ":"
+				+ file.length() + ":" + page + ":" + width + "x" + height
+				+ ":" + orientation;
+	}
+
+	/**
+	 * Returns the cache file of the key.
+	 */
+	private File fileOf(final String key) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+			final StringBuilder name = new StringBuilder(hash.length * 2);
+			for (final byte b : hash) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			return new File(mDir, name.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Loads the cached texture into a pooled bitmap.
+	 *
+	 * @param key
+	 * @param textureRect
+	 *            receives the texture coordinates stored with the pixels
+	 * @return {@link Bitmap} or null if the texture isn't cached.
+	 */
+	public Bitmap get(final String key, final RectF textureRect) {
+		final File file = fileOf(key);
+		if (!file.exists()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				file.delete();
+				return null;
+			}
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			final Bitmap.Config config = Bitmap.Config.values()[buffer
+					.getInt()];
+			final int pageWidth = buffer.getInt();
+			final int pageHeight = buffer.getInt();
+			final float left = buffer.getFloat();
+			final float top = buffer.getFloat();
+			final float right = buffer.getFloat();
+			final float bottom = buffer.getFloat();
+			if (pageWidth <= 0 || pageHeight <= 0 || pageWidth > width
+					|| pageHeight > height) {
+				file.delete();
+				return null;
+			}
+
+			final BitmapPool pool = BitmapPool.getInstance();
+			final Bitmap bitmap = pool.acquire(width, height, config);
+			if (buffer.remaining() < bitmap.getRowBytes() * pageHeight) {
+				pool.release(bitmap);
+				file.delete();
+				return null;
+			}
+
+			// The padding is cleared the way the page was composed.
+			bitmap.eraseColor(TextureFormat.clearColor(config));
+			readRows(buffer, bitmap, pageHeight);
+			textureRect.set(left, top, right, bottom);
+			remember(bitmap, key);
+
+			file.setLastModified(System.currentTimeMillis());
+			return bitmap;
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read " + file, e);
+			return null;
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Corrupted " + file, e);
+			file.delete();
+			return null;
+		} finally {
+			close(raf);
+		}
+	}
+
+	/**
+	 * Copies the rows of the page into the top of the texture. Where the
+	 * API level allows it, the texture is cut down to those rows meanwhile
+	 * and they are copied straight from the mapping of the file.
+	 */
+	private static void readRows(final ByteBuffer buffer,
+			final Bitmap bitmap, final int rows) {
+		if (Build.VERSION.SDK_INT >= API_RECONFIGURE) {
+			readRowsInPlace(buffer, bitmap, rows);
+			return;
+		}
+		final BitmapPool pool = BitmapPool.getInstance();
+		final Bitmap page = pool.acquire(bitmap.getWidth(), rows,
+				bitmap.getConfig());
+		page.copyPixelsFromBuffer(buffer);
+		new Canvas(bitmap).drawBitmap(page, 0, 0, COPY);
+		pool.release(page);
+	}
+
+	/**
+	 * Copies the rows straight into the texture, cut down to them. The rows
+	 * below are left as they were.
+	 */
+	@TargetApi(API_RECONFIGURE)
+	private static void readRowsInPlace(final ByteBuffer buffer,
+			final Bitmap bitmap, final int rows) {
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final Bitmap.Config config = bitmap.getConfig();
+		bitmap.reconfigure(width, rows, config);
+		try {
+			bitmap.copyPixelsFromBuffer(buffer);
+		} finally {
+			bitmap.reconfigure(width, height, config);
+		}
+	}
+
+	/**
+	 * Stores the page of the texture and its texture rect. The rows of the
+	 * page are cut out of the padding below into a pooled bitmap, and
+	 * written through a mapping of the file. The file is forced to disk and
+	 * renamed into place once complete, a crash leaves a temporary file at
+	 * most.
+	 *
+	 * @param key
+	 * @param texture
+	 * @param textureRect
+	 */
+	public void put(final String key, final Bitmap texture,
+			final RectF textureRect) {
+		if (texture == null || textureRect == null
+				|| (!mDir.exists() && !mDir.mkdirs())) {
+			return;
+		}
+
+		remember(texture, key);
+		final File file = fileOf(key);
+		final File temp = new File(mDir, file.getName() + ".tmp");
+		final int pageWidth = Math.max(1, Math.min(texture.getWidth(),
+				(int) Math.ceil(textureRect.right * texture.getWidth())));
+		final int pageHeight = Math.max(1, Math.min(texture.getHeight(),
+				(int) Math.ceil(textureRect.bottom * texture.getHeight())));
+		final BitmapPool pool = BitmapPool.getInstance();
+		final Bitmap page = pool.acquire(texture.getWidth(), pageHeight,
+				texture.getConfig());
+		new Canvas(page).drawBitmap(texture, 0, 0, COPY);
+		final long length = HEADER_SIZE + (long) page.getRowBytes()
+				* pageHeight;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(temp, "rw");
+			raf.setLength(length);
+			final MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(texture.getWidth());
+			buffer.putInt(texture.getHeight());
+			buffer.putInt(texture.getConfig().ordinal());
+			buffer.putInt(pageWidth);
+			buffer.putInt(pageHeight);
+			buffer.putFloat(textureRect.left);
+			buffer.putFloat(textureRect.top);
+			buffer.putFloat(textureRect.right);
+			buffer.putFloat(textureRect.bottom);
+			page.copyPixelsToBuffer(buffer);
+			buffer.force();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to write " + file, e);
+			temp.delete();
+			return;
+		} finally {
+			close(raf);
+			pool.release(page);
+		}
+
+		if (temp.renameTo(file)) {
+			trim(length);
+		} else {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Remembers the key of the texture.
+	 */
+	private synchronized void remember(final Bitmap texture, final String key) {
+		mKeys.put(texture, key);
+	}
+
+	/**
+	 * Returns true if the texture is cached, uncompressed or compressed.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean contains(final String key) {
+		return fileOf(key).exists() || fileOf(key + ":etc1").exists();
+	}
+
+	/**
+	 * Takes the key the texture was last read or stored with. Pooled
+	 * bitmaps are reused for other pages, so the key is only handed out
+	 * once.
+	 *
+	 * @param texture
+	 * @return the key, or null if the texture didn't go through the cache.
+	 */
+	public synchronized String takeKey(final Bitmap texture) {
+		return mKeys.remove(texture);
+	}
+
+	/**
+	 * Loads the compressed texture. The data is the mapping of the file,
+	 * nothing is copied before the upload.
+	 *
+	 * @param key
+	 *            the key of the uncompressed texture
+	 * @return {@link ETC1Util.ETC1Texture} or null if it isn't cached.
+	 */
+	public ETC1Util.ETC1Texture getCompressed(final String key) {
+		final File file = fileOf(key + ":etc1");
+		if (!file.exists()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			if (buffer.getInt() != MAGIC_ETC1 || buffer.getInt() != VERSION) {
+				file.delete();
+				return null;
+			}
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			final ByteBuffer data = buffer.slice();
+			if (data.capacity() != ETC1.getEncodedDataSize(width, height)) {
+				file.delete();
+				return null;
+			}
+
+			file.setLastModified(System.currentTimeMillis());
+			return new ETC1Util.ETC1Texture(width, height, data);
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read " + file, e);
+			return null;
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Corrupted " + file, e);
+			file.delete();
+			return null;
+		} finally {
+			close(raf);
+		}
+	}
+
+	/**
+	 * Stores the compressed form of a texture, forced to disk and renamed
+	 * into place as {@link #put} does.
+	 *
+	 * @param key
+	 *            the key of the uncompressed texture
+	 * @param texture
+	 */
+	public void putCompressed(final String key,
+			final ETC1Util.ETC1Texture texture) {
+		if (texture == null || (!mDir.exists() && !mDir.mkdirs())) {
+			return;
+		}
+
+		final File file = fileOf(key + ":etc1");
+		final File temp = new File(mDir, file.getName() + ".tmp");
+		final ByteBuffer data = texture.getData().duplicate();
+		data.position(0);
+		final long length = ETC1_HEADER_SIZE + data.remaining();
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(temp, "rw");
+			raf.setLength(length);
+			final MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(MAGIC_ETC1);
+			buffer.putInt(VERSION);
+			buffer.putInt(texture.getWidth());
+			buffer.putInt(texture.getHeight());
+			buffer.put(data);
+			buffer.force();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to write " + file, e);
+			temp.delete();
+			return;
+		} finally {
+			close(raf);
+		}
+
+		if (temp.renameTo(file)) {
+			trim(length);
+		} else {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Sets the pages of the album, so the cache may grow to hold them all.
+	 *
+	 * @param pages
+	 */
+	public synchronized void setAlbumSize(final int pages) {
+		mAlbumPages = pages;
+	}
+
+	/**
+	 * Returns the bytes the cache may take: the whole album, at the size of
+	 * the largest page, but never more than a share of the free space.
+	 */
+	private long getMaxBytes() {
+		final long album = Math.max(MIN_BYTES, mAlbumPages * mLargest);
+		try {
+			final StatFs stat = new StatFs(mDir.getPath());
+			final long free = (long) stat.getAvailableBlocks()
+					* stat.getBlockSize();
+			return Math.min(album, (free + mBytes) / FREE_SHARE);
+		} catch (IllegalArgumentException e) {
+			return MIN_BYTES;
+		}
+	}
+
+	/**
+	 * Adds the file just written to the bytes held, and deletes the least
+	 * recently used files while over the budget. The dir is only listed
+	 * the first time and when over the budget.
+	 *
+	 * @param added
+	 *            bytes just written
+	 */
+	private synchronized void trim(final long added) {
+		mLargest = Math.max(mLargest, added);
+		if (mBytes >= 0) {
+			mBytes += added;
+			if (mBytes <= getMaxBytes()) {
+				return;
+			}
+		}
+
+		final File[] files = mDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		// Counted again, files replaced or deleted meanwhile are not.
+		mBytes = 0;
+		for (final File file : files) {
+			mBytes += file.length();
+			mLargest = Math.max(mLargest, file.length());
+		}
+		final long maxBytes = getMaxBytes();
+		if (mBytes <= maxBytes) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(final File lhs, final File rhs) {
+				final long diff = lhs.lastModified() - rhs.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (int i = 0; i < files.length && mBytes > maxBytes; i++) {
+			final long length = files[i].length();
+			if (files[i].delete()) {
+				mBytes -= length;
+			}
+		}
+	}
+
+	/**
+	 * Closes the file quietly.
+	 */
+	private static void close(final RandomAccessFile raf) {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+		}
+	}
+}
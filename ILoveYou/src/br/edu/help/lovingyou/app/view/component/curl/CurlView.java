@@ -16,12 +16,14 @@
 
 package br.edu.help.lovingyou.app.view.component.curl;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.PixelFormat;
 import android.graphics.PointF;
 import android.graphics.RectF;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
@@ -29,6 +31,10 @@ import android.view.View;
 import br.edu.help.lovingyou.app.view.component.CurlMesh;
 import br.edu.help.lovingyou.app.view.component.CurlPage;
 import br.edu.help.lovingyou.app.view.component.CurlRenderer;
+import br.edu.help.lovingyou.app.view.component.CurlShader;
+import br.edu.help.lovingyou.app.view.component.FrameScheduler;
+import br.edu.help.lovingyou.app.view.component.TextureBudget;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
 import br.edu.help.lovingyou.util.Utils;
 
 /**
@@ -46,6 +52,11 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private static final int CURL_NONE = 0;
 	private static final int CURL_RIGHT = 2;
 
+	/**
+	 * First version able to keep the context while paused.
+	 */
+	private static final int API_PRESERVE_CONTEXT = Build.VERSION_CODES.HONEYCOMB;
+
 	/**
 	 * Constants for mAnimationTargetEvent.
 	 */
@@ -176,9 +187,9 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private transient int mViewMode = SHOW_ONE_PAGE;
 
 	/**
-	 * Retains this state.
+	 * Retains this state, read by the renderer to hold texture loads back.
 	 */
-	private boolean touching;
+	private volatile boolean touching;
 
 	/**
 	 * Unused
@@ -186,20 +197,16 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	private boolean waitNeeds;
 
 	/**
-	 * Retains an instance of {@link Thread}
+	 * Retains an instance of {@link FrameScheduler}, all render requests go
+	 * through it.
 	 */
-	private Thread thread;
+	private FrameScheduler mScheduler;
 
 	/**
 	 * Retains an instance of {@link Handler}
 	 */
 	private Handler handler;
 
-	/**
-	 * Constant that retains the value 1000.
-	 */
-	private static final int MILLISECONDS = 1000;
-
 	/**
 	 * Constant that represents the value 50.
 	 */
@@ -257,14 +264,33 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 * Initialize method.
 	 */
 	private void init() {
+		mScheduler = new FrameScheduler(new Runnable() {
+			@Override
+			public void run() {
+				CurlView.super.requestRender();
+			}
+		});
+
 		setEGLConfigChooser(8, 8, 8, 8, 16, 0);
 
 		setZOrderOnTop(true);
 
+		// Pages are curled in a vertex shader where OpenGL ES 2.0 is there.
+		final boolean useShaders = CurlShader.isSupported(getContext());
+		if (useShaders) {
+			setEGLContextClientVersion(2);
+		}
+
 		mRenderer = new CurlRenderer(this,
 				Utils.isLargeScreen(getContext()
-						.getApplicationContext()));
+						.getApplicationContext()), useShaders);
+		mRenderer.setTextureCache(TextureDiskCache.getInstance(getContext()));
+		mRenderer.setTextureBudget(TextureBudget.getDeviceBudget(getContext()));
+		setEGLContextFactory(mRenderer.getContextFactory());
 		setRenderer(mRenderer);
+		if (Build.VERSION.SDK_INT >= API_PRESERVE_CONTEXT) {
+			preserveContext();
+		}
 
 		setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 		getHolder().setFormat(PixelFormat.TRANSLUCENT);
@@ -283,30 +309,6 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mPageRight.setFlipTexture(false);
 		handler = new Handler();
 
-		thread = new Thread() {
-			@Override
-			public void run() {
-
-				try {
-
-					while (true) {
-						Thread.sleep(MILLISECONDS);
-						handler.post(new Runnable() {
-
-							@Override
-							public void run() {
-								requestRender();
-								touching = false;
-							}
-						});
-
-					}
-
-				} catch (final InterruptedException e) {
-				}
-			}
-		};
-		thread.start();
 	}
 
 	@Override
@@ -432,8 +434,6 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	}
 
 	
-	private long lastTimeTick = System.currentTimeMillis();
-	
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -441,19 +441,8 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	 */
 	@Override
 	public void onLoadingTick() {
-		this.postDelayed(new Runnable() {
-			
-			@Override
-			public void run() {
-				
-				if (System.currentTimeMillis() - lastTimeTick > 10)
-				{
-					lastTimeTick = System.currentTimeMillis();
-					requestRender();
-				}
-				
-			}
-		}, 20);
+		// Loads resume on the next frame, along with any other request.
+		requestRender();
 	}
 
 	@Override
@@ -462,6 +451,12 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 				mPageBitmapHeight);
 	}
 
+	@Override
+	public Bitmap createThumbnailTexture(final int page) {
+		return mPageProvider.createThumbnail(page, mPageBitmapWidth,
+				mPageBitmapHeight);
+	}
+
 	@Override
 	public RectF getRectF(final int i) {
 		return mPageProvider.getRectF(i);
@@ -477,14 +472,50 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		mPageProvider.registerTextureID(index, mTextureIds);
 	}
 
+	/**
+	 * Shows the pages that got their textures after being added by the page
+	 * provider, unless the user is curling a page.
+	 */
+	@Override
+	public void onTexturesAdded() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (!mAnimate && mCurlState == CURL_NONE) {
+					setCurrentIndex(mCurrentIndex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Schedules a frame for the next vsync, requests made before it share
+	 * the frame.
+	 */
+	@Override
+	public void requestRender() {
+		mScheduler.requestFrame();
+	}
+
 	/**
 	 * Is called when application is Resumed
 	 */
 	@Override
 	public void onResume() {
 		super.onResume();
-		mRenderer.setReloadTextures();
+		// Textures are reloaded only if the context was lost meanwhile.
+		mRenderer.onResume();
+		requestRender();
+
+	}
 
+	/**
+	 * Keeps the context, with the page textures, while paused where the
+	 * device allows it.
+	 */
+	@TargetApi(API_PRESERVE_CONTEXT)
+	private void preserveContext() {
+		setPreserveEGLContextOnPause(true);
 	}
 
 	/**
@@ -493,14 +524,13 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 	@Override
 	public void onPause() {
 		super.onPause();
-		for (int i = 0; i <= 10; i++) {
-			thread.interrupt();
-		}
+		mScheduler.cancel();
 	}
 	
 	@Override
 	public boolean onTouch(View view, MotionEvent mEvt) {
-		touching = mEvt.getAction() != MotionEvent.ACTION_UP;
+		touching = mEvt.getAction() != MotionEvent.ACTION_UP
+				&& mEvt.getAction() != MotionEvent.ACTION_CANCEL;
 		// No dragging during animation at the moment.
 		// TODO: Stop animation on touch event and return to drag mode.
 
@@ -596,6 +626,8 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 			if (mCurlState == CURL_NONE) {
 				return false;
 			}
+			// Lets the renderer load pages on the side being curled.
+			mRenderer.setFlipHint(mCurlState == CURL_RIGHT ? 1 : -1, 0f);
 		}
 		case MotionEvent.ACTION_MOVE: {
 			updateCurlPos(mPointerPos);
@@ -636,6 +668,7 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 					}
 					animTargetEvt = SET_CURL_TO_LEFT;
 				}
+				reportFlip(mEvt);
 				mAnimate = true;
 				requestRender();
 			}
@@ -646,6 +679,25 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 		return true;
 	}
 
+	/**
+	 * Reports a completed flip to the renderer, at the pace of the drag
+	 * that made it.
+	 */
+	private void reportFlip(final MotionEvent event) {
+		final int direction;
+		if (mCurlState == CURL_RIGHT && animTargetEvt == SET_CURL_TO_LEFT) {
+			direction = 1;
+		} else if (mCurlState == CURL_LEFT
+				&& animTargetEvt == SET_CURL_TO_RIGHT) {
+			direction = -1;
+		} else {
+			return;
+		}
+		final long millis = Math.max(event.getEventTime()
+				- event.getDownTime(), 1L);
+		mRenderer.setFlipHint(direction, 1000f / millis);
+	}
+
 	/**
 	 * Allow the last page to curl.
 	 */
@@ -1104,6 +1156,13 @@ public class CurlView extends GLSurfaceView implements View.OnTouchListener,
 
 		Bitmap createPage(int page, int width, int height);
 
+		/**
+		 * Called for a small version of the page, shown until the page from
+		 * createPage is ready. It must map to the same texture coordinates,
+		 * at any size. Returns null if the page needs none.
+		 */
+		Bitmap createThumbnail(int page, int width, int height);
+
 		void showLastPageOverlay();
 
 		boolean isNumberPagesOdd();
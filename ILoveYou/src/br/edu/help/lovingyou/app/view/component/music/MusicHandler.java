@@ -4,19 +4,25 @@
 package br.edu.help.lovingyou.app.view.component.music;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.util.Log;
 
 /**
  * @author hildoneduardo
  * 
  */
 public class MusicHandler {
-	private MediaPlayer mediaPlayer;
+	private static final String TAG = "MusicHandler";
+
+	private volatile MediaPlayer mediaPlayer;
 	private final Context context;
 	private int iVolume;
 
@@ -27,21 +33,115 @@ public class MusicHandler {
 	
 	private boolean inEffect = false;
 
+	/** Set once the player is prepared, it is prepared in the background. */
+	private boolean prepared = false;
+
+	/** Play asked for before the player was prepared, and its fade. */
+	private boolean playPending = false;
+	private int pendingFade;
+
 	public MusicHandler(final Context context) {
 		this.context = context;
 	}
 
 	public void load(final String path, final boolean looping) {
-		mediaPlayer = MediaPlayer.create(context, Uri.fromFile(new File(path)));
-		mediaPlayer.setLooping(looping);
+		mediaPlayer = new MediaPlayer();
+		try {
+			mediaPlayer.setDataSource(context, Uri.fromFile(new File(path)));
+		} catch (IOException e) {
+			fail(path, e);
+			return;
+		} catch (IllegalArgumentException e) {
+			fail(path, e);
+			return;
+		}
+		prepare(looping);
 	}
 	
 	public void load(final int rawId, final boolean looping) {
-		mediaPlayer = MediaPlayer.create(context, rawId);
+		mediaPlayer = new MediaPlayer();
+		AssetFileDescriptor afd = null;
+		try {
+			afd = context.getResources().openRawResourceFd(rawId);
+		} catch (Resources.NotFoundException e) {
+			// Compressed in the package, it has no descriptor of its own.
+		}
+		try {
+			if (afd != null) {
+				mediaPlayer.setDataSource(afd.getFileDescriptor(),
+						afd.getStartOffset(), afd.getLength());
+			} else {
+				// Read through its uri instead.
+				mediaPlayer.setDataSource(context, Uri.parse("android.resource://"
+						+ context.getPackageName() + "/" + rawId));
+			}
+		} catch (IOException e) {
+			fail(String.valueOf(rawId), e);
+			return;
+		} catch (IllegalArgumentException e) {
+			fail(String.valueOf(rawId), e);
+			return;
+		} finally {
+			close(afd);
+		}
+		prepare(looping);
+	}
+
+	/**
+	 * Prepares the player in the background, so the activity doesn't wait
+	 * for the decoder to start. A play asked for meanwhile starts once it
+	 * is prepared.
+	 */
+	private void prepare(final boolean looping) {
+		prepared = false;
 		mediaPlayer.setLooping(looping);
+		mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+			@Override
+			public void onPrepared(final MediaPlayer player) {
+				prepared = true;
+				if (playPending) {
+					playPending = false;
+					play(pendingFade);
+				}
+			}
+		});
+		mediaPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+			@Override
+			public boolean onError(final MediaPlayer player, final int what,
+					final int extra) {
+				Log.w(TAG, "Playback error " + what + ", " + extra);
+				prepared = false;
+				playPending = false;
+				return true;
+			}
+		});
+		mediaPlayer.prepareAsync();
+	}
+
+	private void fail(final String source, final Exception e) {
+		Log.w(TAG, "Unable to load " + source, e);
+		mediaPlayer.release();
+		mediaPlayer = null;
+	}
+
+	private static void close(final AssetFileDescriptor afd) {
+		if (afd == null) {
+			return;
+		}
+		try {
+			afd.close();
+		} catch (IOException e) {
+			// Nothing left to do.
+		}
 	}
 
 	public boolean play(final int fadeDuration) {
+		if (!prepared) {
+			playPending = mediaPlayer != null;
+			pendingFade = fadeDuration;
+			return playPending;
+		}
+
 		// Set current volume, depending on fade or not
 		if (fadeDuration > 0)
 			iVolume = INT_VOLUME_MIN;
@@ -84,6 +184,11 @@ public class MusicHandler {
 	}
 
 	public boolean pause(final int fadeDuration) {
+		if (!prepared) {
+			playPending = false;
+			return mediaPlayer != null;
+		}
+
 		// Set current volume, depending on fade or not
 		if (fadeDuration > 0)
 			iVolume = INT_VOLUME_MAX;
@@ -104,8 +209,9 @@ public class MusicHandler {
 						if (iVolume == INT_VOLUME_MIN) {
 							inEffect = false;
 							// Pause music
-							if (mediaPlayer.isPlaying())
-								mediaPlayer.pause();
+							final MediaPlayer player = mediaPlayer;
+							if (player != null && player.isPlaying())
+								player.pause();
 							timer.cancel();
 							timer.purge();
 						}
@@ -144,14 +250,22 @@ public class MusicHandler {
 		else if (fVolume > FLOAT_VOLUME_MAX)
 			fVolume = FLOAT_VOLUME_MAX;
 
-		mediaPlayer.setVolume(fVolume, fVolume);
+		// Released while fading.
+		final MediaPlayer player = mediaPlayer;
+		if (player != null)
+			player.setVolume(fVolume, fVolume);
 	}
 	
 	/**
 	 * 
 	 */
 	public void release() {
-		mediaPlayer.release();
+		prepared = false;
+		playPending = false;
+		if (mediaPlayer != null) {
+			mediaPlayer.release();
+			mediaPlayer = null;
+		}
 	}
 	
 	private static MusicHandler instance;
@@ -0,0 +1,332 @@
+package br.edu.help.lovingyou.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Persisted index of an album. Keeps, per directory, its modification time
+ * and its entries in scan order, and per image file its size, modification
+ * time, pixel dimensions and position in the album. A directory whose
+ * modification time didn't change is taken from the index without listing
+ * it again.
+ *
+ * @author hildon.lima
+ */
+public class AlbumIndex {
+
+	/**
+	 * First line of the persisted index.
+	 */
+	private static final String HEADER = "AlbumIndex\t1";
+
+	/**
+	 * Tag of the directory records.
+	 */
+	private static final String DIRECTORY = "D";
+
+	/**
+	 * Tag of the file records.
+	 */
+	private static final String FILE = "F";
+
+	/**
+	 * Separates the fields of a record, the path is always the last one.
+	 */
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * Indexed image file.
+	 */
+	public static class Record {
+
+		/** The absolute path. */
+		public final String path;
+
+		/** The file length. */
+		public final long size;
+
+		/** The file modification time. */
+		public final long modified;
+
+		/** The image width, 0 while unknown, -1 if unreadable. */
+		public int width;
+
+		/** The image height, 0 while unknown, -1 if unreadable. */
+		public int height;
+
+		/** The position in the album. */
+		public int order;
+
+		/**
+		 * Constructor of the class
+		 *
+		 * @param path
+		 * @param size
+		 * @param modified
+		 */
+		public Record(final String path, final long size, final long modified) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+
+	/**
+	 * Indexed directory.
+	 */
+	private static class Directory {
+		private final long mModified;
+		private final List<String> mChildren;
+
+		Directory(final long modified, final List<String> children) {
+			mModified = modified;
+			mChildren = children;
+		}
+	}
+
+	/**
+	 * Directory being written or read, and its children left.
+	 */
+	private static class Frame {
+		private final String mPath;
+		private final Directory mDirectory;
+		private int mNext;
+
+		Frame(final String path, final Directory directory) {
+			mPath = path;
+			mDirectory = directory;
+		}
+	}
+
+	/**
+	 * Retains the directories by path.
+	 */
+	private final Map<String, Directory> directories = new HashMap<String, Directory>();
+
+	/**
+	 * Retains the image files by path.
+	 */
+	private final Map<String, Record> records = new HashMap<String, Record>();
+
+	/**
+	 * Returns the entries of the directory, or null if it isn't indexed or
+	 * was modified since.
+	 *
+	 * @param path
+	 * @param modified
+	 *            the current modification time of the directory
+	 * @return the paths of the image files and subdirectories, in scan order.
+	 */
+	public List<String> getChildren(final String path, final long modified) {
+		final Directory directory = directories.get(path);
+		if (directory == null || directory.mModified != modified) {
+			return null;
+		}
+		return directory.mChildren;
+	}
+
+	/**
+	 * Indexes the directory.
+	 *
+	 * @param path
+	 * @param modified
+	 * @param children
+	 *            the paths of the image files and subdirectories, in scan
+	 *            order.
+	 */
+	public void putDirectory(final String path, final long modified,
+			final List<String> children) {
+		directories.put(path, new Directory(modified, children));
+	}
+
+	/**
+	 * Returns the record of the image file.
+	 *
+	 * @param path
+	 * @return {@link Record} or null.
+	 */
+	public Record getRecord(final String path) {
+		return records.get(path);
+	}
+
+	/**
+	 * Indexes the image file.
+	 *
+	 * @param record
+	 */
+	public void putRecord(final Record record) {
+		records.put(record.path, record);
+	}
+
+	/**
+	 * Returns the number of image files indexed.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Reads the pixel dimensions of the files that don't have them yet.
+	 * Only the image headers are decoded.
+	 *
+	 * @param scanner
+	 *            stops early once it is cancelled, may be null.
+	 */
+	public void fillDimensions(final AlbumScanner scanner) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		for (final Record record : records.values()) {
+			if (scanner != null && scanner.isCancelled()) {
+				return;
+			}
+			if (record.width != 0) {
+				continue;
+			}
+			options.outWidth = -1;
+			options.outHeight = -1;
+			BitmapFactory.decodeFile(record.path, options);
+			record.width = options.outWidth;
+			record.height = options.outHeight;
+		}
+	}
+
+	/**
+	 * Loads the index, an empty one is returned if there is none or it is
+	 * unreadable.
+	 *
+	 * @param file
+	 * @return {@link AlbumIndex}
+	 */
+	public static AlbumIndex load(final File file) {
+		final AlbumIndex index = new AlbumIndex();
+		if (file == null || !file.exists()) {
+			return index;
+		}
+
+		final List<String> lines;
+		try {
+			lines = Utils.loadArray(file.getPath());
+		} catch (RuntimeException e) {
+			// A truncated or corrupted file, the album is scanned again.
+			return index;
+		}
+		if (lines == null || lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+			return index;
+		}
+
+		try {
+			final LinkedList<Frame> stack = new LinkedList<Frame>();
+			for (int i = 1; i < lines.size(); i++) {
+				final String line = lines.get(i);
+				final String path;
+				Frame frame = null;
+
+				if (line.startsWith(DIRECTORY + SEPARATOR)) {
+					final String[] fields = line.split(SEPARATOR, 4);
+					path = fields[3];
+					final int count = Integer.parseInt(fields[2]);
+					final Directory directory = new Directory(
+							Long.parseLong(fields[1]), new ArrayList<String>(
+									count));
+					index.directories.put(path, directory);
+					frame = new Frame(path, directory);
+					frame.mNext = count;
+				} else if (line.startsWith(FILE + SEPARATOR)) {
+					final String[] fields = line.split(SEPARATOR, 7);
+					path = fields[6];
+					final Record record = new Record(path,
+							Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+					record.width = Integer.parseInt(fields[3]);
+					record.height = Integer.parseInt(fields[4]);
+					record.order = Integer.parseInt(fields[5]);
+					index.records.put(path, record);
+				} else {
+					return new AlbumIndex();
+				}
+
+				// Attaches the entry to the directory still expecting
+				// children.
+				while (!stack.isEmpty() && stack.getLast().mNext == 0) {
+					stack.removeLast();
+				}
+				if (!stack.isEmpty()) {
+					final Frame parent = stack.getLast();
+					parent.mDirectory.mChildren.add(path);
+					parent.mNext--;
+				}
+
+				if (frame != null && frame.mNext > 0) {
+					stack.addLast(frame);
+				}
+			}
+		} catch (RuntimeException e) {
+			return new AlbumIndex();
+		}
+		return index;
+	}
+
+	/**
+	 * Saves the index, directories and files are written depth first from
+	 * the root.
+	 *
+	 * @param file
+	 * @param root
+	 *            the album root
+	 */
+	public void save(final File file, final File root) {
+		final List<String> lines = new ArrayList<String>(1
+				+ directories.size() + records.size());
+		lines.add(HEADER);
+
+		final LinkedList<Frame> stack = new LinkedList<Frame>();
+		final String rootPath = root.getAbsolutePath();
+		if (directories.containsKey(rootPath)) {
+			lines.add(directoryLine(rootPath));
+			stack.addLast(new Frame(rootPath, directories.get(rootPath)));
+		}
+
+		while (!stack.isEmpty()) {
+			final Frame frame = stack.getLast();
+			if (frame.mNext >= frame.mDirectory.mChildren.size()) {
+				stack.removeLast();
+				continue;
+			}
+
+			final String child = frame.mDirectory.mChildren.get(frame.mNext++);
+			final Directory directory = directories.get(child);
+			if (directory != null) {
+				lines.add(directoryLine(child));
+				stack.addLast(new Frame(child, directory));
+			} else {
+				final Record record = records.get(child);
+				lines.add(FILE + SEPARATOR + record.size + SEPARATOR
+						+ record.modified + SEPARATOR + record.width
+						+ SEPARATOR + record.height + SEPARATOR
+						+ record.order + SEPARATOR + record.path);
+			}
+		}
+
+		final File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+		Utils.saveArray(file.getPath(), lines);
+	}
+
+	/**
+	 * Builds the record line of the directory.
+	 */
+	private String directoryLine(final String path) {
+		final Directory directory = directories.get(path);
+		return DIRECTORY + SEPARATOR + directory.mModified + SEPARATOR
+				+ directory.mChildren.size() + SEPARATOR + path;
+	}
+}
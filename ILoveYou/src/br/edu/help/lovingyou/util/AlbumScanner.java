@@ -0,0 +1,396 @@
+package br.edu.help.lovingyou.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Iterative album scanner. Walks the directory tree without recursion,
+ * matches the file extensions against a precomputed set, and can stream the
+ * files found to a listener from a background thread. When an index file is
+ * given, directories that weren't modified since the last scan are taken
+ * from the {@link AlbumIndex} instead of being listed again.
+ *
+ * @author hildon.lima
+ */
+public class AlbumScanner {
+
+	/**
+	 * Maximum number of files delivered in one batch.
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * Maximum time a found file waits before being delivered.
+	 */
+	private static final long BATCH_MILLISECONDS = 100;
+
+	/**
+	 * Receives the files found, on the main thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called with the next files found, in scan order.
+		 */
+		void onFilesFound(List<String> files);
+
+		/**
+		 * Called once the whole tree was walked.
+		 */
+		void onScanComplete(int count);
+	}
+
+	/**
+	 * Directory being visited, the next entry to visit and the entries
+	 * indexed so far.
+	 */
+	private static class Frame {
+		private final List<String> mEntries;
+		private final List<String> mIndexed;
+		private final boolean mUnchanged;
+		private int mNext;
+
+		Frame(final List<String> entries, final boolean unchanged) {
+			mEntries = entries;
+			mUnchanged = unchanged;
+			mIndexed = new ArrayList<String>(entries.size());
+		}
+	}
+
+	/**
+	 * Retains the root of the album.
+	 */
+	private final File root;
+
+	/**
+	 * Retains the lower case extensions accepted.
+	 */
+	private final Set<String> extensions;
+
+	/**
+	 * Retains where the index is persisted, null to always list.
+	 */
+	private final File indexFile;
+
+	/**
+	 * Retains the index of the last complete scan.
+	 */
+	private volatile AlbumIndex index;
+
+	/**
+	 * Retains the scan thread.
+	 */
+	private Thread thread;
+
+	/**
+	 * Set once the scan is cancelled.
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor of the class
+	 *
+	 * @param root
+	 *            the album root
+	 * @param types
+	 *            the accepted file extensions, without the dot
+	 */
+	public AlbumScanner(final File root, final String[] types) {
+		this(root, types, null);
+	}
+
+	/**
+	 * Constructor of the class
+	 *
+	 * @param root
+	 *            the album root
+	 * @param types
+	 *            the accepted file extensions, without the dot
+	 * @param indexFile
+	 *            where the album index is persisted, null for none
+	 */
+	public AlbumScanner(final File root, final String[] types,
+			final File indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+		this.extensions = new HashSet<String>();
+		for (final String type : types) {
+			extensions.add(type.toLowerCase(Locale.US));
+		}
+	}
+
+	/**
+	 * Returns true if the file name has one of the accepted extensions.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean accept(final String name) {
+		final int dot = name.lastIndexOf('.');
+		return dot >= 0
+				&& extensions.contains(name.substring(dot + 1).toLowerCase(
+						Locale.US));
+	}
+
+	/**
+	 * Walks the tree on the calling thread.
+	 *
+	 * @return the files found, in scan order.
+	 */
+	public List<String> scan() {
+		final List<String> files = new ArrayList<String>();
+		walk(new Listener() {
+			@Override
+			public void onFilesFound(final List<String> found) {
+				files.addAll(found);
+			}
+
+			@Override
+			public void onScanComplete(final int count) {
+			}
+		}, null);
+		return files;
+	}
+
+	/**
+	 * Walks the tree on a background thread, delivering the files in batches
+	 * to the listener on the main thread. The first file is delivered as
+	 * soon as it is found.
+	 *
+	 * @param listener
+	 */
+	public synchronized void start(final Listener listener) {
+		if (thread != null) {
+			return;
+		}
+
+		final Handler handler = new Handler(Looper.getMainLooper());
+		thread = new Thread("AlbumScanner") {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				walk(listener, handler);
+			}
+		};
+		thread.start();
+	}
+
+	/**
+	 * Stops the scan, no more files are delivered.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns true once the scan is cancelled.
+	 *
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the index of the album, with the pixel dimensions of its
+	 * images.
+	 *
+	 * @return {@link AlbumIndex} or null until a scan completes.
+	 */
+	public AlbumIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Walks the tree depth first, in the order the directories list their
+	 * entries. The previous index is read once the first file is out, so
+	 * the first page doesn't wait for it; the directories opened until then
+	 * are listed. Once the walk completes the new index is saved, with the
+	 * pixel dimensions of the files added since the last scan.
+	 *
+	 * @param listener
+	 * @param handler
+	 *            where to deliver the batches, null to deliver them on the
+	 *            calling thread.
+	 */
+	private void walk(final Listener listener, final Handler handler) {
+		AlbumIndex previous = new AlbumIndex();
+		final AlbumIndex current = new AlbumIndex();
+		final LinkedList<Frame> stack = new LinkedList<Frame>();
+		List<String> batch = new ArrayList<String>();
+		long lastDelivery = 0;
+		int count = 0;
+
+		final Frame rootFrame = open(root, previous, current);
+		if (rootFrame != null) {
+			stack.addLast(rootFrame);
+		}
+
+		while (!stack.isEmpty() && !cancelled) {
+			final Frame frame = stack.getLast();
+			if (frame.mNext >= frame.mEntries.size()) {
+				stack.removeLast();
+				continue;
+			}
+
+			final String path = frame.mEntries.get(frame.mNext++);
+			final File entry = new File(path);
+			if (accept(entry.getName())) {
+				// Files of unchanged directories are not looked at again.
+				AlbumIndex.Record record = frame.mUnchanged ? previous
+						.getRecord(path) : null;
+				if (record == null) {
+					record = index(entry, previous);
+				}
+				record.order = count;
+				current.putRecord(record);
+				frame.mIndexed.add(path);
+				batch.add(path);
+				count++;
+
+				final long now = System.currentTimeMillis();
+				if (handler != null
+						&& (count == 1 || batch.size() >= BATCH_SIZE || now
+								- lastDelivery >= BATCH_MILLISECONDS)) {
+					deliver(listener, handler, batch);
+					batch = new ArrayList<String>();
+					lastDelivery = now;
+				}
+				if (count == 1) {
+					previous = AlbumIndex.load(indexFile);
+				}
+			} else {
+				final Frame child = open(entry, previous, current);
+				if (child != null) {
+					frame.mIndexed.add(path);
+					stack.addLast(child);
+				}
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			deliver(listener, handler, batch);
+		}
+		if (cancelled) {
+			return;
+		}
+		complete(listener, handler, count);
+
+		current.fillDimensions(this);
+		if (!cancelled) {
+			index = current;
+			if (indexFile != null) {
+				current.save(indexFile, root);
+			}
+		}
+	}
+
+	/**
+	 * Opens the directory. Its entries come from the previous index when it
+	 * wasn't modified, otherwise it is listed.
+	 *
+	 * @param dir
+	 * @param previous
+	 *            the index of the last scan
+	 * @param current
+	 *            the index being built
+	 * @return {@link Frame} or null if it is not a directory.
+	 */
+	private Frame open(final File dir, final AlbumIndex previous,
+			final AlbumIndex current) {
+		final String path = dir.getAbsolutePath();
+		final long modified = dir.lastModified();
+
+		List<String> entries = previous.getChildren(path, modified);
+		final boolean unchanged = entries != null;
+		if (!unchanged) {
+			final String[] names = dir.list();
+			if (names == null) {
+				return null;
+			}
+
+			entries = new ArrayList<String>(names.length);
+			for (final String name : names) {
+				final File entry = new File(dir, name);
+				if (accept(name) || entry.isDirectory()) {
+					entries.add(entry.getAbsolutePath());
+				}
+			}
+		}
+
+		final Frame frame = new Frame(entries, unchanged);
+		current.putDirectory(path, modified, frame.mIndexed);
+		return frame;
+	}
+
+	/**
+	 * Builds the record of the image file, keeping the pixel dimensions of
+	 * the previous index while the file is unchanged.
+	 *
+	 * @param file
+	 * @param previous
+	 * @return {@link AlbumIndex.Record}
+	 */
+	private AlbumIndex.Record index(final File file, final AlbumIndex previous) {
+		final AlbumIndex.Record old = previous.getRecord(file
+				.getAbsolutePath());
+		final long size = file.length();
+		final long modified = file.lastModified();
+		final AlbumIndex.Record record = new AlbumIndex.Record(
+				file.getAbsolutePath(), size, modified);
+		if (old != null && old.size == size && old.modified == modified) {
+			record.width = old.width;
+			record.height = old.height;
+		}
+		return record;
+	}
+
+	/**
+	 * Delivers the batch to the listener.
+	 */
+	private void deliver(final Listener listener, final Handler handler,
+			final List<String> batch) {
+		if (handler == null) {
+			listener.onFilesFound(batch);
+			return;
+		}
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!cancelled) {
+					listener.onFilesFound(batch);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Tells the listener the scan is over.
+	 */
+	private void complete(final Listener listener, final Handler handler,
+			final int count) {
+		if (handler == null) {
+			listener.onScanComplete(count);
+			return;
+		}
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!cancelled) {
+					listener.onScanComplete(count);
+				}
+			}
+		});
+	}
+}
@@ -3,7 +3,6 @@ package br.edu.help.lovingyou.util;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,37 +25,32 @@ public class FileUtils {
 	private static String SD_CARD_ROOT;
 
 	/**
-	 * Find files.
+	 * Creates the scanner of the album, indexed in the application files
+	 * dir.
 	 *
 	 * @param context the context
-	 * @return the list
+	 * @param initPath the album path, relative to the sd card root
+	 * @return the scanner
 	 */
-	public static List<String> findFiles(final Context context, final String initPath) {
+	public static AlbumScanner createScanner(final Context context, final String initPath) {
 		final File mFile = Environment.getExternalStorageDirectory();
 //		SD_CARD_ROOT = mFile.toString();
 		SD_CARD_ROOT = mFile.toString()+"/"+initPath;
-		final List<String> tFileList = new ArrayList<String>();
 		final Resources resources = context.getResources();
 		// array of valid image file extensions
 		final String[] imageTypes = resources.getStringArray(br.edu.help.lovingyou.R.array.images);
-		final FilenameFilter[] filter = new FilenameFilter[imageTypes.length];
-
-		int i = 0;
-		for (final String type : imageTypes) {
-			filter[i] = new FilenameFilter() {
-				public boolean accept(final File dir, final String name) {
-					return name.endsWith("." + type);
-				}
-			};
-			i++;
-		}
+		return new AlbumScanner(new File(SD_CARD_ROOT), imageTypes, new File(
+				context.getFilesDir(), "album-" + initPath + ".idx"));
+	}
 
-		final File[] allMatchingFiles = Utils.listFilesAsArray(
-				new File(SD_CARD_ROOT), filter, -1);
-		for (final File f : allMatchingFiles) {
-			tFileList.add(f.getAbsolutePath());
-		}
-		return tFileList;
+	/**
+	 * Find files.
+	 *
+	 * @param context the context
+	 * @return the list
+	 */
+	public static List<String> findFiles(final Context context, final String initPath) {
+		return createScanner(context, initPath).scan();
 	}
 	
 	private static Bitmap decodeFile(File f){
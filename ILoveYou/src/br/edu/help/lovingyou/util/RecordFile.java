@@ -0,0 +1,258 @@
+package br.edu.help.lovingyou.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary file of string records. The file starts with a magic, a
+ * version and the record count, followed by a table with the offset of each
+ * record, and the records themselves as length prefixed UTF-8. The file is
+ * read through a memory mapping, so any record can be read without reading
+ * the ones before it.
+ *
+ * @author hildon.lima
+ */
+public final class RecordFile {
+
+	/**
+	 * Identifies the record files.
+	 */
+	private static final int MAGIC = 0x4C595246;
+
+	/**
+	 * Version of the file layout.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Magic, version and record count.
+	 */
+	private static final int HEADER_SIZE = 3 * 4;
+
+	/**
+	 * Encoding of the records.
+	 */
+	private static final String CHARSET = "UTF-8";
+
+	/**
+	 * Retains the mapped file.
+	 */
+	private final ByteBuffer mBuffer;
+
+	/**
+	 * Retains the number of records.
+	 */
+	private final int mCount;
+
+	/**
+	 * Private constructor.
+	 *
+	 * @param buffer
+	 * @param count
+	 */
+	private RecordFile(final ByteBuffer buffer, final int count) {
+		mBuffer = buffer;
+		mCount = count;
+	}
+
+	/**
+	 * Writes the records. The file is written aside and renamed, so a
+	 * reader never sees it half written.
+	 *
+	 * @param file
+	 * @param records
+	 * @throws IOException
+	 */
+	public static void write(final File file, final List<String> records)
+			throws IOException {
+		final int count = records.size();
+		final byte[][] bytes = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			bytes[i] = records.get(i).getBytes(CHARSET);
+		}
+
+		final File temp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+
+			int offset = HEADER_SIZE + count * 4;
+			for (int i = 0; i < count; i++) {
+				out.writeInt(offset);
+				offset += 4 + bytes[i].length;
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeInt(bytes[i].length);
+				out.write(bytes[i]);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to rename " + temp);
+		}
+	}
+
+	/**
+	 * Opens the file, mapping it read only. The record count and the offset
+	 * table are checked against the file size.
+	 *
+	 * @param file
+	 * @return {@link RecordFile}
+	 * @throws IOException
+	 *             if the file can't be read, is not a record file or is
+	 *             corrupted.
+	 */
+	public static RecordFile open(final File file) throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a record file: " + file);
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported version of " + file);
+			}
+			final int count = buffer.getInt(8);
+			if (count < 0 || HEADER_SIZE + (long) count * 4 > buffer.limit()) {
+				throw new IOException("Corrupted " + file);
+			}
+
+			// Records follow the table in order, each with its length.
+			int previous = HEADER_SIZE + count * 4;
+			for (int i = 0; i < count; i++) {
+				final int offset = buffer.getInt(HEADER_SIZE + i * 4);
+				if (offset < previous || offset > buffer.limit() - 4) {
+					throw new IOException("Corrupted offset of record " + i
+							+ " in " + file);
+				}
+				previous = offset + 4;
+			}
+			return new RecordFile(buffer, count);
+		} finally {
+			// The mapping stays valid once the file is closed.
+			close(raf);
+		}
+	}
+
+	/**
+	 * Returns the number of records.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return mCount;
+	}
+
+	/**
+	 * Reads the record, without reading the others.
+	 *
+	 * @param index
+	 * @return the record
+	 * @throws IOException
+	 *             if the record runs past the end of the file.
+	 */
+	public String get(final int index) throws IOException {
+		if (index < 0 || index >= mCount) {
+			throw new IndexOutOfBoundsException("Record " + index + " of "
+					+ mCount);
+		}
+		final int offset = mBuffer.getInt(HEADER_SIZE + index * 4);
+		final int length = mBuffer.getInt(offset);
+		checkLength(index, length, mBuffer.limit() - offset - 4);
+		return decode(offset + 4, length, new byte[length]);
+	}
+
+	/**
+	 * Reads every record.
+	 *
+	 * @return the records, in file order.
+	 * @throws IOException
+	 *             if a record runs past the end of the file.
+	 */
+	public List<String> readAll() throws IOException {
+		final List<String> records = new ArrayList<String>(mCount);
+		final ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(HEADER_SIZE + mCount * 4);
+
+		byte[] scratch = new byte[256];
+		for (int i = 0; i < mCount; i++) {
+			if (buffer.remaining() < 4) {
+				throw new IOException("Corrupted record " + i);
+			}
+			final int length = buffer.getInt();
+			checkLength(i, length, buffer.remaining());
+			if (length > scratch.length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			buffer.get(scratch, 0, length);
+			records.add(toString(scratch, length));
+		}
+		return records;
+	}
+
+	/**
+	 * Fails unless the length of the record fits in the bytes left.
+	 */
+	private static void checkLength(final int index, final int length,
+			final int remaining) throws IOException {
+		if (length < 0 || length > remaining) {
+			throw new IOException("Corrupted length of record " + index);
+		}
+	}
+
+	/**
+	 * Decodes the bytes at the offset of the mapping.
+	 */
+	private String decode(final int offset, final int length,
+			final byte[] scratch) {
+		final ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(offset);
+		buffer.get(scratch, 0, length);
+		return toString(scratch, length);
+	}
+
+	/**
+	 * Decodes UTF-8 bytes.
+	 */
+	private static String toString(final byte[] bytes, final int length) {
+		try {
+			return new String(bytes, 0, length, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Closes the file quietly.
+	 */
+	private static void close(final RandomAccessFile raf) {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+		}
+	}
+}
@@ -2,19 +2,12 @@ package br.edu.help.lovingyou.util;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Collection;
 import java.util.List;
-import java.util.Vector;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import android.content.Context;
-import android.util.Log;
 import br.edu.help.lovingyou.R;
 
 /**
@@ -34,26 +27,37 @@ public class Utils {
 	 */
 	public static void saveArray(String filename, List<String> output_field) {
 		try {
-			FileOutputStream fos = new FileOutputStream(filename);
-			GZIPOutputStream gzos = new GZIPOutputStream(fos);
-			ObjectOutputStream out = new ObjectOutputStream(gzos);
-			out.writeObject(output_field);
-			out.flush();
-			out.close();
+			RecordFile.write(new File(filename), output_field);
 		} catch (IOException e) {
 			e.getStackTrace();
 		}
 	}
 
 	/**
-	 * Load array.
+	 * Load array. Files saved by older versions, serialized and gzipped,
+	 * are still read.
 	 * 
 	 * @param filename
 	 *            the filename
 	 * @return the list
 	 */
-	@SuppressWarnings("unchecked")
 	public static List<String> loadArray(String filename) {
+		try {
+			return RecordFile.open(new File(filename)).readAll();
+		} catch (IOException e) {
+			return loadSerializedArray(filename);
+		}
+	}
+
+	/**
+	 * Load array saved with java serialization and GZIP.
+	 * 
+	 * @param filename
+	 *            the filename
+	 * @return the list
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<String> loadSerializedArray(String filename) {
 		try {
 			FileInputStream fis = new FileInputStream(filename);
 			GZIPInputStream gzis = new GZIPInputStream(fis);
@@ -67,62 +71,6 @@ public class Utils {
 		return null;
 	}
 
-	/**
-	 * List files as array.
-	 * 
-	 * @param directory
-	 *            the directory
-	 * @param filter
-	 *            the filter
-	 * @param recurse
-	 *            the recurse
-	 * @return the file[]
-	 */
-	public static File[] listFilesAsArray(File directory,
-			FilenameFilter[] filter, int recurse) {
-		Collection<File> files = listFiles(directory, filter, recurse);
-
-		File[] arr = new File[files.size()];
-		return files.toArray(arr);
-	}
-
-	/**
-	 * List files.
-	 * 
-	 * @param directory
-	 *            the directory
-	 * @param filter
-	 *            the filter
-	 * @param recurse
-	 *            the recurse
-	 * @return the collection
-	 */
-	public static Collection<File> listFiles(File directory,
-			FilenameFilter[] filter, int recurse) {
-
-		Vector<File> files = new Vector<File>();
-
-		File[] entries = directory.listFiles();
-
-		if (entries != null) {
-			for (File entry : entries) {
-				for (FilenameFilter filefilter : filter) {
-					if (filter == null
-							|| filefilter.accept(directory, entry.getName())) {
-						files.add(entry);
-						Log.v("ImageViewFlipper", "Added: " + entry.getName());
-					}
-				}
-				if ((recurse <= -1) || (recurse > 0 && entry.isDirectory())) {
-					recurse--;
-					files.addAll(listFiles(entry, filter, recurse));
-					recurse++;
-				}
-			}
-		}
-		return files;
-	}
-
 	/**
 	 * Checks if is large screen
 	 * 
@@ -1,19 +1,14 @@
 package br.edu.help.lovingyou.view.fragment;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import android.annotation.SuppressLint;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.util.SparseArray;
@@ -24,8 +19,15 @@ import br.edu.help.lovingyou.R;
 import br.edu.help.lovingyou.app.view.adapters.PgProvider;
 import br.edu.help.lovingyou.app.view.adapters.SizeChangeObserver;
 import br.edu.help.lovingyou.app.view.component.CurlUtil;
+import br.edu.help.lovingyou.app.view.component.DecodePlanner;
+import br.edu.help.lovingyou.app.view.component.PageComposer;
+import br.edu.help.lovingyou.app.view.component.StartupTimings;
+import br.edu.help.lovingyou.app.view.component.cache.BitmapPool;
+import br.edu.help.lovingyou.app.view.component.cache.PageBitmapCache;
+import br.edu.help.lovingyou.app.view.component.cache.TextureDiskCache;
 import br.edu.help.lovingyou.app.view.component.curl.CurlPage;
 import br.edu.help.lovingyou.app.view.component.curl.CurlView;
+import br.edu.help.lovingyou.util.AlbumScanner;
 import br.edu.help.lovingyou.util.FileUtils;
 import br.edu.help.lovingyou.view.HomeFragmentView;
 
@@ -46,6 +48,9 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 	private SizeChangeObserver sizeChangeObserver;
 	
 	private PageProvider provider;
+
+	/** Streams the album files to the provider. */
+	private AlbumScanner scanner;
 	
 	/**
 	 * New instance.
@@ -71,15 +76,40 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		final int index = 0;
 		sizeChangeObserver = new SizeChangeObserver();
 		
-		provider = new PageProvider(FileUtils.findFiles(getActivity(), "Anne_Hildon"));
+		provider = new PageProvider(PageBitmapCache.getInstance(getActivity()),
+				TextureDiskCache.getInstance(getActivity()));
 		curlView.setPageProvider(provider);
 		curlView.setSizeChangedObserver(new SizeChangedObserver());
 		curlView.setCurrentIndex(index);
 		curlView.setBackgroundColor(Color.TRANSPARENT);
 		curlView.setAllowLastPageCurl(false);
+
+		// The first page shows up as soon as it is found, the rest of the
+		// album keeps coming while the user reads.
+		scanner = FileUtils.createScanner(getActivity(), "Anne_Hildon");
+		scanner.start(new AlbumScanner.Listener() {
+			@Override
+			public void onFilesFound(final List<String> files) {
+				provider.addFiles(files);
+				curlView.requestRender();
+			}
+
+			@Override
+			public void onScanComplete(final int count) {
+				StartupTimings.getInstance().reach(
+						StartupTimings.ALBUM_INDEXED);
+			}
+		});
 		
 		return mainView;
 	}
+
+	/** {@inheritDoc} **/
+	@Override
+	public void onDestroyView() {
+		scanner.cancel();
+		super.onDestroyView();
+	}
 	
 	/**
 	 * Bitmap provider.
@@ -101,7 +131,8 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		SparseArray<Integer> pageMap = new SparseArray<Integer>();
 
 		/**
-		 * Map that retains {@link RectF}
+		 * Map that retains {@link RectF}. Written by the loader thread and read
+		 * by the GL thread, so it is only used synchronized on itself.
 		 */
 		SparseArray<RectF> rectMap = new SparseArray<RectF>();
 
@@ -110,16 +141,6 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		 */
 		private static final int PERCENT = 100;
 
-		/**
-		 * Constant that retains the value 255.
-		 */
-		private static final int ALPHA = 255;
-
-		/**
-		 * Constant that retains the value 10.
-		 */
-		private static final int DECIMAL = 10;
-
 		/**
 		 * Constant that retains the value 11.
 		 */
@@ -177,30 +198,58 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		 */
 		private Rect rect;
 		
-		private List<String> fileList = new ArrayList<String>();
+		/**
+		 * Retains the album files. Written by the scan, read by the loader
+		 * thread.
+		 */
+		private final List<String> fileList = new CopyOnWriteArrayList<String>();
+
+		/**
+		 * Cache of the decoded photos.
+		 */
+		private final PageBitmapCache bitmapCache;
+
+		/**
+		 * Cache of the final page textures.
+		 */
+		private final TextureDiskCache textureCache;
 		
-		public PageProvider(final List<String> list) {
-			this.fileList = list;
+		public PageProvider(final PageBitmapCache bitmapCache,
+				final TextureDiskCache textureCache) {
+			this.bitmapCache = bitmapCache;
+			this.textureCache = textureCache;
 		}
 		
 		@Override
 		public int getPageCount() {
 			return fileList.size();
 		}
+
+		/**
+		 * Appends the files found by the album scan.
+		 * 
+		 * @param files
+		 */
+		public void addFiles(final List<String> files) {
+			fileList.addAll(files);
+			textureCache.setAlbumSize(fileList.size());
+		}
 		
 		/**
 		 * Sets the right Page border
 		 * 
 		 * @param width
 		 * @param height
-		 * @param bitmap
+		 * @param photoWidth
+		 * @param photoHeight
 		 * @return
 		 */
-		public int setBorder(int width, int height, Bitmap bitmap) {
+		public int setBorder(int width, int height, int photoWidth,
+				int photoHeight) {
 			if (margin != -1)
 				return margin;
-			int percentHeight = bitmap.getHeight() * PERCENT / height;
-			int percentWidth = bitmap.getWidth() * PERCENT / width;
+			int percentHeight = photoHeight * PERCENT / height;
+			int percentWidth = photoWidth * PERCENT / width;
 			int dif = percentHeight - percentWidth;
 			if (dif < 25 && dif > -4) {
 				isWidth = true;
@@ -209,8 +258,8 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 			} else if (percentHeight > percentWidth) {
 				isWidth = true;
 				int percentOpposite = PERCENT - percentHeight;
-				int defaultPercent = bitmap.getWidth() * percentOpposite / 100;
-				int increased = bitmap.getWidth() + defaultPercent;
+				int defaultPercent = photoWidth * percentOpposite / 100;
+				int increased = photoWidth + defaultPercent;
 				int diference = width - increased;
 				margin = (int) (diference / 6);
 
@@ -221,9 +270,9 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 			} else if (percentHeight < percentWidth) {
 				isWidth = false;
 				int percentOpposite = PERCENT - percentWidth;
-				int defaultPercent = bitmap.getHeight() * percentOpposite
+				int defaultPercent = photoHeight * percentOpposite
 						/ PERCENT;
-				int increased = bitmap.getHeight() + defaultPercent;
+				int increased = photoHeight + defaultPercent;
 				int diference = height - increased;
 				margin = (int) (diference / 6) - 10;
 				if ((increased >= height) || dif > -6) {
@@ -237,108 +286,112 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		}
 		
 		/**
-		 * Sets the rectangle.
+		 * Sets the rectangle of the photos, once for the album.
+		 * 
+		 * @param width
+		 * @param height
+		 * @param index
+		 *            the page loaded
+		 */
+		public synchronized void setRects(int width, int height, int index) {
+			if (rect == null)
+				rect = getRects(width, height, index);
+		}
+
+		/**
+		 * Returns the rectangle of the photos, laid out from the image bounds
+		 * of the first page so it doesn't depend on the page loaded first.
+		 * Until a page sets it, it is laid out anew, a thumbnail doesn't set
+		 * it.
 		 * 
 		 * @param width
 		 * @param height
-		 * @param draw
+		 * @param index
+		 *            the page loaded, its bounds stand in if the first page
+		 *            can't be read
+		 * @return
 		 */
-		public void setRects(int width, int height, Drawable draw) {
+		public synchronized Rect getRects(int width, int height, int index) {
 			if (rect != null)
-				return;
+				return rect;
+
+			DecodePlanner.Plan plan = DecodePlanner.plan(getPageFile(0), width,
+					height);
+			if (plan == null)
+				plan = DecodePlanner.plan(getPageFile(index), width, height);
+			final int photoWidth = plan != null ? plan.sourceWidth : width;
+			final int photoHeight = plan != null ? plan.sourceHeight : height;
 
 			int border = 0;
-			int marginSet = setBorder(width, height,
-					((BitmapDrawable) draw).getBitmap());
-			rect = new Rect(marginleft, marginup, width - marginrigth, height
-					- margindown);
-
-			int imageWidth = rect.width() - (border * 2);
-			int imageHeight = imageWidth * draw.getIntrinsicHeight()
-					/ draw.getIntrinsicWidth();
-			if (imageHeight > rect.height() - (border * 2)) {
-				imageHeight = rect.height() - (border * 2);
-				imageWidth = imageHeight * draw.getIntrinsicWidth()
-						/ draw.getIntrinsicHeight();
+			int marginSet = setBorder(width, height, photoWidth, photoHeight);
+			final Rect layout = new Rect(marginleft, marginup, width
+					- marginrigth, height - margindown);
+
+			int imageWidth = layout.width() - (border * 2);
+			int imageHeight = imageWidth * photoHeight / photoWidth;
+			if (imageHeight > layout.height() - (border * 2)) {
+				imageHeight = layout.height() - (border * 2);
+				imageWidth = imageHeight * photoWidth / photoHeight;
 			}
 
 			int intHeight = curlView.getPageHeight();
 			if (isWidth) {
-				rect.left += ((rect.width() - imageWidth) / 2) - border
+				layout.left += ((layout.width() - imageWidth) / 2) - border
 						+ (marginSet / 2);
-				rect.right = rect.left + imageWidth + border + border
+				layout.right = layout.left + imageWidth + border + border
 						- marginSet;
-				rect.top = (int) getResources().getDimension(
+				layout.top = (int) getResources().getDimension(
 						R.dimen.margin_curlview);
-				rect.bottom = intHeight - rect.top;
+				layout.bottom = intHeight - layout.top;
 			} else {
-				rect.left += ((rect.width() - imageWidth) / 2) - border;
-				rect.right = rect.left + imageWidth + border + border;
-				rect.top = (int) getResources().getDimension(
+				layout.left += ((layout.width() - imageWidth) / 2) - border;
+				layout.right = layout.left + imageWidth + border + border;
+				layout.top = (int) getResources().getDimension(
 						R.dimen.margin_curlview)
 						+ marginSet;
-				rect.bottom = intHeight - rect.top;
+				layout.bottom = intHeight - layout.top;
 			}
 
-			rect.left += border;
-			rect.right -= border;
-			rect.top += border;
-			rect.bottom -= border;
+			layout.left += border;
+			layout.right -= border;
+			layout.top += border;
+			layout.bottom -= border;
+			return layout;
 		}
 
 		/**
-		 * Loads the selected bitmap
+		 * Returns the image file of the page.
 		 * 
-		 * @param width
-		 * @param height
 		 * @param index
-		 * @param isBackPage
 		 * @return
 		 */
-		private Bitmap loadBitmap(final int width, final int height,
-				final int index, final boolean isBackPage) {
+		private String getPageFile(final int index) {
+			return fileList.get(index >= fileList.size() ? fileList.size() - 1
+					: index);
+		}
 
-			Bitmap bitmap = Bitmap.createBitmap(width, height,
-					Bitmap.Config.ARGB_8888);
-			bitmap.eraseColor(0xFFFFFFFF);
-			final Canvas canvas = new Canvas(bitmap);
+		/**
+		 * Loads the photo of the page, sampled for the page size.
+		 * 
+		 * @param width
+		 * @param height
+		 * @param index
+		 * @return the photo, given back with
+		 *         {@link PageBitmapCache#release(Bitmap)}, or null.
+		 */
+		private Bitmap loadPhoto(final int width, final int height,
+				final int index) {
 
 			// TODO: Em teste
-			final String filename = fileList.get(index >= fileList
-					.size() ? fileList.size() - 1 : index);
-			Drawable draw;
-
-			Bitmap bm = CurlUtil.getPageSampledBitmap(filename,
-					bitmap.getWidth(), bitmap.getHeight());
+			final String filename = getPageFile(index);
 
-			if (bm == null) {
-//				finish();
-				return null;
+			final String key = PageBitmapCache.key(filename, width, height);
+			Bitmap photo = bitmapCache.get(key);
+			if (photo == null) {
+				photo = CurlUtil.getPageSampledBitmap(filename, width, height);
+				bitmapCache.put(key, photo);
 			}
-
-//			adjustIconSizeToMagazineWidth(bm);
-
-			draw = new BitmapDrawable(getResources(), bm);
-//			draw = addIconToImage(iconBitmap, draw);
-			draw = addNumberPage(index, ((BitmapDrawable) draw).getBitmap());
-
-			setRects(width, height, draw);
-
-			if (isBackPage
-					&& curlView.getViewMode() == CurlView.SHOW_TWO_PAGES && paint != null) {
-				canvas.drawLine(width - 1, 0, width - 1, height, paint);
-			}
-
-			draw.setBounds(rect);
-			draw.draw(canvas);
-
-			if (isBackPage) {
-				final Matrix matrix = new Matrix();
-				matrix.preScale(-1, 1);
-				bitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height,
-						matrix, false);
-			}
-			return bitmap;
+			return photo;
 		}
 //		private Bitmap loadBitmap(final int width, final int height, final int index) {
 //			final Bitmap b = Bitmap.createBitmap(width, height,
@@ -405,81 +458,6 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 //			return b;
 //		}
 		
-		/**
-		 * Insert the number on the page
-		 * 
-		 * @param index
-		 * @param bitmap
-		 * @return
-		 */
-		@SuppressLint("ResourceAsColor")
-		private Drawable addNumberPage(int index, Bitmap bitmap) {
-
-			int sizeCircle = bitmap.getWidth()
-					* (int) getResources()
-							.getDimension(R.dimen.percentImageSize) / PERCENT;
-			int marginCircle = (int) getResources()
-					.getDimension(R.dimen.circleNumberMargin);
-			int marginNumber = (int) (bitmap.getWidth()
-					* (int) getResources()
-							.getDimension(R.dimen.percentNumberMargin) / PERCENT)
-					+ marginCircle;
-			int sizeNumber = bitmap.getWidth()
-					* (int) getResources()
-							.getDimension(R.dimen.percentNumberSize) / PERCENT;
-			int positionText = bitmap.getWidth()
-					* (int) getResources()
-							.getDimension(R.dimen.percentTextPosition)
-					/ PERCENT;
-
-			double eightyPercent = (double) getResources().getDimension(R.dimen.percentCirclePosition);
-			Drawable drawable = getResources()
-					.getDrawable(R.drawable.ic_drawer);
-
-//			if (gameView.isTablet()) {
-//				drawable = getApplicationContext().getResources().getDrawable(
-//						R.drawable.page_circle_tab);
-//				marginCircle = SIZECIRCLE;
-//				marginNumber = (int) (bitmap.getWidth() * 1.5 / PERCENT)
-//						+ marginCircle;
-//				sizeCircle = (int) (bitmap.getWidth() * 8 / PERCENT);
-//				sizeNumber = bitmap.getWidth() * 4 / PERCENT;
-//				eightyPercent = 88;
-//				positionText = (int) (bitmap.getWidth() * 89.8 / PERCENT);
-//			}
-
-			int number = index+1;
-			String text = number < DECIMAL ? ("0" + number) : (number + "");
-			
-			Bitmap workingBitmap = Bitmap.createBitmap(bitmap);
-			Bitmap mutableBitmap = workingBitmap.copy(Bitmap.Config.ARGB_8888, true);
-
-			Canvas canvas = new Canvas(mutableBitmap);
-			Bitmap bit = Bitmap.createScaledBitmap(
-					((BitmapDrawable) drawable).getBitmap(), sizeCircle,
-					sizeCircle, false);
-
-			Paint paint = new Paint();
-			paint.setTextSize(sizeNumber);
-			paint.setAlpha(ALPHA);
-			paint.setAntiAlias(false);
-			paint.setDither(true);
-			paint.setFilterBitmap(true);
-
-//			Typeface robotoRegular = Typeface.createFromAsset(getContext()
-//					.getAssets(), "fonts/Roboto-Bold.ttf");
-//			paint.setTypeface(robotoRegular);
-
-			canvas.drawBitmap(bit,
-					(int) (bitmap.getWidth() * eightyPercent / PERCENT),
-					marginCircle, paint);
-			paint.setColor((int) R.color.color_number);
-			canvas.drawText(text, positionText, sizeNumber + marginNumber,
-					paint);
-
-			return new BitmapDrawable(bitmap);
-		}
-
 		/**
 		 * Returns the page Texture
 		 * 
@@ -487,7 +465,9 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		 */
 		@Override
 		public RectF getRectF(int index) {
-			return rectMap.get(index);
+			synchronized (rectMap) {
+				return rectMap.get(index);
+			}
 		}
 
 		/**
@@ -499,7 +479,7 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		 */
 		public void update(final br.edu.help.lovingyou.app.view.component.CurlPage page, int index, int side) {
 			page.setTexture(side, index, this.pageMap.get(index),
-					rectMap.get(index));
+					getRectF(index));
 		}
 		
 		/**
@@ -593,27 +573,100 @@ public class HomeFragment extends Fragment implements HomeFragmentView {
 		
 		@Override
 		public Bitmap createPage(int page, int width, int height) {
-			rectMap.put(page, new RectF(0, 0, 1, 1));
+			// Published once final, the GL thread draws the page meanwhile.
+			final RectF textureRect = new RectF(0, 0, 1, 1);
+			final Bitmap texture = composePage(page, width, height, textureRect);
+			synchronized (rectMap) {
+				rectMap.put(page, textureRect);
+			}
+			return texture;
+		}
 
-			if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
-				return CurlUtil.getTexture(
-						loadBitmap(width, height, page, false),
-						rectMap.get(page),
+		/**
+		 * Loads or composes the texture of the page.
+		 * 
+		 * @param page
+		 * @param width
+		 * @param height
+		 * @param textureRect
+		 *            receives the texture coordinates of the page
+		 * @return
+		 */
+		private Bitmap composePage(int page, int width, int height,
+				RectF textureRect) {
+			final int orientation = getResources().getConfiguration().orientation;
+			final String key = TextureDiskCache.key(getPageFile(page), page,
+					width, height, orientation);
+			Bitmap texture = textureCache.get(key, textureRect);
+			if (texture != null) {
+				return texture;
+			}
+
+			boolean isBackPage = false;
+			if (orientation != Configuration.ORIENTATION_PORTRAIT
+					&& page >= 1 && page <= getPageCount() * 2 - 2) {
+				isBackPage = page % 2 == 1;
+			}
+
+			final Bitmap photo = loadPhoto(width, height, page);
+			if (photo == null) {
+				return CurlUtil.getTexture(null, textureRect,
 						getActivity().getApplicationContext(),
 						R.dimen.densityImageCurlview);
-			} else {
-				if (page >= 1 && page <= getPageCount() * 2 - 2) {
-					return CurlUtil.getTexture(
-							loadBitmap(width, height, page, page % 2 == 1),
-							rectMap.get(page), getActivity().getApplicationContext(),
-							R.dimen.densityImageCurlview);
-				} else {
-					return CurlUtil.getTexture(
-							loadBitmap(width, height, page, false), rectMap
-									.get(page),getActivity().getApplicationContext(),
-							R.dimen.densityImageCurlview);
+			}
+
+			setRects(width, height, page);
+
+			final Paint separator = isBackPage
+					&& curlView.getViewMode() == CurlView.SHOW_TWO_PAGES ? paint
+					: null;
+			texture = PageComposer.compose(photo, rect, width, height,
+					separator,
+					textureRect, getActivity().getApplicationContext(),
+					R.dimen.densityImageCurlview);
+			bitmapCache.release(photo);
+			textureCache.put(key, texture, textureRect);
+			return texture;
+		}
+
+		@Override
+		public Bitmap createThumbnail(int page, int width, int height) {
+			final int orientation = getResources().getConfiguration().orientation;
+			// A cached page loads about as fast as its thumbnail.
+			if (textureCache.contains(TextureDiskCache.key(getPageFile(page),
+					page, width, height, orientation))) {
+				return null;
+			}
+
+			final Bitmap photo = CurlUtil.getPageThumbnailBitmap(
+					getPageFile(page), width / PageComposer.THUMBNAIL_SCALE,
+					height / PageComposer.THUMBNAIL_SCALE);
+			if (photo == null) {
+				return null;
+			}
+
+			boolean isBackPage = false;
+			if (orientation != Configuration.ORIENTATION_PORTRAIT
+					&& page >= 1 && page <= getPageCount() * 2 - 2) {
+				isBackPage = page % 2 == 1;
+			}
+
+			final RectF textureRect = new RectF();
+			final Paint separator = isBackPage
+					&& curlView.getViewMode() == CurlView.SHOW_TWO_PAGES ? paint
+					: null;
+			final Bitmap texture = PageComposer.compose(photo,
+					getRects(width, height, page), width, height, separator,
+					textureRect, getActivity().getApplicationContext(),
+					R.dimen.densityImageCurlview, PageComposer.THUMBNAIL_SCALE);
+			BitmapPool.getInstance().release(photo);
+			// A page composed meanwhile keeps its own.
+			synchronized (rectMap) {
+				if (rectMap.get(page) == null) {
+					rectMap.put(page, textureRect);
 				}
 			}
+			return texture;
 		}
 
 		/** {@inheritDoc} **/